@@ -72,6 +72,9 @@ android {
     packaging.resources {
         excludes += "/META-INF/{AL2.0,LGPL2.1}"
     }
+
+    // JVM-тесты гоняют код, который пишет в android.util.Log
+    testOptions.unitTests.isReturnDefaultValues = true
 }
 
 dependencies {
@@ -102,4 +105,7 @@ dependencies {
     implementation(libs.livekit.android)
 
     debugImplementation(libs.androidx.compose.ui.tooling)
+
+    testImplementation(libs.junit)
+    testImplementation(libs.okhttp.mockwebserver)
 }
@@ -1,6 +1,8 @@
 package org.eblusha.plus
 
 import android.app.Application
+import coil.ImageLoader
+import coil.ImageLoaderFactory
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.SupervisorJob
 import org.eblusha.plus.core.di.AppContainer
@@ -8,7 +10,7 @@ import org.eblusha.plus.core.di.AppContainer
 /**
  * Базовый класс Application. Позже сюда добавим DI, логи или инициализацию сокета.
  */
-class EblushaApp : Application() {
+class EblushaApp : Application(), ImageLoaderFactory {
     private val applicationScope = CoroutineScope(SupervisorJob())
     lateinit var container: AppContainer
         private set
@@ -18,4 +20,10 @@ class EblushaApp : Application() {
         // Здесь будет bootstrap (логирование, подключение к LiveKit и т.д.)
         container = AppContainer(this)
     }
+
+    // Coil качает аватарки через общий пул соединений, а не через свой клиент
+    override fun newImageLoader(): ImageLoader =
+        ImageLoader.Builder(this)
+            .okHttpClient { container.httpStack.client }
+            .build()
 }
@@ -370,12 +370,15 @@ private fun MessengerNavHost(
                         callerName = event.fromName,
                         isVideo = event.video
                     )
+                    // Токен и соединение с LiveKit готовим параллельно со звонком
+                    container.callPrewarmer.prewarm(event.conversationId, user)
                     incomingCall = IncomingCallUi(event, avatarUrl = null)
                 }
                 is RealtimeEvent.CallStatus -> {
                     // Stop service when call ends
                     if (event.conversationId == incomingCall?.event?.conversationId && !event.active) {
                         IncomingCallService.stop(context)
+                        container.callPrewarmer.cancel(event.conversationId)
                         incomingCall = null
                     }
                 }
@@ -398,6 +401,7 @@ private fun MessengerNavHost(
                     // Stop service if this is our incoming call
                     if (event.conversationId == incomingCall?.event?.conversationId) {
                         IncomingCallService.stop(context)
+                        container.callPrewarmer.cancel(event.conversationId)
                         incomingCall = null
                     }
                 }
@@ -406,6 +410,7 @@ private fun MessengerNavHost(
                     // Stop service if this is our incoming call
                     if (event.conversationId == incomingCall?.event?.conversationId) {
                         IncomingCallService.stop(context)
+                        container.callPrewarmer.cancel(event.conversationId)
                         incomingCall = null
                     }
                 }
@@ -436,6 +441,7 @@ private fun MessengerNavHost(
                 val conversationId = intent.getStringExtra("conversation_id") ?: return@LaunchedEffect
                 val callerName = intent.getStringExtra("caller_name") ?: "Входящий звонок"
                 val isVideo = intent.getBooleanExtra("is_video", false)
+                container.callPrewarmer.prewarm(conversationId, user)
                 incomingCall = IncomingCallUi(
                     event = RealtimeEvent.CallIncoming(conversationId, "", callerName, isVideo),
                     avatarUrl = null
@@ -612,6 +618,7 @@ private fun MessengerNavHost(
             onDecline = {
                 IncomingCallService.stop(context)
                 container.realtimeService.declineCall(call.conversationId)
+                container.callPrewarmer.cancel(call.conversationId)
                 incomingCall = null
             },
             onDismiss = {
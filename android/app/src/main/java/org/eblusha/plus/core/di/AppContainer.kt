@@ -1,6 +1,9 @@
 package org.eblusha.plus.core.di
 
 import android.content.Context
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
 import org.eblusha.plus.core.config.AppConfig
 import org.eblusha.plus.data.api.auth.AuthApi
 import org.eblusha.plus.data.api.conversations.ConversationsApi
@@ -8,10 +11,15 @@ import org.eblusha.plus.data.api.livekit.LiveKitApi
 import org.eblusha.plus.data.api.messages.MessagesApi
 import org.eblusha.plus.data.api.status.StatusApi
 import org.eblusha.plus.data.livekit.LiveKitRepository
+import org.eblusha.plus.data.messages.MessageRepository
+import org.eblusha.plus.data.messages.MessageStore
+import org.eblusha.plus.data.network.HttpStack
 import org.eblusha.plus.data.network.NetworkModule
 import org.eblusha.plus.data.realtime.RealtimeService
 import org.eblusha.plus.data.session.InMemoryAccessTokenProvider
 import org.eblusha.plus.data.session.SessionStore
+import org.eblusha.plus.data.session.TokenLifecycleManager
+import org.eblusha.plus.feature.call.CallPrewarmer
 
 /**
  * Простейший сервис-локатор. Позже его можно заменить на полноценный DI,
@@ -20,20 +28,34 @@ import org.eblusha.plus.data.session.SessionStore
 class AppContainer(context: Context) {
     val accessTokenProvider = InMemoryAccessTokenProvider()
     val sessionStore = SessionStore(context, accessTokenProvider)
+
+    // Один пул соединений/dispatcher для REST, сокета, LiveKit и картинок
+    val httpStack = HttpStack()
     
     // Create initial network module without refresh interceptor
-    private val initialNetworkModule = NetworkModule(accessTokenProvider)
+    private val initialNetworkModule = NetworkModule(httpStack.client, accessTokenProvider)
     val authApi: AuthApi = initialNetworkModule.create()
     
     // Create network module with refresh interceptor after authApi is ready
     // Note: We pass authApi from initialNetworkModule to avoid circular dependency
-    val networkModule = NetworkModule(accessTokenProvider, sessionStore, authApi)
+    val networkModule = NetworkModule(httpStack.client, accessTokenProvider, sessionStore, authApi)
     
     val statusApi: StatusApi = networkModule.create()
     val conversationsApi: ConversationsApi = networkModule.create()
     val messagesApi: MessagesApi = networkModule.create()
+    val messageStore = MessageStore(context)
+    val messageRepository = MessageRepository(messagesApi, messageStore)
     val liveKitApi: LiveKitApi = networkModule.create()
     val liveKitRepository = LiveKitRepository(liveKitApi)
-    val realtimeService = RealtimeService(AppConfig, sessionStore.accessTokenFlow)
+    // Токен и Room для входящего звонка готовятся, пока он звонит
+    val callPrewarmer = CallPrewarmer(context, liveKitRepository, httpStack.client)
+    val realtimeService = RealtimeService(AppConfig, sessionStore.accessTokenFlow, httpStack.socketClient)
+
+    // Обновление токена до истечения, а не по 401; сокет получает новый токен без переподключения
+    val tokenLifecycleManager = TokenLifecycleManager(
+        scope = CoroutineScope(SupervisorJob() + Dispatchers.Default),
+        tokenFlow = sessionStore.accessTokenFlow,
+        renew = { token -> networkModule.tokenRefreshAuthenticator?.renewIfCurrent(token) ?: false },
+    )
 }
 
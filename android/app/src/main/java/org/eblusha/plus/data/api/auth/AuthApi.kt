@@ -1,12 +1,20 @@
 package org.eblusha.plus.data.api.auth
 
 import kotlinx.serialization.Serializable
+import retrofit2.Call
 import retrofit2.http.Body
 import retrofit2.http.POST
 
 interface AuthApi {
     @POST("auth/login")
     suspend fun login(@Body payload: LoginRequest): LoginResponse
+
+    /** Синхронные варианты — для OkHttp Authenticator, который и так работает на потоке OkHttp. */
+    @POST("auth/login")
+    fun loginCall(@Body payload: LoginRequest): Call<LoginResponse>
+
+    @POST("auth/refresh")
+    fun refreshCall(@Body payload: RefreshRequest): Call<RefreshResponse>
 }
 
 @Serializable
@@ -18,9 +26,22 @@ data class LoginRequest(
 @Serializable
 data class LoginResponse(
     val accessToken: String,
+    val refreshToken: String? = null,
     val user: LoginUser,
 )
 
+@Serializable
+data class RefreshRequest(
+    val refreshToken: String,
+)
+
+@Serializable
+data class RefreshResponse(
+    val accessToken: String,
+    val refreshToken: String? = null,
+    val expiresAt: String? = null,
+)
+
 @Serializable
 data class LoginUser(
     val id: String,
@@ -7,10 +7,18 @@ import retrofit2.http.Body
 import retrofit2.http.GET
 import retrofit2.http.POST
 import retrofit2.http.Path
+import retrofit2.http.Query
 
 interface MessagesApi {
     @GET("conversations/{conversationId}/messages")
-    suspend fun getMessages(@Path("conversationId") conversationId: String): MessagesResponse
+    suspend fun getMessages(
+        @Path("conversationId") conversationId: String,
+        @Query("limit") limit: Int? = null,
+        @Query("cursor") cursor: String? = null,
+    ): MessagesResponse
+
+    @GET("messages/{messageId}")
+    suspend fun getMessage(@Path("messageId") messageId: String): MessageEnvelope
 
     @POST("conversations/send")
     suspend fun sendMessage(@Body body: SendMessageRequest): MessageEnvelope
@@ -19,6 +27,8 @@ interface MessagesApi {
 @Serializable
 data class MessagesResponse(
     val messages: List<MessageDto> = emptyList(),
+    val hasMore: Boolean = false,
+    val nextCursor: String? = null,
 )
 
 @Serializable
@@ -35,7 +45,10 @@ data class MessageDto(
     val sender: Sender? = null,
     val senderId: String? = null,
     val createdAt: String? = null,
-    val metadata: Map<String, JsonElement>? = null
+    val metadata: Map<String, JsonElement>? = null,
+    val deletedAt: String? = null,
+    /** Срок жизни исчезающего сообщения: после него сервер сообщение больше не отдаёт. */
+    val expiresAt: String? = null,
 )
 
 @Serializable
@@ -0,0 +1,119 @@
+package org.eblusha.plus.data.messages
+
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import org.eblusha.plus.data.api.messages.MessageDto
+import org.eblusha.plus.data.api.messages.MessagesApi
+
+/** Страница таймлайна, от новых к старым. */
+data class MessagePage(
+    val messages: List<MessageDto>,
+    val hasMore: Boolean,
+)
+
+/**
+ * Сообщения: сначала диск, потом сеть. UI читает из [MessageStore],
+ * а сеть только дописывает в него свежие данные.
+ */
+class MessageRepository(
+    private val api: MessagesApi,
+    private val store: MessageStore,
+) {
+    suspend fun cached(conversationId: String, limit: Int = PAGE_SIZE): List<MessageDto> =
+        withContext(Dispatchers.IO) {
+            store.pruneExpired()
+            store.latest(conversationId, limit)
+        }
+
+    /**
+     * Подтягивает последнюю страницу с сервера и сохраняет её на диск. Заодно стирает
+     * локальные сообщения её диапазона, которых на сервере больше нет (удалены или истекли,
+     * пока клиент был офлайн: журнал сервера такие изменения не досылает).
+     */
+    suspend fun sync(conversationId: String, limit: Int = PAGE_SIZE): MessagePage {
+        val response = api.getMessages(conversationId, limit = limit)
+        val visible = response.messages.filter { it.deletedAt == null }
+        withContext(Dispatchers.IO) { store.replaceRange(conversationId, response.messages, newerBound = null) }
+        return MessagePage(visible, response.hasMore)
+    }
+
+    /**
+     * Страница истории старше [before]. Идём в сеть по курсору сервера
+     * (`createdAt|id`), т.к. на диске между сессиями могут быть дыры;
+     * без сети отдаём то, что есть локально.
+     */
+    suspend fun older(conversationId: String, before: MessageDto, limit: Int = PAGE_SIZE): MessagePage {
+        val createdAt = before.createdAt
+        if (createdAt != null) {
+            try {
+                val response = api.getMessages(conversationId, limit = limit, cursor = "$createdAt|${before.id}")
+                withContext(Dispatchers.IO) { store.replaceRange(conversationId, response.messages, newerBound = before) }
+                return MessagePage(response.messages.filter { it.deletedAt == null }, response.hasMore)
+            } catch (e: Throwable) {
+                android.util.Log.w("MessageRepository", "Failed to load older page, using local history", e)
+            }
+        }
+        val local = withContext(Dispatchers.IO) { store.olderThan(conversationId, before, limit) }
+        return MessagePage(local, hasMore = local.size == limit)
+    }
+
+    /**
+     * Страница новее [after] — только с диска: всё, что вытеснено из окна
+     * в памяти, уже было сохранено при загрузке.
+     */
+    suspend fun newer(conversationId: String, after: MessageDto, limit: Int = PAGE_SIZE): MessagePage {
+        val local = withContext(Dispatchers.IO) { store.newerThan(conversationId, after, limit) }
+        return MessagePage(local, hasMore = local.size == limit)
+    }
+
+    /**
+     * Обработка message:new: одно сообщение по id (O(1) по трафику).
+     * Если сообщение уже есть на диске — сети не касаемся; если сервер
+     * не отдал его (старая версия API) — дотягиваем небольшой хвост.
+     * Если сервер вложил в событие полное сообщение ([embedded], с отправителем) —
+     * сеть не нужна вовсе; «голую» запись без include'ов всё равно дотягиваем по id.
+     */
+    suspend fun onMessageNew(conversationId: String, messageId: String, embedded: MessageDto? = null): MessageDto? {
+        if (embedded != null && embedded.id == messageId && embedded.sender != null) {
+            save(conversationId, embedded)
+            return embedded
+        }
+        withContext(Dispatchers.IO) { store.get(messageId) }?.let { return it }
+        return try {
+            val message = api.getMessage(messageId).message
+            save(conversationId, message)
+            message.takeIf { it.deletedAt == null }
+        } catch (e: Throwable) {
+            android.util.Log.w("MessageRepository", "Fetch by id failed for $messageId, syncing tail", e)
+            sync(conversationId, limit = DELTA_SIZE).messages.firstOrNull { it.id == messageId }
+        }
+    }
+
+    /**
+     * Обработка message:update: удалённое убираем с диска, изменённое перечитываем по id.
+     * @return актуальное сообщение или null, если его больше нет.
+     */
+    suspend fun onMessageUpdated(conversationId: String, messageId: String, reason: String): MessageDto? {
+        if (reason == REASON_DELETED) {
+            withContext(Dispatchers.IO) { store.delete(messageId) }
+            return null
+        }
+        val message = api.getMessage(messageId).message
+        save(conversationId, message)
+        return message.takeIf { it.deletedAt == null }
+    }
+
+    suspend fun save(conversationId: String, message: MessageDto) {
+        withContext(Dispatchers.IO) { store.upsert(conversationId, listOf(message)) }
+    }
+
+    suspend fun clear() {
+        withContext(Dispatchers.IO) { store.clear() }
+    }
+
+    companion object {
+        const val PAGE_SIZE = 30
+        const val DELTA_SIZE = 20
+        const val REASON_DELETED = "deleted"
+    }
+}
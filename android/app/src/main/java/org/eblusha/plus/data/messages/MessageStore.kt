@@ -0,0 +1,200 @@
+package org.eblusha.plus.data.messages
+
+import android.content.ContentValues
+import android.content.Context
+import android.database.sqlite.SQLiteDatabase
+import android.database.sqlite.SQLiteOpenHelper
+import java.time.Instant
+import kotlinx.serialization.decodeFromString
+import kotlinx.serialization.encodeToString
+import kotlinx.serialization.json.Json
+import org.eblusha.plus.data.api.messages.MessageDto
+
+/**
+ * Локальное хранилище сообщений (SQLite). Хранит сообщения как JSON рядом с
+ * ключами сортировки, чтобы чат открывался с диска без похода в сеть.
+ * Порядок совпадает с сервером: createdAt desc, затем id desc.
+ *
+ * Удалённые на сервере сообщения сюда не попадают, а истёкшие не отдаются запросами;
+ * то, что исчезло с сервера, пока клиент был офлайн, вычищает [replaceRange] при синхронизации.
+ */
+class MessageStore(context: Context) :
+    SQLiteOpenHelper(context.applicationContext, DB_NAME, null, DB_VERSION) {
+
+    private val json = Json {
+        ignoreUnknownKeys = true
+        coerceInputValues = true
+        encodeDefaults = false
+    }
+
+    override fun onCreate(db: SQLiteDatabase) {
+        db.execSQL(
+            """
+            CREATE TABLE $TABLE (
+                $COL_ID TEXT PRIMARY KEY NOT NULL,
+                $COL_CONVERSATION TEXT NOT NULL,
+                $COL_CREATED_AT TEXT NOT NULL,
+                $COL_EXPIRES_AT INTEGER,
+                $COL_PAYLOAD TEXT NOT NULL
+            )
+            """.trimIndent()
+        )
+        db.execSQL(
+            "CREATE INDEX idx_messages_timeline ON $TABLE ($COL_CONVERSATION, $COL_CREATED_AT DESC, $COL_ID DESC)"
+        )
+    }
+
+    override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+        // Это кэш: при смене схемы проще пересоздать, сервер остаётся источником истины
+        db.execSQL("DROP TABLE IF EXISTS $TABLE")
+        onCreate(db)
+    }
+
+    /** Последние [limit] сообщений беседы, от новых к старым. */
+    fun latest(conversationId: String, limit: Int): List<MessageDto> =
+        query(
+            selection = "$COL_CONVERSATION = ?",
+            args = arrayOf(conversationId),
+            limit = limit,
+        )
+
+    /** Сообщения старше [before] (для подгрузки истории без сети), от новых к старым. */
+    fun olderThan(conversationId: String, before: MessageDto, limit: Int): List<MessageDto> {
+        val createdAt = before.createdAt.orEmpty()
+        return query(
+            selection = "$COL_CONVERSATION = ? AND ($COL_CREATED_AT < ? OR ($COL_CREATED_AT = ? AND $COL_ID < ?))",
+            args = arrayOf(conversationId, createdAt, createdAt, before.id),
+            limit = limit,
+        )
+    }
+
+    /** Сообщения новее [after], ближайшие к нему; результат от новых к старым. */
+    fun newerThan(conversationId: String, after: MessageDto, limit: Int): List<MessageDto> {
+        val createdAt = after.createdAt.orEmpty()
+        return query(
+            selection = "$COL_CONVERSATION = ? AND ($COL_CREATED_AT > ? OR ($COL_CREATED_AT = ? AND $COL_ID > ?))",
+            args = arrayOf(conversationId, createdAt, createdAt, after.id),
+            limit = limit,
+            orderBy = "$COL_CREATED_AT ASC, $COL_ID ASC",
+        ).asReversed()
+    }
+
+    fun upsert(conversationId: String, messages: List<MessageDto>) {
+        if (messages.isEmpty()) return
+        val db = writableDatabase
+        db.beginTransaction()
+        try {
+            write(db, conversationId, messages)
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /**
+     * Страница с сервера — полная правда о своём диапазоне: от самого старого сообщения
+     * страницы до [newerBound] (не включая его; null — до конца таймлайна). Всё локальное
+     * в этом диапазоне, чего нет на странице, удалено или истекло на сервере и стирается.
+     * Пустая страница означает, что ниже границы на сервере ничего не осталось.
+     */
+    fun replaceRange(conversationId: String, messages: List<MessageDto>, newerBound: MessageDto?) {
+        val db = writableDatabase
+        db.beginTransaction()
+        try {
+            val oldest = messages.lastOrNull()
+            val selection = StringBuilder("$COL_CONVERSATION = ?")
+            val args = arrayListOf(conversationId)
+            if (oldest != null) {
+                val createdAt = oldest.createdAt.orEmpty()
+                selection.append(" AND ($COL_CREATED_AT > ? OR ($COL_CREATED_AT = ? AND $COL_ID >= ?))")
+                args += listOf(createdAt, createdAt, oldest.id)
+            }
+            if (newerBound != null) {
+                val createdAt = newerBound.createdAt.orEmpty()
+                selection.append(" AND ($COL_CREATED_AT < ? OR ($COL_CREATED_AT = ? AND $COL_ID < ?))")
+                args += listOf(createdAt, createdAt, newerBound.id)
+            }
+            db.delete(TABLE, selection.toString(), args.toTypedArray())
+            write(db, conversationId, messages)
+            db.setTransactionSuccessful()
+        } finally {
+            db.endTransaction()
+        }
+    }
+
+    /** Физически убирает истёкшие сообщения; запросы их и так не отдают. */
+    fun pruneExpired(nowMs: Long = System.currentTimeMillis()) {
+        writableDatabase.delete(TABLE, "$COL_EXPIRES_AT IS NOT NULL AND $COL_EXPIRES_AT <= ?", arrayOf(nowMs.toString()))
+    }
+
+    private fun write(db: SQLiteDatabase, conversationId: String, messages: List<MessageDto>) {
+        messages.forEach { message ->
+            if (message.deletedAt != null) {
+                db.delete(TABLE, "$COL_ID = ?", arrayOf(message.id))
+                return@forEach
+            }
+            val values = ContentValues().apply {
+                put(COL_ID, message.id)
+                put(COL_CONVERSATION, message.conversationId ?: conversationId)
+                put(COL_CREATED_AT, message.createdAt.orEmpty())
+                val expiresAtMs = message.expiresAt?.let { runCatching { Instant.parse(it).toEpochMilli() }.getOrNull() }
+                if (expiresAtMs != null) put(COL_EXPIRES_AT, expiresAtMs) else putNull(COL_EXPIRES_AT)
+                put(COL_PAYLOAD, json.encodeToString(message))
+            }
+            db.insertWithOnConflict(TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE)
+        }
+    }
+
+    fun get(messageId: String): MessageDto? =
+        query(
+            selection = "$COL_ID = ?",
+            args = arrayOf(messageId),
+            limit = 1,
+        ).firstOrNull()
+
+    fun delete(messageId: String) {
+        writableDatabase.delete(TABLE, "$COL_ID = ?", arrayOf(messageId))
+    }
+
+    fun clear() {
+        writableDatabase.delete(TABLE, null, null)
+    }
+
+    private fun query(
+        selection: String,
+        args: Array<String>,
+        limit: Int,
+        orderBy: String = "$COL_CREATED_AT DESC, $COL_ID DESC",
+    ): List<MessageDto> {
+        val result = ArrayList<MessageDto>(limit.coerceAtMost(256))
+        readableDatabase.query(
+            TABLE,
+            arrayOf(COL_PAYLOAD),
+            "($selection) AND ($COL_EXPIRES_AT IS NULL OR $COL_EXPIRES_AT > ?)",
+            args + System.currentTimeMillis().toString(),
+            null,
+            null,
+            orderBy,
+            limit.toString(),
+        ).use { cursor ->
+            while (cursor.moveToNext()) {
+                val payload = cursor.getString(0)
+                runCatching { json.decodeFromString<MessageDto>(payload) }
+                    .onSuccess { result += it }
+                    .onFailure { android.util.Log.w("MessageStore", "Skipping corrupt row", it) }
+            }
+        }
+        return result
+    }
+
+    private companion object {
+        const val DB_NAME = "messages.db"
+        const val DB_VERSION = 2
+        const val TABLE = "messages"
+        const val COL_ID = "id"
+        const val COL_CONVERSATION = "conversation_id"
+        const val COL_CREATED_AT = "created_at"
+        const val COL_EXPIRES_AT = "expires_at"
+        const val COL_PAYLOAD = "payload"
+    }
+}
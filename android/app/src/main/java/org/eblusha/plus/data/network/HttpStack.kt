@@ -0,0 +1,200 @@
+package org.eblusha.plus.data.network
+
+import java.io.IOException
+import java.net.InetAddress
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import okhttp3.Call
+import okhttp3.ConnectionPool
+import okhttp3.Dispatcher
+import okhttp3.EventListener
+import okhttp3.Handshake
+import okhttp3.OkHttpClient
+import okhttp3.Protocol
+import okhttp3.Response
+import org.eblusha.plus.BuildConfig
+
+/**
+ * Один OkHttp-стек на весь процесс: REST (Retrofit), Socket.IO, сигналинг LiveKit и Coil.
+ *
+ * Раньше у каждого NetworkModule был свой клиент, socket.io-client и Coil создавали свои,
+ * и каждый заново резолвил DNS и поднимал TLS до того же хоста. Теперь все клиенты
+ * получаются из [client] через `newBuilder()` и делят один [ConnectionPool] и [Dispatcher]:
+ * запросы к API мультиплексируются в одно HTTP/2-соединение, TLS-сессии и DNS переиспользуются.
+ *
+ * [timings] собирает время по фазам каждого вызова (DNS, connect, TLS, TTFB, всего).
+ */
+class HttpStack {
+
+    val timings = HttpTimings()
+
+    val client: OkHttpClient by lazy {
+        OkHttpClient.Builder()
+            .connectionPool(ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES))
+            .dispatcher(
+                Dispatcher().apply {
+                    // REST, аватарки и сигналинг идут к одному хосту — дефолтных 5 мало
+                    maxRequests = MAX_REQUESTS
+                    maxRequestsPerHost = MAX_REQUESTS_PER_HOST
+                }
+            )
+            .protocols(listOf(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .connectTimeout(30, TimeUnit.SECONDS)
+            .readTimeout(30, TimeUnit.SECONDS)
+            .writeTimeout(30, TimeUnit.SECONDS)
+            .eventListenerFactory(timings)
+            .build()
+    }
+
+    /**
+     * Клиент для Socket.IO: тот же пул, но readTimeout больше ping interval + ping timeout
+     * сервера (25с + 20с), иначе long-polling рвётся на ожидании пинга.
+     */
+    val socketClient: OkHttpClient by lazy {
+        client.newBuilder()
+            .readTimeout(1, TimeUnit.MINUTES)
+            .build()
+    }
+
+    private companion object {
+        const val MAX_IDLE_CONNECTIONS = 8
+        const val KEEP_ALIVE_MINUTES = 5L
+        const val MAX_REQUESTS = 64
+        const val MAX_REQUESTS_PER_HOST = 16
+    }
+}
+
+/**
+ * Тайминги OkHttp по фазам. Фабрика [EventListener]: на каждый вызов свой слушатель,
+ * итоги складываются в общие счётчики ([snapshot]).
+ */
+class HttpTimings : EventListener.Factory {
+
+    data class Phase(val count: Long, val averageMs: Long, val lastMs: Long)
+
+    data class Snapshot(
+        val calls: Long,
+        val failures: Long,
+        /** Вызовы, которым не понадобилось новое соединение. */
+        val reusedConnections: Long,
+        val dns: Phase,
+        val connect: Phase,
+        val tls: Phase,
+        val ttfb: Phase,
+        val total: Phase,
+    )
+
+    private class PhaseStat {
+        private val count = AtomicLong()
+        private val totalMs = AtomicLong()
+        private val lastMs = AtomicLong()
+
+        fun record(startNs: Long) {
+            if (startNs == 0L) return
+            val elapsed = (System.nanoTime() - startNs) / 1_000_000
+            count.incrementAndGet()
+            totalMs.addAndGet(elapsed)
+            lastMs.set(elapsed)
+        }
+
+        fun snapshot(): Phase {
+            val n = count.get()
+            return Phase(n, if (n > 0) totalMs.get() / n else 0, lastMs.get())
+        }
+    }
+
+    private val calls = AtomicLong()
+    private val failures = AtomicLong()
+    private val reused = AtomicLong()
+    private val dns = PhaseStat()
+    private val connect = PhaseStat()
+    private val tls = PhaseStat()
+    private val ttfb = PhaseStat()
+    private val total = PhaseStat()
+
+    override fun create(call: Call): EventListener = CallTimer()
+
+    fun snapshot(): Snapshot = Snapshot(
+        calls = calls.get(),
+        failures = failures.get(),
+        reusedConnections = reused.get(),
+        dns = dns.snapshot(),
+        connect = connect.snapshot(),
+        tls = tls.snapshot(),
+        ttfb = ttfb.snapshot(),
+        total = total.snapshot(),
+    )
+
+    /** Слушатель одного вызова; OkHttp вызывает его последовательно. */
+    private inner class CallTimer : EventListener() {
+        private var callStart = 0L
+        private var dnsStart = 0L
+        private var connectStart = 0L
+        private var tlsStart = 0L
+        private var requestStart = 0L
+        private var connected = false
+
+        override fun callStart(call: Call) {
+            callStart = System.nanoTime()
+        }
+
+        override fun dnsStart(call: Call, domainName: String) {
+            dnsStart = System.nanoTime()
+        }
+
+        override fun dnsEnd(call: Call, domainName: String, inetAddressList: List<InetAddress>) {
+            dns.record(dnsStart)
+        }
+
+        override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+            connectStart = System.nanoTime()
+        }
+
+        override fun secureConnectStart(call: Call) {
+            tlsStart = System.nanoTime()
+        }
+
+        override fun secureConnectEnd(call: Call, handshake: Handshake?) {
+            tls.record(tlsStart)
+        }
+
+        override fun connectEnd(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy, protocol: Protocol?) {
+            connect.record(connectStart)
+            connected = true
+        }
+
+        override fun requestHeadersStart(call: Call) {
+            if (requestStart == 0L) requestStart = System.nanoTime()
+        }
+
+        override fun responseHeadersEnd(call: Call, response: Response) {
+            ttfb.record(requestStart)
+            requestStart = 0L
+        }
+
+        override fun callEnd(call: Call) {
+            finish(call, failed = false)
+        }
+
+        override fun callFailed(call: Call, ioe: IOException) {
+            finish(call, failed = true)
+        }
+
+        private fun finish(call: Call, failed: Boolean) {
+            calls.incrementAndGet()
+            if (failed) failures.incrementAndGet()
+            if (!connected) reused.incrementAndGet()
+            total.record(callStart)
+            if (BuildConfig.DEBUG) {
+                val elapsedMs = (System.nanoTime() - callStart) / 1_000_000
+                android.util.Log.d(
+                    "HttpTimings",
+                    "${call.request().method} ${call.request().url.encodedPath}: ${elapsedMs}ms, " +
+                        "newConnection=$connected, failed=$failed"
+                )
+            }
+        }
+    }
+}
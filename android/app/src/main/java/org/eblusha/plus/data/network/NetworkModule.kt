@@ -1,6 +1,5 @@
 package org.eblusha.plus.data.network
 
-import java.util.concurrent.TimeUnit
 import kotlinx.serialization.json.Json
 import okhttp3.MediaType.Companion.toMediaType
 import okhttp3.OkHttpClient
@@ -18,6 +17,8 @@ import retrofit2.converter.kotlinx.serialization.asConverterFactory
  * единое место создания API сервисов.
  */
 class NetworkModule(
+    /** Общий клиент [HttpStack]: пул соединений и dispatcher одни на всё приложение. */
+    private val baseClient: OkHttpClient,
     private val tokenProvider: AccessTokenProvider,
     private val sessionStore: org.eblusha.plus.data.session.SessionStore? = null,
     private val authApi: org.eblusha.plus.data.api.auth.AuthApi? = null,
@@ -38,21 +39,22 @@ class NetworkModule(
         }
     }
 
+    /** null для модуля без обновления токена (им создаётся сам AuthApi). */
+    val tokenRefreshAuthenticator: TokenRefreshAuthenticator? =
+        if (sessionStore != null && authApi != null) {
+            TokenRefreshAuthenticator(sessionStore, tokenProvider, authApi)
+        } else {
+            null
+        }
+
     val okHttpClient: OkHttpClient by lazy {
-        val builder = OkHttpClient.Builder()
-            .connectTimeout(30, TimeUnit.SECONDS)
-            .readTimeout(30, TimeUnit.SECONDS)
-            .writeTimeout(30, TimeUnit.SECONDS)
+        val builder = baseClient.newBuilder()
             .addInterceptor(AuthTokenInterceptor(tokenProvider))
             .addInterceptor(loggingInterceptor)
-        
-        // Add token refresh interceptor AFTER logging interceptor
-        // Interceptors process responses in reverse order, so HttpLoggingInterceptor
-        // will read the response body first, then TokenRefreshInterceptor can close it
-        if (sessionStore != null && authApi != null) {
-            builder.addInterceptor(TokenRefreshInterceptor(sessionStore, authApi))
-        }
-        
+
+        // 401 обрабатывает Authenticator: повтор идёт уже с новым заголовком Authorization
+        tokenRefreshAuthenticator?.let(builder::authenticator)
+
         builder.build()
     }
 
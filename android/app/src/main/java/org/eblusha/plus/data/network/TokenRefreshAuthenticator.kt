@@ -0,0 +1,155 @@
+package org.eblusha.plus.data.network
+
+import java.util.concurrent.atomic.AtomicLong
+import kotlinx.coroutines.runBlocking
+import okhttp3.Authenticator
+import okhttp3.Request
+import okhttp3.Response
+import okhttp3.Route
+import org.eblusha.plus.data.api.auth.AuthApi
+import org.eblusha.plus.data.api.auth.LoginRequest
+import org.eblusha.plus.data.api.auth.RefreshRequest
+import org.eblusha.plus.data.session.AccessTokenProvider
+import org.eblusha.plus.data.session.RefreshTokenStore
+
+/**
+ * Обновление access token по 401 через `/auth/refresh`.
+ *
+ * Раньше interceptor на каждый 401 делал `runBlocking` и полный логин по сохранённому паролю:
+ * N параллельных запросов — N логинов. Теперь обновление single-flight: первый поток под
+ * [lock] идёт за новым токеном, остальные ждут и, увидев, что токен уже сменился, просто
+ * повторяют свой запрос с ним. Логин по паролю остался запасным путём для сессий,
+ * сохранённых до появления refresh token.
+ */
+class TokenRefreshAuthenticator(
+    private val sessionStore: RefreshTokenStore,
+    private val tokenProvider: AccessTokenProvider,
+    private val authApi: AuthApi,
+) : Authenticator {
+
+    data class Stats(
+        val refreshes: Long,
+        val failures: Long,
+        /** Запросы, повторённые с токеном, который обновил другой поток. */
+        val coalesced: Long,
+        val lastLatencyMs: Long,
+        val averageLatencyMs: Long,
+    )
+
+    private val lock = Any()
+
+    private val refreshCount = AtomicLong()
+    private val failureCount = AtomicLong()
+    private val coalescedCount = AtomicLong()
+    private val lastLatencyMs = AtomicLong()
+    private val totalLatencyMs = AtomicLong()
+
+    override fun authenticate(route: Route?, response: Response): Request? {
+        val request = response.request
+        if (isAuthEndpoint(request) || responseCount(response) > MAX_ATTEMPTS) return null
+        val failedToken = request.header(AUTHORIZATION)?.removePrefix(BEARER)
+
+        synchronized(lock) {
+            val current = tokenProvider.getAccessToken()
+            // Пока ждали блокировку, токен обновил другой запрос
+            if (!current.isNullOrBlank() && current != failedToken) {
+                coalescedCount.incrementAndGet()
+                return request.withToken(current)
+            }
+            val refreshed = refresh() ?: return null
+            return request.withToken(refreshed)
+        }
+    }
+
+    /**
+     * Плановое обновление до истечения ([org.eblusha.plus.data.session.TokenLifecycleManager]).
+     * @return true, если токен обновлён — здесь или уже другим потоком.
+     */
+    fun renewIfCurrent(token: String): Boolean = synchronized(lock) {
+        if (tokenProvider.getAccessToken() != token) return true
+        refresh() != null
+    }
+
+    fun stats(): Stats {
+        val refreshes = refreshCount.get()
+        return Stats(
+            refreshes = refreshes,
+            failures = failureCount.get(),
+            coalesced = coalescedCount.get(),
+            lastLatencyMs = lastLatencyMs.get(),
+            averageLatencyMs = if (refreshes > 0) totalLatencyMs.get() / refreshes else 0,
+        )
+    }
+
+    private fun refresh(): String? {
+        val started = System.nanoTime()
+        val token = try {
+            refreshWithRefreshToken() ?: reLoginWithCredentials()
+        } catch (e: Exception) {
+            android.util.Log.e("TokenRefreshAuthenticator", "Failed to refresh token", e)
+            null
+        }
+        val elapsedMs = (System.nanoTime() - started) / 1_000_000
+        if (token == null) {
+            failureCount.incrementAndGet()
+            android.util.Log.w("TokenRefreshAuthenticator", "Token refresh failed after ${elapsedMs}ms")
+            return null
+        }
+        refreshCount.incrementAndGet()
+        lastLatencyMs.set(elapsedMs)
+        totalLatencyMs.addAndGet(elapsedMs)
+        android.util.Log.d("TokenRefreshAuthenticator", "Token refreshed in ${elapsedMs}ms (${stats()})")
+        return token
+    }
+
+    private fun refreshWithRefreshToken(): String? {
+        val refreshToken = sessionStore.currentRefreshToken() ?: return null
+        val response = authApi.refreshCall(RefreshRequest(refreshToken)).execute()
+        val body = response.body()
+        if (!response.isSuccessful || body == null) {
+            android.util.Log.w("TokenRefreshAuthenticator", "Refresh rejected: HTTP ${response.code()}")
+            return null
+        }
+        sessionStore.onTokensRefreshed(body.accessToken, body.refreshToken)
+        return body.accessToken
+    }
+
+    private fun reLoginWithCredentials(): String? {
+        // Только для старых сессий без refresh token; чтение DataStore, не сеть
+        val (username, password) = runBlocking { sessionStore.getCredentials() }
+        if (username.isNullOrBlank() || password.isNullOrBlank()) {
+            android.util.Log.w("TokenRefreshAuthenticator", "No refresh token and no saved credentials")
+            return null
+        }
+        android.util.Log.d("TokenRefreshAuthenticator", "No usable refresh token, re-login with saved credentials")
+        val response = authApi.loginCall(LoginRequest(username, password)).execute()
+        val body = response.body()
+        if (!response.isSuccessful || body == null) return null
+        sessionStore.onTokensRefreshed(body.accessToken, body.refreshToken)
+        return body.accessToken
+    }
+
+    private fun Request.withToken(token: String): Request =
+        newBuilder().header(AUTHORIZATION, "$BEARER$token").build()
+
+    private fun isAuthEndpoint(request: Request): Boolean {
+        val path = request.url.encodedPath
+        return path.endsWith("/auth/login") || path.endsWith("/auth/refresh")
+    }
+
+    private fun responseCount(response: Response): Int {
+        var count = 1
+        var prior = response.priorResponse
+        while (prior != null) {
+            count++
+            prior = prior.priorResponse
+        }
+        return count
+    }
+
+    private companion object {
+        const val AUTHORIZATION = "Authorization"
+        const val BEARER = "Bearer "
+        const val MAX_ATTEMPTS = 2
+    }
+}
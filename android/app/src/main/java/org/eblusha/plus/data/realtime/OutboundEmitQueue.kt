@@ -0,0 +1,213 @@
+package org.eblusha.plus.data.realtime
+
+import java.util.UUID
+import java.util.concurrent.atomic.AtomicLong
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import org.json.JSONObject
+
+/**
+ * Очередь исходящих emit'ов сокета.
+ *
+ * Раньше `socket?.emit(...)` при отсутствии сокета или во время реконнекта молча терял
+ * событие, а подтверждения сервера никто не ждал. Теперь emit'ы копятся здесь и уходят,
+ * как только сокет подключён:
+ *
+ * - состояние (typing, join/leave, запрос статусов) — [Delivery.Coalesce]: из ожидающих
+ *   с одним ключом уходит только последнее значение;
+ * - управление звонками и секретными чатами — [Delivery.Reliable]: ждём ack сервера и
+ *   повторяем с тем же `opId` (сервер по нему отбрасывает дубли), в том числе после реконнекта.
+ *
+ * У каждого emit'а есть срок жизни: протухшее (typing десятисекундной давности, принятие
+ * давно отзвонившего звонка) выбрасывается, а не отправляется.
+ *
+ * Две полосы, каждая FIFO: Reliable ждёт ack и повторяет по очереди, а Coalesce уходят сразу,
+ * не дожидаясь подтверждений, — звонок, ждущий ack, не задерживает typing и join.
+ */
+class OutboundEmitQueue(
+    scope: CoroutineScope,
+    private val transport: Transport,
+) {
+
+    interface Transport {
+        fun isConnected(): Boolean
+
+        /**
+         * @param onAck вызывается с `ok` из ответа сервера; null — подтверждение не нужно.
+         * @return false, если сокета нет или он не подключён.
+         */
+        fun emit(event: String, payload: Any, onAck: ((Boolean) -> Unit)?): Boolean
+    }
+
+    sealed interface Delivery {
+        data class Coalesce(val key: String) : Delivery
+        data object Reliable : Delivery
+    }
+
+    data class Stats(
+        val enqueued: Long,
+        val sent: Long,
+        val acked: Long,
+        val retried: Long,
+        val coalesced: Long,
+        val expired: Long,
+        val pending: Int,
+    )
+
+    private class Pending(
+        val event: String,
+        val payload: Any,
+        val delivery: Delivery,
+        val expiresAt: Long,
+    ) {
+        var attempts = 0
+    }
+
+    private val lock = Any()
+    private val pending = ArrayDeque<Pending>()
+    private val reliable = ArrayDeque<Pending>()
+    private val wakeUp = Channel<Unit>(Channel.CONFLATED)
+    private val wakeUpReliable = Channel<Unit>(Channel.CONFLATED)
+
+    private val enqueuedCount = AtomicLong()
+    private val sentCount = AtomicLong()
+    private val ackedCount = AtomicLong()
+    private val retriedCount = AtomicLong()
+    private val coalescedCount = AtomicLong()
+    private val expiredCount = AtomicLong()
+
+    init {
+        // По одному потребителю на полосу: внутри полосы порядок сохраняется,
+        // Reliable не уходят параллельно
+        scope.launch {
+            for (signal in wakeUp) {
+                drain(pending) { item ->
+                    transport.emit(item.event, item.payload, null).also { sent ->
+                        if (sent) sentCount.incrementAndGet()
+                    }
+                }
+            }
+        }
+        scope.launch {
+            for (signal in wakeUpReliable) {
+                drain(reliable, ::sendReliable)
+            }
+        }
+    }
+
+    /** Потокобезопасно; Reliable-payload должен быть JSONObject (в него добавляется `opId`). */
+    fun enqueue(event: String, payload: Any, delivery: Delivery, ttlMs: Long) {
+        enqueuedCount.incrementAndGet()
+        val item = Pending(
+            event = event,
+            payload = if (delivery is Delivery.Reliable) withOpId(payload) else payload,
+            delivery = delivery,
+            expiresAt = now() + ttlMs,
+        )
+        synchronized(lock) {
+            when (delivery) {
+                is Delivery.Coalesce -> {
+                    if (pending.removeAll { it.delivery == delivery }) coalescedCount.incrementAndGet()
+                    pending.addLast(item)
+                }
+                Delivery.Reliable -> reliable.addLast(item)
+            }
+        }
+        (if (delivery is Delivery.Reliable) wakeUpReliable else wakeUp).trySend(Unit)
+    }
+
+    /** Сокет (пере)подключился — отправляем накопленное. */
+    fun onConnected() {
+        wakeUp.trySend(Unit)
+        wakeUpReliable.trySend(Unit)
+    }
+
+    /** Выход из аккаунта: чужие emit'ы новому пользователю не нужны. */
+    fun clear() {
+        synchronized(lock) {
+            pending.clear()
+            reliable.clear()
+        }
+    }
+
+    fun stats(): Stats = Stats(
+        enqueued = enqueuedCount.get(),
+        sent = sentCount.get(),
+        acked = ackedCount.get(),
+        retried = retriedCount.get(),
+        coalesced = coalescedCount.get(),
+        expired = expiredCount.get(),
+        pending = synchronized(lock) { pending.size + reliable.size },
+    )
+
+    /** @param send true — элемент можно убирать из очереди; false — ждём реконнекта. */
+    private suspend fun drain(queue: ArrayDeque<Pending>, send: suspend (Pending) -> Boolean) {
+        while (true) {
+            val next = synchronized(lock) {
+                dropExpired(queue)
+                queue.firstOrNull()
+            } ?: return
+            // Не подключены — ждём onConnected(), элемент остаётся в голове очереди
+            if (!transport.isConnected()) return
+            if (!send(next)) return
+            synchronized(lock) { queue.remove(next) }
+        }
+    }
+
+    /** @return true, если элемент можно убирать из очереди (подтверждён или протух). */
+    private suspend fun sendReliable(item: Pending): Boolean {
+        while (now() < item.expiresAt) {
+            if (item.attempts > 0) retriedCount.incrementAndGet()
+            item.attempts++
+            val ack = CompletableDeferred<Boolean>()
+            if (!transport.emit(item.event, item.payload) { ok -> ack.complete(ok) }) return false
+            sentCount.incrementAndGet()
+            val ok = withTimeoutOrNull(ACK_TIMEOUT_MS) { ack.await() }
+            if (ok == true) {
+                ackedCount.incrementAndGet()
+                return true
+            }
+            android.util.Log.w("OutboundEmitQueue", "No ack for ${item.event} (attempt ${item.attempts}, result=$ok)")
+            // Сокет упал, пока ждали: повторим тем же opId после реконнекта
+            if (!transport.isConnected()) return false
+            delay(retryDelay(item.attempts))
+        }
+        expiredCount.incrementAndGet()
+        android.util.Log.w("OutboundEmitQueue", "Dropping ${item.event}: not acknowledged before expiry")
+        return true
+    }
+
+    private fun dropExpired(queue: ArrayDeque<Pending>) {
+        val now = now()
+        // Reliable в процессе отправки сам решает, когда сдаться
+        val iterator = queue.iterator()
+        while (iterator.hasNext()) {
+            val item = iterator.next()
+            if (item.attempts == 0 && item.expiresAt <= now) {
+                iterator.remove()
+                expiredCount.incrementAndGet()
+            }
+        }
+    }
+
+    private fun withOpId(payload: Any): Any {
+        if (payload !is JSONObject || payload.has(OP_ID_KEY)) return payload
+        return payload.put(OP_ID_KEY, UUID.randomUUID().toString())
+    }
+
+    private fun retryDelay(attempt: Int): Long =
+        (RETRY_BASE_DELAY_MS shl (attempt - 1).coerceIn(0, 4)).coerceAtMost(RETRY_MAX_DELAY_MS)
+
+    private fun now(): Long = System.nanoTime() / 1_000_000
+
+    private companion object {
+        const val OP_ID_KEY = "opId"
+        const val ACK_TIMEOUT_MS = 5_000L
+        const val RETRY_BASE_DELAY_MS = 500L
+        const val RETRY_MAX_DELAY_MS = 4_000L
+    }
+}
@@ -0,0 +1,152 @@
+package org.eblusha.plus.data.realtime
+
+import java.util.concurrent.atomic.AtomicLong
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.flow.SharedFlow
+import kotlinx.coroutines.flow.asSharedFlow
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.launch
+
+/**
+ * Шина realtime-событий с политиками доставки по категориям.
+ *
+ * Раньше обработчики сокета делали `tryEmit` в SharedFlow с буфером 64 и молча теряли
+ * события при медленных подписчиках. Теперь сокетный поток только кладёт событие в очередь
+ * ([publish] никогда не блокирует), а отдельная корутина выдаёт их подписчикам через
+ * suspend-`emit`, т.е. медленный подписчик тормозит доставку, но не теряет события:
+ *
+ * - звонки, сообщения, секретные чаты — [DeliveryPolicy.Lossless], неограниченная FIFO-очередь;
+ * - presence и typing — [DeliveryPolicy.Conflate]: по ключу хранится только последнее значение;
+ * - снимки статусов звонков (`call:status:bulk`) — [DeliveryPolicy.BestEffort]: ограниченная
+ *   очередь, при переполнении выкидывается самый старый снимок (клиент всё равно перезапрашивает их).
+ *
+ * Критичные события доставляются первыми. Поэтому одиночный `call:status` обгоняет снимок,
+ * пришедший раньше него: из ждущих снимков его беседа вычёркивается, иначе старый снимок
+ * затёр бы свежий статус. Пока подписчиков нет, ничего не выдаётся — события ждут в очередях
+ * (SharedFlow без подписчиков их бы просто выбросил). Счётчики доступны через [stats].
+ */
+class RealtimeEventBus(scope: CoroutineScope) {
+
+    sealed interface DeliveryPolicy {
+        data object Lossless : DeliveryPolicy
+        data class Conflate(val key: String) : DeliveryPolicy
+        data object BestEffort : DeliveryPolicy
+    }
+
+    data class Stats(
+        val published: Long,
+        val delivered: Long,
+        val conflated: Long,
+        val dropped: Long,
+        val pending: Int,
+    )
+
+    private val _events = MutableSharedFlow<RealtimeEvent>(extraBufferCapacity = SUBSCRIBER_BUFFER)
+    val events: SharedFlow<RealtimeEvent> = _events.asSharedFlow()
+
+    private val lock = Any()
+    private val lossless = ArrayDeque<RealtimeEvent>()
+    private val conflatedByKey = LinkedHashMap<String, RealtimeEvent>()
+    private val bestEffort = ArrayDeque<RealtimeEvent>()
+    private val wakeUp = Channel<Unit>(Channel.CONFLATED)
+
+    private val publishedCount = AtomicLong()
+    private val deliveredCount = AtomicLong()
+    private val conflatedCount = AtomicLong()
+    private val droppedCount = AtomicLong()
+
+    init {
+        scope.launch {
+            for (signal in wakeUp) {
+                drain()
+            }
+        }
+    }
+
+    /** Потокобезопасно и без блокировок сокетного потока. */
+    fun publish(event: RealtimeEvent) {
+        publishedCount.incrementAndGet()
+        synchronized(lock) {
+            when (val policy = policyOf(event)) {
+                DeliveryPolicy.Lossless -> {
+                    if (event is RealtimeEvent.CallStatus) dropStaleSnapshots(event.conversationId)
+                    lossless.addLast(event)
+                }
+                is DeliveryPolicy.Conflate -> {
+                    // LinkedHashMap сохраняет исходную позицию ключа — порядок между ключами честный
+                    if (conflatedByKey.put(policy.key, event) != null) {
+                        conflatedCount.incrementAndGet()
+                    }
+                }
+                DeliveryPolicy.BestEffort -> {
+                    if (bestEffort.size >= BEST_EFFORT_CAPACITY) {
+                        bestEffort.removeFirst()
+                        val dropped = droppedCount.incrementAndGet()
+                        android.util.Log.w("RealtimeEventBus", "Best-effort queue full, dropped oldest (total dropped=$dropped)")
+                    }
+                    bestEffort.addLast(event)
+                }
+            }
+        }
+        wakeUp.trySend(Unit)
+    }
+
+    fun stats(): Stats {
+        val pending = synchronized(lock) { lossless.size + conflatedByKey.size + bestEffort.size }
+        return Stats(
+            published = publishedCount.get(),
+            delivered = deliveredCount.get(),
+            conflated = conflatedCount.get(),
+            dropped = droppedCount.get(),
+            pending = pending,
+        )
+    }
+
+    private suspend fun drain() {
+        while (true) {
+            _events.subscriptionCount.first { it > 0 }
+            val next = poll() ?: return
+            _events.emit(next)
+            deliveredCount.incrementAndGet()
+        }
+    }
+
+    private fun poll(): RealtimeEvent? = synchronized(lock) {
+        lossless.removeFirstOrNull()
+            ?: conflatedByKey.entries.firstOrNull()?.let { entry ->
+                conflatedByKey.remove(entry.key)
+                entry.value
+            }
+            ?: bestEffort.removeFirstOrNull()
+    }
+
+    /** Вызывать под [lock]. Снимки в очереди старше одиночного статуса этой беседы. */
+    private fun dropStaleSnapshots(conversationId: String) {
+        val iterator = bestEffort.listIterator()
+        while (iterator.hasNext()) {
+            val snapshot = iterator.next() as? RealtimeEvent.CallStatusBulk ?: continue
+            if (conversationId !in snapshot.statuses) continue
+            val rest = snapshot.statuses - conversationId
+            if (rest.isEmpty()) {
+                iterator.remove()
+                droppedCount.incrementAndGet()
+            } else {
+                iterator.set(snapshot.copy(statuses = rest))
+            }
+        }
+    }
+
+    private fun policyOf(event: RealtimeEvent): DeliveryPolicy = when (event) {
+        is RealtimeEvent.PresenceUpdate -> DeliveryPolicy.Conflate("presence:${event.userId}")
+        is RealtimeEvent.Typing -> DeliveryPolicy.Conflate("typing:${event.conversationId}:${event.userId}")
+        is RealtimeEvent.CallStatusBulk -> DeliveryPolicy.BestEffort
+        else -> DeliveryPolicy.Lossless
+    }
+
+    private companion object {
+        const val SUBSCRIBER_BUFFER = 64
+        const val BEST_EFFORT_CAPACITY = 16
+    }
+}
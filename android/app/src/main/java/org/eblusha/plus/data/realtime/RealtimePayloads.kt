@@ -0,0 +1,285 @@
+package org.eblusha.plus.data.realtime
+
+import kotlinx.serialization.KSerializer
+import kotlinx.serialization.Serializable
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.JsonElement
+import kotlinx.serialization.json.JsonNull
+import org.eblusha.plus.data.api.messages.MessageDto
+
+/**
+ * Типизированные payload'ы событий сокета. Декодируются теми же kotlinx-сериализаторами,
+ * что и REST, вместо ручного разбора org.json.
+ */
+
+@Serializable
+internal data class PeerPayload(
+    val id: String = "",
+    val name: String = "",
+    val deviceId: String? = null,
+)
+
+@Serializable
+internal data class PresenceUpdatePayload(
+    val userId: String = "",
+    val status: String = "",
+)
+
+@Serializable
+internal data class TypingPayload(
+    val conversationId: String = "",
+    val userId: String = "",
+    val typing: Boolean = false,
+)
+
+@Serializable
+internal data class CallIncomingPayload(
+    val conversationId: String = "",
+    val from: PeerPayload? = null,
+    val video: Boolean = false,
+    val seq: Long? = null,
+)
+
+@Serializable
+internal data class CallStatusPayload(
+    val conversationId: String = "",
+    val active: Boolean = false,
+    val startedAt: Long? = null,
+    val elapsedMs: Long? = null,
+    val participants: List<String> = emptyList(),
+)
+
+@Serializable
+internal data class CallStatusBulkPayload(
+    val statuses: Map<String, CallStatusPayload> = emptyMap(),
+)
+
+@Serializable
+internal data class CallByPayload(
+    val conversationId: String = "",
+    val by: PeerPayload? = null,
+    val video: Boolean = false,
+    val seq: Long? = null,
+)
+
+@Serializable
+internal data class SecretChatOfferPayload(
+    val conversationId: String = "",
+    val from: PeerPayload? = null,
+    val seq: Long? = null,
+)
+
+@Serializable
+internal data class SecretChatAcceptedPayload(
+    val conversationId: String = "",
+    val peerDeviceId: String = "",
+    val seq: Long? = null,
+)
+
+@Serializable
+internal data class MessageNewPayload(
+    val conversationId: String = "",
+    val messageId: String = "",
+    val senderId: String = "",
+    val message: MessageDto? = null,
+    val seq: Long? = null,
+)
+
+@Serializable
+internal data class MessageUpdatePayload(
+    val conversationId: String = "",
+    val messageId: String = "",
+    val reason: String = "",
+    val seq: Long? = null,
+)
+
+/** Только номер журнала — для событий, которые сервис не декодирует целиком. */
+@Serializable
+internal data class SeqPayload(
+    val seq: Long? = null,
+)
+
+@Serializable
+internal data class SyncEntryPayload(
+    val seq: Long = 0,
+    val event: String = "",
+    val payload: JsonElement = JsonNull,
+)
+
+@Serializable
+internal data class SyncBatchPayload(
+    val seq: Long = 0,
+    val reset: Boolean = false,
+    val events: List<SyncEntryPayload> = emptyList(),
+    val presence: List<PresenceUpdatePayload> = emptyList(),
+)
+
+/** Событие вместе с порядковым номером журнала пользователя (если сервер его проставил). */
+data class DecodedEvent(val event: RealtimeEvent, val seq: Long?)
+
+/** Ответ на `sync:resume`: пропущенные события по порядку или требование полной перезагрузки. */
+data class SyncBatch(val seq: Long, val reset: Boolean, val events: List<RealtimeEvent>)
+
+/**
+ * Декодер payload'ов в [RealtimeEvent]. Без Android-зависимостей, чтобы его можно было
+ * гонять в JVM unit-тестах. Потокобезопасен; вызывается на выделенном диспетчере сервиса.
+ */
+class RealtimePayloadDecoder {
+
+    private val json = Json {
+        ignoreUnknownKeys = true
+        coerceInputValues = true
+    }
+
+    /** События, которые умеет декодировать сервис (на них он и подписывается). */
+    val supportedEvents: Set<String> get() = SUPPORTED_EVENTS
+
+    /**
+     * Журналируемые сервером события, которые сервис не публикует (для UI их покрывают
+     * события комнаты беседы), но по их `seq` двигает курсор догонки. Иначе после каждого
+     * реконнекта сервер заново присылает уже виденные уведомления.
+     */
+    val seqOnlyEvents: Set<String> get() = SEQ_ONLY_EVENTS
+
+    fun decodeSeq(payload: String): Long? =
+        runCatching { parse(SeqPayload.serializer(), payload).seq }.getOrNull()
+
+    /** @return null для неизвестного события или битого payload. */
+    fun decode(event: String, payload: String): RealtimeEvent? = decodeWithSeq(event, payload)?.event
+
+    fun decodeWithSeq(event: String, payload: String): DecodedEvent? = runCatching {
+        when (event) {
+            "presence:update" -> parse(PresenceUpdatePayload.serializer(), payload).let {
+                DecodedEvent(RealtimeEvent.PresenceUpdate(userId = it.userId, status = it.status), seq = null)
+            }
+            "conversation:typing" -> parse(TypingPayload.serializer(), payload).let {
+                DecodedEvent(
+                    RealtimeEvent.Typing(conversationId = it.conversationId, userId = it.userId, typing = it.typing),
+                    seq = null,
+                )
+            }
+            "call:incoming" -> parse(CallIncomingPayload.serializer(), payload).let {
+                DecodedEvent(
+                    RealtimeEvent.CallIncoming(
+                        conversationId = it.conversationId,
+                        fromUserId = it.from?.id.orEmpty(),
+                        fromName = it.from?.name.orEmpty(),
+                        video = it.video,
+                    ),
+                    it.seq,
+                )
+            }
+            "call:status" -> DecodedEvent(parse(CallStatusPayload.serializer(), payload).toEvent(fallbackId = null), seq = null)
+            "call:status:bulk" -> parse(CallStatusBulkPayload.serializer(), payload).let { bulk ->
+                val statuses = HashMap<String, RealtimeEvent.CallStatus>(bulk.statuses.size)
+                bulk.statuses.forEach { (key, value) ->
+                    val status = value.toEvent(fallbackId = key)
+                    statuses[status.conversationId] = status
+                }
+                DecodedEvent(RealtimeEvent.CallStatusBulk(statuses), seq = null)
+            }
+            "call:accepted" -> parse(CallByPayload.serializer(), payload).let {
+                DecodedEvent(
+                    RealtimeEvent.CallAccepted(conversationId = it.conversationId, byUserId = it.by?.id.orEmpty(), video = it.video),
+                    it.seq,
+                )
+            }
+            "call:declined" -> parse(CallByPayload.serializer(), payload).let {
+                DecodedEvent(RealtimeEvent.CallDeclined(conversationId = it.conversationId, byUserId = it.by?.id.orEmpty()), it.seq)
+            }
+            "call:ended" -> parse(CallByPayload.serializer(), payload).let {
+                DecodedEvent(RealtimeEvent.CallEnded(conversationId = it.conversationId, byUserId = it.by?.id.orEmpty()), it.seq)
+            }
+            "secret:chat:offer" -> parse(SecretChatOfferPayload.serializer(), payload).let {
+                DecodedEvent(
+                    RealtimeEvent.SecretChatOffer(
+                        conversationId = it.conversationId,
+                        fromUserId = it.from?.id.orEmpty(),
+                        fromName = it.from?.name.orEmpty(),
+                        deviceId = it.from?.deviceId,
+                    ),
+                    it.seq,
+                )
+            }
+            "secret:chat:accepted" -> parse(SecretChatAcceptedPayload.serializer(), payload).let {
+                DecodedEvent(RealtimeEvent.SecretChatAccepted(conversationId = it.conversationId, peerDeviceId = it.peerDeviceId), it.seq)
+            }
+            // message:notify приходит только в пачке догонки: для UI это то же новое сообщение
+            "message:new", "message:notify" -> parse(MessageNewPayload.serializer(), payload).let {
+                DecodedEvent(
+                    RealtimeEvent.MessageNew(
+                        conversationId = it.conversationId,
+                        messageId = it.messageId,
+                        senderId = it.senderId,
+                        message = it.message,
+                    ),
+                    it.seq,
+                )
+            }
+            "message:update" -> parse(MessageUpdatePayload.serializer(), payload).let {
+                DecodedEvent(
+                    RealtimeEvent.MessageUpdated(conversationId = it.conversationId, messageId = it.messageId, reason = it.reason),
+                    it.seq,
+                )
+            }
+            else -> null
+        }
+    }.getOrNull()
+
+    /** Разбор ответа на `sync:resume`; присутствие из снимка идёт после событий журнала. */
+    fun decodeSyncBatch(payload: String): SyncBatch? = runCatching {
+        val batch = parse(SyncBatchPayload.serializer(), payload)
+        val events = ArrayList<RealtimeEvent>(batch.events.size + batch.presence.size)
+        batch.events.forEach { entry ->
+            decodeWithSeq(entry.event, entry.payload.toString())?.let { events += it.event }
+        }
+        batch.presence.forEach { events += RealtimeEvent.PresenceUpdate(userId = it.userId, status = it.status) }
+        SyncBatch(seq = batch.seq, reset = batch.reset, events = events)
+    }.getOrNull()
+
+    private fun <T> parse(serializer: KSerializer<T>, payload: String): T =
+        json.decodeFromString(serializer, payload)
+
+    private fun CallStatusPayload.toEvent(fallbackId: String?): RealtimeEvent.CallStatus =
+        RealtimeEvent.CallStatus(
+            conversationId = conversationId.ifBlank { fallbackId.orEmpty() },
+            active = active,
+            startedAt = startedAt,
+            elapsedMs = elapsedMs,
+            participants = participants,
+        )
+
+    private companion object {
+        val SUPPORTED_EVENTS = setOf(
+            "presence:update",
+            "conversation:typing",
+            "call:incoming",
+            "call:status",
+            "call:status:bulk",
+            "call:accepted",
+            "call:declined",
+            "call:ended",
+            "secret:chat:offer",
+            "secret:chat:accepted",
+            "message:new",
+            "message:update",
+        )
+
+        val SEQ_ONLY_EVENTS = setOf(
+            "message:notify",
+            "conversations:new",
+            "conversations:updated",
+            "conversations:deleted",
+            "call:glare",
+            "contacts:request:new",
+            "contacts:request:accepted",
+            "contacts:request:rejected",
+            "contacts:request:blocked",
+            "contacts:removed",
+            "availability:updated",
+            "availability:proposals:updated",
+            "session:new",
+            "secret:thread:created",
+        )
+    }
+}
@@ -1,29 +1,37 @@
 package org.eblusha.plus.data.realtime
 
+import io.socket.client.Ack
 import io.socket.client.IO
 import io.socket.client.Socket
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.flow.Flow
-import kotlinx.coroutines.flow.MutableSharedFlow
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.SharedFlow
 import kotlinx.coroutines.flow.StateFlow
-import kotlinx.coroutines.flow.asSharedFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.collectLatest
 import kotlinx.coroutines.launch
 import kotlin.text.Charsets
+import okhttp3.OkHttpClient
 import org.eblusha.plus.core.config.AppConfig
+import org.eblusha.plus.data.api.messages.MessageDto
+import org.eblusha.plus.data.session.JwtClaims
 import org.json.JSONArray
 import org.json.JSONObject
 import java.net.URLEncoder
+import java.util.concurrent.Executors
 import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicLong
 
 class RealtimeService(
     private val appConfig: AppConfig,
     private val tokenFlow: Flow<String?>,
+    /** Клиент из общего [org.eblusha.plus.data.network.HttpStack]; иначе socket.io создаёт свой. */
+    private val httpClient: OkHttpClient,
 ) {
 
     private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
@@ -31,19 +39,52 @@ class RealtimeService(
     private val _connectionState = MutableStateFlow<ConnectionState>(ConnectionState.Disconnected())
     val connectionState: StateFlow<ConnectionState> = _connectionState.asStateFlow()
 
-    private val _events = MutableSharedFlow<RealtimeEvent>(extraBufferCapacity = 64)
-    val events: SharedFlow<RealtimeEvent> = _events.asSharedFlow()
+    private val eventBus = RealtimeEventBus(scope)
+    val events: SharedFlow<RealtimeEvent> = eventBus.events
 
+    private val decoder = RealtimePayloadDecoder()
+    private val decodeDispatcher = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "realtime-decode").apply { isDaemon = true }
+    }.asCoroutineDispatcher()
+    private val rawEvents = Channel<RawEvent>(Channel.UNLIMITED)
+
+    // Последний seq событий журнала пользователя: по нему после реконнекта догоняем пропущенное
+    private val lastSeq = AtomicLong(0)
+
+    @Volatile
     private var socket: Socket? = null
     private val connecting = AtomicBoolean(false)
+    @Volatile
     private var currentToken: String? = null
+    // Те же options использует встроенный реконнект socket.io: новый токен кладём сюда
+    private var socketOptions: IO.Options? = null
+
+    private val outbound = OutboundEmitQueue(scope, object : OutboundEmitQueue.Transport {
+        override fun isConnected(): Boolean = socket?.connected() == true
+
+        override fun emit(event: String, payload: Any, onAck: ((Boolean) -> Unit)?): Boolean {
+            val current = socket?.takeIf { it.connected() } ?: return false
+            if (onAck == null) {
+                current.emit(event, payload)
+            } else {
+                current.emit(event, arrayOf(payload), Ack { args ->
+                    onAck((args.firstOrNull() as? JSONObject)?.optBoolean("ok", false) == true)
+                })
+            }
+            return true
+        }
+    })
 
     init {
+        // Один поток декодирования сохраняет порядок событий
+        scope.launch(decodeDispatcher) { decodeLoop() }
         scope.launch {
             tokenFlow.collectLatest { token ->
                 if (token.isNullOrBlank()) {
+                    lastSeq.set(0)
+                    outbound.clear()
                     disconnectInternal()
-                } else {
+                } else if (!handOverToken(token)) {
                     connectInternal(token)
                 }
             }
@@ -51,40 +92,40 @@ class RealtimeService(
     }
 
     fun joinConversation(conversationId: String) {
-        socket?.emit("conversation:join", conversationId)
+        outbound.enqueue("conversation:join", conversationId, coalesce("conversation:$conversationId"), ROOM_TTL_MS)
     }
 
     fun leaveConversation(conversationId: String) {
-        socket?.emit("conversation:leave", conversationId)
+        outbound.enqueue("conversation:leave", conversationId, coalesce("conversation:$conversationId"), ROOM_TTL_MS)
     }
 
     fun setTyping(conversationId: String, typing: Boolean) {
         val payload = JSONObject()
             .put("conversationId", conversationId)
             .put("typing", typing)
-        socket?.emit("conversation:typing", payload)
+        outbound.enqueue("conversation:typing", payload, coalesce("typing:$conversationId"), TYPING_TTL_MS)
     }
 
     fun inviteCall(conversationId: String, video: Boolean) {
         val payload = JSONObject()
             .put("conversationId", conversationId)
             .put("video", video)
-        socket?.emit("call:invite", payload)
+        reliable("call:invite", payload, CALL_CONTROL_TTL_MS)
     }
 
     fun acceptCall(conversationId: String, video: Boolean) {
         val payload = JSONObject()
             .put("conversationId", conversationId)
             .put("video", video)
-        socket?.emit("call:accept", payload)
+        reliable("call:accept", payload, CALL_CONTROL_TTL_MS)
     }
 
     fun declineCall(conversationId: String) {
-        socket?.emit("call:decline", JSONObject().put("conversationId", conversationId))
+        reliable("call:decline", JSONObject().put("conversationId", conversationId), CALL_CONTROL_TTL_MS)
     }
 
     fun endCall(conversationId: String) {
-        socket?.emit("call:end", JSONObject().put("conversationId", conversationId))
+        reliable("call:end", JSONObject().put("conversationId", conversationId), CALL_END_TTL_MS)
     }
 
     fun requestCallStatuses(conversationIds: List<String>) {
@@ -92,34 +133,47 @@ class RealtimeService(
         val idsArray = JSONArray()
         conversationIds.forEach(idsArray::put)
         val payload = JSONObject().put("conversationIds", idsArray)
-        socket?.emit("call:status:request", payload)
+        val key = conversationIds.sorted().joinToString(",")
+        outbound.enqueue("call:status:request", payload, coalesce("call:status:$key"), STATUS_REQUEST_TTL_MS)
     }
 
     fun joinCallRoom(conversationId: String, video: Boolean? = null) {
         val payload = JSONObject().put("conversationId", conversationId)
         video?.let { payload.put("video", it) }
-        socket?.emit("call:room:join", payload)
+        reliable("call:room:join", payload, CALL_CONTROL_TTL_MS)
     }
 
     fun leaveCallRoom(conversationId: String) {
-        socket?.emit("call:room:leave", JSONObject().put("conversationId", conversationId))
+        reliable("call:room:leave", JSONObject().put("conversationId", conversationId), CALL_END_TTL_MS)
     }
 
     fun offerSecretChat(conversationId: String) {
-        socket?.emit("secret:chat:offer", JSONObject().put("conversationId", conversationId))
+        reliable("secret:chat:offer", JSONObject().put("conversationId", conversationId), SECRET_CHAT_TTL_MS)
     }
 
     fun acceptSecretChat(conversationId: String, deviceId: String) {
         val payload = JSONObject()
             .put("conversationId", conversationId)
             .put("deviceId", deviceId)
-        socket?.emit("secret:chat:accept", payload)
+        reliable("secret:chat:accept", payload, SECRET_CHAT_TTL_MS)
     }
 
     fun declineSecretChat(conversationId: String) {
-        socket?.emit("secret:chat:decline", JSONObject().put("conversationId", conversationId))
+        reliable("secret:chat:decline", JSONObject().put("conversationId", conversationId), SECRET_CHAT_TTL_MS)
+    }
+
+    private fun reliable(event: String, payload: JSONObject, ttlMs: Long) {
+        outbound.enqueue(event, payload, OutboundEmitQueue.Delivery.Reliable, ttlMs)
     }
 
+    private fun coalesce(key: String) = OutboundEmitQueue.Delivery.Coalesce(key)
+
+    /** Счётчики шины событий (доставлено / схлопнуто / выброшено), для диагностики. */
+    fun eventBusStats(): RealtimeEventBus.Stats = eventBus.stats()
+
+    /** Счётчики исходящей очереди (отправлено / подтверждено / повторено / схлопнуто / протухло). */
+    fun outboundStats(): OutboundEmitQueue.Stats = outbound.stats()
+
     fun disconnect() {
         scope.launch { disconnectInternal() }
     }
@@ -137,9 +191,11 @@ class RealtimeService(
                     .setForceNew(true)
                     .setTransports(arrayOf("websocket"))
                     .build()
-                val encodedToken = URLEncoder.encode(token, Charsets.UTF_8.name())
-                opts.query = "token=$encodedToken"
+                opts.query = tokenQuery(token)
+                opts.callFactory = httpClient
+                opts.webSocketFactory = httpClient
                 val newSocket = IO.socket(appConfig.socketBaseUrl, opts)
+                socketOptions = opts
                 socket = newSocket
                 registerCallbacks(newSocket)
                 newSocket.connect()
@@ -158,13 +214,49 @@ class RealtimeService(
             s.close()
         }
         socket = null
+        socketOptions = null
         currentToken = null
         _connectionState.emit(ConnectionState.Disconnected())
     }
 
+    /**
+     * Обновлённый токен того же пользователя отдаём живому сокету (`auth:refresh`) вместо
+     * переподключения. Реконнекты дальше идут уже с ним.
+     * @return false — нужен полноценный connect (сокета нет или сменился пользователь).
+     */
+    private fun handOverToken(token: String): Boolean {
+        val current = socket ?: return false
+        val opts = socketOptions ?: return false
+        val previous = currentToken ?: return false
+        if (previous == token) return true
+        val subject = JwtClaims.parse(token)?.subject ?: return false
+        if (subject != JwtClaims.parse(previous)?.subject) return false
+
+        currentToken = token
+        opts.query = tokenQuery(token)
+        if (current.connected()) {
+            current.emit(AUTH_REFRESH_EVENT, arrayOf(JSONObject().put("token", token)), Ack { args ->
+                val ok = (args.firstOrNull() as? JSONObject)?.optBoolean("ok", false) == true
+                if (!ok && currentToken == token) {
+                    android.util.Log.w("RealtimeService", "Server rejected token handover, reconnecting")
+                    connectInternal(token)
+                }
+            })
+        }
+        android.util.Log.d("RealtimeService", "Token handed over to the live socket")
+        return true
+    }
+
+    private fun tokenQuery(token: String): String =
+        "token=" + URLEncoder.encode(token, Charsets.UTF_8.name())
+
     private fun registerCallbacks(socket: Socket) {
         socket.on(Socket.EVENT_CONNECT) {
             _connectionState.tryEmit(ConnectionState.Connected)
+            // И первое подключение, и каждый реконнект: сервер пришлёт sync:batch
+            socket.emit(SYNC_RESUME_EVENT, JSONObject().put("lastSeq", lastSeq.get()))
+            // Накопленное за время разрыва
+            outbound.onConnected()
         }
         socket.on(Socket.EVENT_DISCONNECT) { args ->
             val reason = args.firstOrNull()?.toString()
@@ -175,156 +267,77 @@ class RealtimeService(
             _connectionState.tryEmit(ConnectionState.Disconnected(reason))
         }
 
-        socket.on("presence:update") { args ->
-            args.firstOrNull()?.toJsonObject()?.let { json ->
-                val event = RealtimeEvent.PresenceUpdate(
-                    userId = json.optString("userId"),
-                    status = json.optString("status")
-                )
-                _events.tryEmit(event)
-            }
-        }
-
-        socket.on("call:incoming") { args ->
-            args.firstOrNull()?.toJsonObject()?.let { json ->
-                val fromObj = json.optJSONObject("from")
-                val event = RealtimeEvent.CallIncoming(
-                    conversationId = json.optString("conversationId"),
-                    fromUserId = fromObj?.optString("id").orEmpty(),
-                    fromName = fromObj?.optString("name").orEmpty(),
-                    video = json.optBoolean("video", false)
-                )
-                _events.tryEmit(event)
-            }
-        }
-
-        socket.on("call:status") { args ->
-            args.firstOrNull()?.toJsonObject()?.let { json ->
-                val event = RealtimeEvent.CallStatus(
-                    conversationId = json.optString("conversationId"),
-                    active = json.optBoolean("active", false),
-                    startedAt = json.optLongOrNull("startedAt"),
-                    elapsedMs = json.optLongOrNull("elapsedMs"),
-                    participants = json.optJSONArray("participants")?.toStringList().orEmpty()
-                )
-                _events.tryEmit(event)
-            }
-        }
-
-        socket.on("call:status:bulk") { args ->
-            args.firstOrNull()?.toJsonObject()?.optJSONObject("statuses")?.let { statuses ->
-                val map = mutableMapOf<String, RealtimeEvent.CallStatus>()
-                val iterator = statuses.keys()
-                while (iterator.hasNext()) {
-                    val key = iterator.next() as? String ?: continue
-                    val value = statuses.optJSONObject(key) ?: continue
-                    val convId = value.optString("conversationId").takeIf { it.isNotBlank() } ?: key
-                    map[convId] = RealtimeEvent.CallStatus(
-                        conversationId = convId,
-                        active = value.optBoolean("active", false),
-                        startedAt = value.optLongOrNull("startedAt"),
-                        elapsedMs = value.optLongOrNull("elapsedMs"),
-                        participants = value.optJSONArray("participants")?.toStringList().orEmpty()
-                    )
-                }
-                _events.tryEmit(RealtimeEvent.CallStatusBulk(map))
-            }
-        }
-
-        socket.on("call:accepted") { args ->
-            args.firstOrNull()?.toJsonObject()?.let { json ->
-                val byObj = json.optJSONObject("by")
-                val event = RealtimeEvent.CallAccepted(
-                    conversationId = json.optString("conversationId"),
-                    byUserId = byObj?.optString("id").orEmpty(),
-                    video = json.optBoolean("video", false)
-                )
-                _events.tryEmit(event)
+        // Сокетный поток только кладёт сырой текст в очередь; разбор — на decodeDispatcher
+        (decoder.supportedEvents + decoder.seqOnlyEvents + SYNC_BATCH_EVENT).forEach { name ->
+            socket.on(name) { args ->
+                args.firstOrNull()?.toPayloadText()?.let { rawEvents.trySend(RawEvent(name, it)) }
             }
         }
+    }
 
-        socket.on("call:declined") { args ->
-            args.firstOrNull()?.toJsonObject()?.let { json ->
-                val byObj = json.optJSONObject("by")
-                val event = RealtimeEvent.CallDeclined(
-                    conversationId = json.optString("conversationId"),
-                    byUserId = byObj?.optString("id").orEmpty()
-                )
-                _events.tryEmit(event)
+    private suspend fun decodeLoop() {
+        for (raw in rawEvents) {
+            if (raw.name == SYNC_BATCH_EVENT) {
+                onSyncBatch(raw.payload)
+                continue
             }
-        }
-
-        socket.on("call:ended") { args ->
-            args.firstOrNull()?.toJsonObject()?.let { json ->
-                val byObj = json.optJSONObject("by")
-                val event = RealtimeEvent.CallEnded(
-                    conversationId = json.optString("conversationId"),
-                    byUserId = byObj?.optString("id").orEmpty()
-                )
-                _events.tryEmit(event)
+            if (raw.name in decoder.seqOnlyEvents) {
+                decoder.decodeSeq(raw.payload)?.let { seq -> lastSeq.accumulateAndGet(seq, ::maxOf) }
+                continue
             }
-        }
-
-        socket.on("conversation:typing") { args ->
-            args.firstOrNull()?.toJsonObject()?.let { json ->
-                val event = RealtimeEvent.Typing(
-                    conversationId = json.optString("conversationId"),
-                    userId = json.optString("userId"),
-                    typing = json.optBoolean("typing", false)
-                )
-                _events.tryEmit(event)
+            val decoded = decoder.decodeWithSeq(raw.name, raw.payload)
+            if (decoded == null) {
+                android.util.Log.w("RealtimeService", "Failed to decode ${raw.name}")
+                continue
             }
+            decoded.seq?.let { seq -> lastSeq.accumulateAndGet(seq, ::maxOf) }
+            eventBus.publish(decoded.event)
         }
+    }
 
-        socket.on("secret:chat:offer") { args ->
-            args.firstOrNull()?.toJsonObject()?.let { json ->
-                val from = json.optJSONObject("from")
-                _events.tryEmit(
-                    RealtimeEvent.SecretChatOffer(
-                        conversationId = json.optString("conversationId"),
-                        fromUserId = from?.optString("id").orEmpty(),
-                        fromName = from?.optString("name").orEmpty(),
-                        deviceId = from?.optString("deviceId")
-                    )
-                )
-            }
+    private fun onSyncBatch(payload: String) {
+        val batch = decoder.decodeSyncBatch(payload)
+        if (batch == null) {
+            android.util.Log.w("RealtimeService", "Failed to decode $SYNC_BATCH_EVENT")
+            return
         }
-
-        socket.on("secret:chat:accepted") { args ->
-            args.firstOrNull()?.toJsonObject()?.let { json ->
-                _events.tryEmit(
-                    RealtimeEvent.SecretChatAccepted(
-                        conversationId = json.optString("conversationId"),
-                        peerDeviceId = json.optString("peerDeviceId")
-                    )
-                )
-            }
+        if (batch.reset) {
+            // Журнал не покрывает разрыв — подписчики перечитывают данные целиком.
+            // Курсор берём серверный как есть: счётчик мог начаться заново
+            lastSeq.set(batch.seq)
+            eventBus.publish(RealtimeEvent.ResyncRequired)
+            return
         }
-
-        socket.on("message:new") { args ->
-            args.firstOrNull()?.toJsonObject()?.let { json ->
-                _events.tryEmit(
-                    RealtimeEvent.MessageNew(
-                        conversationId = json.optString("conversationId"),
-                        messageId = json.optString("messageId"),
-                        senderId = json.optString("senderId")
-                    )
-                )
-            }
+        // Живые события могли обогнать пачку и уже сдвинуть курсор дальше её seq
+        lastSeq.updateAndGet { maxOf(it, batch.seq) }
+        if (batch.events.isNotEmpty()) {
+            android.util.Log.d("RealtimeService", "Catch-up: ${batch.events.size} events up to seq ${batch.seq}")
         }
+        batch.events.forEach(eventBus::publish)
     }
 
-    private fun Any?.toJsonObject(): JSONObject? = when (this) {
-        is JSONObject -> this
-        is String -> runCatching { JSONObject(this) }.getOrNull()
+    /** socket.io-client отдаёт org.json-дерево или строку; нам нужен только текст. */
+    private fun Any?.toPayloadText(): String? = when (this) {
+        is JSONObject -> toString()
+        is String -> this
         else -> null
     }
 
-private fun JSONObject.optLongOrNull(key: String): Long? =
-    if (has(key) && !isNull(key)) optLong(key) else null
+    private class RawEvent(val name: String, val payload: String)
 
-private fun JSONArray.toStringList(): List<String> =
-    (0 until length()).mapNotNull { index -> optString(index, null) }
+    private companion object {
+        const val SYNC_RESUME_EVENT = "sync:resume"
+        const val SYNC_BATCH_EVENT = "sync:batch"
+        const val AUTH_REFRESH_EVENT = "auth:refresh"
+
+        const val TYPING_TTL_MS = 5_000L
+        const val ROOM_TTL_MS = 60_000L
+        const val STATUS_REQUEST_TTL_MS = 10_000L
+        // Сервер сбрасывает неотвеченный звонок через 60с; принимать его через полминуты уже поздно
+        const val CALL_CONTROL_TTL_MS = 30_000L
+        const val CALL_END_TTL_MS = 60_000L
+        const val SECRET_CHAT_TTL_MS = 60_000L
+    }
 }
 
 sealed interface ConnectionState {
@@ -361,7 +374,17 @@ sealed interface RealtimeEvent {
         val conversationId: String,
         val messageId: String,
         val senderId: String,
+        /** Полное сообщение, если сервер вложил его в событие. */
+        val message: MessageDto? = null,
+    ) : RealtimeEvent
+    data class MessageUpdated(
+        val conversationId: String,
+        val messageId: String,
+        /** "edited" | "deleted" | прочие причины сервера. */
+        val reason: String,
     ) : RealtimeEvent
+    /** Пропущенное за время разрыва не восстановить из журнала — нужна полная перезагрузка. */
+    data object ResyncRequired : RealtimeEvent
     data class SecretChatOffer(val conversationId: String, val fromUserId: String, val fromName: String, val deviceId: String?) : RealtimeEvent
     data class SecretChatAccepted(val conversationId: String, val peerDeviceId: String) : RealtimeEvent
 }
@@ -0,0 +1,14 @@
+package org.eblusha.plus.data.session
+
+/**
+ * То, что нужно от сессии для обновления токена по 401: refresh token, сохранение
+ * новой пары токенов и учётные данные для запасного логина. Реализация — [SessionStore];
+ * отдельный контракт позволяет проверять обновление без Android Context.
+ */
+interface RefreshTokenStore {
+    fun currentRefreshToken(): String?
+
+    fun onTokensRefreshed(accessToken: String, newRefreshToken: String?)
+
+    suspend fun getCredentials(): Pair<String?, String?>
+}
@@ -22,7 +22,7 @@ import org.eblusha.plus.data.security.PasswordEncryption
 class SessionStore(
     context: Context,
     private val tokenProvider: InMemoryAccessTokenProvider,
-) {
+) : RefreshTokenStore {
     private val passwordEncryption = PasswordEncryption(context)
 
     private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
@@ -35,6 +35,7 @@ class SessionStore(
 
     private object Keys {
         val ACCESS_TOKEN = stringPreferencesKey("access_token")
+        val REFRESH_TOKEN = stringPreferencesKey("refresh_token")
         val USERNAME = stringPreferencesKey("username")
         val PASSWORD = stringPreferencesKey("password")
     }
@@ -45,10 +46,48 @@ class SessionStore(
         }
         .map { prefs -> prefs[Keys.ACCESS_TOKEN] }
 
+    // Копия refresh token в памяти: Authenticator OkHttp читает его синхронно
+    @Volatile
+    private var refreshToken: String? = null
+
     init {
         scope.launch {
-            val token = accessTokenFlow.firstOrNull()
-            tokenProvider.updateToken(token)
+            val prefs = dataStore.data.firstOrNull()
+            refreshToken = prefs?.get(Keys.REFRESH_TOKEN)
+            tokenProvider.updateToken(prefs?.get(Keys.ACCESS_TOKEN))
+        }
+    }
+
+    override fun currentRefreshToken(): String? = refreshToken
+
+    suspend fun setRefreshToken(token: String?) {
+        refreshToken = token?.takeIf { it.isNotBlank() }
+        dataStore.edit { prefs ->
+            if (token.isNullOrBlank()) {
+                prefs.remove(Keys.REFRESH_TOKEN)
+            } else {
+                prefs[Keys.REFRESH_TOKEN] = token
+            }
+        }
+    }
+
+    /**
+     * Новые токены после refresh: в памяти сразу (запросы повторяются немедленно),
+     * на диск — асинхронно. Ротированный refresh token нельзя потерять, поэтому
+     * он тоже сначала обновляется в памяти.
+     */
+    override fun onTokensRefreshed(accessToken: String, newRefreshToken: String?) {
+        if (!newRefreshToken.isNullOrBlank()) {
+            refreshToken = newRefreshToken
+        }
+        tokenProvider.updateToken(accessToken)
+        scope.launch {
+            dataStore.edit { prefs ->
+                prefs[Keys.ACCESS_TOKEN] = accessToken
+                if (!newRefreshToken.isNullOrBlank()) {
+                    prefs[Keys.REFRESH_TOKEN] = newRefreshToken
+                }
+            }
         }
     }
 
@@ -66,9 +105,11 @@ class SessionStore(
     suspend fun clear() {
         dataStore.edit { prefs ->
             prefs.remove(Keys.ACCESS_TOKEN)
+            prefs.remove(Keys.REFRESH_TOKEN)
             prefs.remove(Keys.USERNAME)
             prefs.remove(Keys.PASSWORD)
         }
+        refreshToken = null
         tokenProvider.updateToken(null)
     }
     
@@ -87,7 +128,7 @@ class SessionStore(
         }
     }
     
-    suspend fun getCredentials(): Pair<String?, String?> {
+    override suspend fun getCredentials(): Pair<String?, String?> {
         val prefs = dataStore.data.firstOrNull() ?: return null to null
         val username = prefs[Keys.USERNAME]
         val encryptedPassword = prefs[Keys.PASSWORD]
@@ -0,0 +1,94 @@
+package org.eblusha.plus.data.session
+
+import java.util.Base64
+import kotlin.random.Random
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import kotlinx.serialization.json.Json
+import kotlinx.serialization.json.jsonObject
+import kotlinx.serialization.json.jsonPrimitive
+import kotlinx.serialization.json.longOrNull
+
+/**
+ * Обновляет access token заранее, по `exp` из JWT, а не по первому 401.
+ *
+ * На каждый новый токен планируется одно обновление незадолго до истечения (с джиттером,
+ * чтобы устройства не шли на сервер синхронно). Смена токена отменяет старый план.
+ * Само обновление — тот же single-flight, что и у Authenticator ([renew]), поэтому
+ * фоновое и реактивное обновления никогда не идут параллельно.
+ */
+class TokenLifecycleManager(
+    scope: CoroutineScope,
+    tokenFlow: Flow<String?>,
+    /** @return false, если обновить не удалось; вызывается на IO-потоке. */
+    private val renew: (currentToken: String) -> Boolean,
+) {
+
+    init {
+        scope.launch {
+            tokenFlow.distinctUntilChanged().collectLatest { token ->
+                if (!token.isNullOrBlank()) {
+                    renewBeforeExpiry(token)
+                }
+            }
+        }
+    }
+
+    private suspend fun renewBeforeExpiry(token: String) {
+        val claims = JwtClaims.parse(token) ?: return
+        val expiresAt = claims.expiresAtMs ?: return
+        val delayMs = renewalDelayMs(System.currentTimeMillis(), claims.issuedAtMs, expiresAt)
+        android.util.Log.d("TokenLifecycleManager", "Token renewal scheduled in ${delayMs / 1000}s")
+        delay(delayMs)
+
+        var attempt = 0
+        while (System.currentTimeMillis() < expiresAt) {
+            if (withContext(Dispatchers.IO) { renew(token) }) return
+            // Сеть/сервер недоступны: пробуем ещё, пока токен жив; потом останется реактивный путь
+            attempt++
+            delay((RETRY_BASE_DELAY_MS shl (attempt - 1).coerceAtMost(4)).coerceAtMost(RETRY_MAX_DELAY_MS))
+        }
+    }
+
+    internal companion object {
+        const val MIN_LEAD_MS = 60_000L
+        const val RETRY_BASE_DELAY_MS = 2_000L
+        const val RETRY_MAX_DELAY_MS = 30_000L
+
+        /** За 10% срока жизни, но не меньше минуты до истечения; минус джиттер до 20% запаса. */
+        fun renewalDelayMs(now: Long, issuedAt: Long?, expiresAt: Long): Long {
+            val lifetime = issuedAt?.let { expiresAt - it } ?: 0L
+            val lead = maxOf(MIN_LEAD_MS, lifetime / 10)
+            val jitter = Random.nextLong(lead / 5 + 1)
+            return (expiresAt - lead - jitter - now).coerceAtLeast(0L)
+        }
+    }
+}
+
+/** Только чтение claim'ов для планирования; подпись проверяет сервер. */
+internal data class JwtClaims(
+    val subject: String?,
+    val issuedAtMs: Long?,
+    val expiresAtMs: Long?,
+) {
+    companion object {
+        private val json = Json { ignoreUnknownKeys = true }
+
+        fun parse(token: String): JwtClaims? = runCatching {
+            val payload = token.split('.').getOrNull(1) ?: return null
+            val decoded = String(Base64.getUrlDecoder().decode(payload), Charsets.UTF_8)
+            val claims = json.parseToJsonElement(decoded).jsonObject
+            JwtClaims(
+                subject = claims["sub"]?.jsonPrimitive?.content,
+                issuedAtMs = claims["iat"]?.jsonPrimitive?.longOrNull?.times(1000),
+                expiresAtMs = claims["exp"]?.jsonPrimitive?.longOrNull?.times(1000),
+            )
+        }.getOrNull()
+    }
+}
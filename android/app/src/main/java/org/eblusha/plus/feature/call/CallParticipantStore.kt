@@ -0,0 +1,194 @@
+package org.eblusha.plus.feature.call
+
+import io.livekit.android.room.participant.LocalParticipant
+import io.livekit.android.room.participant.Participant
+import io.livekit.android.room.participant.RemoteParticipant
+import io.livekit.android.room.track.RemoteTrackPublication
+import io.livekit.android.room.track.Track
+import io.livekit.android.room.track.VideoTrack
+import kotlinx.coroutines.flow.MutableStateFlow
+import kotlinx.coroutines.flow.StateFlow
+import org.eblusha.plus.feature.session.SessionUser
+import org.json.JSONObject
+import java.util.Locale
+
+/** Состав звонка без медиа-состояния: меняется только при входе/выходе и смене имени. */
+data class CallRosterEntry(
+    val id: String,
+    val displayName: String,
+    val isLocal: Boolean,
+)
+
+/**
+ * Участники звонка по ключу, каждый — в своём [StateFlow].
+ *
+ * Раньше на любое RoomEvent список [CallParticipantUi] собирался заново: обход всех
+ * публикаций, повторный разбор JSON-метаданных и перерисовка всех плиток. Теперь событие
+ * обновляет только своего участника ([update]); если его состояние не изменилось, StateFlow
+ * ничего не отдаёт и плитка не перерисовывается. Разобранные метаданные кэшируются по
+ * исходной строке. [roster] меняется только при изменении состава. Только main thread.
+ */
+class CallParticipantStore(
+    private val currentUser: SessionUser,
+) {
+    private data class ParticipantMetadata(
+        val displayName: String? = null,
+        val avatarUrl: String? = null,
+        val userId: String? = null,
+    )
+
+    private class Entry(
+        val state: MutableStateFlow<CallParticipantUi>,
+        var joinedAt: Long,
+        var rawMetadata: String?,
+        var metadata: ParticipantMetadata,
+    )
+
+    private val entries = HashMap<String, Entry>()
+    private val _roster = MutableStateFlow<List<CallRosterEntry>>(emptyList())
+    val roster: StateFlow<List<CallRosterEntry>> = _roster
+
+    fun participant(id: String): StateFlow<CallParticipantUi>? = entries[id]?.state
+
+    /** Новый участник (или полная сверка). */
+    fun add(participant: Participant) = upsert(participant, insert = true)
+
+    /**
+     * Событие уже известного участника. Неизвестных не добавляет: события треков могут
+     * прийти уже после ParticipantDisconnected.
+     */
+    fun update(participant: Participant) = upsert(participant, insert = false)
+
+    private fun upsert(participant: Participant, insert: Boolean) {
+        val isLocal = participant is LocalParticipant
+        val id = participant.uiId()
+        val entry = entries[id]
+        if (entry == null && !insert) return
+        val metadata = metadataFor(entry, participant.metadata)
+        val ui = participant.toCallParticipantUi(id, isLocal, metadata)
+        if (entry == null) {
+            entries[id] = Entry(
+                state = MutableStateFlow(ui),
+                joinedAt = participant.joinedAt ?: Long.MAX_VALUE,
+                rawMetadata = participant.metadata,
+                metadata = metadata,
+            )
+            publishRoster()
+            return
+        }
+        entry.rawMetadata = participant.metadata
+        entry.metadata = metadata
+        val nameChanged = entry.state.value.displayName != ui.displayName
+        entry.state.value = ui
+        if (nameChanged) publishRoster()
+    }
+
+    fun remove(participant: Participant) {
+        if (entries.remove(participant.uiId()) != null) publishRoster()
+    }
+
+    /** Полная сверка с комнатой — после подключения и реконнекта, когда дельты могли потеряться. */
+    fun sync(local: LocalParticipant?, remotes: Collection<RemoteParticipant>) {
+        val present = HashSet<String>()
+        local?.let {
+            present += it.uiId()
+            add(it)
+        }
+        remotes.forEach {
+            present += it.uiId()
+            add(it)
+        }
+        if (entries.keys.retainAll(present)) publishRoster()
+    }
+
+    fun clear() {
+        entries.clear()
+        _roster.value = emptyList()
+    }
+
+    private fun publishRoster() {
+        val ordered = entries.entries
+            .sortedWith(compareBy({ !it.value.state.value.isLocal }, { it.value.joinedAt }))
+            .map { (id, entry) ->
+                CallRosterEntry(id, entry.state.value.displayName, entry.state.value.isLocal)
+            }
+        if (ordered != _roster.value) {
+            android.util.Log.d("CallParticipantStore", "Roster: ${ordered.map { it.displayName }}")
+            _roster.value = ordered
+        }
+    }
+
+    private fun metadataFor(entry: Entry?, raw: String?): ParticipantMetadata {
+        if (entry != null && entry.rawMetadata == raw) return entry.metadata
+        return parseParticipantMetadata(raw)
+    }
+
+    private fun Participant.toCallParticipantUi(
+        id: String,
+        isLocal: Boolean,
+        metadata: ParticipantMetadata,
+    ): CallParticipantUi {
+        val resolvedName = metadata.displayName
+            ?: if (isLocal) {
+                currentUser.displayName ?: currentUser.username
+            } else {
+                name ?: identity?.value
+            }
+            ?: if (isLocal) "Я" else "Участник"
+        val avatar = metadata.avatarUrl
+            ?: if (isLocal) currentUser.avatarUrl else null
+        val track = findPrimaryVideoTrack()
+        return CallParticipantUi(
+            id = id,
+            displayName = resolvedName,
+            initials = computeInitials(resolvedName),
+            avatarUrl = avatar,
+            videoTrack = track,
+            isLocal = isLocal,
+            isMuted = !isMicrophoneEnabled,
+            isSpeaking = isSpeaking,
+            hasVideo = track != null,
+        )
+    }
+
+    private fun Participant.findPrimaryVideoTrack(): VideoTrack? {
+        if (this is LocalParticipant) {
+            (getTrackPublication(Track.Source.CAMERA)?.track as? VideoTrack)?.let { return it }
+        }
+        // Track is only available after subscription, so if track exists, we're subscribed
+        if (this is RemoteParticipant) {
+            trackPublications.values.forEach { publication ->
+                if (publication.kind == Track.Kind.VIDEO) {
+                    ((publication as? RemoteTrackPublication)?.track as? VideoTrack)?.let { return it }
+                }
+            }
+        }
+        return trackPublications.values.firstOrNull { it.kind == Track.Kind.VIDEO }?.track as? VideoTrack
+    }
+
+    private fun computeInitials(name: String): String {
+        val parts = name.trim().split("\\s+".toRegex()).filter { it.isNotEmpty() }
+        if (parts.isEmpty()) return "?"
+        val initials = parts.take(2).map { it.first().toString().uppercase(Locale.getDefault()) }
+        return initials.joinToString("")
+    }
+
+    private fun parseParticipantMetadata(raw: String?): ParticipantMetadata {
+        if (raw.isNullOrBlank()) return ParticipantMetadata()
+        return try {
+            val json = JSONObject(raw)
+            ParticipantMetadata(
+                displayName = json.optString("displayName").takeIf { it.isNotBlank() },
+                avatarUrl = json.optString("avatarUrl").takeIf { it.isNotBlank() },
+                userId = json.optString("userId").takeIf { it.isNotBlank() },
+            )
+        } catch (e: Exception) {
+            android.util.Log.w("CallParticipantStore", "Failed to parse participant metadata: $raw", e)
+            ParticipantMetadata()
+        }
+    }
+}
+
+/** Ключ участника в сторе и в сетке плиток. */
+internal fun Participant.uiId(): String =
+    sid.value.ifBlank { identity?.value ?: "" }
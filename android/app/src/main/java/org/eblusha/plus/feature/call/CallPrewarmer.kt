@@ -0,0 +1,204 @@
+package org.eblusha.plus.feature.call
+
+import android.content.Context
+import android.os.SystemClock
+import io.livekit.android.LiveKit
+import io.livekit.android.LiveKitOverrides
+import io.livekit.android.RoomOptions
+import io.livekit.android.room.Room
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withTimeoutOrNull
+import okhttp3.OkHttpClient
+import org.eblusha.plus.data.api.livekit.LiveKitTokenResponse
+import org.eblusha.plus.data.livekit.LiveKitRepository
+import org.eblusha.plus.feature.session.SessionUser
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * Подготовка входа в звонок, пока он ещё звонит.
+ *
+ * Раньше после нажатия «Принять» всё шло последовательно: REST за токеном, создание Room,
+ * сигналинг, ICE. Теперь на `call:incoming` токен запрашивается сразу, Room создаётся
+ * заранее и прогревает соединение с LiveKit ([Room.prepareConnection]: DNS, TLS, регион).
+ * [CallViewModel] забирает готовое через [take]; если звонок не приняли — [cancel].
+ */
+class CallPrewarmer(
+    context: Context,
+    private val liveKitRepository: LiveKitRepository,
+    private val httpClient: OkHttpClient,
+) {
+    class PreparedCall(
+        val conversationId: String,
+        val token: LiveKitTokenResponse,
+        val room: Room,
+        val preparedAtMs: Long,
+    )
+
+    private class Pending(val work: Deferred<PreparedCall?>, val expiry: Job)
+
+    private val appContext = context.applicationContext
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Main.immediate)
+    private val pending = ConcurrentHashMap<String, Pending>()
+
+    val metrics = CallJoinMetrics()
+
+    fun prewarm(conversationId: String, user: SessionUser) {
+        if (pending.containsKey(conversationId)) return
+        val startedAt = SystemClock.elapsedRealtime()
+        val work = scope.async {
+            try {
+                val token = fetchToken(conversationId, user)
+                val room = createRoom()
+                runCatching { room.prepareConnection(token.url, token.token) }
+                    .onFailure { android.util.Log.w("CallPrewarmer", "prepareConnection failed, will connect cold", it) }
+                android.util.Log.d(
+                    "CallPrewarmer",
+                    "🔥 Call $conversationId prepared in ${SystemClock.elapsedRealtime() - startedAt}ms"
+                )
+                PreparedCall(conversationId, token, room, SystemClock.elapsedRealtime())
+            } catch (e: Exception) {
+                android.util.Log.w("CallPrewarmer", "Prewarm failed for $conversationId", e)
+                null
+            }
+        }
+        // Не приняли за время звонка — освобождаем Room, токен тоже больше не нужен
+        val expiry = scope.launch {
+            delay(PREPARED_TTL_MS)
+            android.util.Log.d("CallPrewarmer", "Prepared call $conversationId expired")
+            cancel(conversationId)
+        }
+        pending[conversationId] = Pending(work, expiry)
+    }
+
+    /**
+     * Забрать подготовленный звонок. Если подготовка ещё идёт (приняли сразу), ждём её —
+     * это та же работа, которую иначе пришлось бы начинать с нуля.
+     */
+    suspend fun take(conversationId: String): PreparedCall? {
+        val entry = pending.remove(conversationId) ?: return null
+        entry.expiry.cancel()
+        return withTimeoutOrNull(TAKE_TIMEOUT_MS) { entry.work.await() }
+            ?: run {
+                entry.work.cancel()
+                releaseWhenDone(entry.work)
+                null
+            }
+    }
+
+    fun cancel(conversationId: String) {
+        val entry = pending.remove(conversationId) ?: return
+        entry.expiry.cancel()
+        releaseWhenDone(entry.work)
+    }
+
+    suspend fun fetchToken(conversationId: String, user: SessionUser): LiveKitTokenResponse =
+        liveKitRepository.fetchToken(
+            conversationId = conversationId,
+            participantName = user.displayName ?: user.username,
+            metadata = mapOf(
+                "app" to "eblusha",
+                "userId" to user.id,
+                "displayName" to (user.displayName ?: user.username),
+                "avatarUrl" to (user.avatarUrl ?: ""),
+            )
+        )
+
+    /**
+     * adaptiveStream: качество удалённого видео по размеру и видимости рендерера, без
+     * рендереров трек ставится на паузу. dynacast: отправитель не кодирует слои simulcast,
+     * которые никто не смотрит.
+     */
+    fun createRoom(): Room = LiveKit.create(
+        appContext = appContext,
+        options = RoomOptions(adaptiveStream = true, dynacast = true),
+        overrides = LiveKitOverrides(okHttpClient = httpClient),
+    )
+
+    private fun releaseWhenDone(work: Deferred<PreparedCall?>) {
+        scope.launch {
+            val prepared = runCatching { work.await() }.getOrNull() ?: return@launch
+            runCatching { prepared.room.release() }
+        }
+    }
+
+    private companion object {
+        // Дольше серверного таймаута звонка без ответа
+        const val PREPARED_TTL_MS = 90_000L
+        const val TAKE_TIMEOUT_MS = 5_000L
+    }
+}
+
+/**
+ * Время от нажатия «Принять» (создания [CallViewModel]) до подключения к комнате, до
+ * публикации своих треков и до первого удалённого аудио — отдельно для подготовленных
+ * и «холодных» входов.
+ */
+class CallJoinMetrics {
+
+    data class Phase(val count: Long, val averageMs: Long, val lastMs: Long)
+
+    data class Snapshot(
+        val prewarmedConnected: Phase,
+        val prewarmedPublished: Phase,
+        val prewarmedFirstAudio: Phase,
+        val coldConnected: Phase,
+        val coldPublished: Phase,
+        val coldFirstAudio: Phase,
+    )
+
+    private class PhaseStat {
+        private val count = AtomicLong()
+        private val totalMs = AtomicLong()
+        private val lastMs = AtomicLong()
+
+        fun record(elapsedMs: Long) {
+            count.incrementAndGet()
+            totalMs.addAndGet(elapsedMs)
+            lastMs.set(elapsedMs)
+        }
+
+        fun snapshot(): Phase {
+            val n = count.get()
+            return Phase(n, if (n > 0) totalMs.get() / n else 0, lastMs.get())
+        }
+    }
+
+    private val prewarmedConnected = PhaseStat()
+    private val prewarmedPublished = PhaseStat()
+    private val prewarmedFirstAudio = PhaseStat()
+    private val coldConnected = PhaseStat()
+    private val coldPublished = PhaseStat()
+    private val coldFirstAudio = PhaseStat()
+
+    fun recordConnected(elapsedMs: Long, prewarmed: Boolean) {
+        (if (prewarmed) prewarmedConnected else coldConnected).record(elapsedMs)
+        android.util.Log.d("CallJoinMetrics", "Connected in ${elapsedMs}ms (prewarmed=$prewarmed)")
+    }
+
+    fun recordLocalPublish(elapsedMs: Long, prewarmed: Boolean) {
+        (if (prewarmed) prewarmedPublished else coldPublished).record(elapsedMs)
+        android.util.Log.d("CallJoinMetrics", "Local tracks published in ${elapsedMs}ms (prewarmed=$prewarmed)")
+    }
+
+    fun recordFirstRemoteAudio(elapsedMs: Long, prewarmed: Boolean) {
+        (if (prewarmed) prewarmedFirstAudio else coldFirstAudio).record(elapsedMs)
+        android.util.Log.d("CallJoinMetrics", "🔊 First remote audio in ${elapsedMs}ms (prewarmed=$prewarmed): ${snapshot()}")
+    }
+
+    fun snapshot(): Snapshot = Snapshot(
+        prewarmedConnected = prewarmedConnected.snapshot(),
+        prewarmedPublished = prewarmedPublished.snapshot(),
+        prewarmedFirstAudio = prewarmedFirstAudio.snapshot(),
+        coldConnected = coldConnected.snapshot(),
+        coldPublished = coldPublished.snapshot(),
+        coldFirstAudio = coldFirstAudio.snapshot(),
+    )
+}
@@ -1,6 +1,7 @@
 package org.eblusha.plus.feature.call
 
 import android.content.Context
+import android.os.SystemClock
 import android.Manifest
 import android.content.pm.PackageManager
 import androidx.core.content.ContextCompat
@@ -10,10 +11,11 @@ import androidx.lifecycle.viewModelScope
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.filterIsInstance
+import kotlinx.coroutines.flow.mapNotNull
 import kotlinx.coroutines.launch
 import kotlinx.coroutines.delay
 import org.eblusha.plus.core.di.AppContainer
-import org.eblusha.plus.data.livekit.LiveKitRepository
 import org.eblusha.plus.data.realtime.RealtimeService
 import org.eblusha.plus.data.realtime.ConnectionState
 import org.eblusha.plus.feature.session.SessionUser
@@ -24,12 +26,10 @@ import io.livekit.android.room.track.RemoteTrackPublication
 import io.livekit.android.room.track.VideoTrack
 import io.livekit.android.room.participant.Participant
 import io.livekit.android.room.participant.RemoteParticipant
-import io.livekit.android.room.participant.LocalParticipant
 import io.livekit.android.util.LoggingLevel
+import io.livekit.android.events.ParticipantEvent
 import io.livekit.android.events.RoomEvent
 import io.livekit.android.events.collect
-import org.json.JSONObject
-import java.util.Locale
 
 sealed interface CallUiState {
     data object Idle : CallUiState
@@ -38,7 +38,8 @@ sealed interface CallUiState {
         val conversationId: String,
         val isVideoEnabled: Boolean,
         val isAudioEnabled: Boolean,
-        val participants: List<CallParticipantUi> = emptyList(),
+        /** Только состав; медиа-состояние участника — в [CallViewModel.participant]. */
+        val roster: List<CallRosterEntry> = emptyList(),
     ) : CallUiState
     data class Error(val message: String) : CallUiState
 }
@@ -57,7 +58,8 @@ data class CallParticipantUi(
 
 class CallViewModel(
     private val context: Context,
-    private val liveKitRepository: LiveKitRepository,
+    /** Токен и Room, подготовленные ещё во время звонка; для исходящих — создаются здесь. */
+    private val callPrewarmer: CallPrewarmer,
     private val realtimeService: RealtimeService,
     private val conversationId: String,
     private val currentUser: SessionUser,
@@ -72,6 +74,17 @@ class CallViewModel(
     private var hadRemoteParticipants = false
     private var seenMultipleRemoteParticipants = false
     private var pendingHangJob: Job? = null
+    private val joinStartedAt = SystemClock.elapsedRealtime()
+    private var joinedPrewarmed = false
+    private var firstRemoteAudioRecorded = false
+    private var localTracksJob: Job? = null
+    private val videoVisibility = VideoVisibilityPolicy()
+    private val pendingUnsubscribeJobs = mutableMapOf<String, Job>()
+    private val participantStore = CallParticipantStore(currentUser)
+    private var activeSpeakerIds: Set<String> = emptySet()
+
+    /** Состояние одной плитки: меняется только при событиях этого участника. */
+    fun participant(id: String): StateFlow<CallParticipantUi>? = participantStore.participant(id)
 
     init {
         android.util.Log.d("CallViewModel", "Initializing CallViewModel for conversation: $conversationId, video: $isVideoCall")
@@ -88,6 +101,14 @@ class CallViewModel(
                 _uiState.value = CallUiState.Error("Ошибка инициализации: ${e.message}")
             }
         }
+        // Список плиток пересобирается только при входе/выходе участника
+        viewModelScope.launch {
+            participantStore.roster.collect { roster ->
+                val currentState = _uiState.value as? CallUiState.Connected ?: return@collect
+                handleAutoHangup(roster)
+                _uiState.value = currentState.copy(roster = roster)
+            }
+        }
     }
 
     private fun connect() {
@@ -95,26 +116,23 @@ class CallViewModel(
             android.util.Log.d("CallViewModel", "connect() called")
             _uiState.value = CallUiState.Connecting
             try {
-                android.util.Log.d("CallViewModel", "Fetching token...")
-                val tokenResponse = liveKitRepository.fetchToken(
-                    conversationId = conversationId,
-                    participantName = currentUser.displayName ?: currentUser.username,
-                    metadata = mapOf(
-                        "app" to "eblusha",
-                        "userId" to currentUser.id,
-                        "displayName" to (currentUser.displayName ?: currentUser.username),
-                        "avatarUrl" to (currentUser.avatarUrl ?: ""),
-                    )
-                )
+                val prepared = callPrewarmer.take(conversationId)
+                joinedPrewarmed = prepared != null
+                val tokenResponse = if (prepared != null) {
+                    android.util.Log.d("CallViewModel", "Using prewarmed token and room, prepared ${SystemClock.elapsedRealtime() - prepared.preparedAtMs}ms ago")
+                    prepared.token
+                } else {
+                    android.util.Log.d("CallViewModel", "Fetching token...")
+                    callPrewarmer.fetchToken(conversationId, currentUser)
+                }
                 android.util.Log.d("CallViewModel", "Token received, URL: ${tokenResponse.url}")
 
                 hadRemoteParticipants = false
                 seenMultipleRemoteParticipants = false
+                participantStore.clear()
 
-                // Create Room instance
-                android.util.Log.d("CallViewModel", "Creating Room instance...")
-                room = LiveKit.create(context)
-                android.util.Log.d("CallViewModel", "Room created: ${room != null}")
+                room = prepared?.room ?: callPrewarmer.createRoom()
+                android.util.Log.d("CallViewModel", "Room ready: ${room != null}, prewarmed=$joinedPrewarmed")
                 
                 setupRoomObservers()
                 
@@ -125,14 +143,18 @@ class CallViewModel(
                     token = tokenResponse.token
                 )
                 android.util.Log.d("CallViewModel", "Connect call completed")
+                callPrewarmer.metrics.recordConnected(SystemClock.elapsedRealtime() - joinStartedAt, joinedPrewarmed)
                 
                 // Initial state - will be updated as tracks load
                 android.util.Log.d("CallViewModel", "Updating state to Connected")
+                syncParticipants()
+                val roster = participantStore.roster.value
+                handleAutoHangup(roster)
                 _uiState.value = CallUiState.Connected(
                     conversationId = conversationId,
                     isVideoEnabled = isVideoCall,
                     isAudioEnabled = true,
-                    participants = buildParticipantsState(),
+                    roster = roster,
                 )
 
                 enableLocalTracks()
@@ -162,7 +184,7 @@ class CallViewModel(
                         }
                         r.remoteParticipants.values.forEach { subscribeToRemoteTracks(it) }
                         enableLocalTracks()
-                        refreshParticipants()
+                        syncParticipants()
                     }
                     is RoomEvent.Disconnected -> {
                         val reason = event.reason?.toString() ?: "Соединение разорвано"
@@ -183,24 +205,28 @@ class CallViewModel(
                             realtimeService.requestCallStatuses(listOf(conversationId))
                         }
                         r.remoteParticipants.values.forEach { subscribeToRemoteTracks(it) }
-                        refreshParticipants()
+                        syncParticipants()
                     }
                     is RoomEvent.ParticipantConnected -> {
                         android.util.Log.d("CallViewModel", "RoomEvent.ParticipantConnected: ${event.participant.identity}")
                         subscribeToRemoteTracks(event.participant)
-                        refreshParticipants()
+                        participantStore.add(event.participant)
                     }
                     is RoomEvent.ParticipantDisconnected -> {
                         android.util.Log.d("CallViewModel", "RoomEvent.ParticipantDisconnected: ${event.participant.identity}")
-                        refreshParticipants()
+                        pendingUnsubscribeJobs.remove(event.participant.uiId())?.cancel()
+                        videoVisibility.forget(event.participant.uiId())
+                        participantStore.remove(event.participant)
                     }
                     is RoomEvent.TrackPublished -> {
                         val publication = event.publication
                         val participantId = event.participant.identity?.value ?: "unknown"
                         android.util.Log.d("CallViewModel", "RoomEvent.TrackPublished: participant=$participantId, kind=${publication.kind}, sid=${publication.sid}")
-                        // Immediately subscribe to newly published track (like web version does)
+                        // Subscribe right away (like web version does); video only if the tile is on screen
                         val remotePublication = publication as? RemoteTrackPublication
-                        if (remotePublication != null && remotePublication.track == null) {
+                        if (remotePublication != null && remotePublication.track == null &&
+                            shouldSubscribe(event.participant, remotePublication)
+                        ) {
                             try {
                                 android.util.Log.d("CallViewModel", "Subscribing to newly published ${publication.kind} track: ${publication.sid}")
                                 remotePublication.setSubscribed(true)
@@ -209,20 +235,28 @@ class CallViewModel(
                             }
                         }
                         // Also refresh to show the new track publication
-                        refreshParticipants()
+                        participantStore.update(event.participant)
                     }
                     is RoomEvent.TrackSubscribed -> {
                         val trackKind = event.track.kind
                         val participantId = event.participant.identity?.value ?: "unknown"
                         android.util.Log.d("CallViewModel", "RoomEvent.TrackSubscribed: track=${event.track.sid}, kind=$trackKind, participant=$participantId")
-                        // Track is now available after subscription - refresh UI immediately
-                        // This is similar to how VideoConference updates in web version
-                        refreshParticipants()
+                        if (trackKind == Track.Kind.AUDIO && !firstRemoteAudioRecorded) {
+                            firstRemoteAudioRecorded = true
+                            callPrewarmer.metrics.recordFirstRemoteAudio(SystemClock.elapsedRealtime() - joinStartedAt, joinedPrewarmed)
+                        }
+                        // Track is now available after subscription - refresh this tile immediately
+                        participantStore.update(event.participant)
                     }
                     is RoomEvent.TrackUnsubscribed -> {
                         android.util.Log.d("CallViewModel", "RoomEvent.TrackUnsubscribed: ${event.track.sid}")
-                        refreshParticipants()
+                        participantStore.update(event.participant)
                     }
+                    is RoomEvent.TrackMuted -> participantStore.update(event.participant)
+                    is RoomEvent.TrackUnmuted -> participantStore.update(event.participant)
+                    is RoomEvent.ParticipantMetadataChanged -> participantStore.update(event.participant)
+                    is RoomEvent.ParticipantNameChanged -> participantStore.update(event.participant)
+                    is RoomEvent.ActiveSpeakersChanged -> onActiveSpeakersChanged(r, event.speakers)
                     else -> {
                         android.util.Log.d("CallViewModel", "Unhandled RoomEvent: $event")
                     }
@@ -230,6 +264,17 @@ class CallViewModel(
             }
         }
 
+        // Локальные треки: список участников обновляется по факту публикации, а не по таймеру
+        viewModelScope.launch {
+            r.localParticipant.events.collect { event: ParticipantEvent ->
+                when (event) {
+                    is ParticipantEvent.LocalTrackPublished,
+                    is ParticipantEvent.LocalTrackUnpublished -> participantStore.update(r.localParticipant)
+                    else -> {}
+                }
+            }
+        }
+
         // Re-join the server-side call room whenever the signaling socket reconnects. The
         // socket.io connection can drop and reconnect (cell handoff, backgrounded tab, mid-call
         // token refresh) while LiveKit media stays alive; on reconnect the server has cleared
@@ -253,54 +298,26 @@ class CallViewModel(
         }
     }
 
-    private fun updateLocalVideoTrack(participant: LocalParticipant) {
-        viewModelScope.launch {
-            try {
-                val track = participant.getTrackPublication(Track.Source.CAMERA)?.track as? VideoTrack
-                android.util.Log.d("CallViewModel", "Local video track: ${track != null}")
-                refreshParticipants()
-            } catch (e: Exception) {
-                android.util.Log.e("CallViewModel", "Error getting local video track", e)
-            }
-        }
-    }
-
-    private fun refreshParticipants() {
-        val currentState = _uiState.value
-        if (currentState is CallUiState.Connected) {
-            val participants = buildParticipantsState()
-            handleAutoHangup(participants)
-            _uiState.value = currentState.copy(participants = participants)
-        }
+    /** Полная сверка с комнатой; на обычные события — точечный [CallParticipantStore.update]. */
+    private fun syncParticipants() {
+        val r = room ?: return
+        participantStore.sync(r.localParticipant, r.remoteParticipants.values)
     }
 
-    private fun buildParticipantsState(): List<CallParticipantUi> {
-        val currentRoom = room ?: return emptyList()
-        val participants = mutableListOf<CallParticipantUi>()
-        
-        currentRoom.localParticipant?.let { local ->
-            val ui = local.toCallParticipantUi(isLocal = true)
-            android.util.Log.d("CallViewModel", "Local participant: name=${ui.displayName}, hasVideo=${ui.hasVideo}, track=${ui.videoTrack != null}")
-            participants += ui
-        }
-        
-        currentRoom.remoteParticipants.values
-            .sortedBy { it.joinedAt ?: Long.MAX_VALUE }
-            .forEach { remote ->
-                val ui = remote.toCallParticipantUi(isLocal = false)
-                android.util.Log.d("CallViewModel", "Remote participant: name=${ui.displayName}, hasVideo=${ui.hasVideo}, track=${ui.videoTrack != null}, identity=${remote.identity}, publications=${remote.trackPublications.size}")
-                remote.trackPublications.values.forEach { pub ->
-                    val remotePub = pub as? RemoteTrackPublication
-                    android.util.Log.d("CallViewModel", "  Publication: kind=${pub.kind}, sid=${pub.sid}, track=${remotePub?.track != null}")
-                }
-                participants += ui
-            }
-        
-        return participants
+    /** Обновляем только тех, кто начал или перестал говорить, а не всю сетку. */
+    private fun onActiveSpeakersChanged(r: Room, speakers: List<Participant>) {
+        val current = speakers.mapTo(HashSet()) { it.uiId() }
+        val changed = current.union(activeSpeakerIds) - current.intersect(activeSpeakerIds)
+        activeSpeakerIds = current
+        if (changed.isEmpty()) return
+        if (r.localParticipant.uiId() in changed) participantStore.update(r.localParticipant)
+        r.remoteParticipants.values
+            .filter { it.uiId() in changed }
+            .forEach { participantStore.update(it) }
     }
 
-    private fun handleAutoHangup(participants: List<CallParticipantUi>) {
-        val remoteCount = participants.count { !it.isLocal }
+    private fun handleAutoHangup(roster: List<CallRosterEntry>) {
+        val remoteCount = roster.count { !it.isLocal }
         if (remoteCount > 1) {
             seenMultipleRemoteParticipants = true
         }
@@ -326,14 +343,14 @@ class CallViewModel(
         val remoteParticipant = participant as? RemoteParticipant ?: return
         android.util.Log.d("CallViewModel", "subscribeToRemoteTracks for participant=${remoteParticipant.identity}, publications=${remoteParticipant.trackPublications.size}")
         
-        // Subscribe to all tracks (like VideoConference does in web version)
-        // This ensures we get both video and audio tracks
+        // Audio is always subscribed; video only for tiles that are on screen (see onVisibleParticipantsChanged)
         remoteParticipant.trackPublications.values.forEach { publication ->
             val remotePublication = publication as? RemoteTrackPublication ?: return@forEach
             android.util.Log.d("CallViewModel", "Checking publication: kind=${remotePublication.kind}, sid=${remotePublication.sid}, track=${remotePublication.track != null}")
             
-            // Subscribe to all tracks, not just video (web version subscribes to everything)
-            if (remotePublication.track == null) {
+            if (!shouldSubscribe(remoteParticipant, remotePublication)) {
+                android.util.Log.d("CallViewModel", "Tile off screen, not subscribing to video ${remotePublication.sid}")
+            } else if (remotePublication.track == null) {
                 try {
                     android.util.Log.d(
                         "CallViewModel",
@@ -349,165 +366,124 @@ class CallViewModel(
         }
     }
 
-    private fun LocalParticipant.toCallParticipantUi(isLocal: Boolean): CallParticipantUi =
-        toCallParticipantUiInternal(isLocal)
-
-    private fun RemoteParticipant.toCallParticipantUi(isLocal: Boolean): CallParticipantUi =
-        toCallParticipantUiInternal(isLocal)
-
-    private fun Participant.toCallParticipantUiInternal(isLocal: Boolean): CallParticipantUi {
-        val metadata = parseParticipantMetadata(this.metadata)
-        val resolvedName = metadata.displayName
-            ?: if (isLocal) {
-                currentUser.displayName ?: currentUser.username
-            } else {
-                name ?: identity?.value
-            }
-            ?: if (isLocal) "Я" else "Участник"
-        val avatar = metadata.avatarUrl
-            ?: if (isLocal) currentUser.avatarUrl else null
-        val track = findPrimaryVideoTrack()
-        val identifier = sid.value.ifBlank { identity?.value ?: resolvedName }
-        return CallParticipantUi(
-            id = identifier,
-            displayName = resolvedName,
-            initials = computeInitials(resolvedName),
-            avatarUrl = avatar,
-            videoTrack = track,
-            isLocal = isLocal,
-            isMuted = !isMicrophoneEnabled,
-            isSpeaking = isSpeaking,
-            hasVideo = track != null,
+    /**
+     * Видимые плитки сетки участников (id из [CallParticipantUi]). Что подписать сразу, а что
+     * отписать позже, решает [VideoVisibilityPolicy]. Пока плитка видима, качество
+     * (слой simulcast) подбирает adaptive stream по размеру рендерера.
+     */
+    fun onVisibleParticipantsChanged(ids: Set<String>) {
+        val participants = room?.remoteParticipants?.values.orEmpty()
+        val changes = videoVisibility.onVisibleChanged(
+            ids,
+            participants.map { it.uiId() },
+            SystemClock.elapsedRealtime(),
         )
+        participants.forEach { participant ->
+            val id = participant.uiId()
+            if (id in changes.subscribe) {
+                pendingUnsubscribeJobs.remove(id)?.cancel()
+                subscribeToRemoteTracks(participant)
+            } else if (id in changes.unsubscribeLater) {
+                scheduleVideoUnsubscribe(id)
+            }
+        }
     }
 
-    private fun Participant.findPrimaryVideoTrack(): VideoTrack? {
-        // For local participant, use getTrackPublication
-        if (this is LocalParticipant) {
-            val cameraTrack = getTrackPublication(Track.Source.CAMERA)?.track as? VideoTrack
-            if (cameraTrack != null) {
-                android.util.Log.d("CallViewModel", "Found local video track: ${cameraTrack.sid}")
-                return cameraTrack
+    private fun scheduleVideoUnsubscribe(id: String) {
+        pendingUnsubscribeJobs.remove(id)?.cancel()
+        pendingUnsubscribeJobs[id] = viewModelScope.launch {
+            var remaining = videoVisibility.unsubscribeDelayMs(id, SystemClock.elapsedRealtime())
+            while (remaining != null && remaining > 0) {
+                delay(remaining)
+                remaining = videoVisibility.unsubscribeDelayMs(id, SystemClock.elapsedRealtime())
             }
-        }
-        
-        // For remote participants, check trackPublications
-        // Track is only available after subscription, so if track exists, we're subscribed
-        if (this is RemoteParticipant) {
-            trackPublications.values.forEach { publication ->
-                if (publication.kind == Track.Kind.VIDEO) {
-                    val remotePublication = publication as? RemoteTrackPublication
-                    if (remotePublication != null) {
-                        val track = remotePublication.track as? VideoTrack
-                        if (track != null) {
-                            android.util.Log.d("CallViewModel", "Found remote video track: ${track.sid} for participant ${identity}")
-                            return track
-                        } else {
-                            android.util.Log.d("CallViewModel", "Video track publication exists but track is null: ${remotePublication.sid}, may need subscription")
-                        }
-                    }
+            pendingUnsubscribeJobs.remove(id)
+            if (remaining == null) return@launch
+            val participant = room?.remoteParticipants?.values?.firstOrNull { it.uiId() == id } ?: return@launch
+            participant.trackPublications.values
+                .mapNotNull { it as? RemoteTrackPublication }
+                .filter { it.kind == Track.Kind.VIDEO && it.subscribed }
+                .forEach { publication ->
+                    android.util.Log.d("CallViewModel", "Tile $id off screen, unsubscribing video ${publication.sid}")
+                    runCatching { publication.setSubscribed(false) }
                 }
-            }
+            participantStore.update(participant)
         }
-        
-        // Fallback: check all track publications for any video track
-        val fallback = trackPublications.values.firstOrNull { it.kind == Track.Kind.VIDEO }
-        val fallbackTrack = fallback?.track as? VideoTrack
-        if (fallbackTrack != null) {
-            android.util.Log.d("CallViewModel", "Found fallback video track: ${fallbackTrack.sid}")
-        }
-        return fallbackTrack
     }
 
-    private fun computeInitials(name: String): String {
-        val parts = name.trim().split("\\s+".toRegex()).filter { it.isNotEmpty() }
-        if (parts.isEmpty()) return "?"
-        val initials = parts.take(2).map { it.first().toString().uppercase(Locale.getDefault()) }
-        return initials.joinToString("")
-    }
+    private fun shouldSubscribe(participant: Participant, publication: RemoteTrackPublication): Boolean =
+        publication.kind != Track.Kind.VIDEO || videoVisibility.shouldSubscribeVideo(participant.uiId())
 
-    private data class ParticipantMetadata(
-        val displayName: String? = null,
-        val avatarUrl: String? = null,
-        val userId: String? = null,
-    )
-
-    private fun parseParticipantMetadata(raw: String?): ParticipantMetadata {
-        if (raw.isNullOrBlank()) return ParticipantMetadata()
-        return try {
-            val json = JSONObject(raw)
-            ParticipantMetadata(
-                displayName = json.optString("displayName").takeIf { it.isNotBlank() },
-                avatarUrl = json.optString("avatarUrl").takeIf { it.isNotBlank() },
-                userId = json.optString("userId").takeIf { it.isNotBlank() },
-            )
-        } catch (e: Exception) {
-            android.util.Log.w("CallViewModel", "Failed to parse participant metadata: $raw", e)
-            ParticipantMetadata()
-        }
-    }
-
-    private suspend fun enableLocalTracks() {
+    /**
+     * Зовётся и сразу после connect(), и по RoomEvent.Connected — треки включаются один раз.
+     * Без фиксированных пауз: готовность определяет [LocalTrackPublisher] по событиям публикации.
+     */
+    private fun enableLocalTracks() {
         val r = room ?: return
-        // Delay to ensure localParticipant is fully initialized
-        delay(1000)
+        if (localTracksJob != null) return
+        localTracksJob = viewModelScope.launch { publishLocalTracks(r) }
+    }
 
+    private suspend fun publishLocalTracks(r: Room) {
         val participant = r.localParticipant
-        if (participant != null) {
-            val hasAudioPermission = ContextCompat.checkSelfPermission(
-                context,
-                Manifest.permission.RECORD_AUDIO
-            ) == PackageManager.PERMISSION_GRANTED
-
-            val hasCameraPermission = ContextCompat.checkSelfPermission(
-                context,
-                Manifest.permission.CAMERA
-            ) == PackageManager.PERMISSION_GRANTED
-
-            android.util.Log.d("CallViewModel", "Permissions: audio=$hasAudioPermission, camera=$hasCameraPermission")
-
-            try {
-                // Always try to enable microphone first
-                if (hasAudioPermission) {
-                    android.util.Log.d("CallViewModel", "Enabling microphone")
-                    participant.setMicrophoneEnabled(true)
-                    delay(200) // Small delay after enabling audio
-                } else {
-                    android.util.Log.w("CallViewModel", "Audio permission not granted, skipping microphone")
-                    _uiState.value = CallUiState.Error("Необходимо разрешение на запись аудио для звонка")
-                }
-
-                // Then enable camera if it's a video call and we have permission
-                if (isVideoCall && hasCameraPermission) {
-                    android.util.Log.d("CallViewModel", "Enabling camera")
-                    participant.setCameraEnabled(true)
-                    // Get local video track after enabling camera
-                    delay(500) // Wait for camera to initialize
-                    updateLocalVideoTrack(participant)
-                } else if (isVideoCall) {
-                    android.util.Log.w("CallViewModel", "Camera permission not granted, skipping camera")
-                    refreshParticipants()
-                }
+        val hasAudioPermission = ContextCompat.checkSelfPermission(
+            context,
+            Manifest.permission.RECORD_AUDIO
+        ) == PackageManager.PERMISSION_GRANTED
+
+        val hasCameraPermission = ContextCompat.checkSelfPermission(
+            context,
+            Manifest.permission.CAMERA
+        ) == PackageManager.PERMISSION_GRANTED
+
+        android.util.Log.d("CallViewModel", "Permissions: audio=$hasAudioPermission, camera=$hasCameraPermission")
+        if (!hasAudioPermission) {
+            android.util.Log.w("CallViewModel", "Audio permission not granted, skipping microphone")
+            _uiState.value = CallUiState.Error("Необходимо разрешение на запись аудио для звонка")
+        }
+        if (isVideoCall && !hasCameraPermission) {
+            android.util.Log.w("CallViewModel", "Camera permission not granted, skipping camera")
+        }
 
-                // Update UI state based on actual enabled status
-                val currentState = _uiState.value
-                if (currentState is CallUiState.Connected) {
-                    _uiState.value = currentState.copy(
-                        isVideoEnabled = isVideoCall && hasCameraPermission,
-                        isAudioEnabled = hasAudioPermission,
-                    )
-                }
-                refreshParticipants()
+        val publisher = LocalTrackPublisher(
+            enableMicrophone = { participant.setMicrophoneEnabled(true) },
+            enableCamera = { participant.setCameraEnabled(true) },
+            published = participant.events.events
+                .filterIsInstance<ParticipantEvent.LocalTrackPublished>()
+                .mapNotNull { it.publication.source.toPublisherSource() },
+        )
+        val result = publisher.publish(
+            withMicrophone = hasAudioPermission,
+            withCamera = isVideoCall && hasCameraPermission,
+        )
+        val joinToPublishMs = SystemClock.elapsedRealtime() - joinStartedAt
+        android.util.Log.d(
+            "CallViewModel",
+            "Local tracks published: mic=${result.microphoneMs}ms, camera=${result.cameraMs}ms, join-to-publish=${joinToPublishMs}ms"
+        )
+        callPrewarmer.metrics.recordLocalPublish(joinToPublishMs, joinedPrewarmed)
 
-            } catch (e: Exception) {
-                android.util.Log.e("CallViewModel", "Error enabling camera/microphone", e)
-                _uiState.value = CallUiState.Error("Не удалось включить камеру/микрофон: ${e.message}")
-            }
-        } else {
-            android.util.Log.w("CallViewModel", "localParticipant is null")
+        // Update UI state based on actual enabled status
+        val currentState = _uiState.value
+        if (currentState is CallUiState.Connected) {
+            _uiState.value = currentState.copy(
+                isVideoEnabled = result.cameraMs != null,
+                isAudioEnabled = result.microphoneMs != null,
+            )
+        }
+        participantStore.update(participant)
+        if ((hasAudioPermission && result.microphoneFailed) || (isVideoCall && hasCameraPermission && result.cameraFailed)) {
+            android.util.Log.e("CallViewModel", "Error enabling camera/microphone: $result")
+            _uiState.value = CallUiState.Error("Не удалось включить камеру/микрофон")
         }
     }
 
+    private fun Track.Source.toPublisherSource(): LocalTrackPublisher.Source? = when (this) {
+        Track.Source.MICROPHONE -> LocalTrackPublisher.Source.MICROPHONE
+        Track.Source.CAMERA -> LocalTrackPublisher.Source.CAMERA
+        else -> null
+    }
+
     fun toggleVideo() {
         val currentState = _uiState.value
         if (currentState is CallUiState.Connected) {
@@ -516,17 +492,12 @@ class CallViewModel(
                 val participant = room?.localParticipant
                 if (participant != null) {
                     try {
+                        // setCameraEnabled возвращается после публикации трека — ждать камеру отдельно не нужно
                         participant.setCameraEnabled(newState)
-                        if (newState) {
-                            // Wait a bit for camera to initialize, then get track
-                            kotlinx.coroutines.delay(500)
-                        }
-                        _uiState.value = currentState.copy(isVideoEnabled = newState)
-                        if (newState) {
-                            updateLocalVideoTrack(participant)
-                        } else {
-                            refreshParticipants()
+                        (_uiState.value as? CallUiState.Connected)?.let {
+                            _uiState.value = it.copy(isVideoEnabled = newState)
                         }
+                        participantStore.update(participant)
                     } catch (e: Exception) {
                         android.util.Log.e("CallViewModel", "Error toggling video", e)
                         _uiState.value = CallUiState.Error("Не удалось переключить видео: ${e.message}")
@@ -545,8 +516,10 @@ class CallViewModel(
                 if (participant != null) {
                     try {
                         participant.setMicrophoneEnabled(newState)
-                        _uiState.value = currentState.copy(isAudioEnabled = newState)
-                        refreshParticipants()
+                        (_uiState.value as? CallUiState.Connected)?.let {
+                            _uiState.value = it.copy(isAudioEnabled = newState)
+                        }
+                        participantStore.update(participant)
                     } catch (e: Exception) {
                         android.util.Log.e("CallViewModel", "Error toggling audio", e)
                         _uiState.value = CallUiState.Error("Не удалось переключить микрофон: ${e.message}")
@@ -565,11 +538,18 @@ class CallViewModel(
     private fun cleanup() {
         pendingHangJob?.cancel()
         pendingHangJob = null
+        localTracksJob?.cancel()
+        localTracksJob = null
+        pendingUnsubscribeJobs.values.forEach { it.cancel() }
+        pendingUnsubscribeJobs.clear()
         realtimeService.leaveCallRoom(conversationId)
         if (isGroup) {
             realtimeService.requestCallStatuses(listOf(conversationId))
         }
         room?.disconnect()
+        // Room из CallPrewarmer живёт дольше соединения: без release() остаются фабрика
+        // PeerConnection и ресурсы OkHttp
+        room?.release()
         room = null
     }
 
@@ -597,7 +577,7 @@ class CallViewModelFactory(
         if (modelClass.isAssignableFrom(CallViewModel::class.java)) {
             return CallViewModel(
                 context = context,
-                liveKitRepository = container.liveKitRepository,
+                callPrewarmer = container.callPrewarmer,
                 realtimeService = container.realtimeService,
                 conversationId = conversationId,
                 currentUser = currentUser,
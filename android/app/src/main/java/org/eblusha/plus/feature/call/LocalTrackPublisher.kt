@@ -0,0 +1,75 @@
+package org.eblusha.plus.feature.call
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.async
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.filter
+import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.withTimeoutOrNull
+
+/**
+ * Включение микрофона и камеры после входа в комнату.
+ *
+ * Раньше между шагами стояли фиксированные паузы (1000 + 200 + 500 мс) «чтобы всё успело
+ * инициализироваться»: +1.7 с к каждому звонку и всё равно гонка на медленных устройствах.
+ * Теперь захват обоих источников стартует одновременно, а готовность определяется по
+ * событию публикации трека ([published], в звонке — `ParticipantEvent.LocalTrackPublished`).
+ * Подписка на события оформляется до включения, так что быстрая публикация не теряется.
+ */
+class LocalTrackPublisher(
+    private val enableMicrophone: suspend () -> Boolean,
+    private val enableCamera: suspend () -> Boolean,
+    private val published: Flow<Source>,
+    private val clock: () -> Long = { System.nanoTime() / 1_000_000 },
+) {
+    enum class Source { MICROPHONE, CAMERA }
+
+    /** Время от вызова [publish] до публикации; null — источник не запрашивался или не опубликован. */
+    data class Result(
+        val microphoneMs: Long?,
+        val cameraMs: Long?,
+        val microphoneFailed: Boolean,
+        val cameraFailed: Boolean,
+    )
+
+    suspend fun publish(
+        withMicrophone: Boolean,
+        withCamera: Boolean,
+        timeoutMs: Long = PUBLISH_TIMEOUT_MS,
+    ): Result = coroutineScope {
+        val startedAt = clock()
+        val micPublished = if (withMicrophone) awaitPublished(Source.MICROPHONE, timeoutMs) else null
+        val cameraPublished = if (withCamera) awaitPublished(Source.CAMERA, timeoutMs) else null
+
+        val micEnabled = if (withMicrophone) async { runCatching { enableMicrophone() }.getOrDefault(false) } else null
+        val cameraEnabled = if (withCamera) async { runCatching { enableCamera() }.getOrDefault(false) } else null
+
+        // Если включение не удалось, события публикации не будет — не ждём его до таймаута
+        val micMs = if (micEnabled?.await() == true) micPublished?.await()?.let { it - startedAt } else null
+        val cameraMs = if (cameraEnabled?.await() == true) cameraPublished?.await()?.let { it - startedAt } else null
+        micPublished?.cancel()
+        cameraPublished?.cancel()
+
+        Result(
+            microphoneMs = micMs,
+            cameraMs = cameraMs,
+            microphoneFailed = withMicrophone && micMs == null,
+            cameraFailed = withCamera && cameraMs == null,
+        )
+    }
+
+    private fun CoroutineScope.awaitPublished(source: Source, timeoutMs: Long) =
+        // UNDISPATCHED: подписка на поток происходит сразу, до включения захвата
+        async(start = CoroutineStart.UNDISPATCHED) {
+            withTimeoutOrNull(timeoutMs) {
+                published.filter { it == source }.first()
+                clock()
+            }
+        }
+
+    private companion object {
+        const val PUBLISH_TIMEOUT_MS = 10_000L
+    }
+}
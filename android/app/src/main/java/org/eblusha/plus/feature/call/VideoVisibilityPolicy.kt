@@ -0,0 +1,74 @@
+package org.eblusha.plus.feature.call
+
+/**
+ * Какие видеотреки держать подписанными по видимым плиткам сетки. Чистая логика без LiveKit
+ * и корутин: [CallViewModel] сообщает сюда видимые id и время, а сам только (от)подписывает.
+ *
+ * Пока сетка ничего не сообщила — подписка на всё. Ставшие видимыми подписываются сразу;
+ * ушедшие с экрана (в том числе все разом, когда сетка скрыта и прислала пустой набор) —
+ * только после [UNSUBSCRIBE_DELAY_MS] вне экрана, чтобы прокрутка туда-обратно не дёргала подписку.
+ */
+class VideoVisibilityPolicy(
+    private val unsubscribeDelayMs: Long = UNSUBSCRIBE_DELAY_MS,
+) {
+    /** Что сделать после смены видимых плиток. */
+    data class Changes(
+        /** Стали видимыми: подписаться сразу, отложенную отписку отменить. */
+        val subscribe: Set<String>,
+        /** Ушли с экрана: отписать, когда [unsubscribeDelayMs] вернёт 0. */
+        val unsubscribeLater: Set<String>,
+    )
+
+    /** null — сетка ещё не сообщила видимые плитки. */
+    var visible: Set<String>? = null
+        private set
+
+    private val hiddenSince = mutableMapOf<String, Long>()
+
+    fun shouldSubscribeVideo(id: String): Boolean = visible?.contains(id) ?: true
+
+    /**
+     * @param participants id удалённых участников, которых сейчас касается решение.
+     * @param nowMs монотонное время (elapsedRealtime), от него отсчитывается задержка отписки.
+     */
+    fun onVisibleChanged(ids: Set<String>, participants: Collection<String>, nowMs: Long): Changes {
+        val previous = visible
+        if (previous == ids) return NO_CHANGES
+        visible = ids
+        val subscribe = mutableSetOf<String>()
+        val unsubscribeLater = mutableSetOf<String>()
+        participants.forEach { id ->
+            if (id in ids) {
+                if (previous == null || id !in previous) {
+                    hiddenSince.remove(id)
+                    subscribe += id
+                }
+            } else if (previous == null || id in previous) {
+                hiddenSince[id] = nowMs
+                unsubscribeLater += id
+            }
+        }
+        return Changes(subscribe, unsubscribeLater)
+    }
+
+    /**
+     * Сколько ещё ждать до отписки видео участника [id]: 0 — пора, null — отписывать не нужно
+     * (плитка вернулась на экран или участник забыт).
+     */
+    fun unsubscribeDelayMs(id: String, nowMs: Long): Long? {
+        if (shouldSubscribeVideo(id)) return null
+        val since = hiddenSince[id] ?: return null
+        return (since + unsubscribeDelayMs - nowMs).coerceAtLeast(0)
+    }
+
+    /** Участник ушёл из звонка. */
+    fun forget(id: String) {
+        hiddenSince.remove(id)
+    }
+
+    companion object {
+        const val UNSUBSCRIBE_DELAY_MS = 3_000L
+
+        private val NO_CHANGES = Changes(emptySet(), emptySet())
+    }
+}
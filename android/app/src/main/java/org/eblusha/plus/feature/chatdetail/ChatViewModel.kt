@@ -15,6 +15,7 @@ import org.eblusha.plus.core.di.AppContainer
 import org.eblusha.plus.data.api.messages.MessageDto
 import org.eblusha.plus.data.api.messages.MessagesApi
 import org.eblusha.plus.data.api.messages.SendMessageRequest
+import org.eblusha.plus.data.messages.MessageRepository
 import org.eblusha.plus.data.realtime.RealtimeEvent
 import org.eblusha.plus.data.realtime.RealtimeService
 import org.eblusha.plus.feature.session.SessionUser
@@ -24,7 +25,12 @@ import retrofit2.HttpException
 
 sealed interface ChatUiState {
     data object Loading : ChatUiState
-    data class Loaded(val messages: List<ChatMessage>) : ChatUiState
+    data class Loaded(
+        val messages: List<ChatMessage>,
+        val hasOlder: Boolean = false,
+        val hasNewer: Boolean = false,
+        val isLoadingOlder: Boolean = false,
+    ) : ChatUiState
     data class Error(val message: String) : ChatUiState
 }
 
@@ -41,6 +47,7 @@ data class ChatMessage(
 class ChatViewModel(
     private val conversationId: String,
     private val messagesApi: MessagesApi,
+    private val messageRepository: MessageRepository,
     private val currentUser: SessionUser,
     private val realtimeService: RealtimeService,
 ) : ViewModel() {
@@ -53,6 +60,13 @@ class ChatViewModel(
 
     private val formatter = DateTimeFormatter.ofLocalizedDateTime(FormatStyle.SHORT)
 
+    // Окно таймлайна в памяти (от новых к старым), не больше WINDOW_SIZE сообщений
+    private var window: List<MessageDto> = emptyList()
+    private var hasOlder = false
+    private var hasNewer = false
+    private var isLoadingOlder = false
+    private var isLoadingNewer = false
+
     init {
         refresh()
         observeRealtimeMessages()
@@ -64,46 +78,57 @@ class ChatViewModel(
         viewModelScope.launch {
             realtimeService.events
                 .onEach { event ->
-                    if (event is RealtimeEvent.MessageNew && event.conversationId == conversationId) {
-                        android.util.Log.d("ChatViewModel", "New message received: ${event.messageId}")
-                        // Load new message and add to list without full refresh
-                        addNewMessage(event.messageId)
+                    when {
+                        event is RealtimeEvent.MessageNew && event.conversationId == conversationId -> {
+                            android.util.Log.d("ChatViewModel", "New message received: ${event.messageId}")
+                            // Load new message and add to list without full refresh
+                            addNewMessage(event.messageId, event.message)
+                        }
+                        event is RealtimeEvent.MessageUpdated && event.conversationId == conversationId ->
+                            applyMessageUpdate(event.messageId, event.reason)
+                        // Разрыв дольше журнала сервера — только тогда перечитываем всё
+                        event is RealtimeEvent.ResyncRequired -> refresh()
                     }
                 }
                 .launchIn(viewModelScope)
         }
     }
     
-    private fun addNewMessage(messageId: String) {
+    private fun addNewMessage(messageId: String, embedded: MessageDto? = null) {
         viewModelScope.launch {
-            val currentState = _state.value
-            if (currentState !is ChatUiState.Loaded) {
-                // If not loaded yet, just refresh
-                refresh()
-                return@launch
-            }
-            
-            // Check if message already exists
-            val existingMessage = currentState.messages.find { it.id == messageId }
-            if (existingMessage != null) {
+            if (window.any { it.id == messageId }) {
                 android.util.Log.d("ChatViewModel", "Message $messageId already in list")
                 return@launch
             }
-            
-            // Load all messages to get the new one (API doesn't have get by ID endpoint)
-            // But we'll do it in background without showing loading state
+            // Загружаем только это сообщение (с диска или по id с сервера)
             try {
-                val response = messagesApi.getMessages(conversationId)
-                val newMessages = response.messages.map { it.toChatMessage() }
-                _state.value = ChatUiState.Loaded(newMessages)
+                val message = messageRepository.onMessageNew(conversationId, messageId, embedded) ?: return@launch
+                // Если пользователь листает историю (низ окна вытеснен) — новое подхватит loadNewer()
+                if (!hasNewer) {
+                    mergeNewest(listOf(message))
+                }
             } catch (e: Throwable) {
                 android.util.Log.e("ChatViewModel", "Error loading new message", e)
-                // On error, just refresh
-                refresh()
             }
         }
     }
     
+    private fun applyMessageUpdate(messageId: String, reason: String) {
+        viewModelScope.launch {
+            try {
+                val updated = messageRepository.onMessageUpdated(conversationId, messageId, reason)
+                window = if (updated == null) {
+                    window.filterNot { it.id == messageId }
+                } else {
+                    window.map { if (it.id == messageId) updated else it }
+                }
+                publish()
+            } catch (e: Throwable) {
+                android.util.Log.e("ChatViewModel", "Error applying message update", e)
+            }
+        }
+    }
+
     override fun onCleared() {
         super.onCleared()
         // Leave conversation room when ViewModel is cleared
@@ -112,16 +137,107 @@ class ChatViewModel(
 
     fun refresh() {
         viewModelScope.launch {
-            _state.value = ChatUiState.Loading
-            _state.value = try {
-                val response = messagesApi.getMessages(conversationId)
-                ChatUiState.Loaded(response.messages.map { it.toChatMessage() })
+            // Сначала показываем то, что есть на диске, затем синхронизируемся с сервером
+            val cached = try {
+                messageRepository.cached(conversationId)
+            } catch (e: Throwable) {
+                android.util.Log.w("ChatViewModel", "Failed to read cached messages", e)
+                emptyList()
+            }
+            if (cached.isNotEmpty()) {
+                window = cached
+                hasOlder = true
+                hasNewer = false
+                publish()
+            } else {
+                _state.value = ChatUiState.Loading
+            }
+            try {
+                val page = messageRepository.sync(conversationId)
+                window = page.messages
+                hasOlder = page.hasMore
+                hasNewer = false
+                publish()
+            } catch (e: Throwable) {
+                if (cached.isEmpty()) {
+                    _state.value = ChatUiState.Error(e.message ?: "Не удалось загрузить сообщения")
+                }
+            }
+        }
+    }
+
+    /** Подгрузка истории при прокрутке вверх. */
+    fun loadOlder() {
+        val oldest = window.lastOrNull() ?: return
+        if (!hasOlder || isLoadingOlder) return
+        isLoadingOlder = true
+        publish()
+        viewModelScope.launch {
+            try {
+                val page = messageRepository.older(conversationId, oldest)
+                val known = window.mapTo(HashSet()) { it.id }
+                window = window + page.messages.filter { it.id !in known }
+                hasOlder = page.hasMore
+                // Окно ограничено: вытесняем самые новые, их можно вернуть с диска
+                if (window.size > WINDOW_SIZE) {
+                    window = window.takeLast(WINDOW_SIZE)
+                    hasNewer = true
+                }
             } catch (e: Throwable) {
-                ChatUiState.Error(e.message ?: "Не удалось загрузить сообщения")
+                android.util.Log.e("ChatViewModel", "Error loading older messages", e)
+            } finally {
+                isLoadingOlder = false
+                publish()
             }
         }
     }
 
+    /** Возврат к свежим сообщениям после того, как они были вытеснены из окна. */
+    fun loadNewer() {
+        val newest = window.firstOrNull() ?: return
+        if (!hasNewer || isLoadingNewer) return
+        isLoadingNewer = true
+        viewModelScope.launch {
+            try {
+                val page = messageRepository.newer(conversationId, newest)
+                hasNewer = page.hasMore
+                window = page.messages + window
+                if (window.size > WINDOW_SIZE) {
+                    window = window.take(WINDOW_SIZE)
+                    hasOlder = true
+                }
+                publish()
+            } catch (e: Throwable) {
+                android.util.Log.e("ChatViewModel", "Error loading newer messages", e)
+            } finally {
+                isLoadingNewer = false
+            }
+        }
+    }
+
+    private fun mergeNewest(fresh: List<MessageDto>) {
+        if (fresh.isEmpty()) return
+        val merged = (fresh + window)
+            .distinctBy { it.id }
+            .sortedWith(compareByDescending<MessageDto> { it.createdAt.orEmpty() }.thenByDescending { it.id })
+        window = if (merged.size > WINDOW_SIZE) {
+            hasOlder = true
+            merged.take(WINDOW_SIZE)
+        } else {
+            merged
+        }
+        publish()
+    }
+
+    private fun publish() {
+        _state.value = ChatUiState.Loaded(
+            messages = window.map { it.toChatMessage() },
+            hasOlder = hasOlder,
+            hasNewer = hasNewer,
+            isLoadingOlder = isLoadingOlder,
+        )
+    }
+
     fun sendMessage(content: String, isSecret: Boolean = false) {
         if (content.isBlank()) return
         viewModelScope.launch {
@@ -137,8 +253,16 @@ class ChatViewModel(
                 )
                 android.util.Log.d("ChatViewModel", "Sending message: conversationId=$conversationId, isSecret=$isSecret, type=TEXT, content=${content.take(50)}...")
                 val sent = messagesApi.sendMessage(body).message
-                val current = (_state.value as? ChatUiState.Loaded)?.messages.orEmpty()
-                _state.value = ChatUiState.Loaded(listOf(sent.toChatMessage()) + current)
+                messageRepository.save(conversationId, sent)
+                if (hasNewer) {
+                    // Пользователь отправил сообщение, листая историю — возвращаемся к последним
+                    window = messageRepository.cached(conversationId)
+                    hasOlder = true
+                    hasNewer = false
+                    publish()
+                } else {
+                    mergeNewest(listOf(sent))
+                }
             } catch (e: Throwable) {
                 android.util.Log.e("ChatViewModel", "Error sending message", e)
                 val errorMessage = when {
@@ -187,6 +311,8 @@ class ChatViewModel(
     }
 }
 
+private const val WINDOW_SIZE = 200
+
 class ChatViewModelFactory(
     private val container: AppContainer,
     private val conversationId: String,
@@ -198,6 +324,7 @@ class ChatViewModelFactory(
             return ChatViewModel(
                 conversationId = conversationId,
                 messagesApi = container.messagesApi,
+                messageRepository = container.messageRepository,
                 currentUser = currentUser,
                 realtimeService = container.realtimeService
             ) as T
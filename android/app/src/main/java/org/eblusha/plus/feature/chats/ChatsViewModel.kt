@@ -129,6 +129,7 @@ class ChatsViewModel(
         realtimeService.events.collect { event ->
             when (event) {
                 is RealtimeEvent.PresenceUpdate -> updatePresence(event.userId, event.status)
+                RealtimeEvent.ResyncRequired -> refresh()
                 else -> Unit
             }
         }
@@ -16,6 +16,7 @@ import org.eblusha.plus.data.realtime.RealtimeService
 import org.eblusha.plus.data.api.auth.LoginRequest
 import org.eblusha.plus.data.api.status.StatusApi
 import org.eblusha.plus.data.api.status.StatusUser
+import org.eblusha.plus.data.messages.MessageRepository
 import org.eblusha.plus.data.session.SessionStore
 
 sealed interface SessionUiState {
@@ -39,6 +40,7 @@ class SessionViewModel(
     private val statusApi: StatusApi,
     private val authApi: AuthApi,
     private val realtimeService: RealtimeService,
+    private val messageRepository: MessageRepository,
 ) : ViewModel() {
 
     private val _uiState = MutableStateFlow<SessionUiState>(SessionUiState.Loading)
@@ -90,6 +92,8 @@ class SessionViewModel(
             _uiState.value = SessionUiState.Loading
             try {
                 val response = authApi.login(LoginRequest(username.trim(), password))
+                // Refresh token раньше access: запросы стартуют сразу по смене access token
+                sessionStore.setRefreshToken(response.refreshToken)
                 sessionStore.setAccessToken(response.accessToken)
                 // Save credentials for automatic re-login
                 sessionStore.setCredentials(username.trim(), password)
@@ -102,6 +106,8 @@ class SessionViewModel(
     fun logout() {
         viewModelScope.launch {
             sessionStore.clear()
+            // Локальная история не должна переживать выход из аккаунта
+            runCatching { messageRepository.clear() }
         }
     }
 
@@ -149,6 +155,7 @@ class SessionViewModelFactory(
                 statusApi = container.statusApi,
                 authApi = container.authApi,
                 realtimeService = container.realtimeService,
+                messageRepository = container.messageRepository,
             ) as T
         }
         throw IllegalArgumentException("Unknown ViewModel class")
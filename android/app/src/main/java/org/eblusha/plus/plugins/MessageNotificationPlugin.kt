@@ -13,9 +13,10 @@ import com.getcapacitor.Plugin
 import com.getcapacitor.PluginCall
 import com.getcapacitor.PluginMethod
 import com.getcapacitor.annotation.CapacitorPlugin
+import okhttp3.Request
+import org.eblusha.plus.EblushaApp
 import org.eblusha.plus.MainActivity
-import java.io.InputStream
-import java.net.URL
+import java.util.concurrent.TimeUnit
 
 @CapacitorPlugin(name = "MessageNotification")
 class MessageNotificationPlugin : Plugin() {
@@ -124,11 +125,14 @@ class MessageNotificationPlugin : Plugin() {
     
     private fun loadBitmapFromUrl(url: String): Bitmap? {
         return try {
-            val connection = URL(url).openConnection()
-            connection.connectTimeout = 3000
-            connection.readTimeout = 3000
-            val inputStream: InputStream = connection.getInputStream()
-            BitmapFactory.decodeStream(inputStream)
+            val client = (context.applicationContext as EblushaApp).container.httpStack.client
+                .newBuilder()
+                .callTimeout(3, TimeUnit.SECONDS)
+                .build()
+            client.newCall(Request.Builder().url(url).build()).execute().use { response ->
+                if (!response.isSuccessful) return null
+                response.body?.byteStream()?.let(BitmapFactory::decodeStream)
+            }
         } catch (e: Exception) {
             android.util.Log.w("MessageNotificationPlugin", "Failed to load avatar from $url", e)
             null
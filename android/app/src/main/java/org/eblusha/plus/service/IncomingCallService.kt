@@ -106,6 +106,7 @@ class IncomingCallService : Service() {
                 if (container != null) {
                     runCatching {
                         container.realtimeService.declineCall(conversationId)
+                        container.callPrewarmer.cancel(conversationId)
                     }.onFailure {
                         android.util.Log.e("IncomingCallService", "Failed to send decline event", it)
                     }
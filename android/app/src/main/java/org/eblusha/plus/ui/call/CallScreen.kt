@@ -20,6 +20,7 @@ import androidx.compose.foundation.shape.CircleShape
 import androidx.compose.foundation.lazy.grid.GridCells
 import androidx.compose.foundation.lazy.grid.LazyVerticalGrid
 import androidx.compose.foundation.lazy.grid.items
+import androidx.compose.foundation.lazy.grid.rememberLazyGridState
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.filled.Call
 import androidx.compose.material.icons.filled.CallEnd
@@ -36,12 +37,15 @@ import androidx.compose.material3.MaterialTheme
 import androidx.compose.material3.Surface
 import androidx.compose.material3.Text
 import androidx.compose.runtime.Composable
+import androidx.compose.runtime.CompositionLocalProvider
 import androidx.compose.runtime.DisposableEffect
 import androidx.compose.runtime.LaunchedEffect
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
+import androidx.compose.runtime.rememberUpdatedState
 import androidx.compose.runtime.setValue
+import androidx.compose.runtime.snapshotFlow
 import androidx.compose.ui.Alignment
 import androidx.compose.ui.Modifier
 import androidx.compose.ui.draw.clip
@@ -61,6 +65,9 @@ import org.eblusha.plus.ActiveCallSession
 import org.eblusha.plus.CallOverlayHandle
 import org.eblusha.plus.core.di.AppContainer
 import org.eblusha.plus.feature.call.CallParticipantUi
+import org.eblusha.plus.feature.call.CallRosterEntry
+import kotlinx.coroutines.flow.StateFlow
+import kotlinx.coroutines.flow.distinctUntilChanged
 import org.eblusha.plus.feature.call.CallUiState
 import org.eblusha.plus.feature.call.CallViewModel
 import org.eblusha.plus.feature.call.CallViewModelFactory
@@ -96,6 +103,11 @@ fun CallOverlayHost(
     )
     val state by viewModel.uiState.collectAsStateWithLifecycle()
     var hasLeftIdle by remember(session.conversationId) { mutableStateOf(false) }
+    // Один EGL-контекст и пул рендереров на весь звонок, а не на каждую плитку
+    val rendererPool = remember(session.conversationId) { VideoRendererPool(appContext) }
+    DisposableEffect(rendererPool) {
+        onDispose { rendererPool.release() }
+    }
 
     DisposableEffect(viewModel) {
         val handle = CallOverlayHandle {
@@ -122,15 +134,19 @@ fun CallOverlayHost(
                 .fillMaxSize()
                 .zIndex(1f)
         ) {
-            CallScreen(
-                state = state,
-                onHangUp = {
-                    viewModel.hangUp()
-                },
-                onToggleVideo = viewModel::toggleVideo,
-                onToggleAudio = viewModel::toggleAudio,
-                onMinimize = onRequestMinimize,
-            )
+            CompositionLocalProvider(LocalVideoRendererPool provides rendererPool) {
+                CallScreen(
+                    state = state,
+                    onHangUp = {
+                        viewModel.hangUp()
+                    },
+                    onToggleVideo = viewModel::toggleVideo,
+                    onToggleAudio = viewModel::toggleAudio,
+                    onMinimize = onRequestMinimize,
+                    onVisibleParticipantsChanged = viewModel::onVisibleParticipantsChanged,
+                    participantState = viewModel::participant,
+                )
+            }
         }
     }
 }
@@ -142,6 +158,8 @@ private fun CallScreen(
     onToggleVideo: () -> Unit,
     onToggleAudio: () -> Unit,
     onMinimize: () -> Unit,
+    onVisibleParticipantsChanged: (Set<String>) -> Unit,
+    participantState: (String) -> StateFlow<CallParticipantUi>?,
 ) {
     val spacing = LocalSpacing.current
     Box(
@@ -190,6 +208,8 @@ private fun CallScreen(
                     onToggleVideo = onToggleVideo,
                     onToggleAudio = onToggleAudio,
                     onMinimize = onMinimize,
+                    onVisibleParticipantsChanged = onVisibleParticipantsChanged,
+                    participantState = participantState,
                 )
             }
             is CallUiState.Error -> {
@@ -228,10 +248,12 @@ private fun CallConnectedOverlay(
     onToggleVideo: () -> Unit,
     onToggleAudio: () -> Unit,
     onMinimize: () -> Unit,
+    onVisibleParticipantsChanged: (Set<String>) -> Unit,
+    participantState: (String) -> StateFlow<CallParticipantUi>?,
 ) {
     val spacing = LocalSpacing.current
-    val remoteParticipants = state.participants.filterNot { it.isLocal }
-    val localParticipant = state.participants.firstOrNull { it.isLocal }
+    val remoteParticipants = state.roster.filterNot { it.isLocal }
+    val localParticipant = state.roster.firstOrNull { it.isLocal }
     val configuration = LocalConfiguration.current
     val isCompact = configuration.screenWidthDp < 720
 
@@ -256,7 +278,7 @@ private fun CallConnectedOverlay(
                     .padding(24.dp),
                 verticalArrangement = Arrangement.spacedBy(spacing.lg)
             ) {
-                CallHeader(state.participants)
+                CallHeader(state.roster)
                 Box(
                     modifier = Modifier
                         .weight(1f)
@@ -279,18 +301,22 @@ private fun CallConnectedOverlay(
                     } else {
                         CallParticipantsGrid(
                             participants = remoteParticipants,
+                            participantState = participantState,
+                            onVisibleParticipantsChanged = onVisibleParticipantsChanged,
                             modifier = Modifier
                                 .fillMaxSize()
                                 .padding(16.dp)
                         )
                     }
-                    localParticipant?.let {
-                        LocalParticipantPreview(
-                            participant = it,
-                            modifier = Modifier
-                                .align(Alignment.TopEnd)
-                                .padding(16.dp)
-                        )
+                    localParticipant?.let { entry ->
+                        ParticipantState(entry, participantState) { participant ->
+                            LocalParticipantPreview(
+                                participant = participant,
+                                modifier = Modifier
+                                    .align(Alignment.TopEnd)
+                                    .padding(16.dp)
+                            )
+                        }
                     }
                 }
                 CallControlsBar(
@@ -307,7 +333,7 @@ private fun CallConnectedOverlay(
 }
 
 @Composable
-private fun CallHeader(participants: List<CallParticipantUi>) {
+private fun CallHeader(participants: List<CallRosterEntry>) {
     val remoteNames = participants
         .filterNot { it.isLocal }
         .joinToString(", ") { it.displayName }
@@ -344,10 +370,23 @@ private fun CallHeader(participants: List<CallParticipantUi>) {
 
 @Composable
 private fun CallParticipantsGrid(
-    participants: List<CallParticipantUi>,
+    participants: List<CallRosterEntry>,
+    participantState: (String) -> StateFlow<CallParticipantUi>?,
+    onVisibleParticipantsChanged: (Set<String>) -> Unit,
     modifier: Modifier = Modifier,
 ) {
     val spacing = LocalSpacing.current
+    val gridState = rememberLazyGridState()
+    val currentOnVisibleChanged by rememberUpdatedState(onVisibleParticipantsChanged)
+    // Видео подписано только для плиток на экране; сетка скрыта (свернули звонок) — ни для каких
+    LaunchedEffect(gridState) {
+        snapshotFlow { gridState.layoutInfo.visibleItemsInfo.mapNotNull { it.key as? String }.toSet() }
+            .distinctUntilChanged()
+            .collect { currentOnVisibleChanged(it) }
+    }
+    DisposableEffect(Unit) {
+        onDispose { currentOnVisibleChanged(emptySet()) }
+    }
     if (participants.isEmpty()) {
         Box(
             modifier = modifier.fillMaxSize(),
@@ -364,16 +403,34 @@ private fun CallParticipantsGrid(
         LazyVerticalGrid(
             columns = GridCells.Adaptive(minSize = 220.dp),
             modifier = modifier,
+            state = gridState,
             verticalArrangement = Arrangement.spacedBy(spacing.md),
             horizontalArrangement = Arrangement.spacedBy(spacing.md),
         ) {
-            items(participants, key = { it.id }) { participant ->
-                CallParticipantTile(participant)
+            items(participants, key = { it.id }) { entry ->
+                ParticipantState(entry, participantState) { participant ->
+                    CallParticipantTile(participant)
+                }
             }
         }
     }
 }
 
+/**
+ * Подписка плитки на состояние своего участника: говорит/микрофон/видео одного участника
+ * перерисовывают только его плитку, а не всю сетку.
+ */
+@Composable
+private fun ParticipantState(
+    entry: CallRosterEntry,
+    participantState: (String) -> StateFlow<CallParticipantUi>?,
+    content: @Composable (CallParticipantUi) -> Unit,
+) {
+    val flow = participantState(entry.id) ?: return
+    val participant by flow.collectAsStateWithLifecycle()
+    content(participant)
+}
+
 @Composable
 private fun CallParticipantTile(participant: CallParticipantUi) {
     val borderColor = if (participant.isSpeaking) Color(0xFF5EEAD4) else Color.Transparent
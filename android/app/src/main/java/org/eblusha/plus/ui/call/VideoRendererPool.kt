@@ -0,0 +1,88 @@
+package org.eblusha.plus.ui.call
+
+import android.content.Context
+import android.graphics.Color
+import android.view.ViewGroup
+import androidx.compose.runtime.staticCompositionLocalOf
+import io.livekit.android.room.track.VideoTrack
+import livekit.org.webrtc.EglBase
+import livekit.org.webrtc.RendererCommon
+import livekit.org.webrtc.SurfaceViewRenderer
+
+/**
+ * Общий EGL-контекст и пул рендереров на один звонок.
+ *
+ * Раньше каждый [LiveKitVideoView] создавал свой [EglBase] и свой [SurfaceViewRenderer]
+ * (а с ним — GL-поток) и уничтожал их при уходе плитки с экрана: прокрутка сетки или
+ * переключение видео пересоздавали контексты. Теперь контекст один на звонок, а рендереры
+ * после плитки возвращаются в пул и достаются следующей. Только main thread.
+ */
+class VideoRendererPool(
+    private val context: Context,
+    private val maxIdle: Int = MAX_IDLE,
+) {
+    val eglBase: EglBase = EglBase.create()
+
+    private val idle = ArrayDeque<SurfaceViewRenderer>()
+    private var created = 0
+    private var reused = 0
+    private var released = false
+
+    fun acquire(): SurfaceViewRenderer {
+        check(!released) { "VideoRendererPool already released" }
+        idle.removeLastOrNull()?.let {
+            reused++
+            return it
+        }
+        created++
+        android.util.Log.d("VideoRendererPool", "Creating renderer #$created (reused $reused)")
+        return SurfaceViewRenderer(context).apply {
+            layoutParams = ViewGroup.LayoutParams(
+                ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.MATCH_PARENT
+            )
+            init(eglBase.eglBaseContext, null)
+            setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FIT)
+            setEnableHardwareScaler(true)
+            setZOrderMediaOverlay(true)
+            setBackgroundColor(Color.TRANSPARENT)
+        }
+    }
+
+    /** Отвязать трек и вернуть рендерер в пул (или освободить, если пул полон). */
+    fun recycle(renderer: SurfaceViewRenderer) {
+        bind(renderer, null)
+        (renderer.parent as? ViewGroup)?.removeView(renderer)
+        if (released || idle.size >= maxIdle) {
+            renderer.release()
+        } else {
+            renderer.clearImage()
+            idle.addLast(renderer)
+        }
+    }
+
+    /** Трек хранится в tag рендерера, чтобы при смене трека отписать старый. */
+    fun bind(renderer: SurfaceViewRenderer, track: VideoTrack?) {
+        val previousTrack = renderer.tag as? VideoTrack
+        if (previousTrack == track) return
+        previousTrack?.removeRenderer(renderer)
+        track?.addRenderer(renderer)
+        renderer.tag = track
+    }
+
+    fun release() {
+        if (released) return
+        released = true
+        idle.forEach { it.release() }
+        idle.clear()
+        eglBase.release()
+        android.util.Log.d("VideoRendererPool", "Released: created=$created, reused=$reused")
+    }
+
+    private companion object {
+        const val MAX_IDLE = 4
+    }
+}
+
+/** Пул текущего звонка; задаётся в CallOverlayHost. */
+val LocalVideoRendererPool = staticCompositionLocalOf<VideoRendererPool?> { null }
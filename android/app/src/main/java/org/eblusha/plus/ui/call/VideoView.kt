@@ -1,17 +1,12 @@
 package org.eblusha.plus.ui.call
 
-import android.graphics.Color
-import android.view.ViewGroup
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.DisposableEffect
-import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
 import androidx.compose.ui.Modifier
+import androidx.compose.ui.platform.LocalContext
 import androidx.compose.ui.viewinterop.AndroidView
 import io.livekit.android.room.track.VideoTrack
-import livekit.org.webrtc.EglBase
-import livekit.org.webrtc.RendererCommon
-import livekit.org.webrtc.SurfaceViewRenderer
 
 @Composable
 fun LiveKitVideoView(
@@ -19,46 +14,28 @@ fun LiveKitVideoView(
     modifier: Modifier = Modifier,
     mirror: Boolean = false,
 ) {
-    val eglBase = remember { EglBase.create() }
-    val rendererRef = remember { mutableStateOf<SurfaceViewRenderer?>(null) }
+    val pool = LocalVideoRendererPool.current ?: rememberStandalonePool()
 
     AndroidView(
-        factory = { context ->
-            SurfaceViewRenderer(context).apply {
-                layoutParams = ViewGroup.LayoutParams(
-                    ViewGroup.LayoutParams.MATCH_PARENT,
-                    ViewGroup.LayoutParams.MATCH_PARENT
-                )
-                init(eglBase.eglBaseContext, null)
-                setScalingType(RendererCommon.ScalingType.SCALE_ASPECT_FIT)
-                setEnableHardwareScaler(true)
-                setZOrderMediaOverlay(true)
-                setBackgroundColor(Color.TRANSPARENT)
-                rendererRef.value = this
-            }
-        },
+        factory = { pool.acquire() },
         modifier = modifier,
+        // onReset != null: Compose может переиспользовать view между элементами сетки
+        onReset = { view -> pool.bind(view, null) },
+        onRelease = { view -> pool.recycle(view) },
         update = { view ->
             view.setMirror(mirror)
-            val previousTrack = view.tag as? VideoTrack
-            if (previousTrack != track) {
-                previousTrack?.removeRenderer(view)
-                track?.addRenderer(view)
-                view.tag = track
-            }
+            pool.bind(view, track)
         }
     )
+}
 
-    DisposableEffect(track) {
-        onDispose {
-            rendererRef.value?.let { renderer ->
-                val taggedTrack = renderer.tag as? VideoTrack
-                taggedTrack?.removeRenderer(renderer)
-                renderer.tag = null
-                renderer.release()
-            }
-            eglBase.release()
-        }
+/** Вне звонка (превью и т.п.) пула нет — свой на время жизни view, как раньше. */
+@Composable
+private fun rememberStandalonePool(): VideoRendererPool {
+    val context = LocalContext.current
+    val pool = remember { VideoRendererPool(context.applicationContext, maxIdle = 0) }
+    DisposableEffect(pool) {
+        onDispose { pool.release() }
     }
+    return pool
 }
-
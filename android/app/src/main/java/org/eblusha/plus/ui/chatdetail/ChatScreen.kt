@@ -47,8 +47,12 @@ import androidx.compose.material3.Text
 import androidx.compose.material3.TextButton
 import androidx.compose.runtime.Composable
 import androidx.compose.runtime.LaunchedEffect
+import androidx.compose.runtime.derivedStateOf
 import androidx.compose.runtime.remember
+import androidx.compose.runtime.snapshotFlow
 import kotlinx.coroutines.flow.collectLatest
+import kotlinx.coroutines.flow.distinctUntilChanged
+import kotlinx.coroutines.flow.filter
 import androidx.compose.runtime.getValue
 import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.remember
@@ -120,6 +124,8 @@ fun ChatRoute(
         onHangUp = onHangUp,
         onBack = onBack,
         onRetry = viewModel::refresh,
+        onLoadOlder = viewModel::loadOlder,
+        onLoadNewer = viewModel::loadNewer,
         onSend = { content -> viewModel.sendMessage(content, isSecret = conversation?.isSecret == true) },
         onCallClick = onCallClick,
         snackbarHostState = snackbarHostState,
@@ -136,6 +142,8 @@ private fun ChatScreen(
     onHangUp: () -> Unit,
     onBack: () -> Unit,
     onRetry: () -> Unit,
+    onLoadOlder: () -> Unit,
+    onLoadNewer: () -> Unit,
     onSend: (String) -> Unit,
     onCallClick: (Boolean) -> Unit,
     snackbarHostState: SnackbarHostState,
@@ -178,6 +186,10 @@ private fun ChatScreen(
                         is ChatUiState.Loaded -> {
                             MessageList(
                                 messages = state.messages,
+                                hasOlder = state.hasOlder,
+                                hasNewer = state.hasNewer,
+                                onLoadOlder = onLoadOlder,
+                                onLoadNewer = onLoadNewer,
                                 modifier = Modifier
                                     .weight(1f)
                                     .fillMaxWidth()
@@ -338,12 +350,21 @@ private fun CallActionRow(
 }
 
 @Composable
-private fun MessageList(messages: List<ChatMessage>, modifier: Modifier = Modifier) {
+private fun MessageList(
+    messages: List<ChatMessage>,
+    hasOlder: Boolean,
+    hasNewer: Boolean,
+    onLoadOlder: () -> Unit,
+    onLoadNewer: () -> Unit,
+    modifier: Modifier = Modifier,
+) {
     val listState = rememberLazyListState()
     
-    // Auto-scroll to bottom (first item in reverse layout) when messages change
-    androidx.compose.runtime.LaunchedEffect(messages.size) {
-        if (messages.isNotEmpty()) {
+    // Auto-scroll to bottom (first item in reverse layout) when a newer message arrives.
+    // Keyed on the newest id so that prepending older pages doesn't yank the list down.
+    val newestId = messages.firstOrNull()?.id
+    androidx.compose.runtime.LaunchedEffect(newestId) {
+        if (newestId != null && !hasNewer && listState.firstVisibleItemIndex <= 1) {
             delay(100) // Small delay to ensure layout is ready
             try {
                 listState.scrollToItem(0)
@@ -352,6 +373,31 @@ private fun MessageList(messages: List<ChatMessage>, modifier: Modifier = Modifi
             }
         }
     }
+
+    // In reverse layout the oldest messages are at the end of the list
+    val nearOldest by remember {
+        derivedStateOf {
+            val info = listState.layoutInfo
+            val lastVisible = info.visibleItemsInfo.lastOrNull()?.index ?: return@derivedStateOf false
+            lastVisible >= info.totalItemsCount - PREFETCH_DISTANCE
+        }
+    }
+    val nearNewest by remember {
+        derivedStateOf { listState.firstVisibleItemIndex <= PREFETCH_DISTANCE }
+    }
+    // Re-keyed on size so a short page that keeps us near the edge triggers the next one
+    LaunchedEffect(hasOlder, messages.size) {
+        snapshotFlow { nearOldest }
+            .distinctUntilChanged()
+            .filter { it && hasOlder }
+            .collect { onLoadOlder() }
+    }
+    LaunchedEffect(hasNewer, messages.size) {
+        snapshotFlow { nearNewest }
+            .distinctUntilChanged()
+            .filter { it && hasNewer }
+            .collect { onLoadNewer() }
+    }
     
     LazyColumn(
         state = listState,
@@ -366,6 +412,8 @@ private fun MessageList(messages: List<ChatMessage>, modifier: Modifier = Modifi
     }
 }
 
+private const val PREFETCH_DISTANCE = 5
+
 @Composable
 private fun MessageBubble(message: ChatMessage) {
     val isSystemMessage = message.type.uppercase() != "TEXT"
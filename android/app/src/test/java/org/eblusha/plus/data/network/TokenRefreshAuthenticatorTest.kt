@@ -0,0 +1,193 @@
+package org.eblusha.plus.data.network
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlinx.serialization.json.Json
+import okhttp3.MediaType.Companion.toMediaType
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.eblusha.plus.data.api.auth.AuthApi
+import org.eblusha.plus.data.session.InMemoryAccessTokenProvider
+import org.eblusha.plus.data.session.RefreshTokenStore
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import retrofit2.Retrofit
+import retrofit2.converter.kotlinx.serialization.asConverterFactory
+import retrofit2.create
+
+/**
+ * [TokenRefreshAuthenticator] против MockWebServer: пачка параллельных 401 должна
+ * обойтись одним обновлением токена, а сессия без refresh token — логином по паролю.
+ */
+class TokenRefreshAuthenticatorTest {
+
+    private val server = MockWebServer()
+    private val tokenProvider = InMemoryAccessTokenProvider()
+    private val refreshCalls = AtomicInteger()
+    private val loginCalls = AtomicInteger()
+
+    /** Ответ `/auth/refresh`; по умолчанию выдаёт [FRESH_TOKEN]. */
+    @Volatile
+    private var refreshResponse: () -> MockResponse = {
+        json("""{"accessToken":"$FRESH_TOKEN","refreshToken":"refresh-2"}""")
+    }
+
+    @Before
+    fun setUp() {
+        server.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse = when (request.path) {
+                "/auth/refresh" -> {
+                    refreshCalls.incrementAndGet()
+                    // Медленный refresh: остальные 401 успевают встать в очередь на блокировку
+                    Thread.sleep(REFRESH_DELAY_MS)
+                    refreshResponse()
+                }
+                "/auth/login" -> {
+                    loginCalls.incrementAndGet()
+                    json("""{"accessToken":"$FRESH_TOKEN","user":{"id":"u1","username":"alice"}}""")
+                }
+                else ->
+                    if (request.getHeader("Authorization") == "Bearer $FRESH_TOKEN") {
+                        json("""{"ok":true}""")
+                    } else {
+                        MockResponse().setResponseCode(401)
+                    }
+            }
+        }
+        server.start()
+        tokenProvider.updateToken(STALE_TOKEN)
+    }
+
+    @After
+    fun tearDown() {
+        server.shutdown()
+    }
+
+    @Test
+    fun concurrentUnauthorizedRequestsShareSingleRefresh() {
+        val session = FakeSession(refreshToken = "refresh-1")
+        val authenticator = authenticator(session)
+        val client = client(authenticator)
+
+        val codes = runConcurrently(PARALLEL_REQUESTS) { index ->
+            client.newCall(Request.Builder().url(server.url("/data/$index")).build()).execute().use { it.code }
+        }
+
+        assertEquals(List(PARALLEL_REQUESTS) { 200 }, codes)
+        assertEquals(1, refreshCalls.get())
+        assertEquals(0, loginCalls.get())
+        assertEquals(FRESH_TOKEN, tokenProvider.getAccessToken())
+        assertEquals("refresh-2", session.currentRefreshToken())
+        assertEquals(1L, authenticator.stats().refreshes)
+    }
+
+    @Test
+    fun fallsBackToPasswordLoginWithoutRefreshToken() {
+        val session = FakeSession(refreshToken = null, username = "alice", password = "secret")
+        val client = client(authenticator(session))
+
+        val codes = runConcurrently(PARALLEL_REQUESTS) { index ->
+            client.newCall(Request.Builder().url(server.url("/data/$index")).build()).execute().use { it.code }
+        }
+
+        assertEquals(List(PARALLEL_REQUESTS) { 200 }, codes)
+        assertEquals(0, refreshCalls.get())
+        assertEquals(1, loginCalls.get())
+        assertEquals(FRESH_TOKEN, tokenProvider.getAccessToken())
+    }
+
+    @Test
+    fun fallsBackToPasswordLoginWhenRefreshIsRejected() {
+        refreshResponse = { MockResponse().setResponseCode(401) }
+        val session = FakeSession(refreshToken = "revoked", username = "alice", password = "secret")
+        val client = client(authenticator(session))
+
+        val code = client.newCall(Request.Builder().url(server.url("/data/1")).build()).execute().use { it.code }
+
+        assertEquals(200, code)
+        assertEquals(1, refreshCalls.get())
+        assertEquals(1, loginCalls.get())
+    }
+
+    @Test
+    fun givesUpWithoutRefreshTokenOrCredentials() {
+        val authenticator = authenticator(FakeSession(refreshToken = null))
+        val client = client(authenticator)
+
+        val code = client.newCall(Request.Builder().url(server.url("/data/1")).build()).execute().use { it.code }
+
+        assertEquals(401, code)
+        assertEquals(0, refreshCalls.get())
+        assertEquals(0, loginCalls.get())
+        assertTrue(authenticator.stats().failures > 0)
+    }
+
+    private fun authenticator(session: RefreshTokenStore): TokenRefreshAuthenticator {
+        val authApi = Retrofit.Builder()
+            .baseUrl(server.url("/"))
+            .client(OkHttpClient())
+            .addConverterFactory(Json { ignoreUnknownKeys = true }.asConverterFactory("application/json".toMediaType()))
+            .build()
+            .create<AuthApi>()
+        return TokenRefreshAuthenticator(session, tokenProvider, authApi)
+    }
+
+    private fun client(authenticator: TokenRefreshAuthenticator): OkHttpClient =
+        OkHttpClient.Builder()
+            .addInterceptor(AuthTokenInterceptor(tokenProvider))
+            .authenticator(authenticator)
+            .build()
+
+    /** Запускает [count] вызовов одновременно (общий старт по защёлке) и возвращает результаты по порядку. */
+    private fun <T> runConcurrently(count: Int, block: (Int) -> T): List<T> {
+        val executor = Executors.newFixedThreadPool(count)
+        try {
+            val start = CountDownLatch(1)
+            val futures = (0 until count).map { index ->
+                executor.submit<T> {
+                    start.await()
+                    block(index)
+                }
+            }
+            start.countDown()
+            return futures.map { it.get(10, TimeUnit.SECONDS) }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun json(body: String): MockResponse =
+        MockResponse().setHeader("Content-Type", "application/json").setBody(body)
+
+    /** Как [org.eblusha.plus.data.session.SessionStore], но без DataStore: токены только в памяти. */
+    private inner class FakeSession(
+        @Volatile private var refreshToken: String?,
+        private val username: String? = null,
+        private val password: String? = null,
+    ) : RefreshTokenStore {
+        override fun currentRefreshToken(): String? = refreshToken
+
+        override fun onTokensRefreshed(accessToken: String, newRefreshToken: String?) {
+            if (!newRefreshToken.isNullOrBlank()) refreshToken = newRefreshToken
+            tokenProvider.updateToken(accessToken)
+        }
+
+        override suspend fun getCredentials(): Pair<String?, String?> = username to password
+    }
+
+    private companion object {
+        const val STALE_TOKEN = "stale-token"
+        const val FRESH_TOKEN = "fresh-token"
+        const val PARALLEL_REQUESTS = 8
+        const val REFRESH_DELAY_MS = 200L
+    }
+}
@@ -0,0 +1,122 @@
+package org.eblusha.plus.data.realtime
+
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.cancel
+import kotlinx.coroutines.flow.take
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.withTimeout
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+/**
+ * Порядок выдачи, схлопывание и политика выбрасывания [RealtimeEventBus].
+ * Всё публикуется до подписки: шина копит события, пока подписчика нет, поэтому
+ * содержимое очередей к моменту выдачи детерминировано.
+ */
+class RealtimeEventBusTest {
+
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.Default)
+    private val bus = RealtimeEventBus(scope)
+
+    @After
+    fun tearDown() {
+        scope.cancel()
+    }
+
+    @Test
+    fun buffersLosslessEventsUntilFirstSubscriber() {
+        val published = (1..200).map { message("m$it") }
+        published.forEach(bus::publish)
+
+        assertEquals(published, collect(published.size))
+        assertEquals(0, bus.stats().pending)
+    }
+
+    @Test
+    fun deliversLosslessThenConflatedThenBestEffort() {
+        val snapshot = RealtimeEvent.CallStatusBulk(mapOf("c9" to status("c9", active = true)))
+        val presence = RealtimeEvent.PresenceUpdate(userId = "u1", status = "ONLINE")
+        val incoming = RealtimeEvent.CallIncoming(conversationId = "c1", fromUserId = "u2", fromName = "Bob", video = false)
+        bus.publish(snapshot)
+        bus.publish(presence)
+        bus.publish(message("m1"))
+        bus.publish(incoming)
+
+        assertEquals(listOf(message("m1"), incoming, presence, snapshot), collect(4))
+    }
+
+    @Test
+    fun conflatesPresenceAndTypingPerKeyKeepingFirstPosition() {
+        bus.publish(RealtimeEvent.PresenceUpdate(userId = "u1", status = "ONLINE"))
+        bus.publish(RealtimeEvent.Typing(conversationId = "c1", userId = "u2", typing = true))
+        bus.publish(RealtimeEvent.PresenceUpdate(userId = "u1", status = "AWAY"))
+        bus.publish(RealtimeEvent.Typing(conversationId = "c1", userId = "u2", typing = false))
+        bus.publish(RealtimeEvent.PresenceUpdate(userId = "u1", status = "OFFLINE"))
+
+        assertEquals(
+            listOf(
+                RealtimeEvent.PresenceUpdate(userId = "u1", status = "OFFLINE"),
+                RealtimeEvent.Typing(conversationId = "c1", userId = "u2", typing = false),
+            ),
+            collect(2),
+        )
+        assertEquals(3L, bus.stats().conflated)
+    }
+
+    @Test
+    fun dropsOldestSnapshotsWhenBestEffortQueueIsFull() {
+        val snapshots = (1..20).map { RealtimeEvent.CallStatusBulk(mapOf("c$it" to status("c$it", active = true))) }
+        snapshots.forEach(bus::publish)
+
+        assertEquals(snapshots.takeLast(16), collect(16))
+        assertEquals(4L, bus.stats().dropped)
+    }
+
+    @Test
+    fun singleCallStatusIsNotOverwrittenByOlderSnapshot() {
+        bus.publish(
+            RealtimeEvent.CallStatusBulk(
+                mapOf("c1" to status("c1", active = false), "c2" to status("c2", active = true)),
+            ),
+        )
+        bus.publish(RealtimeEvent.CallStatusBulk(mapOf("c1" to status("c1", active = false))))
+        bus.publish(status("c1", active = true))
+
+        assertEquals(
+            listOf(
+                status("c1", active = true),
+                RealtimeEvent.CallStatusBulk(mapOf("c2" to status("c2", active = true))),
+            ),
+            collect(2),
+        )
+        assertEquals(1L, bus.stats().dropped)
+    }
+
+    @Test
+    fun snapshotPublishedAfterSingleStatusIsKept() {
+        bus.publish(status("c1", active = true))
+        bus.publish(RealtimeEvent.CallStatusBulk(mapOf("c1" to status("c1", active = false))))
+
+        assertEquals(
+            listOf(
+                status("c1", active = true),
+                RealtimeEvent.CallStatusBulk(mapOf("c1" to status("c1", active = false))),
+            ),
+            collect(2),
+        )
+    }
+
+    private fun collect(count: Int): List<RealtimeEvent> = runBlocking {
+        withTimeout(5_000) { bus.events.take(count).toList() }
+    }
+
+    private fun message(id: String) =
+        RealtimeEvent.MessageNew(conversationId = "c1", messageId = id, senderId = "u2")
+
+    private fun status(conversationId: String, active: Boolean) =
+        RealtimeEvent.CallStatus(conversationId = conversationId, active = active)
+}
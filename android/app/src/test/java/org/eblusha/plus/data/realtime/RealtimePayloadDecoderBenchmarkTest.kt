@@ -0,0 +1,111 @@
+package org.eblusha.plus.data.realtime
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Корректность декодера и грубый замер пропускной способности на типичных payload'ах.
+ * Не микробенчмарк уровня JMH: проверяется только верхняя граница времени на payload,
+ * с большим запасом, чтобы ловить регрессии на порядок, а не шум CI.
+ */
+class RealtimePayloadDecoderBenchmarkTest {
+
+    private val decoder = RealtimePayloadDecoder()
+
+    @Test
+    fun decodesMessageNewWithEmbeddedMessage() {
+        val event = decoder.decode("message:new", MESSAGE_NEW) as RealtimeEvent.MessageNew
+        assertEquals("conv-1", event.conversationId)
+        assertEquals("msg-1", event.messageId)
+        assertEquals("user-2", event.senderId)
+        val message = requireNotNull(event.message)
+        assertEquals("Привет!", message.content)
+        assertEquals("alice", message.sender?.username)
+    }
+
+    @Test
+    fun decodesCallIncoming() {
+        val event = decoder.decode("call:incoming", CALL_INCOMING) as RealtimeEvent.CallIncoming
+        assertEquals("conv-1", event.conversationId)
+        assertEquals("user-2", event.fromUserId)
+        assertEquals("Alice", event.fromName)
+        assertTrue(event.video)
+    }
+
+    @Test
+    fun decodesCallStatusBulkUsingKeyAsFallbackId() {
+        val event = decoder.decode("call:status:bulk", CALL_STATUS_BULK) as RealtimeEvent.CallStatusBulk
+        assertEquals(setOf("conv-1", "conv-2"), event.statuses.keys)
+        val first = event.statuses.getValue("conv-1")
+        assertTrue(first.active)
+        assertEquals(listOf("user-1", "user-2"), first.participants)
+        assertEquals(false, event.statuses.getValue("conv-2").active)
+    }
+
+    @Test
+    fun readsSeqOfJournaledEventsItDoesNotDecode() {
+        assertTrue("message:notify" in decoder.seqOnlyEvents)
+        assertTrue(decoder.seqOnlyEvents.none { it in decoder.supportedEvents })
+        assertEquals(42L, decoder.decodeSeq("""{"conversationId":"conv-1","messageId":"msg-1","seq":42}"""))
+        assertNull(decoder.decodeSeq("""{"conversationId":"conv-1"}"""))
+        assertNull(decoder.decodeSeq("{not json"))
+    }
+
+    @Test
+    fun ignoresUnknownEventsAndBrokenPayloads() {
+        assertNull(decoder.decode("unknown:event", PRESENCE))
+        assertNull(decoder.decode("presence:update", "{not json"))
+    }
+
+    @Test
+    fun decodeThroughput() {
+        val samples = listOf(
+            "message:new" to MESSAGE_NEW,
+            "call:incoming" to CALL_INCOMING,
+            "presence:update" to PRESENCE,
+            "call:status:bulk" to CALL_STATUS_BULK,
+        )
+        samples.forEach { (event, payload) ->
+            repeat(WARMUP_ITERATIONS) { decoder.decode(event, payload) }
+            var decoded = 0
+            val started = System.nanoTime()
+            repeat(MEASURED_ITERATIONS) {
+                if (decoder.decode(event, payload) != null) decoded++
+            }
+            val elapsedNs = System.nanoTime() - started
+            assertEquals(MEASURED_ITERATIONS, decoded)
+            val nsPerOp = elapsedNs / MEASURED_ITERATIONS
+            assertTrue("decode $event: $nsPerOp ns/op", nsPerOp < MAX_NS_PER_OP)
+        }
+    }
+
+    private companion object {
+        const val WARMUP_ITERATIONS = 5_000
+        const val MEASURED_ITERATIONS = 20_000
+        // Типичный payload декодируется за единицы микросекунд; 100 мкс — уже регрессия
+        const val MAX_NS_PER_OP = 100_000L
+
+        val MESSAGE_NEW = """
+            {"conversationId":"conv-1","messageId":"msg-1","senderId":"user-2",
+             "message":{"id":"msg-1","conversationId":"conv-1","type":"TEXT","content":"Привет!",
+               "senderId":"user-2","createdAt":"2024-05-01T10:00:00.000Z","replyToId":null,
+               "sender":{"id":"user-2","username":"alice","displayName":"Alice","avatarUrl":null},
+               "attachments":[],"reactions":[],"metadata":{"edited":false}}}
+        """.trimIndent()
+
+        val CALL_INCOMING = """
+            {"conversationId":"conv-1","from":{"id":"user-2","name":"Alice"},"video":true}
+        """.trimIndent()
+
+        val PRESENCE = """{"userId":"user-2","status":"ONLINE"}"""
+
+        val CALL_STATUS_BULK = """
+            {"statuses":{
+              "conv-1":{"conversationId":"conv-1","active":true,"startedAt":1714557600000,
+                        "elapsedMs":42000,"participants":["user-1","user-2"],"isGroup":false},
+              "conv-2":{"active":false}}}
+        """.trimIndent()
+    }
+}
@@ -0,0 +1,129 @@
+package org.eblusha.plus.feature.call
+
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.flow.MutableSharedFlow
+import kotlinx.coroutines.runBlocking
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/**
+ * Поведение [LocalTrackPublisher] и грубый замер join-to-publish против прежней схемы
+ * с фиксированными паузами. Задержки захвата имитируются; выигрыш проверяется с порогом.
+ */
+class LocalTrackPublisherBenchmarkTest {
+
+    private class FakeParticipant(
+        private val microphoneLatencyMs: Long,
+        private val cameraLatencyMs: Long,
+    ) {
+        val published = MutableSharedFlow<LocalTrackPublisher.Source>(extraBufferCapacity = 8)
+
+        suspend fun enableMicrophone(): Boolean {
+            delay(microphoneLatencyMs)
+            published.emit(LocalTrackPublisher.Source.MICROPHONE)
+            return true
+        }
+
+        suspend fun enableCamera(): Boolean {
+            delay(cameraLatencyMs)
+            published.emit(LocalTrackPublisher.Source.CAMERA)
+            return true
+        }
+
+        fun publisher() = LocalTrackPublisher(
+            enableMicrophone = ::enableMicrophone,
+            enableCamera = ::enableCamera,
+            published = published,
+        )
+    }
+
+    @Test
+    fun publishesMicrophoneAndCameraConcurrently() = runBlocking {
+        val participant = FakeParticipant(MICROPHONE_LATENCY_MS, CAMERA_LATENCY_MS)
+        val started = System.nanoTime()
+        val result = participant.publisher().publish(withMicrophone = true, withCamera = true)
+        val elapsedMs = (System.nanoTime() - started) / 1_000_000
+
+        assertNotNull(result.microphoneMs)
+        assertNotNull(result.cameraMs)
+        assertFalse(result.microphoneFailed || result.cameraFailed)
+        // Параллельно: общее время ближе к самому медленному источнику, чем к сумме
+        assertTrue("elapsed=$elapsedMs", elapsedMs < MICROPHONE_LATENCY_MS + CAMERA_LATENCY_MS)
+    }
+
+    @Test
+    fun skipsSourcesThatWereNotRequested() = runBlocking {
+        val participant = FakeParticipant(MICROPHONE_LATENCY_MS, CAMERA_LATENCY_MS)
+        val result = participant.publisher().publish(withMicrophone = true, withCamera = false)
+        assertNotNull(result.microphoneMs)
+        assertNull(result.cameraMs)
+        assertFalse(result.cameraFailed)
+    }
+
+    @Test
+    fun reportsFailureWithoutWaitingForTimeout() = runBlocking {
+        val published = MutableSharedFlow<LocalTrackPublisher.Source>()
+        val publisher = LocalTrackPublisher(
+            enableMicrophone = { error("no microphone") },
+            enableCamera = { false },
+            published = published,
+        )
+        val started = System.nanoTime()
+        val result = publisher.publish(withMicrophone = true, withCamera = true, timeoutMs = 5_000)
+        val elapsedMs = (System.nanoTime() - started) / 1_000_000
+        assertTrue(result.microphoneFailed)
+        assertTrue(result.cameraFailed)
+        assertTrue("elapsed=$elapsedMs", elapsedMs < 1_000)
+    }
+
+    @Test
+    fun timesOutWhenPublicationNeverArrives() = runBlocking {
+        val publisher = LocalTrackPublisher(
+            enableMicrophone = { true },
+            enableCamera = { true },
+            published = MutableSharedFlow(),
+        )
+        val result = publisher.publish(withMicrophone = true, withCamera = false, timeoutMs = 100)
+        assertTrue(result.microphoneFailed)
+    }
+
+    @Test
+    fun joinToPublishLatency() = runBlocking {
+        val legacy = LongArray(ITERATIONS) { measureLegacy(FakeParticipant(MICROPHONE_LATENCY_MS, CAMERA_LATENCY_MS)) }
+        val pipelined = LongArray(ITERATIONS) {
+            val participant = FakeParticipant(MICROPHONE_LATENCY_MS, CAMERA_LATENCY_MS)
+            val started = System.nanoTime()
+            val result = participant.publisher().publish(withMicrophone = true, withCamera = true)
+            assertEquals(false, result.microphoneFailed || result.cameraFailed)
+            (System.nanoTime() - started) / 1_000_000
+        }
+        val message = "legacy avg=${legacy.average().toLong()}ms, pipelined avg=${pipelined.average().toLong()}ms"
+        // Без фиксированных пауз (1700 мс в прежней схеме) выигрыш должен быть не меньше секунды
+        assertTrue(message, legacy.average() - pipelined.average() >= MIN_SPEEDUP_MS)
+        // И параллельный вход не дольше самого медленного источника с запасом на планировщик
+        assertTrue(message, pipelined.max() < CAMERA_LATENCY_MS + SCHEDULING_SLACK_MS)
+    }
+
+    /** Прежняя последовательность из CallViewModel.enableLocalTracks(). */
+    private suspend fun measureLegacy(participant: FakeParticipant): Long {
+        val started = System.nanoTime()
+        delay(1000)
+        participant.enableMicrophone()
+        delay(200)
+        participant.enableCamera()
+        delay(500)
+        return (System.nanoTime() - started) / 1_000_000
+    }
+
+    private companion object {
+        const val ITERATIONS = 2
+        const val MICROPHONE_LATENCY_MS = 60L
+        const val CAMERA_LATENCY_MS = 150L
+        const val MIN_SPEEDUP_MS = 1_000L
+        const val SCHEDULING_SLACK_MS = 500L
+    }
+}
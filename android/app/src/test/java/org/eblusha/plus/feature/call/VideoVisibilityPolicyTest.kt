@@ -0,0 +1,97 @@
+package org.eblusha.plus.feature.call
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+/** Решения [VideoVisibilityPolicy]: когда подписываться на видео и когда отписываться. */
+class VideoVisibilityPolicyTest {
+
+    private val policy = VideoVisibilityPolicy()
+    private val participants = listOf("a", "b", "c")
+
+    @Test
+    fun subscribesToEverythingUntilGridReportsVisibleTiles() {
+        assertNull(policy.visible)
+        participants.forEach { assertTrue(policy.shouldSubscribeVideo(it)) }
+        assertNull(policy.unsubscribeDelayMs("a", nowMs = 10_000))
+    }
+
+    @Test
+    fun firstReportSchedulesOffscreenTilesOnly() {
+        val changes = policy.onVisibleChanged(setOf("a"), participants, nowMs = 0)
+
+        // До первого отчёта подписано всё: видимые подтверждаются, невидимые уходят в отложенную отписку
+        assertEquals(setOf("a"), changes.subscribe)
+        assertEquals(setOf("b", "c"), changes.unsubscribeLater)
+        assertTrue(policy.shouldSubscribeVideo("a"))
+        assertFalse(policy.shouldSubscribeVideo("b"))
+    }
+
+    @Test
+    fun emptySetOnGridDisposeUnsubscribesEveryone() {
+        policy.onVisibleChanged(setOf("a", "b"), participants, nowMs = 0)
+
+        val changes = policy.onVisibleChanged(emptySet(), participants, nowMs = 1_000)
+
+        assertEquals(emptySet<String>(), changes.subscribe)
+        assertEquals(setOf("a", "b"), changes.unsubscribeLater)
+        participants.forEach { assertFalse(policy.shouldSubscribeVideo(it)) }
+    }
+
+    @Test
+    fun unsubscribeWaitsThreeSecondsOffscreen() {
+        policy.onVisibleChanged(setOf("a", "b"), participants, nowMs = 0)
+        policy.onVisibleChanged(setOf("b"), participants, nowMs = 1_000)
+
+        assertEquals(3_000L, policy.unsubscribeDelayMs("a", nowMs = 1_000))
+        assertEquals(1L, policy.unsubscribeDelayMs("a", nowMs = 3_999))
+        assertEquals(0L, policy.unsubscribeDelayMs("a", nowMs = 4_000))
+        assertEquals(0L, policy.unsubscribeDelayMs("a", nowMs = 60_000))
+    }
+
+    @Test
+    fun returningOnscreenCancelsPendingUnsubscribe() {
+        policy.onVisibleChanged(setOf("a"), participants, nowMs = 0)
+        policy.onVisibleChanged(emptySet(), participants, nowMs = 1_000)
+
+        val changes = policy.onVisibleChanged(setOf("a"), participants, nowMs = 2_000)
+
+        assertEquals(setOf("a"), changes.subscribe)
+        assertEquals(emptySet<String>(), changes.unsubscribeLater)
+        assertNull(policy.unsubscribeDelayMs("a", nowMs = 10_000))
+    }
+
+    @Test
+    fun staysHiddenWithoutRestartingTheDelay() {
+        policy.onVisibleChanged(setOf("a"), participants, nowMs = 0)
+        policy.onVisibleChanged(setOf("b"), participants, nowMs = 1_000)
+
+        val changes = policy.onVisibleChanged(setOf("c"), participants, nowMs = 2_000)
+
+        // a уже ждёт отписки с 1_000: повторно не планируется, отсчёт не сдвигается
+        assertEquals(setOf("b"), changes.unsubscribeLater)
+        assertEquals(0L, policy.unsubscribeDelayMs("a", nowMs = 4_000))
+    }
+
+    @Test
+    fun sameVisibleSetIsNoChange() {
+        policy.onVisibleChanged(setOf("a"), participants, nowMs = 0)
+
+        val changes = policy.onVisibleChanged(setOf("a"), participants, nowMs = 500)
+
+        assertTrue(changes.subscribe.isEmpty())
+        assertTrue(changes.unsubscribeLater.isEmpty())
+    }
+
+    @Test
+    fun forgottenParticipantIsNotUnsubscribed() {
+        policy.onVisibleChanged(emptySet(), participants, nowMs = 0)
+
+        policy.forget("a")
+
+        assertNull(policy.unsubscribeDelayMs("a", nowMs = 10_000))
+    }
+}
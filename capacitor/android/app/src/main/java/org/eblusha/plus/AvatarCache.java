@@ -0,0 +1,288 @@
+package org.eblusha.plus;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.text.TextUtils;
+import android.util.LruCache;
+import android.webkit.CookieManager;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Кэш аватарок для уведомлений и экрана входящего звонка.
+ *
+ * Раньше каждое уведомление и каждый звонок заново качали аватар и декодировали его
+ * в полном разрешении. Теперь три уровня: память (LRU по байтам, ключ — URL + размер),
+ * диск (исходные байты в cacheDir) и сеть. Декодирование сразу с downsampling до нужного
+ * размера, а одновременные запросы одного URL ждут одну загрузку: пачка из 20 сообщений
+ * от одного отправителя — одно скачивание.
+ */
+final class AvatarCache {
+    private static final String TAG = "AvatarCache";
+    private static final String DIR_NAME = "avatars";
+    private static final long DISK_MAX_BYTES = 10L * 1024 * 1024;
+    private static final int MEMORY_MAX_BYTES = 4 * 1024 * 1024;
+    private static final int FETCH_TIMEOUT_SECONDS = 4;
+
+    private static AvatarCache instance;
+
+    private final File diskDir;
+    private final int notificationIconSize;
+    private final int callScreenSize;
+    private final OkHttpClient client;
+    private final ExecutorService fetchExecutor = Executors.newFixedThreadPool(2);
+    private final ConcurrentHashMap<String, FutureTask<Boolean>> inFlight = new ConcurrentHashMap<>();
+    private final Object diskLock = new Object();
+
+    private final LruCache<String, Bitmap> memory = new LruCache<String, Bitmap>(MEMORY_MAX_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getAllocationByteCount();
+        }
+    };
+
+    private AvatarCache(Context context) {
+        diskDir = new File(context.getCacheDir(), DIR_NAME);
+        Resources res = context.getResources();
+        notificationIconSize = res.getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
+        // Совпадает с caller_avatar в activity_incoming_call.xml
+        callScreenSize = Math.round(140 * res.getDisplayMetrics().density);
+        client = SharedHttpClient.get().newBuilder()
+            .callTimeout(FETCH_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            .build();
+    }
+
+    static synchronized AvatarCache get(Context context) {
+        if (instance == null) {
+            instance = new AvatarCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    int notificationIconSize() {
+        return notificationIconSize;
+    }
+
+    int callScreenSize() {
+        return callScreenSize;
+    }
+
+    /** Только память, без IO — можно звать с main thread. */
+    @Nullable
+    Bitmap getCached(@Nullable String url, int sizePx) {
+        if (TextUtils.isEmpty(url)) return null;
+        return memory.get(memoryKey(url, sizePx));
+    }
+
+    /** Блокирующая загрузка: память → диск → сеть. Не вызывать с main thread. */
+    @Nullable
+    Bitmap load(@Nullable String url, int sizePx) {
+        if (TextUtils.isEmpty(url)) return null;
+        String key = memoryKey(url, sizePx);
+        Bitmap cached = memory.get(key);
+        if (cached != null) return cached;
+
+        File file = diskFile(url);
+        if (!file.exists() && !fetchToDisk(url, file)) {
+            return null;
+        }
+        Bitmap decoded = decodeSampled(file, sizePx);
+        if (decoded != null) {
+            memory.put(key, decoded);
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return decoded;
+    }
+
+    /** Заранее прогреть кэш, например, как только пришёл звонок — до открытия экрана. */
+    void prefetch(@Nullable String url, int sizePx) {
+        if (TextUtils.isEmpty(url) || getCached(url, sizePx) != null) return;
+        fetchExecutor.execute(() -> load(url, sizePx));
+    }
+
+    /**
+     * Как {@link #load}, но ждёт не дольше {@code timeoutMs}: уведомление лучше показать
+     * без аватара, чем с опозданием. Загрузка при этом продолжается и прогреет кэш.
+     */
+    @Nullable
+    Bitmap loadWithin(@Nullable String url, int sizePx, long timeoutMs) {
+        if (TextUtils.isEmpty(url)) return null;
+        Bitmap cached = getCached(url, sizePx);
+        if (cached != null) return cached;
+        FutureTask<Bitmap> task = new FutureTask<>(() -> load(url, sizePx));
+        fetchExecutor.execute(task);
+        try {
+            return task.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            android.util.Log.d(TAG, "Avatar not ready in " + timeoutMs + "ms, posting without it");
+            return null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /** Одна загрузка на URL: остальные потоки ждут её результата. */
+    private boolean fetchToDisk(String url, File target) {
+        FutureTask<Boolean> task = new FutureTask<>(() -> download(url, target));
+        FutureTask<Boolean> existing = inFlight.putIfAbsent(url, task);
+        if (existing != null) {
+            android.util.Log.d(TAG, "Joining in-flight download for " + url);
+            task = existing;
+        } else {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(url, task);
+            }
+        }
+        try {
+            return task.get(FETCH_TIMEOUT_SECONDS + 1, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private boolean download(String url, File target) {
+        Request.Builder builder;
+        try {
+            builder = new Request.Builder().url(url);
+        } catch (IllegalArgumentException e) {
+            android.util.Log.w(TAG, "Invalid avatar URL: " + url);
+            return false;
+        }
+        String cookies = webViewCookies(url);
+        if (cookies != null) {
+            builder.header("Cookie", cookies);
+        }
+        long started = System.nanoTime();
+        try (Response response = client.newCall(builder.build()).execute()) {
+            ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                android.util.Log.w(TAG, "Avatar download failed: HTTP " + response.code());
+                return false;
+            }
+            File tmp = new File(diskDir, target.getName() + ".tmp");
+            synchronized (diskLock) {
+                if (!diskDir.exists() && !diskDir.mkdirs()) return false;
+            }
+            try (InputStream in = body.byteStream(); OutputStream out = new FileOutputStream(tmp)) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+            if (!tmp.renameTo(target)) {
+                tmp.delete();
+                return false;
+            }
+            android.util.Log.d(TAG, "📥 Avatar downloaded in " + ((System.nanoTime() - started) / 1_000_000L) + "ms");
+            trimDisk();
+            return true;
+        } catch (IOException e) {
+            android.util.Log.w(TAG, "Avatar download failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    @Nullable
+    private static Bitmap decodeSampled(File file, int sizePx) {
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            // Битый файл в кэше — удаляем, в следующий раз скачаем заново
+            file.delete();
+            return null;
+        }
+        int sample = 1;
+        while (bounds.outWidth / (sample * 2) >= sizePx && bounds.outHeight / (sample * 2) >= sizePx) {
+            sample *= 2;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        Bitmap sampled = BitmapFactory.decodeFile(file.getPath(), options);
+        if (sampled == null) return null;
+        int largest = Math.max(sampled.getWidth(), sampled.getHeight());
+        if (largest <= sizePx) return sampled;
+        float scale = (float) sizePx / largest;
+        Bitmap scaled = Bitmap.createScaledBitmap(
+            sampled,
+            Math.max(1, Math.round(sampled.getWidth() * scale)),
+            Math.max(1, Math.round(sampled.getHeight() * scale)),
+            true
+        );
+        if (scaled != sampled) sampled.recycle();
+        return scaled;
+    }
+
+    /** Старые файлы удаляются, пока кэш не уложится в лимит. */
+    private void trimDisk() {
+        synchronized (diskLock) {
+            File[] files = diskDir.listFiles();
+            if (files == null) return;
+            long total = 0;
+            for (File f : files) total += f.length();
+            if (total <= DISK_MAX_BYTES) return;
+            Arrays.sort(files, (a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+            for (File f : files) {
+                if (total <= DISK_MAX_BYTES) break;
+                long length = f.length();
+                if (f.delete()) total -= length;
+            }
+        }
+    }
+
+    @Nullable
+    private static String webViewCookies(String url) {
+        try {
+            CookieManager cookieManager = CookieManager.getInstance();
+            String cookies = cookieManager != null ? cookieManager.getCookie(url) : null;
+            return TextUtils.isEmpty(cookies) ? null : cookies;
+        } catch (Exception e) {
+            // WebView может быть недоступен (обновляется или отключён)
+            return null;
+        }
+    }
+
+    private File diskFile(String url) {
+        return new File(diskDir, sha1(url));
+    }
+
+    private static String memoryKey(String url, int sizePx) {
+        return sizePx + "@" + url;
+    }
+
+    @NonNull
+    private static String sha1(String value) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (Exception e) {
+            return Integer.toHexString(value.hashCode());
+        }
+    }
+}
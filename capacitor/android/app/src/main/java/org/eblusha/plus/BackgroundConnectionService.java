@@ -0,0 +1,906 @@
+package org.eblusha.plus;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.RemoteInput;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Foreground service that keeps the process-wide native Socket.IO connection ({@link NativeSocketEngine})
+ * alive while the app is backgrounded, so calls/messages still arrive even if the WebView is paused.
+ * The WebView does not open its own socket: it subscribes to the same engine via NativeSocketPlugin.
+ */
+public class BackgroundConnectionService extends Service {
+    private static final String CHANNEL_ID = "background_connection_channel";
+    private static final String MESSAGE_CHANNEL_ID = ConversationNotifier.CHANNEL_ID;
+    private static final int NOTIFICATION_ID = 2001;
+    // Совпадает с pingInterval + pingTimeout сервера (25с + 20с по умолчанию в Socket.IO):
+    // раньше отвалившееся соединение всё равно не обнаружить
+    private static final long HEARTBEAT_INTERVAL_MS = 45_000L;
+    private static final long STATS_LOG_INTERVAL_MS = 60 * 60_000L;
+    private static final long CONNECT_HOLD_MS = 25_000L;
+    private static final long EVENT_HOLD_MS = 10_000L;
+    private static final long MAINTENANCE_HOLD_MS = 10_000L;
+    private static final long TOKEN_REFRESH_BACKOFF_MS = 30_000L;
+    private static final String API_BASE_URL = "https://ru.eblusha.org/api";
+    private static final MediaType JSON_MEDIA_TYPE = MediaType.parse("application/json; charset=utf-8");
+    public static final String ACTION_KEEP_ALIVE = "org.eblusha.plus.ACTION_KEEP_ALIVE";
+    static final String ACTION_NOTIFICATION_REPLY = "org.eblusha.plus.ACTION_NOTIFICATION_REPLY";
+    static final String ACTION_NOTIFICATION_MARK_READ = "org.eblusha.plus.ACTION_NOTIFICATION_MARK_READ";
+    static final String EXTRA_CONVERSATION_ID = "conversation_id";
+    private static final long ACTION_HOLD_MS = 20_000L;
+
+    private final Handler keepAliveHandler = new Handler(Looper.getMainLooper());
+    private long lastStatsLog = 0L;
+    private final Runnable keepAliveRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                // Без wake lock: если CPU спит, проверять и нечего — сокет разбудит нас сам
+                if (!socketEngine.isConnected() && reconnectScheduler != null) {
+                    reconnectScheduler.requestConnect();
+                }
+                // Handler во сне не тикает: страховка для планового обновления токена
+                if (tokenLifecycle != null) {
+                    tokenLifecycle.checkDue();
+                }
+                long now = SystemClock.elapsedRealtime();
+                if (now - lastStatsLog > STATS_LOG_INTERVAL_MS) {
+                    android.util.Log.d("BackgroundConnectionService", "📊 Keep-alive stats: " + keepAlive.snapshot());
+                    android.util.Log.d("BackgroundConnectionService", "📊 Incoming call latency: " + CallLatencyTracker.summary());
+                    lastStatsLog = now;
+                }
+            } catch (Exception e) {
+                android.util.Log.e("BackgroundConnectionService", "Error in keep-alive runnable", e);
+            }
+            keepAliveHandler.postDelayed(this, HEARTBEAT_INTERVAL_MS);
+        }
+    };
+    private final BroadcastReceiver idleModeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent == null || !PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED.equals(intent.getAction())) return;
+            onDeviceIdleModeChanged();
+        }
+    };
+    // Смена токена (логин/логаут/refresh в WebView) приходит сразу, без broadcast'ов и опроса prefs
+    private final TokenHolder.Listener tokenListener = token -> updateSocketToken(token);
+    private final BroadcastReceiver presenceFocusReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent == null || intent.getAction() == null) return;
+            if ("org.eblusha.plus.ACTION_SOCKET_PRESENCE_FOCUS".equals(intent.getAction())) {
+                boolean focused = intent.getBooleanExtra("focused", false);
+                android.util.Log.d("BackgroundConnectionService", "Presence focus broadcast received: focused=" + focused);
+                appHasFocus = focused;
+                sendPresenceFocus(focused);
+            }
+        }
+    };
+
+    private KeepAliveManager keepAlive;
+    private KeepAliveManager.Hold connectHold;
+    private KeepAliveManager.Hold maintenanceHold;
+    private final NativeSocketEngine socketEngine = NativeSocketEngine.get();
+    private final NativeSocketEngine.Listener socketListener = new NativeSocketEngine.Listener() {
+        @Override
+        public void onEvent(String event, Object[] args) {
+            // Разбор и уведомления — не на потоке сокета: он общий с WebView
+            trackSeq(args);
+            switch (event) {
+                case "message:notify":
+                    dispatchEvent(() -> handleMessageNotify(args));
+                    break;
+                case "call:incoming":
+                    // Звонок не ждёт в очереди за пачкой message:notify: разбор дешёвый,
+                    // дальше всё равно отдельный сервис
+                    CallLatencyTracker.mark(callConversationId(args), CallLatencyTracker.HOP_SOCKET);
+                    handleCallIncoming(args);
+                    break;
+                case "call:declined":
+                case "call:ended":
+                    dispatchEvent(() -> handleCallEnded(args));
+                    break;
+                case "sync:batch":
+                    dispatchEvent(() -> handleSyncBatch(args));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void onConnect() {
+            reconnectScheduler.onConnected();
+            releaseConnectHolds();
+            sendPresenceFocus(appHasFocus);
+            sendSyncResume();
+            keepAliveHandler.post(() -> updateForegroundNotification());
+        }
+
+        @Override
+        public void onDisconnect(String reason) {
+            // Автоматически переподключаемся, если это не ручное отключение
+            releaseConnectHolds();
+            if (!"io client disconnect".equals(reason)) {
+                reconnectScheduler.onConnectionLost();
+            }
+        }
+
+        @Override
+        public void onConnectError(String error) {
+            releaseConnectHolds();
+            reconnectScheduler.onAttemptFailed();
+            if (isUnauthorizedMessage(error)) {
+                attemptTokenRefresh(false);
+            }
+        }
+    };
+    private ReconnectScheduler reconnectScheduler;
+    private TokenLifecycleManager tokenLifecycle;
+    private ConversationNotifier conversationNotifier;
+    private TokenHolder tokenHolder;
+    // Последний seq журнала пользователя: после реконнекта сервер досылает только пропущенное
+    private final AtomicLong lastSeq = new AtomicLong(0L);
+    private String currentToken = "";
+    private boolean appHasFocus = false;
+    // Обновление токенов — только через refreshTokensBlocking(): refresh token ротируется,
+    // два параллельных обновления тратят один и тот же токен, и проигравшее отзывает сессию
+    private final Object refreshLock = new Object();
+    private final AtomicBoolean refreshQueued = new AtomicBoolean(false);
+    private long lastRefreshAttempt = 0L; // под refreshLock
+    private final OkHttpClient httpClient = SharedHttpClient.get();
+    private final ExecutorService refreshExecutor = Executors.newSingleThreadExecutor();
+    private final ExecutorService eventExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "socket-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static void start(Context context) {
+        Intent intent = new Intent(context, BackgroundConnectionService.class);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+
+    public static void stop(Context context) {
+        context.stopService(new Intent(context, BackgroundConnectionService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        android.util.Log.d("BackgroundConnectionService", "onCreate() called");
+        try {
+            createForegroundChannel();
+            createMessageChannel();
+            conversationNotifier = ConversationNotifier.get(this);
+            // Канал, рингтон и экран звонка готовим заранее, а не в момент звонка
+            IncomingCallService.prewarm(this);
+            startForeground(NOTIFICATION_ID, createNotification());
+            android.util.Log.d("BackgroundConnectionService", "Foreground service started");
+            keepAlive = KeepAliveManager.get(this);
+            reconnectScheduler = new ReconnectScheduler(this, keepAliveHandler, new ReconnectScheduler.Connector() {
+                @Override
+                public boolean isConnected() {
+                    return socketEngine.isConnected();
+                }
+
+                @Override
+                public boolean connect() {
+                    if (TextUtils.isEmpty(currentToken)) return false;
+                    connectNativeSocket(currentToken);
+                    return true;
+                }
+            });
+            reconnectScheduler.start();
+            tokenLifecycle = new TokenLifecycleManager(keepAliveHandler, () -> attemptTokenRefresh(true));
+            socketEngine.addListener(socketListener);
+            scheduleKeepAlive();
+            android.util.Log.d("BackgroundConnectionService", "Keep-alive scheduled");
+            try {
+                IntentFilter idleFilter = new IntentFilter(PowerManager.ACTION_DEVICE_IDLE_MODE_CHANGED);
+                registerReceiver(idleModeReceiver, idleFilter);
+            } catch (Exception e) {
+                android.util.Log.e("BackgroundConnectionService", "Failed to register idle mode receiver", e);
+            }
+            try {
+                IntentFilter focusFilter = new IntentFilter("org.eblusha.plus.ACTION_SOCKET_PRESENCE_FOCUS");
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+                    registerReceiver(presenceFocusReceiver, focusFilter, Context.RECEIVER_NOT_EXPORTED);
+                } else {
+                    registerReceiver(presenceFocusReceiver, focusFilter);
+                }
+                android.util.Log.d("BackgroundConnectionService", "Presence focus receiver registered");
+            } catch (Exception e) {
+                android.util.Log.e("BackgroundConnectionService", "Failed to register presence focus receiver", e);
+            }
+            try {
+                tokenHolder = TokenHolder.get(this);
+                tokenHolder.addListener(tokenListener);
+                currentToken = tokenHolder.getAccessToken();
+                android.util.Log.d("BackgroundConnectionService", "Stored token length: " + currentToken.length());
+                if (!TextUtils.isEmpty(currentToken)) {
+                    android.util.Log.d("BackgroundConnectionService", "Connecting native socket with stored token...");
+                    connectNativeSocket(currentToken);
+                } else {
+                    android.util.Log.d("BackgroundConnectionService", "No stored token yet; waiting for update");
+                }
+            } catch (Exception e) {
+                android.util.Log.e("BackgroundConnectionService", "Failed to load token or connect socket", e);
+            }
+            android.util.Log.d("BackgroundConnectionService", "✅ onCreate() completed successfully");
+        } catch (Exception e) {
+            android.util.Log.e("BackgroundConnectionService", "❌ Fatal error in onCreate", e);
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        android.util.Log.d("BackgroundConnectionService", "onStartCommand called, startId=" + startId + ", flags=" + flags);
+        if (intent != null && (ACTION_NOTIFICATION_REPLY.equals(intent.getAction())
+            || ACTION_NOTIFICATION_MARK_READ.equals(intent.getAction()))) {
+            handleNotificationAction(intent);
+        }
+        // Проверяем соединение при каждом вызове onStartCommand
+        if (!TextUtils.isEmpty(currentToken)) {
+            checkNativeSocketConnection();
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        keepAliveHandler.removeCallbacks(keepAliveRunnable);
+        try {
+            unregisterReceiver(idleModeReceiver);
+        } catch (IllegalArgumentException ignored) {}
+        if (tokenHolder != null) {
+            tokenHolder.removeListener(tokenListener);
+        }
+        try {
+            unregisterReceiver(presenceFocusReceiver);
+        } catch (IllegalArgumentException ignored) {}
+        refreshExecutor.shutdownNow();
+        socketEngine.removeListener(socketListener);
+        if (reconnectScheduler != null) {
+            reconnectScheduler.stop();
+        }
+        if (tokenLifecycle != null) {
+            tokenLifecycle.cancel();
+        }
+        eventExecutor.shutdownNow();
+        if (conversationNotifier != null) {
+            conversationNotifier.logStats();
+        }
+        if (keepAlive != null) {
+            android.util.Log.d("BackgroundConnectionService", "📊 Keep-alive stats: " + keepAlive.snapshot());
+            keepAlive.releaseAll();
+        }
+        disconnectNativeSocket();
+        stopForeground(true);
+        super.onDestroy();
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void createForegroundChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(
+                CHANNEL_ID,
+                "Фоновое соединение",
+                NotificationManager.IMPORTANCE_MIN
+            );
+            channel.setDescription("Поддерживает соединение для звонков и сообщений");
+            NotificationManager manager = getSystemService(NotificationManager.class);
+            if (manager != null) {
+                manager.createNotificationChannel(channel);
+            }
+        }
+    }
+
+    private void createMessageChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(
+                MESSAGE_CHANNEL_ID,
+                "Сообщения",
+                NotificationManager.IMPORTANCE_HIGH
+            );
+            channel.setDescription("Уведомления о новых сообщениях");
+            NotificationManager manager = getSystemService(NotificationManager.class);
+            if (manager != null) {
+                manager.createNotificationChannel(channel);
+            }
+        }
+    }
+
+    private Notification createNotification() {
+        Intent intent = new Intent(this, MainActivity.class).addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        PendingIntent pendingIntent = PendingIntent.getActivity(
+            this,
+            0,
+            intent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+            .setContentTitle("Еблуша Plus работает в фоне")
+            .setContentText("Поддерживается соединение для звонков и сообщений")
+            .setSmallIcon(R.mipmap.ic_launcher)
+            .setOngoing(true)
+            .setCategory(NotificationCompat.CATEGORY_SERVICE)
+            .setPriority(NotificationCompat.PRIORITY_MIN)
+            .setContentIntent(pendingIntent)
+            .setSilent(true)
+            .build();
+    }
+
+    private void scheduleKeepAlive() {
+        keepAliveHandler.removeCallbacks(keepAliveRunnable);
+        keepAliveHandler.postDelayed(keepAliveRunnable, HEARTBEAT_INTERVAL_MS);
+    }
+
+    private void sendKeepAliveBroadcast() {
+        Intent intent = new Intent(ACTION_KEEP_ALIVE).setPackage(getPackageName());
+        sendBroadcast(intent);
+    }
+
+    private void checkNativeSocketConnection() {
+        // Смены токена сюда приходят через TokenHolder.Listener; здесь только сам сокет
+        if (TextUtils.isEmpty(currentToken)) {
+            android.util.Log.d("BackgroundConnectionService", "No token available for socket connection");
+            return;
+        }
+        if (!socketEngine.isConnected() && reconnectScheduler != null) {
+            // Через планировщик: если попытка уже идёт, вторую не начинаем
+            android.util.Log.w("BackgroundConnectionService", "Native socket disconnected, requesting reconnect...");
+            reconnectScheduler.requestConnect();
+        } else {
+            android.util.Log.d("BackgroundConnectionService", "Native socket is connected");
+        }
+    }
+
+    private void updateForegroundNotification() {
+        try {
+            Notification notification = createNotification();
+            NotificationManager manager = getSystemService(NotificationManager.class);
+            if (manager != null) {
+                manager.notify(NOTIFICATION_ID, notification);
+                android.util.Log.d("BackgroundConnectionService", "Foreground notification updated");
+            }
+        } catch (Exception e) {
+            android.util.Log.e("BackgroundConnectionService", "Failed to update foreground notification", e);
+        }
+    }
+
+    /**
+     * Doze: во сне не планируем heartbeat вовсе (CPU всё равно спит), а в окно обслуживания
+     * коротко держим CPU, проверяем соединение и будим WebView.
+     */
+    private void onDeviceIdleModeChanged() {
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        boolean idle = pm != null && pm.isDeviceIdleMode();
+        if (idle) {
+            android.util.Log.d("BackgroundConnectionService", "💤 Device idle, heartbeat paused");
+            keepAlive.setMode("doze");
+            keepAliveHandler.removeCallbacks(keepAliveRunnable);
+            return;
+        }
+        keepAlive.setMode("active");
+        keepAlive.onMaintenanceWindow();
+        android.util.Log.d("BackgroundConnectionService", "⏰ Idle mode exited, checking connection");
+        sendKeepAliveBroadcast();
+        if (!socketEngine.isConnected() && !TextUtils.isEmpty(currentToken)) {
+            synchronized (this) {
+                keepAlive.release(maintenanceHold);
+                maintenanceHold = keepAlive.acquire("maintenance", MAINTENANCE_HOLD_MS);
+            }
+            reconnectScheduler.requestConnect();
+        }
+        scheduleKeepAlive();
+    }
+
+    private synchronized void releaseConnectHolds() {
+        if (keepAlive == null) return;
+        keepAlive.release(connectHold);
+        keepAlive.release(maintenanceHold);
+        connectHold = null;
+        maintenanceHold = null;
+    }
+
+    private void updateSocketToken(String token) {
+        android.util.Log.d("BackgroundConnectionService", "updateSocketToken() called, token length: " + (token != null ? token.length() : 0));
+        if (TextUtils.isEmpty(token)) {
+            android.util.Log.w("BackgroundConnectionService", "Token is empty, disconnecting socket");
+            currentToken = "";
+            if (tokenLifecycle != null) tokenLifecycle.cancel();
+            disconnectNativeSocket();
+            return;
+        }
+        boolean isSameToken = token.equals(currentToken);
+        boolean isConnected = socketEngine.isConnected();
+        android.util.Log.d("BackgroundConnectionService", "Token comparison: isSame=" + isSameToken + ", isConnected=" + isConnected);
+        if (isSameToken && isConnected) {
+            android.util.Log.d("BackgroundConnectionService", "Token unchanged and socket connected, skipping reconnect");
+            return;
+        }
+        android.util.Log.d("BackgroundConnectionService", "Updating token...");
+        applyNewToken(token);
+    }
+
+    /** Новый токен того же пользователя отдаём живому сокету; иначе — переподключение. */
+    private void applyNewToken(String token) {
+        currentToken = token;
+        if (socketEngine.isConnected() && socketEngine.handOverToken(token)) {
+            if (tokenLifecycle != null) tokenLifecycle.schedule(token);
+            return;
+        }
+        connectNativeSocket(token);
+    }
+
+    private void connectNativeSocket(String token) {
+        if (TextUtils.isEmpty(token)) {
+            android.util.Log.w("BackgroundConnectionService", "Token empty, cannot connect native socket");
+            return;
+        }
+        android.util.Log.d("BackgroundConnectionService", "🔄 connectNativeSocket() called, token length: " + token.length());
+        if (tokenLifecycle != null) {
+            tokenLifecycle.schedule(token);
+        }
+        synchronized (this) {
+            // Держим CPU только на время рукопожатия: до connect/connect_error или таймаута
+            if (keepAlive != null && !socketEngine.isConnected()) {
+                keepAlive.release(connectHold);
+                connectHold = keepAlive.acquire("connect", CONNECT_HOLD_MS);
+            }
+        }
+        socketEngine.connect(token);
+    }
+
+    private void disconnectNativeSocket() {
+        socketEngine.disconnect();
+    }
+
+    private void dispatchEvent(Runnable handler) {
+        final KeepAliveManager.Hold hold = keepAlive != null ? keepAlive.acquire("event", EVENT_HOLD_MS) : null;
+        try {
+            eventExecutor.execute(() -> {
+                try {
+                    handler.run();
+                } finally {
+                    if (hold != null) keepAlive.release(hold);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (hold != null) keepAlive.release(hold);
+            android.util.Log.w("BackgroundConnectionService", "Event dropped, service is shutting down");
+        }
+    }
+
+    private void handleMessageNotify(Object... args) {
+        try {
+            if (args == null || args.length == 0 || !(args[0] instanceof JSONObject)) return;
+            JSONObject payload = (JSONObject) args[0];
+            String conversationId = payload.optString("conversationId", "");
+            JSONObject message = payload.optJSONObject("message");
+            String messageId = payload.optString("messageId", "");
+            String preview = extractMessagePreview(message);
+            // В E2EE-беседу открытым текстом из шторки отвечать нельзя
+            JSONObject metadata = message != null ? message.optJSONObject("metadata") : null;
+            boolean replyAllowed = message != null && (metadata == null || !metadata.has("e2ee"));
+            JSONObject sender = message != null ? message.optJSONObject("sender") : null;
+            String senderName = null;
+            if (sender != null) {
+                senderName = sender.optString("displayName", "");
+                if (TextUtils.isEmpty(senderName)) senderName = sender.optString("username", "");
+            }
+            showMessageNotification(conversationId, messageId, payload.optString("senderId", ""), senderName, preview, replyAllowed);
+        } catch (Exception e) {
+            android.util.Log.e("BackgroundConnectionService", "Error handling message:notify", e);
+        }
+    }
+
+    private void handleCallIncoming(Object... args) {
+        try {
+            if (args == null || args.length == 0 || !(args[0] instanceof JSONObject)) return;
+            JSONObject payload = (JSONObject) args[0];
+            String conversationId = payload.optString("conversationId", "");
+            JSONObject from = payload.optJSONObject("from");
+            String callerName = from != null ? from.optString("name", "Входящий звонок") : "Входящий звонок";
+            String avatarUrl = from != null ? absoluteUrl(from.optString("avatarUrl", "")) : null;
+            boolean isVideo = payload.optBoolean("video", false);
+            CallLatencyTracker.mark(conversationId, CallLatencyTracker.HOP_DISPATCHED);
+            IncomingCallService.start(getApplicationContext(), conversationId, callerName, isVideo, avatarUrl);
+        } catch (Exception e) {
+            android.util.Log.e("BackgroundConnectionService", "Error handling call:incoming", e);
+        }
+    }
+
+    @Nullable
+    private static String callConversationId(Object[] args) {
+        if (args == null || args.length == 0 || !(args[0] instanceof JSONObject)) return null;
+        return ((JSONObject) args[0]).optString("conversationId", null);
+    }
+
+    /** Аватарки приходят относительными ({@code /api/files/...}) — AvatarCache нужен полный URL. */
+    @Nullable
+    private static String absoluteUrl(@Nullable String url) {
+        if (TextUtils.isEmpty(url) || "null".equals(url)) return null;
+        if (url.startsWith("http://") || url.startsWith("https://")) return url;
+        String origin = API_BASE_URL.substring(0, API_BASE_URL.length() - "/api".length());
+        return url.startsWith("/") ? origin + url : origin + "/" + url;
+    }
+
+    private void trackSeq(Object[] args) {
+        if (args == null || args.length == 0 || !(args[0] instanceof JSONObject)) return;
+        long seq = ((JSONObject) args[0]).optLong("seq", 0L);
+        if (seq > 0) {
+            lastSeq.accumulateAndGet(seq, Math::max);
+        }
+    }
+
+    private void sendSyncResume() {
+        try {
+            JSONObject payload = new JSONObject();
+            payload.put("lastSeq", lastSeq.get());
+            if (!socketEngine.emit("sync:resume", payload)) {
+                android.util.Log.d("BackgroundConnectionService", "Cannot emit sync:resume, socket not connected");
+            }
+        } catch (JSONException e) {
+            android.util.Log.e("BackgroundConnectionService", "Failed to emit sync:resume", e);
+        }
+    }
+
+    /**
+     * Догонка после реконнекта: сервер уже схлопнул журнал (по звонку — только последнее
+     * событие, протухшие входящие выброшены), поэтому просто проигрываем записи по порядку.
+     */
+    private void handleSyncBatch(Object... args) {
+        try {
+            if (args == null || args.length == 0 || !(args[0] instanceof JSONObject)) return;
+            JSONObject batch = (JSONObject) args[0];
+            long seq = batch.optLong("seq", 0L);
+            if (batch.optBoolean("reset", false)) {
+                // Разрыв больше журнала: WebView перечитает всё сам, уведомления по старым событиям не нужны
+                android.util.Log.d("BackgroundConnectionService", "🔁 sync:batch reset, seq=" + seq);
+                lastSeq.set(seq);
+                return;
+            }
+            JSONArray events = batch.optJSONArray("events");
+            int count = events != null ? events.length() : 0;
+            android.util.Log.d("BackgroundConnectionService", "🔁 sync:batch: " + count + " missed events, seq=" + seq);
+            for (int i = 0; i < count; i++) {
+                JSONObject entry = events.optJSONObject(i);
+                if (entry == null) continue;
+                JSONObject payload = entry.optJSONObject("payload");
+                if (payload == null) continue;
+                switch (entry.optString("event", "")) {
+                    case "message:notify":
+                        // В журнале только id: само сообщение догружаем, оно могло измениться
+                        if (payload.has("message")) {
+                            handleMessageNotify(payload);
+                        } else {
+                            fetchAndNotify(payload);
+                        }
+                        break;
+                    case "call:incoming":
+                        handleCallIncoming(payload);
+                        break;
+                    case "call:declined":
+                    case "call:ended":
+                        handleCallEnded(payload);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            lastSeq.accumulateAndGet(seq, Math::max);
+        } catch (Exception e) {
+            android.util.Log.e("BackgroundConnectionService", "Error handling sync:batch", e);
+        }
+    }
+
+    /** Догрузка сообщения по id для уведомления из догонки. Удалённое или истёкшее (404) не показываем. */
+    private void fetchAndNotify(JSONObject payload) {
+        final String messageId = payload.optString("messageId", "");
+        if (TextUtils.isEmpty(messageId)) return;
+        final KeepAliveManager.Hold hold = keepAlive != null ? keepAlive.acquire("replay-fetch", EVENT_HOLD_MS) : null;
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    String body = callAuthorized("GET", "/messages/" + Uri.encode(messageId), null);
+                    JSONObject message = body != null ? new JSONObject(body).optJSONObject("message") : null;
+                    if (message == null) {
+                        android.util.Log.d("BackgroundConnectionService", "Replayed message is gone, skipping notification: " + messageId);
+                        return;
+                    }
+                    payload.put("message", message);
+                    dispatchEvent(() -> handleMessageNotify(payload));
+                } catch (JSONException e) {
+                    android.util.Log.e("BackgroundConnectionService", "Failed to parse replayed message", e);
+                } finally {
+                    if (hold != null) keepAlive.release(hold);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (hold != null) keepAlive.release(hold);
+        }
+    }
+
+    private void handleCallEnded(Object... args) {
+        try {
+            CallLatencyTracker.finish(callConversationId(args));
+            IncomingCallService.stop(getApplicationContext());
+        } catch (Exception e) {
+            android.util.Log.e("BackgroundConnectionService", "Error handling call ended", e);
+        }
+    }
+
+    /**
+     * Асинхронно, для сокетного и main потоков. Уже стоящее в очереди обновление не дублируется.
+     * @param proactive плановое обновление до истечения: backoff после ошибок к нему не относится.
+     */
+    private void attemptTokenRefresh(boolean proactive) {
+        if (tokenHolder == null) return;
+        if (!refreshQueued.compareAndSet(false, true)) {
+            android.util.Log.d("BackgroundConnectionService", "Token refresh already queued, skipping");
+            return;
+        }
+        final String staleAccessToken = tokenHolder.getAccessToken();
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    if (refreshTokensBlocking(staleAccessToken, proactive)) {
+                        android.util.Log.d("BackgroundConnectionService", "Access token refreshed successfully");
+                    } else {
+                        android.util.Log.e("BackgroundConnectionService", "Failed to refresh access token");
+                    }
+                } finally {
+                    refreshQueued.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshQueued.set(false);
+        }
+    }
+
+    /**
+     * Единственный путь обновления токенов; блокирующий, вызывающий ждёт результата.
+     * Refresh token читается в момент выполнения, а не постановки в очередь.
+     *
+     * @param staleAccessToken токен, который перестал подходить: если его уже сменили
+     *     (обновил другой вызов или WebView), повторно не обновляем.
+     * @return true, если в TokenHolder теперь свежий access token.
+     */
+    private boolean refreshTokensBlocking(String staleAccessToken, boolean proactive) {
+        synchronized (refreshLock) {
+            String current = tokenHolder.getAccessToken();
+            if (!TextUtils.isEmpty(current) && !current.equals(staleAccessToken)) {
+                android.util.Log.d("BackgroundConnectionService", "Access token already renewed, skipping refresh");
+                return true;
+            }
+            long now = System.currentTimeMillis();
+            if (!proactive && now - lastRefreshAttempt < TOKEN_REFRESH_BACKOFF_MS) {
+                android.util.Log.d("BackgroundConnectionService", "Token refresh backoff active");
+                return false;
+            }
+            String refreshToken = tokenHolder.getRefreshToken();
+            if (TextUtils.isEmpty(refreshToken)) {
+                android.util.Log.w("BackgroundConnectionService", "No refresh token available, cannot refresh access token");
+                return false;
+            }
+            lastRefreshAttempt = now;
+            return refreshAccessToken(refreshToken);
+        }
+    }
+
+    private boolean refreshAccessToken(String refreshToken) {
+        try {
+            JSONObject payload = new JSONObject();
+            payload.put("refreshToken", refreshToken);
+            RequestBody body = RequestBody.create(JSON_MEDIA_TYPE, payload.toString());
+            Request request = new Request.Builder()
+                .url(API_BASE_URL + "/auth/refresh")
+                .header("Content-Type", "application/json")
+                .header("X-Native-Client", "1")
+                .post(body)
+                .build();
+            try (Response response = httpClient.newCall(request).execute()) {
+                if (!response.isSuccessful()) {
+                    android.util.Log.e("BackgroundConnectionService", "Refresh token request failed: " + response.code());
+                    return false;
+                }
+                String responseBody = response.body() != null ? response.body().string() : "";
+                JSONObject json = new JSONObject(responseBody);
+                String newAccessToken = json.optString("accessToken", null);
+                String newRefreshToken = json.optString("refreshToken", null);
+                if (TextUtils.isEmpty(newAccessToken)) {
+                    android.util.Log.e("BackgroundConnectionService", "Refresh response missing access token");
+                    return false;
+                }
+                // Слушатель TokenHolder применит токен к сокету (handover или переподключение)
+                tokenHolder.update(newAccessToken, TextUtils.isEmpty(newRefreshToken) ? null : newRefreshToken);
+                return true;
+            }
+        } catch (Exception e) {
+            android.util.Log.e("BackgroundConnectionService", "Failed to refresh access token", e);
+        }
+        return false;
+    }
+
+    /**
+     * Ответ и «прочитано» из шторки: один HTTP-запрос через общий клиент вместо запуска
+     * MainActivity, Capacitor bridge и WebView.
+     */
+    private void handleNotificationAction(Intent intent) {
+        final String conversationId = intent.getStringExtra(EXTRA_CONVERSATION_ID);
+        if (TextUtils.isEmpty(conversationId) || conversationNotifier == null) return;
+        final boolean isReply = ACTION_NOTIFICATION_REPLY.equals(intent.getAction());
+        CharSequence replyText = null;
+        if (isReply) {
+            Bundle results = RemoteInput.getResultsFromIntent(intent);
+            replyText = results != null ? results.getCharSequence(ConversationNotifier.KEY_TEXT_REPLY) : null;
+            if (TextUtils.isEmpty(replyText)) return;
+        } else {
+            // Убираем сразу, не дожидаясь сервера
+            conversationNotifier.clear(conversationId);
+        }
+        final String text = replyText != null ? replyText.toString() : null;
+        final KeepAliveManager.Hold hold = keepAlive != null ? keepAlive.acquire("notification-action", ACTION_HOLD_MS) : null;
+        try {
+            refreshExecutor.execute(() -> {
+                try {
+                    if (isReply) {
+                        JSONObject payload = new JSONObject();
+                        payload.put("conversationId", conversationId);
+                        payload.put("type", "TEXT");
+                        payload.put("content", text);
+                        boolean sent = postAuthorized("/conversations/send", payload);
+                        android.util.Log.d("BackgroundConnectionService", "💬 Notification reply sent=" + sent);
+                        conversationNotifier.appendReply(conversationId, text, sent);
+                    } else {
+                        JSONObject payload = new JSONObject();
+                        payload.put("conversationId", conversationId);
+                        boolean ok = postAuthorized("/messages/mark-conversation-read", payload);
+                        android.util.Log.d("BackgroundConnectionService", "✅ Conversation marked read from notification: " + ok);
+                    }
+                } catch (JSONException e) {
+                    android.util.Log.e("BackgroundConnectionService", "Failed to build notification action payload", e);
+                } finally {
+                    if (hold != null) keepAlive.release(hold);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (hold != null) keepAlive.release(hold);
+            android.util.Log.w("BackgroundConnectionService", "Notification action dropped, service is shutting down");
+        }
+    }
+
+    /** POST с access token; на 401 — одно обновление токена и повтор. Вызывать на refreshExecutor. */
+    private boolean postAuthorized(String path, JSONObject payload) {
+        return callAuthorized("POST", path, payload) != null;
+    }
+
+    /**
+     * Запрос с access token; на 401 — одно обновление токена и повтор. Вызывать на refreshExecutor.
+     * @return тело ответа или null при ошибке.
+     */
+    @Nullable
+    private String callAuthorized(String method, String path, @Nullable JSONObject payload) {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            String token = tokenHolder != null ? tokenHolder.getAccessToken() : "";
+            if (TextUtils.isEmpty(token)) return null;
+            Request request = new Request.Builder()
+                .url(API_BASE_URL + path)
+                .header("Authorization", "Bearer " + token)
+                .header("X-Native-Client", "1")
+                .method(method, payload != null ? RequestBody.create(JSON_MEDIA_TYPE, payload.toString()) : null)
+                .build();
+            try (Response response = httpClient.newCall(request).execute()) {
+                if (response.isSuccessful()) return response.body() != null ? response.body().string() : "";
+                if (response.code() != 401 || attempt > 0) {
+                    android.util.Log.w("BackgroundConnectionService", method + " " + path + " failed: " + response.code());
+                    return null;
+                }
+            } catch (Exception e) {
+                android.util.Log.e("BackgroundConnectionService", method + " " + path + " failed", e);
+                return null;
+            }
+            if (!refreshTokensBlocking(token, false)) return null;
+        }
+        return null;
+    }
+
+    private void sendPresenceFocus(boolean focused) {
+        try {
+            JSONObject payload = new JSONObject();
+            payload.put("focused", focused);
+            if (!socketEngine.emit("presence:focus", payload)) {
+                android.util.Log.d("BackgroundConnectionService", "Cannot emit presence focus, socket not connected");
+                return;
+            }
+            android.util.Log.d("BackgroundConnectionService", "Emitted presence focus: " + focused);
+        } catch (JSONException e) {
+            android.util.Log.e("BackgroundConnectionService", "Failed to emit presence focus", e);
+        }
+    }
+
+    private String extractMessagePreview(JSONObject message) {
+        if (message == null) return "Новое сообщение";
+        String content = message.optString("content", "");
+        if (!TextUtils.isEmpty(content)) {
+            return content;
+        }
+        JSONArray attachments = message.optJSONArray("attachments");
+        if (attachments != null && attachments.length() > 0) {
+            JSONObject attachment = attachments.optJSONObject(0);
+            if (attachment != null) {
+                String type = attachment.optString("type", "");
+                if ("IMAGE".equalsIgnoreCase(type)) {
+                    return "📷 Фото";
+                }
+                return "📎 Вложение";
+            }
+        }
+        return "Новое сообщение";
+    }
+
+    private void showMessageNotification(
+        String conversationId,
+        String messageId,
+        String senderId,
+        @Nullable String senderName,
+        String body,
+        boolean replyAllowed
+    ) {
+        if (TextUtils.isEmpty(conversationId) || conversationNotifier == null) {
+            android.util.Log.w("BackgroundConnectionService", "Cannot show notification: no conversation or notifier");
+            return;
+        }
+        // Одно уведомление на беседу: сообщение дописывается в его историю.
+        // Если WebView уже показал это сообщение, notifier его пропустит.
+        conversationNotifier.post(conversationId, messageId, senderId, senderName, body, System.currentTimeMillis(), null, replyAllowed);
+    }
+
+    private boolean isUnauthorizedMessage(String message) {
+        return message != null && message.contains("Unauthorized");
+    }
+}
+
@@ -0,0 +1,113 @@
+package org.eblusha.plus;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+import androidx.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Замер пути входящего звонка: от {@code call:incoming} в нативном сокете до звонка и экрана.
+ *
+ * На каждом шаге ставится метка ({@link #mark}); по метке {@link #HOP_RINGING} время от первого
+ * шага попадает в гистограмму time-to-ring, по {@link #HOP_UI} — в гистограмму time-to-UI,
+ * а вся цепочка с приращениями пишется в лог. Если звонок пришёл не из сокета (через
+ * IncomingCallPlugin из WebView), отсчёт идёт от первой метки, которую удалось поставить.
+ */
+final class CallLatencyTracker {
+    static final String HOP_SOCKET = "socket";
+    static final String HOP_DISPATCHED = "dispatched";
+    static final String HOP_SERVICE = "service";
+    static final String HOP_NOTIFIED = "notified";
+    static final String HOP_RINGING = "ringing";
+    static final String HOP_UI = "ui";
+
+    private static final long[] BUCKETS_MS = {100, 250, 500, 1000, 2000, 5000};
+    private static final long STALE_MS = 2 * 60_000L;
+
+    private static final Map<String, LinkedHashMap<String, Long>> active = new HashMap<>();
+    private static final long[] ringHistogram = new long[BUCKETS_MS.length + 1];
+    private static final long[] uiHistogram = new long[BUCKETS_MS.length + 1];
+
+    private CallLatencyTracker() {}
+
+    static synchronized void mark(@Nullable String conversationId, String hop) {
+        if (TextUtils.isEmpty(conversationId)) return;
+        long now = SystemClock.elapsedRealtime();
+        LinkedHashMap<String, Long> hops = active.get(conversationId);
+        if (hops == null || HOP_SOCKET.equals(hop)) {
+            dropStale(now);
+            hops = new LinkedHashMap<>();
+            active.put(conversationId, hops);
+        }
+        if (hops.containsKey(hop)) return;
+        hops.put(hop, now);
+        if (HOP_RINGING.equals(hop)) {
+            long elapsed = now - hops.values().iterator().next();
+            ringHistogram[bucketOf(elapsed)]++;
+            android.util.Log.d("CallLatencyTracker", "🔔 Time-to-ring " + elapsed + "ms: " + describe(hops));
+        } else if (HOP_UI.equals(hop)) {
+            long elapsed = now - hops.values().iterator().next();
+            uiHistogram[bucketOf(elapsed)]++;
+            android.util.Log.d("CallLatencyTracker", "📱 Time-to-UI " + elapsed + "ms: " + describe(hops));
+        }
+    }
+
+    /** Звонок принят, отклонён или завершён: цепочка больше не нужна. */
+    static synchronized void finish(@Nullable String conversationId) {
+        if (conversationId != null) active.remove(conversationId);
+    }
+
+    /** Счётчики по корзинам, например {@code "<=100ms": 3}; последняя — {@code ">5000ms"}. */
+    static synchronized Map<String, Long> ringHistogram() {
+        return toMap(ringHistogram);
+    }
+
+    static synchronized Map<String, Long> uiHistogram() {
+        return toMap(uiHistogram);
+    }
+
+    static synchronized String summary() {
+        return "ring=" + toMap(ringHistogram) + " ui=" + toMap(uiHistogram);
+    }
+
+    private static Map<String, Long> toMap(long[] histogram) {
+        LinkedHashMap<String, Long> result = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKETS_MS.length; i++) {
+            result.put("<=" + BUCKETS_MS[i] + "ms", histogram[i]);
+        }
+        result.put(">" + BUCKETS_MS[BUCKETS_MS.length - 1] + "ms", histogram[BUCKETS_MS.length]);
+        return result;
+    }
+
+    private static int bucketOf(long elapsedMs) {
+        for (int i = 0; i < BUCKETS_MS.length; i++) {
+            if (elapsedMs <= BUCKETS_MS[i]) return i;
+        }
+        return BUCKETS_MS.length;
+    }
+
+    private static String describe(LinkedHashMap<String, Long> hops) {
+        StringBuilder sb = new StringBuilder();
+        long previous = -1;
+        for (Map.Entry<String, Long> entry : hops.entrySet()) {
+            if (sb.length() > 0) sb.append(" → ");
+            sb.append(entry.getKey());
+            if (previous >= 0) sb.append(" +").append(entry.getValue() - previous).append("ms");
+            previous = entry.getValue();
+        }
+        return sb.toString();
+    }
+
+    private static void dropStale(long now) {
+        Iterator<LinkedHashMap<String, Long>> iterator = active.values().iterator();
+        while (iterator.hasNext()) {
+            LinkedHashMap<String, Long> hops = iterator.next();
+            if (hops.isEmpty() || now - hops.values().iterator().next() > STALE_MS) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,404 @@
+package org.eblusha.plus;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.service.notification.StatusBarNotification;
+import android.text.TextUtils;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.app.Person;
+import androidx.core.app.RemoteInput;
+import androidx.core.graphics.drawable.IconCompat;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Уведомления о сообщениях: одно на беседу, а не одно на сообщение.
+ *
+ * Раньше каждое сообщение становилось отдельным уведомлением — активный групповой чат
+ * заваливал шторку, и каждое стоило полной сборки Builder'а и IPC в system_server.
+ * Теперь сообщения дописываются в ограниченную историю MessagingStyle беседы, пересборка
+ * откладывается на {@link #COALESCE_MS} (пачка сообщений — один notify), звук/вибрация
+ * повторяются не чаще {@link #REALERT_INTERVAL_MS}, а над всеми беседами висит summary.
+ *
+ * Один экземпляр на процесс: через него показывают и нативный сокет, и WebView
+ * ({@link MessageNotificationPlugin}), поэтому id уведомления беседы у обоих путей общий,
+ * а повтор одного messageId отсекает {@link NotificationDedup}.
+ *
+ * Вся работа — на собственном потоке, вызывать можно откуда угодно.
+ */
+final class ConversationNotifier {
+    private static final String TAG = "ConversationNotifier";
+    static final String CHANNEL_ID = "eblusha_messages";
+    private static final String GROUP_KEY = "eblusha_messages_group";
+    private static final int SUMMARY_NOTIFICATION_ID = 2002;
+    private static final int MAX_HISTORY = 8;
+    private static final long COALESCE_MS = 400L;
+    private static final long REALERT_INTERVAL_MS = 10_000L;
+    static final String KEY_TEXT_REPLY = "reply_text";
+
+    private static final class Entry {
+        final String senderKey;
+        final String senderName;
+        final CharSequence text;
+        final long timestamp;
+        @Nullable final Bitmap avatar;
+        /** Ответ самого пользователя из шторки. */
+        final boolean fromSelf;
+
+        Entry(String senderKey, String senderName, CharSequence text, long timestamp, @Nullable Bitmap avatar, boolean fromSelf) {
+            this.senderKey = senderKey;
+            this.senderName = senderName;
+            this.text = text;
+            this.timestamp = timestamp;
+            this.avatar = avatar;
+            this.fromSelf = fromSelf;
+        }
+    }
+
+    private static final class ConversationState {
+        final String conversationId;
+        final ArrayDeque<Entry> history = new ArrayDeque<>();
+        int unread;
+        /** Сообщения, пришедшие после последнего notify. */
+        int sinceShown;
+        boolean shown;
+        long lastAlertAt;
+        boolean alertPending;
+        boolean rebuildScheduled;
+        boolean replyAllowed;
+
+        ConversationState(String conversationId) {
+            this.conversationId = conversationId;
+        }
+    }
+
+    private static ConversationNotifier instance;
+
+    private final Context context;
+    private final NotificationManagerCompat manager;
+    private final HandlerThread thread = new HandlerThread("notifications");
+    private final Handler handler;
+    private final Person self = new Person.Builder().setName("Вы").build();
+    // Порядок вставки — порядок строк в summary; доступ только с потока handler
+    private final LinkedHashMap<String, ConversationState> conversations = new LinkedHashMap<>();
+
+    private long posted;
+    private long coalesced;
+
+    private ConversationNotifier(Context context) {
+        this.context = context.getApplicationContext();
+        this.manager = NotificationManagerCompat.from(this.context);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    static synchronized ConversationNotifier get(Context context) {
+        if (instance == null) {
+            instance = new ConversationNotifier(context);
+        }
+        return instance;
+    }
+
+    /** Один и тот же id на беседу: уведомление обновляется, а не добавляется. */
+    static int notificationIdFor(@NonNull String conversationId) {
+        return ("conversation:" + conversationId).hashCode();
+    }
+
+    /**
+     * @param replyAllowed показывать ли быстрый ответ: в E2EE-беседу открытым текстом отвечать нельзя.
+     * @return false, если это сообщение уже показано другим путём.
+     */
+    boolean post(
+        @NonNull String conversationId,
+        @Nullable String messageId,
+        @Nullable String senderKey,
+        @Nullable String senderName,
+        @NonNull CharSequence text,
+        long timestamp,
+        @Nullable Bitmap avatar,
+        boolean replyAllowed
+    ) {
+        if (!NotificationDedup.claim(messageId)) return false;
+        handler.post(() -> {
+            ConversationState state = conversations.get(conversationId);
+            if (state == null) {
+                state = new ConversationState(conversationId);
+                conversations.put(conversationId, state);
+            }
+            state.history.addLast(new Entry(
+                senderKey != null ? senderKey : "",
+                !TextUtils.isEmpty(senderName) ? senderName : "Новое сообщение",
+                text,
+                timestamp,
+                avatar,
+                false
+            ));
+            while (state.history.size() > MAX_HISTORY) {
+                state.history.removeFirst();
+            }
+            state.replyAllowed = replyAllowed;
+            state.unread++;
+            state.sinceShown++;
+            state.alertPending = true;
+            if (state.rebuildScheduled) {
+                coalesced++;
+                return;
+            }
+            state.rebuildScheduled = true;
+            final ConversationState target = state;
+            handler.postDelayed(() -> rebuild(target), COALESCE_MS);
+        });
+        return true;
+    }
+
+    /**
+     * Ответ из шторки отправлен (или нет): дописываем его в историю и перевыпускаем уведомление
+     * без звука — иначе система так и крутит индикатор отправки.
+     */
+    void appendReply(@NonNull String conversationId, @NonNull CharSequence text, boolean sent) {
+        handler.post(() -> {
+            ConversationState state = conversations.get(conversationId);
+            if (state == null) return;
+            CharSequence shown = sent ? text : "⚠️ Не отправлено: " + text;
+            state.history.addLast(new Entry("", "Вы", shown, System.currentTimeMillis(), null, true));
+            while (state.history.size() > MAX_HISTORY) {
+                state.history.removeFirst();
+            }
+            state.unread = 0;
+            state.alertPending = false;
+            try {
+                manager.notify(notificationIdFor(conversationId), build(state, true));
+                postSummary();
+            } catch (SecurityException e) {
+                android.util.Log.e(TAG, "No permission to post notifications", e);
+            }
+        });
+    }
+
+    /** Беседу открыли или прочитали в другом месте. */
+    void clear(@NonNull String conversationId) {
+        handler.post(() -> {
+            if (conversations.remove(conversationId) == null) return;
+            manager.cancel(notificationIdFor(conversationId));
+            postSummary();
+        });
+    }
+
+    void clearAll() {
+        handler.post(() -> {
+            for (String conversationId : conversations.keySet()) {
+                manager.cancel(notificationIdFor(conversationId));
+            }
+            conversations.clear();
+            manager.cancel(SUMMARY_NOTIFICATION_ID);
+        });
+    }
+
+    void logStats() {
+        handler.post(() -> android.util.Log.d(TAG, "📊 Notifications posted=" + posted + ", coalesced=" + coalesced));
+    }
+
+    private void rebuild(ConversationState state) {
+        state.rebuildScheduled = false;
+        if (conversations.get(state.conversationId) != state) return;
+        dropDismissed();
+        if (state.history.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        boolean alert = state.alertPending && now - state.lastAlertAt >= REALERT_INTERVAL_MS;
+        if (alert) state.lastAlertAt = now;
+        state.alertPending = false;
+        try {
+            manager.notify(notificationIdFor(state.conversationId), build(state, !alert));
+            state.shown = true;
+            state.sinceShown = 0;
+            posted++;
+            postSummary();
+        } catch (SecurityException e) {
+            android.util.Log.e(TAG, "No permission to post notifications", e);
+        }
+    }
+
+    private Notification build(ConversationState state, boolean silent) {
+        NotificationCompat.MessagingStyle style = new NotificationCompat.MessagingStyle(self);
+        Set<String> senders = new HashSet<>();
+        Map<String, Person> persons = new LinkedHashMap<>();
+        for (Entry entry : state.history) {
+            if (entry.fromSelf) {
+                style.addMessage(entry.text, entry.timestamp, (Person) null);
+                continue;
+            }
+            Person person = persons.get(entry.senderKey + entry.senderName);
+            if (person == null) {
+                Person.Builder personBuilder = new Person.Builder()
+                    .setName(entry.senderName)
+                    .setKey(TextUtils.isEmpty(entry.senderKey) ? null : entry.senderKey);
+                if (entry.avatar != null) {
+                    personBuilder.setIcon(IconCompat.createWithBitmap(entry.avatar));
+                }
+                person = personBuilder.build();
+                persons.put(entry.senderKey + entry.senderName, person);
+            }
+            senders.add(entry.senderKey);
+            style.addMessage(entry.text, entry.timestamp, person);
+        }
+        Entry last = state.history.peekLast();
+        if (senders.size() > 1) {
+            style.setGroupConversation(true);
+            style.setConversationTitle("Новые сообщения (" + state.unread + ")");
+        }
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+            .setSmallIcon(R.mipmap.ic_launcher)
+            .setLargeIcon(last != null ? last.avatar : null)
+            .setContentTitle(last != null ? last.senderName : "Новое сообщение")
+            .setContentText(last != null ? last.text : "")
+            .setStyle(style)
+            .setNumber(state.unread)
+            .setWhen(last != null ? last.timestamp : System.currentTimeMillis())
+            .setPriority(NotificationCompat.PRIORITY_HIGH)
+            .setCategory(NotificationCompat.CATEGORY_MESSAGE)
+            .setGroup(GROUP_KEY)
+            // Обновление без звука, пока не вышел интервал повторного оповещения
+            .setOnlyAlertOnce(silent)
+            .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN)
+            .setAutoCancel(true)
+            .setContentIntent(contentIntent(state.conversationId))
+            .addAction(markReadAction(state.conversationId));
+        if (state.replyAllowed) {
+            builder.addAction(replyAction(state.conversationId));
+        }
+        return builder.build();
+    }
+
+    // Действия обрабатывает BackgroundConnectionService — без запуска MainActivity и WebView
+    private NotificationCompat.Action replyAction(String conversationId) {
+        RemoteInput remoteInput = new RemoteInput.Builder(KEY_TEXT_REPLY)
+            .setLabel("Ответить")
+            .build();
+        return new NotificationCompat.Action.Builder(
+            R.mipmap.ic_launcher,
+            "Ответить",
+            serviceIntent(BackgroundConnectionService.ACTION_NOTIFICATION_REPLY, conversationId, true)
+        )
+            .addRemoteInput(remoteInput)
+            .setAllowGeneratedReplies(true)
+            .setSemanticAction(NotificationCompat.Action.SEMANTIC_ACTION_REPLY)
+            .setShowsUserInterface(false)
+            .build();
+    }
+
+    private NotificationCompat.Action markReadAction(String conversationId) {
+        return new NotificationCompat.Action.Builder(
+            R.mipmap.ic_launcher,
+            "Прочитано",
+            serviceIntent(BackgroundConnectionService.ACTION_NOTIFICATION_MARK_READ, conversationId, false)
+        )
+            .setSemanticAction(NotificationCompat.Action.SEMANTIC_ACTION_MARK_AS_READ)
+            .setShowsUserInterface(false)
+            .build();
+    }
+
+    private PendingIntent serviceIntent(String action, String conversationId, boolean mutable) {
+        Intent intent = new Intent(context, BackgroundConnectionService.class)
+            .setAction(action)
+            .putExtra(BackgroundConnectionService.EXTRA_CONVERSATION_ID, conversationId);
+        // RemoteInput дописывает текст в intent, поэтому для ответа PendingIntent должен быть mutable
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (!mutable) {
+            flags |= PendingIntent.FLAG_IMMUTABLE;
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            flags |= PendingIntent.FLAG_MUTABLE;
+        }
+        int requestCode = (action + conversationId).hashCode();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            return PendingIntent.getForegroundService(context, requestCode, intent, flags);
+        }
+        return PendingIntent.getService(context, requestCode, intent, flags);
+    }
+
+    private void postSummary() {
+        if (conversations.isEmpty()) {
+            manager.cancel(SUMMARY_NOTIFICATION_ID);
+            return;
+        }
+        int total = 0;
+        NotificationCompat.InboxStyle inbox = new NotificationCompat.InboxStyle();
+        for (ConversationState state : conversations.values()) {
+            total += state.unread;
+            Entry last = state.history.peekLast();
+            if (last != null) {
+                inbox.addLine(last.senderName + ": " + last.text);
+            }
+        }
+        inbox.setSummaryText(total + " новых сообщений");
+        manager.notify(SUMMARY_NOTIFICATION_ID, new NotificationCompat.Builder(context, CHANNEL_ID)
+            .setSmallIcon(R.mipmap.ic_launcher)
+            .setContentTitle("Новые сообщения")
+            .setContentText(total + " в " + conversations.size() + " беседах")
+            .setStyle(inbox)
+            .setNumber(total)
+            .setGroup(GROUP_KEY)
+            .setGroupSummary(true)
+            .setGroupAlertBehavior(NotificationCompat.GROUP_ALERT_CHILDREN)
+            .setOnlyAlertOnce(true)
+            .setAutoCancel(true)
+            .build());
+    }
+
+    /** Смахнутые пользователем уведомления не должны воскресать со старой историей. */
+    private void dropDismissed() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M || conversations.isEmpty()) return;
+        NotificationManager system = context.getSystemService(NotificationManager.class);
+        if (system == null) return;
+        Set<Integer> active = new HashSet<>();
+        try {
+            for (StatusBarNotification sbn : system.getActiveNotifications()) {
+                active.add(sbn.getId());
+            }
+        } catch (Exception e) {
+            return;
+        }
+        Iterator<ConversationState> iterator = conversations.values().iterator();
+        while (iterator.hasNext()) {
+            ConversationState state = iterator.next();
+            if (!state.shown || active.contains(notificationIdFor(state.conversationId))) continue;
+            // Оставляем только то, что пришло после последнего показа
+            while (state.history.size() > state.sinceShown) {
+                state.history.removeFirst();
+            }
+            state.unread = state.sinceShown;
+            state.shown = false;
+            if (state.history.isEmpty() && !state.rebuildScheduled) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private PendingIntent contentIntent(String conversationId) {
+        Intent intent = new Intent(context, MainActivity.class)
+            .setAction("open_conversation")
+            .putExtra("conversation_id", conversationId)
+            .putExtra("conversationId", conversationId)
+            .addFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        return PendingIntent.getActivity(
+            context,
+            notificationIdFor(conversationId),
+            intent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+    }
+}
@@ -0,0 +1,454 @@
+package org.eblusha.plus;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.media.AudioAttributes;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.VibrationEffect;
+import android.os.Vibrator;
+import android.os.VibratorManager;
+import android.provider.Settings;
+import android.util.Log;
+import android.view.LayoutInflater;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+
+public class IncomingCallService extends Service {
+
+    private static final String TAG = "IncomingCallService";
+
+    private static final String CHANNEL_ID = "incoming_calls_channel";
+    private static final String CHANNEL_NAME = "Входящие звонки";
+    private static final int NOTIFICATION_ID = 4001;
+
+    private static final String ACTION_START_CALL = "org.eblusha.plus.action.START_CALL";
+    private static final String ACTION_STOP_CALL = "org.eblusha.plus.action.STOP_CALL";
+    private static final String ACTION_ACCEPT_CALL = "org.eblusha.plus.action.ACCEPT_CALL";
+    private static final String ACTION_DECLINE_CALL = "org.eblusha.plus.action.DECLINE_CALL";
+
+    private static final String EXTRA_CONVERSATION_ID = "conversation_id";
+    private static final String EXTRA_CALLER_NAME = "caller_name";
+    private static final String EXTRA_IS_VIDEO = "is_video";
+    private static final String EXTRA_AVATAR_URL = "avatar_url";
+    private static final String EXTRA_ACCEPT_WITH_VIDEO = "accept_with_video";
+
+    private static boolean prewarmed;
+
+    private RingtonePlayer ringtonePlayer;
+    private Vibrator vibrator;
+    private PowerManager.WakeLock wakeLock;
+
+    private String activeConversationId;
+    private boolean activeIsVideo;
+    private String activeCallerName;
+    private String activeAvatarUrl;
+
+    public static void start(
+        Context context,
+        String conversationId,
+        String callerName,
+        boolean isVideo,
+        @Nullable String avatarUrl
+    ) {
+        Intent intent = new Intent(context, IncomingCallService.class);
+        intent.setAction(ACTION_START_CALL);
+        intent.putExtra(EXTRA_CONVERSATION_ID, conversationId);
+        intent.putExtra(EXTRA_CALLER_NAME, callerName);
+        intent.putExtra(EXTRA_IS_VIDEO, isVideo);
+        intent.putExtra(EXTRA_AVATAR_URL, avatarUrl);
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+
+    /**
+     * Всё, что не зависит от конкретного звонка, готовится заранее: канал уведомлений,
+     * плеер рингтона и разметка экрана звонка (инфлейт прогревает классы и ресурсы, первый
+     * setContentView в IncomingCallActivity заметно быстрее). Разметка — когда main thread
+     * простаивает, чтобы не мешать запуску.
+     */
+    public static synchronized void prewarm(Context context) {
+        if (prewarmed) return;
+        prewarmed = true;
+        Context appContext = context.getApplicationContext();
+        ensureChannel(appContext);
+        RingtonePlayer.get(appContext).warmUp();
+        new Handler(Looper.getMainLooper()).post(() -> Looper.myQueue().addIdleHandler(() -> {
+            try {
+                LayoutInflater.from(appContext).inflate(R.layout.activity_incoming_call, null, false);
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to prewarm incoming call layout", e);
+            }
+            return false;
+        }));
+        Log.d(TAG, "Incoming call path prewarmed");
+    }
+
+    public static void stop(Context context) {
+        Intent intent = new Intent(context, IncomingCallService.class);
+        intent.setAction(ACTION_STOP_CALL);
+        context.startService(intent);
+    }
+
+    public static void accept(
+        Context context,
+        String conversationId,
+        String callerName,
+        boolean isVideo,
+        @Nullable String avatarUrl,
+        boolean withVideo
+    ) {
+        Intent intent = new Intent(context, IncomingCallService.class);
+        intent.setAction(ACTION_ACCEPT_CALL);
+        intent.putExtra(EXTRA_CONVERSATION_ID, conversationId);
+        intent.putExtra(EXTRA_CALLER_NAME, callerName);
+        intent.putExtra(EXTRA_IS_VIDEO, isVideo);
+        intent.putExtra(EXTRA_AVATAR_URL, avatarUrl);
+        intent.putExtra(EXTRA_ACCEPT_WITH_VIDEO, withVideo);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+
+    public static void decline(
+        Context context,
+        String conversationId,
+        String callerName,
+        boolean isVideo,
+        @Nullable String avatarUrl
+    ) {
+        Intent intent = new Intent(context, IncomingCallService.class);
+        intent.setAction(ACTION_DECLINE_CALL);
+        intent.putExtra(EXTRA_CONVERSATION_ID, conversationId);
+        intent.putExtra(EXTRA_CALLER_NAME, callerName);
+        intent.putExtra(EXTRA_IS_VIDEO, isVideo);
+        intent.putExtra(EXTRA_AVATAR_URL, avatarUrl);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            context.startForegroundService(intent);
+        } else {
+            context.startService(intent);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        ensureChannel(this);
+        ringtonePlayer = RingtonePlayer.get(this);
+        initVibrator();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null) {
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        String action = intent.getAction();
+        if (ACTION_STOP_CALL.equals(action)) {
+            stopAlerting();
+            IncomingCallActivity.dismissCurrent();
+            stopForeground(true);
+            stopSelf();
+            return START_NOT_STICKY;
+        }
+
+        if (ACTION_ACCEPT_CALL.equals(action)) {
+            updateActiveCallInfo(intent);
+            boolean withVideo = intent.getBooleanExtra(EXTRA_ACCEPT_WITH_VIDEO, activeIsVideo);
+            handleAccept(withVideo);
+            return START_NOT_STICKY;
+        }
+
+        if (ACTION_DECLINE_CALL.equals(action)) {
+            updateActiveCallInfo(intent);
+            handleDecline();
+            return START_NOT_STICKY;
+        }
+
+        if (!ACTION_START_CALL.equals(action)) {
+            return START_NOT_STICKY;
+        }
+
+        updateActiveCallInfo(intent);
+        CallLatencyTracker.mark(activeConversationId, CallLatencyTracker.HOP_SERVICE);
+
+        Notification notification = buildNotification(
+            activeConversationId,
+            activeCallerName,
+            activeIsVideo,
+            activeAvatarUrl
+        );
+        startForeground(NOTIFICATION_ID, notification);
+        CallLatencyTracker.mark(activeConversationId, CallLatencyTracker.HOP_NOTIFIED);
+        startAlerting();
+        launchFullScreenUi(activeConversationId, activeCallerName, activeIsVideo, activeAvatarUrl);
+
+        return START_STICKY;
+    }
+
+    private void startAlerting() {
+        acquireWakeLock();
+        startRingtone();
+        startVibration();
+    }
+
+    private void stopAlerting() {
+        releaseWakeLock();
+        stopRingtone();
+        stopVibration();
+    }
+
+    private void startRingtone() {
+        ringtonePlayer.start(activeConversationId);
+    }
+
+    private void stopRingtone() {
+        ringtonePlayer.stop();
+    }
+
+    private void initVibrator() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            VibratorManager vibratorManager =
+                (VibratorManager) getSystemService(Context.VIBRATOR_MANAGER_SERVICE);
+            if (vibratorManager != null) {
+                vibrator = vibratorManager.getDefaultVibrator();
+            }
+        } else {
+            vibrator = (Vibrator) getSystemService(Context.VIBRATOR_SERVICE);
+        }
+    }
+
+    private void startVibration() {
+        if (vibrator == null) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            long[] timings = new long[]{0, 1000, 500, 1000, 500, 1200};
+            int[] amplitudes = new int[]{0, 255, 0, 255, 0, 255};
+            VibrationEffect effect = VibrationEffect.createWaveform(timings, amplitudes, 0);
+            vibrator.vibrate(effect);
+        } else {
+            vibrator.vibrate(new long[]{0, 1000, 500, 1000}, 0);
+        }
+    }
+
+    private void stopVibration() {
+        if (vibrator != null) {
+            vibrator.cancel();
+        }
+    }
+
+    private void acquireWakeLock() {
+        if (wakeLock != null && wakeLock.isHeld()) {
+            return;
+        }
+        PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (powerManager == null) {
+            return;
+        }
+        wakeLock = powerManager.newWakeLock(
+            PowerManager.SCREEN_BRIGHT_WAKE_LOCK
+                | PowerManager.ACQUIRE_CAUSES_WAKEUP
+                | PowerManager.ON_AFTER_RELEASE,
+            TAG + ":WakeLock"
+        );
+        wakeLock.setReferenceCounted(false);
+        wakeLock.acquire(60_000L);
+    }
+
+    private void releaseWakeLock() {
+        if (wakeLock != null && wakeLock.isHeld()) {
+            wakeLock.release();
+        }
+        wakeLock = null;
+    }
+
+    private void launchFullScreenUi(
+        String conversationId,
+        String callerName,
+        boolean isVideo,
+        @Nullable String avatarUrl
+    ) {
+        Intent fullScreenIntent = new Intent(this, IncomingCallActivity.class);
+        fullScreenIntent.putExtra(EXTRA_CONVERSATION_ID, conversationId);
+        fullScreenIntent.putExtra(EXTRA_CALLER_NAME, callerName);
+        fullScreenIntent.putExtra(EXTRA_IS_VIDEO, isVideo);
+        fullScreenIntent.putExtra(EXTRA_AVATAR_URL, avatarUrl);
+        fullScreenIntent.addFlags(
+            Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_SINGLE_TOP | Intent.FLAG_ACTIVITY_CLEAR_TOP
+        );
+        startActivity(fullScreenIntent);
+    }
+
+    private Notification buildNotification(
+        String conversationId,
+        String callerName,
+        boolean isVideo,
+        @Nullable String avatarUrl
+    ) {
+        Intent fullScreenIntent = new Intent(this, IncomingCallActivity.class);
+        fullScreenIntent.putExtra(EXTRA_CONVERSATION_ID, conversationId);
+        fullScreenIntent.putExtra(EXTRA_CALLER_NAME, callerName);
+        fullScreenIntent.putExtra(EXTRA_IS_VIDEO, isVideo);
+        fullScreenIntent.putExtra(EXTRA_AVATAR_URL, avatarUrl);
+
+        PendingIntent fullScreenPendingIntent = PendingIntent.getActivity(
+            this,
+            0,
+            fullScreenIntent,
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        PendingIntent acceptIntent = PendingIntent.getService(
+            this,
+            1,
+            buildActionIntent(ACTION_ACCEPT_CALL, true),
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        PendingIntent declineIntent = PendingIntent.getService(
+            this,
+            2,
+            buildActionIntent(ACTION_DECLINE_CALL, false),
+            PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE
+        );
+
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+            .setContentTitle(isVideo ? "Входящий видеозвонок" : "Входящий звонок")
+            .setContentText(callerName != null ? callerName : "Неизвестный абонент")
+            .setSmallIcon(android.R.drawable.sym_call_incoming)
+            .setCategory(NotificationCompat.CATEGORY_CALL)
+            .setPriority(NotificationCompat.PRIORITY_HIGH)
+            .setOngoing(true)
+            .setAutoCancel(false)
+            .addAction(android.R.drawable.sym_action_call, "Принять", acceptIntent)
+            .addAction(android.R.drawable.ic_menu_close_clear_cancel, "Отклонить", declineIntent)
+            .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
+            .setFullScreenIntent(fullScreenPendingIntent, true)
+            .build();
+    }
+
+    private Intent buildActionIntent(String action, boolean withVideo) {
+        Intent intent = new Intent(this, IncomingCallService.class);
+        intent.setAction(action);
+        intent.putExtra(EXTRA_CONVERSATION_ID, activeConversationId);
+        intent.putExtra(EXTRA_CALLER_NAME, activeCallerName);
+        intent.putExtra(EXTRA_IS_VIDEO, activeIsVideo);
+        intent.putExtra(EXTRA_AVATAR_URL, activeAvatarUrl);
+        intent.putExtra(EXTRA_ACCEPT_WITH_VIDEO, withVideo);
+        return intent;
+    }
+
+    private static void ensureChannel(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager = context.getSystemService(NotificationManager.class);
+            if (manager != null) {
+                NotificationChannel existing = manager.getNotificationChannel(CHANNEL_ID);
+                if (existing == null) {
+                    NotificationChannel channel = new NotificationChannel(
+                        CHANNEL_ID,
+                        CHANNEL_NAME,
+                        NotificationManager.IMPORTANCE_HIGH
+                    );
+                    channel.setDescription("Уведомления о входящих звонках");
+                    channel.setLockscreenVisibility(NotificationCompat.VISIBILITY_PUBLIC);
+                    AudioAttributes attrs = new AudioAttributes.Builder()
+                        .setUsage(AudioAttributes.USAGE_NOTIFICATION_RINGTONE)
+                        .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                        .build();
+                    channel.setSound(Settings.System.DEFAULT_RINGTONE_URI, attrs);
+                    channel.enableVibration(true);
+                    manager.createNotificationChannel(channel);
+                }
+            }
+        }
+    }
+
+    @Nullable
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onDestroy() {
+        stopAlerting();
+        super.onDestroy();
+    }
+
+    private void updateActiveCallInfo(Intent intent) {
+        if (intent == null) {
+            return;
+        }
+        if (intent.hasExtra(EXTRA_CONVERSATION_ID)) {
+            activeConversationId = intent.getStringExtra(EXTRA_CONVERSATION_ID);
+        }
+        if (intent.hasExtra(EXTRA_CALLER_NAME)) {
+            activeCallerName = intent.getStringExtra(EXTRA_CALLER_NAME);
+        }
+        if (intent.hasExtra(EXTRA_IS_VIDEO)) {
+            activeIsVideo = intent.getBooleanExtra(EXTRA_IS_VIDEO, false);
+        }
+        if (intent.hasExtra(EXTRA_AVATAR_URL)) {
+            activeAvatarUrl = intent.getStringExtra(EXTRA_AVATAR_URL);
+            // Качаем аватар, пока поднимается full-screen UI, чтобы он показался сразу
+            AvatarCache cache = AvatarCache.get(this);
+            cache.prefetch(activeAvatarUrl, cache.callScreenSize());
+        }
+    }
+
+    private void handleAccept(boolean withVideo) {
+        CallLatencyTracker.finish(activeConversationId);
+        stopAlerting();
+        stopForeground(true);
+        IncomingCallActivity.dismissCurrent();
+        launchMainForAction("accept", withVideo);
+        stopSelf();
+    }
+
+    private void handleDecline() {
+        CallLatencyTracker.finish(activeConversationId);
+        stopAlerting();
+        stopForeground(true);
+        IncomingCallActivity.dismissCurrent();
+        launchMainForAction("decline", false);
+        stopSelf();
+    }
+
+    private void launchMainForAction(String action, boolean withVideo) {
+        if (activeConversationId == null) {
+            return;
+        }
+        Intent mainIntent = new Intent(this, MainActivity.class);
+        mainIntent.setFlags(
+            Intent.FLAG_ACTIVITY_NEW_TASK
+                | Intent.FLAG_ACTIVITY_SINGLE_TOP
+                | Intent.FLAG_ACTIVITY_CLEAR_TOP
+        );
+        mainIntent.putExtra("call_action", action);
+        mainIntent.putExtra(EXTRA_CONVERSATION_ID, activeConversationId);
+        mainIntent.putExtra(EXTRA_IS_VIDEO, activeIsVideo);
+        mainIntent.putExtra(EXTRA_CALLER_NAME, activeCallerName);
+        mainIntent.putExtra(EXTRA_AVATAR_URL, activeAvatarUrl);
+        mainIntent.putExtra(EXTRA_ACCEPT_WITH_VIDEO, withVideo);
+        startActivity(mainIntent);
+    }
+}
+
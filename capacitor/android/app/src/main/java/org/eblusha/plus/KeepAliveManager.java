@@ -0,0 +1,169 @@
+package org.eblusha.plus;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+
+/**
+ * Короткие удержания CPU вместо вечного PARTIAL_WAKE_LOCK.
+ *
+ * Лок берётся только на время установки соединения и обработки события ({@link #acquire}),
+ * с обязательным таймаутом, и отпускается, как только работа сделана. Заодно считаем,
+ * сколько раз мы будили устройство и сколько держали лок — это видно через
+ * {@link #snapshot()} (и из JS через NativeSocketPlugin.getKeepAliveStats).
+ */
+final class KeepAliveManager {
+    /** Верхняя граница одного удержания, даже если release() так и не вызвали. */
+    static final long MAX_HOLD_MS = 60_000L;
+
+    static final class Hold {
+        private final String reason;
+        private boolean released = false;
+
+        private Hold(String reason) {
+            this.reason = reason;
+        }
+    }
+
+    static final class Stats {
+        final String mode;
+        final long wakeups;
+        final long holdMs;
+        final long maintenanceWindows;
+        final long observedMs;
+
+        private Stats(String mode, long wakeups, long holdMs, long maintenanceWindows, long observedMs) {
+            this.mode = mode;
+            this.wakeups = wakeups;
+            this.holdMs = holdMs;
+            this.maintenanceWindows = maintenanceWindows;
+            this.observedMs = observedMs;
+        }
+
+        double wakeupsPerHour() {
+            return perHour(wakeups);
+        }
+
+        double holdMsPerHour() {
+            return perHour(holdMs);
+        }
+
+        private double perHour(long value) {
+            if (observedMs <= 0) return 0;
+            return value * 3_600_000d / observedMs;
+        }
+
+        @Override
+        public String toString() {
+            return "mode=" + mode
+                + ", wakeups=" + wakeups + " (" + Math.round(wakeupsPerHour()) + "/h)"
+                + ", hold=" + holdMs + "ms (" + Math.round(holdMsPerHour()) + "ms/h)"
+                + ", maintenanceWindows=" + maintenanceWindows;
+        }
+    }
+
+    private static KeepAliveManager instance;
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final PowerManager.WakeLock wakeLock;
+    private final long startedAt = SystemClock.elapsedRealtime();
+
+    private int activeHolds = 0;
+    private long sessionStartedAt = 0L;
+    private long wakeups = 0L;
+    private long holdMs = 0L;
+    private long maintenanceWindows = 0L;
+    private String mode = "active";
+
+    private KeepAliveManager(Context context) {
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        PowerManager.WakeLock lock = null;
+        if (pm != null) {
+            lock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "EblushaPlus::SocketWakeLock");
+            lock.setReferenceCounted(false);
+        }
+        wakeLock = lock;
+    }
+
+    static synchronized KeepAliveManager get(Context context) {
+        if (instance == null) {
+            instance = new KeepAliveManager(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    /**
+     * Держит CPU, пока не будет вызван {@link #release} или не истечёт {@code timeoutMs}
+     * (не больше {@link #MAX_HOLD_MS}).
+     */
+    synchronized Hold acquire(String reason, long timeoutMs) {
+        Hold hold = new Hold(reason);
+        if (wakeLock == null) {
+            hold.released = true;
+            return hold;
+        }
+        if (activeHolds == 0) {
+            sessionStartedAt = SystemClock.elapsedRealtime();
+            wakeups++;
+        }
+        activeHolds++;
+        // Не-refcounted лок: повторный acquire(timeout) только переносит страховочный таймаут
+        wakeLock.acquire(MAX_HOLD_MS);
+        handler.postDelayed(() -> {
+            if (!hold.released) {
+                android.util.Log.w("KeepAliveManager", "Hold timed out: " + hold.reason);
+                release(hold);
+            }
+        }, Math.min(timeoutMs, MAX_HOLD_MS));
+        return hold;
+    }
+
+    synchronized void release(Hold hold) {
+        if (hold == null || hold.released) return;
+        hold.released = true;
+        // После releaseAll() сессия уже закрыта и учтена
+        if (activeHolds == 0) return;
+        activeHolds--;
+        if (activeHolds > 0) return;
+        holdMs += SystemClock.elapsedRealtime() - sessionStartedAt;
+        try {
+            if (wakeLock.isHeld()) {
+                wakeLock.release();
+            }
+        } catch (Exception e) {
+            android.util.Log.e("KeepAliveManager", "Failed to release WakeLock", e);
+        }
+    }
+
+    synchronized void setMode(String newMode) {
+        mode = newMode;
+    }
+
+    synchronized void onMaintenanceWindow() {
+        maintenanceWindows++;
+    }
+
+    synchronized Stats snapshot() {
+        long now = SystemClock.elapsedRealtime();
+        long currentHold = activeHolds > 0 ? now - sessionStartedAt : 0L;
+        return new Stats(mode, wakeups, holdMs + currentHold, maintenanceWindows, now - startedAt);
+    }
+
+    /** Отпускает всё при остановке сервиса. */
+    synchronized void releaseAll() {
+        if (activeHolds > 0) {
+            holdMs += SystemClock.elapsedRealtime() - sessionStartedAt;
+        }
+        activeHolds = 0;
+        handler.removeCallbacksAndMessages(null);
+        try {
+            if (wakeLock != null && wakeLock.isHeld()) {
+                wakeLock.release();
+            }
+        } catch (Exception e) {
+            android.util.Log.e("KeepAliveManager", "Failed to release WakeLock", e);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.eblusha.plus;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationManagerCompat;
+
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+
+import org.json.JSONException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@CapacitorPlugin(name = "MessageNotification")
+public class MessageNotificationPlugin extends Plugin {
+
+    private static final String CHANNEL_ID = ConversationNotifier.CHANNEL_ID;
+    private static final String CHANNEL_NAME = "Messages";
+    private static final String CHANNEL_DESCRIPTION = "Incoming chat messages";
+    // Аватар ждём недолго: уведомление без картинки лучше опоздавшего
+    private static final long AVATAR_WAIT_MS = 1500L;
+    private final RenderExecutor renderExecutor = RenderExecutor.get();
+    // JS отменяет по своим id, а уведомление теперь одно на беседу
+    private final Map<Integer, String> conversationByJsId = new ConcurrentHashMap<>();
+    private NotificationManagerCompat notificationManager;
+    private ConversationNotifier conversationNotifier;
+
+    @Override
+    public void load() {
+        super.load();
+        notificationManager = NotificationManagerCompat.from(getContext());
+        conversationNotifier = ConversationNotifier.get(getContext());
+        ensureChannel();
+    }
+
+    @PluginMethod
+    public void show(PluginCall call) {
+        Integer id = call.getInt("id");
+        String conversationId = call.getString("conversationId");
+        String senderName = call.getString("senderName", "Новое сообщение");
+        String messageText = call.getString("messageText", "У вас новое сообщение");
+        String avatarUrl = call.getString("avatarUrl");
+        String messageId = call.getString("messageId");
+        String senderId = call.getString("senderId");
+        // Быстрый ответ шлёт открытый текст — только если JS явно разрешил (не E2EE)
+        boolean allowReply = Boolean.TRUE.equals(call.getBoolean("allowReply", false));
+
+        if (id == null || conversationId == null) {
+            call.reject("Missing notification id or conversationId");
+            return;
+        }
+
+        conversationByJsId.put(id, conversationId);
+        long timestamp = System.currentTimeMillis();
+        // Из нескольких ожидающих show() одной беседы аватар грузит только последний;
+        // вытесненные всё равно попадают в историю — с аватаром из кэша, если он там есть
+        renderExecutor.execute(
+            RenderExecutor.PRIORITY_MESSAGE,
+            "message:" + conversationId,
+            () -> {
+                Bitmap avatar = loadAvatarBitmap(avatarUrl);
+                conversationNotifier.post(conversationId, messageId, senderId, senderName, messageText, timestamp, avatar, allowReply);
+                call.resolve();
+            },
+            () -> {
+                AvatarCache cache = AvatarCache.get(getContext());
+                Bitmap avatar = cache.getCached(avatarUrl, cache.notificationIconSize());
+                conversationNotifier.post(conversationId, messageId, senderId, senderName, messageText, timestamp, avatar, allowReply);
+                call.resolve();
+            }
+        );
+    }
+
+    @PluginMethod
+    public void getStats(PluginCall call) {
+        RenderExecutor.Stats stats = renderExecutor.stats();
+        JSObject result = new JSObject();
+        result.put("queueDepth", stats.queueDepth);
+        result.put("completed", stats.completed);
+        result.put("superseded", stats.superseded);
+        result.put("rejected", stats.rejected);
+        result.put("averageLatencyMs", stats.averageLatencyMs);
+        result.put("maxLatencyMs", stats.maxLatencyMs);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void cancel(PluginCall call) {
+        JSArray idsArray = call.getArray("ids");
+        if (idsArray == null) {
+            call.reject("ids array is required");
+            return;
+        }
+        List<Integer> ids = new ArrayList<>();
+        try {
+            for (Object value : idsArray.toList()) {
+                if (value instanceof Number) {
+                    ids.add(((Number) value).intValue());
+                } else if (value instanceof String) {
+                    ids.add(Integer.parseInt((String) value));
+                }
+            }
+        } catch (JSONException | NumberFormatException e) {
+            call.reject("Invalid id value", e);
+            return;
+        }
+
+        for (int id : ids) {
+            String conversationId = conversationByJsId.remove(id);
+            if (conversationId != null) {
+                conversationNotifier.clear(conversationId);
+            } else {
+                notificationManager.cancel(id);
+            }
+        }
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void clear(PluginCall call) {
+        conversationByJsId.clear();
+        conversationNotifier.clearAll();
+        notificationManager.cancelAll();
+        call.resolve();
+    }
+
+    private void ensureChannel() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationManager manager =
+                (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
+            NotificationChannel channel = manager.getNotificationChannel(CHANNEL_ID);
+            if (channel == null) {
+                channel = new NotificationChannel(CHANNEL_ID, CHANNEL_NAME, NotificationManager.IMPORTANCE_HIGH);
+                channel.setDescription(CHANNEL_DESCRIPTION);
+                manager.createNotificationChannel(channel);
+            }
+        }
+    }
+
+    private Bitmap loadAvatarBitmap(@Nullable String avatarUrl) {
+        AvatarCache cache = AvatarCache.get(getContext());
+        return cache.loadWithin(avatarUrl, cache.notificationIconSize(), AVATAR_WAIT_MS);
+    }
+}
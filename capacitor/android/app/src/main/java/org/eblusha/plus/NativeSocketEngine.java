@@ -0,0 +1,201 @@
+package org.eblusha.plus;
+
+import android.text.TextUtils;
+import androidx.annotation.Nullable;
+import io.socket.client.IO;
+import io.socket.client.Socket;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArraySet;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Единственное Socket.IO-соединение процесса. Владеет им BackgroundConnectionService,
+ * а WebView (через NativeSocketPlugin) только подписывается на события и эмитит через него,
+ * вместо того чтобы открывать второй сокет.
+ */
+final class NativeSocketEngine {
+    static final String SOCKET_URL = "https://ru.eblusha.org";
+
+    interface Listener {
+        void onEvent(String event, Object[] args);
+
+        default void onConnect() {}
+
+        default void onDisconnect(String reason) {}
+
+        default void onConnectError(String error) {}
+    }
+
+    private static final NativeSocketEngine INSTANCE = new NativeSocketEngine();
+
+    private final CopyOnWriteArraySet<Listener> listeners = new CopyOnWriteArraySet<>();
+    private Socket socket;
+    private String token = "";
+
+    private NativeSocketEngine() {}
+
+    static NativeSocketEngine get() {
+        return INSTANCE;
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    synchronized boolean isConnected() {
+        return socket != null && socket.connected();
+    }
+
+    synchronized String getToken() {
+        return token;
+    }
+
+    /**
+     * Подключается с токеном. Если сокет уже жив с тем же токеном — ничего не делает,
+     * поэтому вызывать можно из любого слоя без риска лишнего рукопожатия.
+     */
+    synchronized void connect(String newToken) {
+        if (TextUtils.isEmpty(newToken)) {
+            android.util.Log.w("NativeSocketEngine", "Token empty, cannot connect");
+            return;
+        }
+        if (socket != null && newToken.equals(token) && (socket.connected() || socket.isActive())) {
+            android.util.Log.d("NativeSocketEngine", "Already connected/connecting with the same token");
+            return;
+        }
+        reconnect(newToken);
+    }
+
+    /** Пересоздаёт соединение безусловно (например, после refresh токена). */
+    synchronized void reconnect(String newToken) {
+        if (TextUtils.isEmpty(newToken)) {
+            android.util.Log.w("NativeSocketEngine", "Token empty, cannot reconnect");
+            return;
+        }
+        closeSocket();
+        token = newToken;
+        try {
+            IO.Options options = new IO.Options();
+            options.forceNew = true;
+            // Переподключением управляет ReconnectScheduler (backoff + NetworkCallback),
+            // встроенный механизм socket.io выключен, чтобы попытки не накладывались
+            options.reconnection = false;
+            options.timeout = 20000;
+            Map<String, String> auth = new HashMap<>();
+            auth.put("token", newToken);
+            options.auth = auth;
+            // Общий пул соединений процесса вместо собственного клиента socket.io
+            options.callFactory = SharedHttpClient.forSocket();
+            options.webSocketFactory = SharedHttpClient.forSocket();
+
+            android.util.Log.d("NativeSocketEngine", "Creating socket instance for URL: " + SOCKET_URL);
+            final Socket created = IO.socket(SOCKET_URL, options);
+            created.on(Socket.EVENT_CONNECT, args -> {
+                android.util.Log.d("NativeSocketEngine", "✅ Connected");
+                for (Listener listener : listeners) {
+                    safeCall(() -> listener.onConnect());
+                }
+            });
+            created.on(Socket.EVENT_DISCONNECT, args -> {
+                String reason = args != null && args.length > 0 ? String.valueOf(args[0]) : "unknown";
+                android.util.Log.w("NativeSocketEngine", "❌ Disconnected: " + reason);
+                for (Listener listener : listeners) {
+                    safeCall(() -> listener.onDisconnect(reason));
+                }
+            });
+            created.on(Socket.EVENT_CONNECT_ERROR, args -> {
+                String error = args != null && args.length > 0 ? String.valueOf(args[0]) : "unknown";
+                android.util.Log.e("NativeSocketEngine", "❌ Connect error: " + error);
+                for (Listener listener : listeners) {
+                    safeCall(() -> listener.onConnectError(error));
+                }
+            });
+            created.onAnyIncoming(args -> {
+                if (args == null || args.length == 0 || !(args[0] instanceof String)) return;
+                String event = (String) args[0];
+                Object[] payload = Arrays.copyOfRange(args, 1, args.length);
+                for (Listener listener : listeners) {
+                    safeCall(() -> listener.onEvent(event, payload));
+                }
+            });
+            socket = created;
+            created.connect();
+        } catch (URISyntaxException e) {
+            android.util.Log.e("NativeSocketEngine", "❌ Failed to create socket: URI syntax error", e);
+        }
+    }
+
+    synchronized void disconnect() {
+        closeSocket();
+        token = "";
+    }
+
+    /**
+     * Обновлённый токен того же пользователя отдаётся живому сокету ({@code auth:refresh}),
+     * без переподключения; следующие connect() уже идут с ним.
+     * @return false — сокета нет или токен другого пользователя, нужен {@link #reconnect}.
+     */
+    synchronized boolean handOverToken(String newToken) {
+        if (TextUtils.isEmpty(newToken) || socket == null) return false;
+        if (newToken.equals(token)) return true;
+        String subject = TokenLifecycleManager.subjectOf(newToken);
+        if (subject == null || !subject.equals(TokenLifecycleManager.subjectOf(token))) return false;
+        token = newToken;
+        if (!socket.connected()) return true;
+        final Socket target = socket;
+        try {
+            JSONObject payload = new JSONObject();
+            payload.put("token", newToken);
+            target.emit("auth:refresh", new Object[] { payload }, ackArgs -> {
+                boolean ok = ackArgs != null && ackArgs.length > 0 && ackArgs[0] instanceof JSONObject
+                    && ((JSONObject) ackArgs[0]).optBoolean("ok", false);
+                if (!ok) {
+                    android.util.Log.w("NativeSocketEngine", "Server rejected token handover, reconnecting");
+                    synchronized (NativeSocketEngine.this) {
+                        if (socket == target && newToken.equals(token)) reconnect(newToken);
+                    }
+                }
+            });
+        } catch (JSONException e) {
+            return false;
+        }
+        android.util.Log.d("NativeSocketEngine", "🔑 Token handed over to the live socket");
+        return true;
+    }
+
+    /** @return false, если сокет не подключён и событие не отправлено. */
+    synchronized boolean emit(String event, @Nullable Object... args) {
+        if (socket == null || !socket.connected()) {
+            android.util.Log.d("NativeSocketEngine", "Cannot emit " + event + ", socket not connected");
+            return false;
+        }
+        socket.emit(event, args != null ? args : new Object[0]);
+        return true;
+    }
+
+    private void closeSocket() {
+        if (socket != null) {
+            socket.off();
+            socket.offAnyIncoming();
+            socket.disconnect();
+            socket.close();
+            socket = null;
+        }
+    }
+
+    private static void safeCall(Runnable action) {
+        try {
+            action.run();
+        } catch (Exception e) {
+            android.util.Log.e("NativeSocketEngine", "Listener failed", e);
+        }
+    }
+}
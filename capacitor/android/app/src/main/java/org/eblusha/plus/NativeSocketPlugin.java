@@ -0,0 +1,266 @@
+package org.eblusha.plus;
+
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Build;
+import android.os.PowerManager;
+import android.provider.Settings;
+import android.text.TextUtils;
+
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+@CapacitorPlugin(name = "NativeSocket")
+public class NativeSocketPlugin extends Plugin {
+
+    private static final String ACTION_PRESENCE_FOCUS = "org.eblusha.plus.ACTION_SOCKET_PRESENCE_FOCUS";
+    private static final int REQUEST_IGNORE_BATTERY_OPTIMIZATIONS = 1004;
+    private static final String EVENT_SOCKET = "socketEvent";
+    private static final String EVENT_CONNECTION = "connectionChange";
+    private static final String EVENT_TOKENS = "tokensChanged";
+
+    // Пробрасываем события общего нативного сокета в WebView вместо второго соединения из JS
+    private final NativeSocketEngine.Listener engineListener = new NativeSocketEngine.Listener() {
+        @Override
+        public void onEvent(String event, Object[] args) {
+            JSObject data = new JSObject();
+            data.put("event", event);
+            data.put("payload", toJsPayload(args));
+            notifyListeners(EVENT_SOCKET, data);
+        }
+
+        @Override
+        public void onConnect() {
+            notifyConnection(true, null);
+        }
+
+        @Override
+        public void onDisconnect(String reason) {
+            notifyConnection(false, reason);
+        }
+    };
+
+    // Нативное продление ротирует refresh token: WebView должен узнать новый, иначе его
+    // следующий refresh уйдёт с отозванным токеном и разлогинит пользователя
+    private final TokenHolder.Listener tokenListener = accessToken -> {
+        if (TextUtils.isEmpty(accessToken)) return;
+        Context context = getContext();
+        if (context == null) return;
+        JSObject data = new JSObject();
+        data.put("token", accessToken);
+        data.put("refreshToken", TokenHolder.get(context).getRefreshToken());
+        notifyListeners(EVENT_TOKENS, data);
+    };
+
+    @Override
+    public void load() {
+        NativeSocketEngine.get().addListener(engineListener);
+        TokenHolder.get(getContext()).addListener(tokenListener);
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        NativeSocketEngine.get().removeListener(engineListener);
+        TokenHolder.get(getContext()).removeListener(tokenListener);
+        super.handleOnDestroy();
+    }
+
+    @PluginMethod
+    public void connect(PluginCall call) {
+        Context context = getContext();
+        if (context == null) {
+            call.reject("Context is null");
+            return;
+        }
+        String token = call.getString("token", null);
+        if (TextUtils.isEmpty(token)) {
+            token = TokenHolder.get(context).getAccessToken();
+        }
+        // Сокет общий: если сервис уже подключён с этим токеном, повторного рукопожатия не будет
+        NativeSocketEngine.get().connect(token);
+        JSObject result = new JSObject();
+        result.put("connected", NativeSocketEngine.get().isConnected());
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void emit(PluginCall call) {
+        String event = call.getString("event", null);
+        if (TextUtils.isEmpty(event)) {
+            call.reject("event is required");
+            return;
+        }
+        Object payload = call.getData().opt("payload");
+        boolean sent = payload == null || payload == JSONObject.NULL
+            ? NativeSocketEngine.get().emit(event)
+            : NativeSocketEngine.get().emit(event, payload);
+        JSObject result = new JSObject();
+        result.put("sent", sent);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void getConnectionState(PluginCall call) {
+        JSObject result = new JSObject();
+        result.put("connected", NativeSocketEngine.get().isConnected());
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void getKeepAliveStats(PluginCall call) {
+        Context context = getContext();
+        if (context == null) {
+            call.reject("Context is null");
+            return;
+        }
+        KeepAliveManager.Stats stats = KeepAliveManager.get(context).snapshot();
+        JSObject result = new JSObject();
+        result.put("mode", stats.mode);
+        result.put("wakeups", stats.wakeups);
+        result.put("holdMs", stats.holdMs);
+        result.put("maintenanceWindows", stats.maintenanceWindows);
+        result.put("observedMs", stats.observedMs);
+        result.put("wakeupsPerHour", stats.wakeupsPerHour());
+        result.put("holdMsPerHour", stats.holdMsPerHour());
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void updateToken(PluginCall call) {
+        String token = call.getString("token", null);
+        String refreshToken = call.getString("refreshToken", null);
+        Context context = getContext();
+        if (context == null) {
+            call.reject("Context is null");
+            return;
+        }
+        android.util.Log.d("NativeSocketPlugin", "updateToken() called, token length: " + (token != null ? token.length() : 0));
+        if (TextUtils.isEmpty(token)) {
+            android.util.Log.w("NativeSocketPlugin", "Token is empty or null");
+        }
+        // Сервис подписан на TokenHolder и подхватит токен сразу
+        TokenHolder.get(context).update(token, refreshToken);
+        JSObject result = new JSObject();
+        result.put("success", true);
+        call.resolve(result);
+        android.util.Log.d("NativeSocketPlugin", "✅ updateToken() completed");
+    }
+
+    @PluginMethod
+    public void getStoredTokens(PluginCall call) {
+        Context context = getContext();
+        if (context == null) {
+            call.reject("Context is null");
+            return;
+        }
+        JSObject result = new JSObject();
+        TokenHolder holder = TokenHolder.get(context);
+        result.put("token", holder.getAccessToken());
+        result.put("refreshToken", holder.getRefreshToken());
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void clearTokens(PluginCall call) {
+        Context context = getContext();
+        if (context == null) {
+            call.reject("Context is null");
+            return;
+        }
+        TokenHolder.get(context).clear();
+        JSObject result = new JSObject();
+        result.put("success", true);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void setPresenceFocus(PluginCall call) {
+        boolean focused = call.getBoolean("focused", false);
+        android.util.Log.d("NativeSocketPlugin", "setPresenceFocus() called, focused=" + focused);
+        Context context = getContext();
+        if (context == null) {
+            call.reject("Context is null");
+            return;
+        }
+        Intent intent = new Intent(ACTION_PRESENCE_FOCUS);
+        intent.putExtra("focused", focused);
+        intent.setPackage(context.getPackageName());
+        context.sendBroadcast(intent);
+        JSObject result = new JSObject();
+        result.put("focused", focused);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void requestBatteryOptimizationExemption(PluginCall call) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            JSObject result = new JSObject();
+            result.put("granted", true);
+            result.put("message", "Not required on this Android version");
+            call.resolve(result);
+            return;
+        }
+
+        Context context = getContext();
+        if (context == null) {
+            call.reject("Context is null");
+            return;
+        }
+
+        PowerManager pm = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        if (pm == null) {
+            call.reject("PowerManager is null");
+            return;
+        }
+
+        String packageName = context.getPackageName();
+        boolean isIgnoring = pm.isIgnoringBatteryOptimizations(packageName);
+        
+        if (isIgnoring) {
+            JSObject result = new JSObject();
+            result.put("granted", true);
+            result.put("message", "Already granted");
+            call.resolve(result);
+            return;
+        }
+
+        try {
+            Intent intent = new Intent(Settings.ACTION_REQUEST_IGNORE_BATTERY_OPTIMIZATIONS);
+            intent.setData(Uri.parse("package:" + packageName));
+            getActivity().startActivityForResult(intent, REQUEST_IGNORE_BATTERY_OPTIMIZATIONS);
+            
+            JSObject result = new JSObject();
+            result.put("granted", false);
+            result.put("message", "Permission dialog shown");
+            call.resolve(result);
+        } catch (Exception e) {
+            android.util.Log.e("NativeSocketPlugin", "Failed to request battery optimization exemption", e);
+            call.reject("Failed to show permission dialog: " + e.getMessage());
+        }
+    }
+
+    private void notifyConnection(boolean connected, String reason) {
+        JSObject data = new JSObject();
+        data.put("connected", connected);
+        if (reason != null) {
+            data.put("reason", reason);
+        }
+        notifyListeners(EVENT_CONNECTION, data);
+    }
+
+    private static Object toJsPayload(Object[] args) {
+        if (args == null || args.length == 0) return JSONObject.NULL;
+        if (args.length == 1) return args[0] != null ? args[0] : JSONObject.NULL;
+        JSONArray array = new JSONArray();
+        for (Object arg : args) {
+            array.put(arg);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,45 @@
+package org.eblusha.plus;
+
+import android.os.SystemClock;
+import android.text.TextUtils;
+import androidx.annotation.Nullable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Какие сообщения уже показаны в уведомлениях — общий реестр для WebView и нативного сокета.
+ *
+ * Одно и то же сообщение приходит и в JS ({@code MessageNotification.show}), и в нативный
+ * сокет ({@code message:notify} в BackgroundConnectionService), а после реконнекта — ещё
+ * и в {@code sync:batch}. Кто первым заявил messageId, тот и показывает; остальные пропускают.
+ * Окно ограничено и по размеру (LRU), и по времени.
+ */
+final class NotificationDedup {
+    private static final int MAX_ENTRIES = 512;
+    private static final long TTL_MS = 10 * 60_000L;
+
+    private static final LinkedHashMap<String, Long> seen = new LinkedHashMap<String, Long>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private static long duplicates;
+
+    private NotificationDedup() {}
+
+    /** @return true, если сообщение ещё не показывали (или без id — проверить нечем). */
+    static synchronized boolean claim(@Nullable String messageId) {
+        if (TextUtils.isEmpty(messageId)) return true;
+        long now = SystemClock.elapsedRealtime();
+        Long claimedAt = seen.get(messageId);
+        if (claimedAt != null && now - claimedAt < TTL_MS) {
+            duplicates++;
+            android.util.Log.d("NotificationDedup", "Skipping duplicate notification for " + messageId + " (total " + duplicates + ")");
+            return false;
+        }
+        seen.put(messageId, now);
+        return true;
+    }
+}
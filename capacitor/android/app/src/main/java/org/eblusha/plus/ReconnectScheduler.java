@@ -0,0 +1,196 @@
+package org.eblusha.plus;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import androidx.annotation.NonNull;
+import java.util.Random;
+
+/**
+ * Планировщик переподключения нативного сокета.
+ *
+ * Вместо фиксированных таймеров (2с/5с) и опроса каждые 15с: экспоненциальная задержка
+ * с полным джиттером (клиенты не ломятся на сервер одновременно после его рестарта),
+ * пауза, пока нет сети, и немедленная (с небольшим джиттером) попытка, когда сеть появилась.
+ * Одновременно существует не больше одной запланированной или выполняющейся попытки.
+ *
+ * Всё состояние живёт на потоке {@code handler}; публичные методы можно звать с любого потока.
+ */
+final class ReconnectScheduler {
+    interface Connector {
+        boolean isConnected();
+
+        /** @return false, если подключаться не с чем (например, ещё нет токена). */
+        boolean connect();
+    }
+
+    private static final long BASE_DELAY_MS = 1_000L;
+    private static final long MAX_DELAY_MS = 60_000L;
+    private static final long MIN_DELAY_MS = 250L;
+    private static final long NETWORK_RESTORED_JITTER_MS = 1_500L;
+    // socket.io сам сообщает connect_error по таймауту (20с); это страховка на случай тишины
+    private static final long ATTEMPT_TIMEOUT_MS = 30_000L;
+    private static final int MAX_EXPONENT = 16;
+
+    private final Handler handler;
+    private final Connector connector;
+    private final ConnectivityManager connectivityManager;
+    private final Random random = new Random();
+
+    private int failures = 0;
+    private boolean attemptInFlight = false;
+    private boolean retryPending = false;
+    private boolean networkAvailable = true;
+    private boolean started = false;
+
+    private final Runnable attemptRunnable = this::runAttempt;
+    private final Runnable attemptTimeoutRunnable = () -> {
+        android.util.Log.w("ReconnectScheduler", "Connection attempt timed out");
+        onAttemptFailedInternal();
+    };
+
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(@NonNull Network network) {
+            handler.post(() -> onNetworkAvailable());
+        }
+
+        @Override
+        public void onLost(@NonNull Network network) {
+            handler.post(() -> onNetworkLost());
+        }
+    };
+
+    ReconnectScheduler(Context context, Handler handler, Connector connector) {
+        this.handler = handler;
+        this.connector = connector;
+        this.connectivityManager = (ConnectivityManager) context.getApplicationContext().getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    void start() {
+        handler.post(() -> {
+            if (started) return;
+            started = true;
+            if (connectivityManager == null) return;
+            networkAvailable = connectivityManager.getActiveNetwork() != null;
+            try {
+                connectivityManager.registerDefaultNetworkCallback(networkCallback);
+            } catch (Exception e) {
+                // Без колбэка работаем только по backoff, считая сеть доступной
+                networkAvailable = true;
+                android.util.Log.e("ReconnectScheduler", "Failed to register network callback", e);
+            }
+        });
+    }
+
+    void stop() {
+        handler.post(() -> {
+            if (!started) return;
+            started = false;
+            cancelPending();
+            attemptInFlight = false;
+            if (connectivityManager == null) return;
+            try {
+                connectivityManager.unregisterNetworkCallback(networkCallback);
+            } catch (Exception ignored) {}
+        });
+    }
+
+    /** Сокет подключился: сбрасываем backoff. */
+    void onConnected() {
+        handler.post(() -> {
+            failures = 0;
+            attemptInFlight = false;
+            cancelPending();
+        });
+    }
+
+    /** Соединение оборвалось не по нашей инициативе. */
+    void onConnectionLost() {
+        handler.post(() -> {
+            attemptInFlight = false;
+            handler.removeCallbacks(attemptTimeoutRunnable);
+            scheduleRetry();
+        });
+    }
+
+    void onAttemptFailed() {
+        handler.post(this::onAttemptFailedInternal);
+    }
+
+    /** Есть новый повод подключиться (появился токен и т.п.) — без ожидания backoff. */
+    void requestConnect() {
+        handler.post(() -> {
+            failures = 0;
+            cancelPending();
+            runAttempt();
+        });
+    }
+
+    private void onAttemptFailedInternal() {
+        attemptInFlight = false;
+        handler.removeCallbacks(attemptTimeoutRunnable);
+        failures = Math.min(failures + 1, MAX_EXPONENT);
+        scheduleRetry();
+    }
+
+    private void onNetworkAvailable() {
+        boolean restored = !networkAvailable;
+        networkAvailable = true;
+        if (!started || connector.isConnected() || attemptInFlight) return;
+        // Сеть вернулась — прошлые неудачи не показательны, пробуем почти сразу
+        failures = 0;
+        cancelPending();
+        long delay = random.nextInt((int) NETWORK_RESTORED_JITTER_MS);
+        android.util.Log.d("ReconnectScheduler", "🌐 Network available (restored=" + restored + "), reconnect in " + delay + "ms");
+        schedule(delay);
+    }
+
+    private void onNetworkLost() {
+        Network active = connectivityManager != null ? connectivityManager.getActiveNetwork() : null;
+        if (active != null) return;
+        networkAvailable = false;
+        cancelPending();
+        android.util.Log.d("ReconnectScheduler", "🌐 Network lost, retries paused");
+    }
+
+    private void scheduleRetry() {
+        if (!started || retryPending || attemptInFlight) return;
+        if (!networkAvailable) {
+            android.util.Log.d("ReconnectScheduler", "No network, waiting for callback instead of retrying");
+            return;
+        }
+        schedule(nextDelay());
+    }
+
+    private void schedule(long delayMs) {
+        retryPending = true;
+        handler.removeCallbacks(attemptRunnable);
+        handler.postDelayed(attemptRunnable, delayMs);
+    }
+
+    private void cancelPending() {
+        retryPending = false;
+        handler.removeCallbacks(attemptRunnable);
+        handler.removeCallbacks(attemptTimeoutRunnable);
+    }
+
+    private void runAttempt() {
+        retryPending = false;
+        if (!started || attemptInFlight || !networkAvailable || connector.isConnected()) return;
+        if (!connector.connect()) {
+            android.util.Log.d("ReconnectScheduler", "Nothing to connect with, skipping attempt");
+            return;
+        }
+        attemptInFlight = true;
+        handler.postDelayed(attemptTimeoutRunnable, ATTEMPT_TIMEOUT_MS);
+        android.util.Log.d("ReconnectScheduler", "🔄 Reconnect attempt started (failures=" + failures + ")");
+    }
+
+    /** Полный джиттер: случайно в [MIN, min(MAX, BASE * 2^failures)]. */
+    private long nextDelay() {
+        long ceiling = Math.min(MAX_DELAY_MS, BASE_DELAY_MS << failures);
+        return MIN_DELAY_MS + (long) (random.nextDouble() * (ceiling - MIN_DELAY_MS));
+    }
+}
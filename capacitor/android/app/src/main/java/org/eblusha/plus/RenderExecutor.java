@@ -0,0 +1,167 @@
+package org.eblusha.plus;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул для сборки уведомлений и экранов звонка.
+ *
+ * Раньше плагин уведомлений жил на {@code newCachedThreadPool()}: пачка show() — по потоку
+ * на уведомление, и каждый висел на скачивании аватара. Теперь потоков два, очередь
+ * ограничена, звонки обгоняют сообщения, а из нескольких ожидающих задач с одним ключом
+ * (одна беседа) выполняется только последняя — остальные получают {@code onDropped}.
+ */
+final class RenderExecutor {
+    static final int PRIORITY_CALL = 0;
+    static final int PRIORITY_MESSAGE = 1;
+
+    private static final int THREADS = 2;
+    private static final int MAX_QUEUE = 32;
+
+    private static RenderExecutor instance;
+
+    static final class Stats {
+        final int queueDepth;
+        final long completed;
+        final long superseded;
+        final long rejected;
+        final long averageLatencyMs;
+        final long maxLatencyMs;
+
+        Stats(int queueDepth, long completed, long superseded, long rejected, long averageLatencyMs, long maxLatencyMs) {
+            this.queueDepth = queueDepth;
+            this.completed = completed;
+            this.superseded = superseded;
+            this.rejected = rejected;
+            this.averageLatencyMs = averageLatencyMs;
+            this.maxLatencyMs = maxLatencyMs;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "queue=" + queueDepth + " completed=" + completed + " superseded=" + superseded
+                + " rejected=" + rejected + " avgLatency=" + averageLatencyMs + "ms maxLatency=" + maxLatencyMs + "ms";
+        }
+    }
+
+    private final class Task implements Runnable, Comparable<Task> {
+        final int priority;
+        final long sequence;
+        final long enqueuedAt = System.nanoTime();
+        @Nullable final String key;
+        final Runnable render;
+        @Nullable final Runnable onDropped;
+
+        Task(int priority, @Nullable String key, Runnable render, @Nullable Runnable onDropped) {
+            this.priority = priority;
+            this.sequence = sequenceCounter.incrementAndGet();
+            this.key = key;
+            this.render = render;
+            this.onDropped = onDropped;
+        }
+
+        @Override
+        public int compareTo(Task other) {
+            if (priority != other.priority) return Integer.compare(priority, other.priority);
+            return Long.compare(sequence, other.sequence);
+        }
+
+        @Override
+        public void run() {
+            if (key != null && latestByKey.get(key) != this) {
+                superseded.incrementAndGet();
+                drop(this);
+                return;
+            }
+            try {
+                render.run();
+            } catch (Exception e) {
+                android.util.Log.e("RenderExecutor", "Render failed", e);
+            } finally {
+                if (key != null) latestByKey.remove(key, this);
+                long latencyMs = (System.nanoTime() - enqueuedAt) / 1_000_000L;
+                completed.incrementAndGet();
+                totalLatencyMs.addAndGet(latencyMs);
+                maxLatencyMs.accumulateAndGet(latencyMs, Math::max);
+            }
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final ConcurrentHashMap<String, Task> latestByKey = new ConcurrentHashMap<>();
+    private final AtomicLong sequenceCounter = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong superseded = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong totalLatencyMs = new AtomicLong();
+    private final AtomicLong maxLatencyMs = new AtomicLong();
+
+    private RenderExecutor() {
+        AtomicInteger threadIndex = new AtomicInteger();
+        pool = new ThreadPoolExecutor(
+            THREADS,
+            THREADS,
+            30L,
+            TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(),
+            runnable -> {
+                Thread thread = new Thread(runnable, "render-" + threadIndex.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    static synchronized RenderExecutor get() {
+        if (instance == null) {
+            instance = new RenderExecutor();
+        }
+        return instance;
+    }
+
+    /**
+     * @param key задачи с одним ключом вытесняют друг друга; null — без вытеснения.
+     * @param onDropped вызывается, если задача вытеснена или очередь переполнена.
+     */
+    void execute(int priority, @Nullable String key, @NonNull Runnable render, @Nullable Runnable onDropped) {
+        Task task = new Task(priority, key, render, onDropped);
+        // Звонки принимаются всегда; сообщения при переполнении отбрасываются
+        if (priority != PRIORITY_CALL && pool.getQueue().size() >= MAX_QUEUE) {
+            rejected.incrementAndGet();
+            android.util.Log.w("RenderExecutor", "Queue full, dropping render (" + stats() + ")");
+            drop(task);
+            return;
+        }
+        if (key != null) latestByKey.put(key, task);
+        pool.execute(task);
+    }
+
+    Stats stats() {
+        long done = completed.get();
+        return new Stats(
+            pool.getQueue().size(),
+            done,
+            superseded.get(),
+            rejected.get(),
+            done > 0 ? totalLatencyMs.get() / done : 0L,
+            maxLatencyMs.get()
+        );
+    }
+
+    private static void drop(Task task) {
+        if (task.onDropped == null) return;
+        try {
+            task.onDropped.run();
+        } catch (Exception e) {
+            android.util.Log.e("RenderExecutor", "onDropped failed", e);
+        }
+    }
+}
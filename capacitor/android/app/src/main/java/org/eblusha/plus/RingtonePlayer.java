@@ -0,0 +1,112 @@
+package org.eblusha.plus;
+
+import android.content.Context;
+import android.media.AudioAttributes;
+import android.media.MediaPlayer;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.Settings;
+import androidx.annotation.Nullable;
+
+/**
+ * Заранее подготовленный рингтон входящего звонка.
+ *
+ * Раньше на каждый звонок создавался новый MediaPlayer и синхронно делал {@code prepare()}
+ * на main thread — это сотни миллисекунд до первого звука. Теперь плеер готовится заранее
+ * ({@link #warmUp()}) на своём потоке, а {@link #start} только перематывает и запускает.
+ * После звонка плеер пересоздаётся — так подхватывается сменённый в системе рингтон.
+ */
+final class RingtonePlayer {
+    private static final String TAG = "RingtonePlayer";
+
+    private static RingtonePlayer instance;
+
+    private final Context context;
+    private final Handler handler;
+    // Доступ только с потока handler
+    @Nullable private MediaPlayer player;
+    private boolean playing;
+
+    private RingtonePlayer(Context context) {
+        this.context = context.getApplicationContext();
+        HandlerThread thread = new HandlerThread("ringtone");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    static synchronized RingtonePlayer get(Context context) {
+        if (instance == null) {
+            instance = new RingtonePlayer(context);
+        }
+        return instance;
+    }
+
+    void warmUp() {
+        handler.post(() -> {
+            if (player == null) player = prepare();
+        });
+    }
+
+    /** @param conversationId для {@link CallLatencyTracker}: метка «звонит» ставится здесь. */
+    void start(@Nullable String conversationId) {
+        handler.post(() -> {
+            try {
+                if (player == null) {
+                    android.util.Log.d(TAG, "Ringtone was not warmed up, preparing on demand");
+                    player = prepare();
+                }
+                if (player != null) {
+                    player.seekTo(0);
+                    player.start();
+                    playing = true;
+                }
+            } catch (Exception e) {
+                android.util.Log.e(TAG, "Failed to start ringtone", e);
+                release();
+            } finally {
+                // Даже без звука (ошибка плеера) звонок уже оповещает вибрацией и экраном
+                CallLatencyTracker.mark(conversationId, CallLatencyTracker.HOP_RINGING);
+            }
+        });
+    }
+
+    void stop() {
+        handler.post(() -> {
+            if (!playing) return;
+            release();
+            player = prepare();
+        });
+    }
+
+    @Nullable
+    private MediaPlayer prepare() {
+        MediaPlayer mediaPlayer = new MediaPlayer();
+        try {
+            mediaPlayer.setAudioAttributes(
+                new AudioAttributes.Builder()
+                    .setUsage(AudioAttributes.USAGE_NOTIFICATION_RINGTONE)
+                    .setContentType(AudioAttributes.CONTENT_TYPE_SONIFICATION)
+                    .build()
+            );
+            mediaPlayer.setDataSource(context, Settings.System.DEFAULT_RINGTONE_URI);
+            mediaPlayer.setLooping(true);
+            mediaPlayer.setVolume(1.0f, 1.0f);
+            mediaPlayer.prepare();
+            return mediaPlayer;
+        } catch (Exception e) {
+            android.util.Log.e(TAG, "Failed to prepare ringtone", e);
+            mediaPlayer.release();
+            return null;
+        }
+    }
+
+    private void release() {
+        playing = false;
+        if (player == null) return;
+        try {
+            player.stop();
+        } catch (Exception ignored) { }
+        player.release();
+        player = null;
+    }
+}
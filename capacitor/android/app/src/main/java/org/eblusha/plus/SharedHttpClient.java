@@ -0,0 +1,198 @@
+package org.eblusha.plus;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Response;
+
+/**
+ * Общий OkHttp-клиент процесса: refresh токена, нативный сокет, аватарки в уведомлениях
+ * и на экране входящего звонка.
+ *
+ * Раньше сервис создавал {@code new OkHttpClient()}, а плагин уведомлений и IncomingCallActivity
+ * ходили через HttpURLConnection — у каждого свои соединения, DNS и TLS до одного и того же
+ * хоста. Теперь один пул соединений и один dispatcher, к API — HTTP/2 с мультиплексированием.
+ * Время по фазам (DNS, connect, TLS, TTFB, всего) собирает {@link Timings}.
+ */
+final class SharedHttpClient {
+    private static final OkHttpClient CLIENT;
+    private static final OkHttpClient SOCKET_CLIENT;
+    private static final Timings TIMINGS = new Timings();
+
+    static {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost(16);
+        CLIENT = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(8, 5, TimeUnit.MINUTES))
+            .dispatcher(dispatcher)
+            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .connectTimeout(15, TimeUnit.SECONDS)
+            .readTimeout(30, TimeUnit.SECONDS)
+            .writeTimeout(30, TimeUnit.SECONDS)
+            .eventListenerFactory(TIMINGS)
+            .build();
+        // Сокету нужен readTimeout больше pingInterval + pingTimeout сервера (25с + 20с)
+        SOCKET_CLIENT = CLIENT.newBuilder()
+            .readTimeout(1, TimeUnit.MINUTES)
+            .build();
+    }
+
+    private SharedHttpClient() {}
+
+    static OkHttpClient get() {
+        return CLIENT;
+    }
+
+    /** Тот же пул соединений, но с таймаутами под Socket.IO. */
+    static OkHttpClient forSocket() {
+        return SOCKET_CLIENT;
+    }
+
+    /** Краткая сводка для логов: "calls=… reused=… dns=…ms connect=…ms tls=…ms ttfb=…ms total=…ms". */
+    static String timingSummary() {
+        return TIMINGS.summary();
+    }
+
+    private static final class PhaseStat {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalMs = new AtomicLong();
+
+        void record(long startNs) {
+            if (startNs == 0L) return;
+            count.incrementAndGet();
+            totalMs.addAndGet((System.nanoTime() - startNs) / 1_000_000L);
+        }
+
+        long averageMs() {
+            long n = count.get();
+            return n > 0 ? totalMs.get() / n : 0L;
+        }
+    }
+
+    /** Фабрика слушателей: на вызов свой {@link CallTimer}, итоги — в общие счётчики. */
+    private static final class Timings implements EventListener.Factory {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong reused = new AtomicLong();
+        final PhaseStat dns = new PhaseStat();
+        final PhaseStat connect = new PhaseStat();
+        final PhaseStat tls = new PhaseStat();
+        final PhaseStat ttfb = new PhaseStat();
+        final PhaseStat total = new PhaseStat();
+
+        @NonNull
+        @Override
+        public EventListener create(@NonNull Call call) {
+            return new CallTimer(this);
+        }
+
+        String summary() {
+            return "calls=" + calls.get()
+                + " failures=" + failures.get()
+                + " reused=" + reused.get()
+                + " dns=" + dns.averageMs() + "ms"
+                + " connect=" + connect.averageMs() + "ms"
+                + " tls=" + tls.averageMs() + "ms"
+                + " ttfb=" + ttfb.averageMs() + "ms"
+                + " total=" + total.averageMs() + "ms";
+        }
+    }
+
+    private static final class CallTimer extends EventListener {
+        private final Timings timings;
+        private long callStart;
+        private long dnsStart;
+        private long connectStart;
+        private long tlsStart;
+        private long requestStart;
+        private boolean connected;
+
+        CallTimer(Timings timings) {
+            this.timings = timings;
+        }
+
+        @Override
+        public void callStart(@NonNull Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(@NonNull Call call, @NonNull String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(@NonNull Call call, @NonNull String domainName, @NonNull List<InetAddress> addresses) {
+            timings.dns.record(dnsStart);
+        }
+
+        @Override
+        public void connectStart(@NonNull Call call, @NonNull InetSocketAddress address, @NonNull Proxy proxy) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(@NonNull Call call) {
+            tlsStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(@NonNull Call call, @Nullable Handshake handshake) {
+            timings.tls.record(tlsStart);
+        }
+
+        @Override
+        public void connectEnd(@NonNull Call call, @NonNull InetSocketAddress address, @NonNull Proxy proxy, @Nullable Protocol protocol) {
+            timings.connect.record(connectStart);
+            connected = true;
+        }
+
+        @Override
+        public void requestHeadersStart(@NonNull Call call) {
+            if (requestStart == 0L) requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseHeadersEnd(@NonNull Call call, @NonNull Response response) {
+            timings.ttfb.record(requestStart);
+            requestStart = 0L;
+        }
+
+        @Override
+        public void callEnd(@NonNull Call call) {
+            finish(call, false);
+        }
+
+        @Override
+        public void callFailed(@NonNull Call call, @NonNull IOException ioe) {
+            finish(call, true);
+        }
+
+        private void finish(Call call, boolean failed) {
+            timings.calls.incrementAndGet();
+            if (failed) timings.failures.incrementAndGet();
+            if (!connected) timings.reused.incrementAndGet();
+            timings.total.record(callStart);
+            // Строка на каждый запрос, включая long-polling сокета: в release только счётчики
+            if (!BuildConfig.DEBUG) return;
+            long elapsedMs = (System.nanoTime() - callStart) / 1_000_000L;
+            android.util.Log.d("SharedHttpClient", "🌐 " + call.request().method() + " "
+                + call.request().url().encodedPath() + ": " + elapsedMs + "ms, newConnection="
+                + connected + ", failed=" + failed);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package org.eblusha.plus;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.TextUtils;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Токены сессии в памяти процесса.
+ *
+ * Раньше токен передавался broadcast'ами, сервис перечитывал SharedPreferences по таймеру,
+ * а MainActivity через 2с после старта вытаскивал его из localStorage скриптом. Теперь
+ * SharedPreferences читаются один раз при создании, запись — через {@code apply()}
+ * (асинхронно), а подписчики узнают о смене access token сразу (на main looper).
+ */
+final class TokenHolder {
+    interface Listener {
+        void onAccessTokenChanged(@NonNull String accessToken);
+    }
+
+    private static final String PREFS = "eblusha_native_socket";
+    private static final String KEY_TOKEN = "access_token";
+    private static final String KEY_REFRESH_TOKEN = "refresh_token";
+
+    private static TokenHolder instance;
+
+    private final SharedPreferences prefs;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final CopyOnWriteArraySet<Listener> listeners = new CopyOnWriteArraySet<>();
+
+    private String accessToken;
+    private String refreshToken;
+
+    private TokenHolder(Context context) {
+        prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        accessToken = prefs.getString(KEY_TOKEN, "");
+        refreshToken = prefs.getString(KEY_REFRESH_TOKEN, "");
+    }
+
+    static synchronized TokenHolder get(Context context) {
+        if (instance == null) {
+            instance = new TokenHolder(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    @NonNull
+    synchronized String getAccessToken() {
+        return accessToken;
+    }
+
+    @NonNull
+    synchronized String getRefreshToken() {
+        return refreshToken;
+    }
+
+    /**
+     * @param newRefreshToken null — оставить текущий, пустая строка — удалить.
+     */
+    void update(@Nullable String newAccessToken, @Nullable String newRefreshToken) {
+        final String access = newAccessToken != null ? newAccessToken : "";
+        boolean accessChanged;
+        synchronized (this) {
+            accessChanged = !access.equals(accessToken);
+            accessToken = access;
+            if (newRefreshToken != null) {
+                refreshToken = newRefreshToken;
+            }
+            SharedPreferences.Editor editor = prefs.edit();
+            if (TextUtils.isEmpty(access)) {
+                editor.remove(KEY_TOKEN);
+            } else {
+                editor.putString(KEY_TOKEN, access);
+            }
+            if (newRefreshToken != null) {
+                if (TextUtils.isEmpty(newRefreshToken)) {
+                    editor.remove(KEY_REFRESH_TOKEN);
+                } else {
+                    editor.putString(KEY_REFRESH_TOKEN, newRefreshToken);
+                }
+            }
+            editor.apply();
+        }
+        android.util.Log.d("TokenHolder", "Tokens updated, access length: " + access.length() + ", changed=" + accessChanged);
+        if (!accessChanged) return;
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                try {
+                    listener.onAccessTokenChanged(access);
+                } catch (Exception e) {
+                    android.util.Log.e("TokenHolder", "Listener failed", e);
+                }
+            }
+        });
+    }
+
+    void clear() {
+        update("", "");
+    }
+
+    void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+}
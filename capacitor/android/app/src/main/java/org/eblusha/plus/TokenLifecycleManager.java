@@ -0,0 +1,100 @@
+package org.eblusha.plus;
+
+import android.os.Handler;
+import android.text.TextUtils;
+import android.util.Base64;
+import androidx.annotation.Nullable;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.json.JSONObject;
+
+/**
+ * Плановое обновление access token по {@code exp} из JWT.
+ *
+ * Раньше истёкший токен обнаруживался только по "Unauthorized" в connect_error — то есть
+ * ценой упавшего подключения, refresh и полного реконнекта. Теперь обновление планируется
+ * заранее (за 10% срока жизни, но не меньше минуты, с джиттером), а новый токен
+ * передаётся живому сокету без переподключения.
+ *
+ * Handler считает время по uptime и во сне не тикает, поэтому срок хранится в wall clock,
+ * а {@link #checkDue()} дёргается ещё и из heartbeat сервиса.
+ */
+final class TokenLifecycleManager {
+    interface Renewer {
+        void renew();
+    }
+
+    private static final long MIN_LEAD_MS = 60_000L;
+
+    private final Handler handler;
+    private final Renewer renewer;
+    private final Random random = new Random();
+
+    private String scheduledToken = "";
+    private long renewAt = 0L;
+
+    private final Runnable renewRunnable = this::checkDue;
+
+    TokenLifecycleManager(Handler handler, Renewer renewer) {
+        this.handler = handler;
+        this.renewer = renewer;
+    }
+
+    /** Новый токен: старый план отменяется. Повторный вызов с тем же токеном ничего не меняет. */
+    void schedule(@Nullable String token) {
+        handler.post(() -> {
+            String next = token != null ? token : "";
+            if (next.equals(scheduledToken)) return;
+            scheduledToken = next;
+            handler.removeCallbacks(renewRunnable);
+            renewAt = 0L;
+            if (TextUtils.isEmpty(next)) return;
+            JSONObject claims = decodeClaims(token);
+            if (claims == null || !claims.has("exp")) return;
+            long expiresAt = claims.optLong("exp") * 1000L;
+            long issuedAt = claims.optLong("iat", 0L) * 1000L;
+            long lifetime = issuedAt > 0 ? expiresAt - issuedAt : 0L;
+            long lead = Math.max(MIN_LEAD_MS, lifetime / 10);
+            long jitter = (long) (random.nextDouble() * (lead / 5));
+            renewAt = expiresAt - lead - jitter;
+            long delay = Math.max(0L, renewAt - System.currentTimeMillis());
+            android.util.Log.d("TokenLifecycleManager", "⏰ Token renewal in " + (delay / 1000) + "s");
+            handler.postDelayed(renewRunnable, delay);
+        });
+    }
+
+    void cancel() {
+        schedule(null);
+    }
+
+    /** Пора обновлять? Обновление запускается один раз на токен. */
+    void checkDue() {
+        handler.post(() -> {
+            if (renewAt <= 0 || System.currentTimeMillis() < renewAt) return;
+            renewAt = 0L;
+            handler.removeCallbacks(renewRunnable);
+            android.util.Log.d("TokenLifecycleManager", "Renewing access token before expiry");
+            renewer.renew();
+        });
+    }
+
+    /** Только чтение claim'ов для планирования; подпись проверяет сервер. */
+    @Nullable
+    static JSONObject decodeClaims(@Nullable String token) {
+        if (TextUtils.isEmpty(token)) return null;
+        String[] parts = token.split("\\.");
+        if (parts.length < 2) return null;
+        try {
+            byte[] decoded = Base64.decode(parts[1], Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+            return new JSONObject(new String(decoded, StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Nullable
+    static String subjectOf(@Nullable String token) {
+        JSONObject claims = decodeClaims(token);
+        return claims != null ? claims.optString("sub", null) : null;
+    }
+}
@@ -10,6 +10,17 @@ export interface IncomingCallPlugin {
   closeIncomingCall(): Promise<void>
   ensurePermissions(): Promise<{ granted: boolean }>
   ensureBackgroundExecution(): Promise<{ granted: boolean }>
+  getLatencyStats(): Promise<IncomingCallLatencyStats>
+}
+
+/** Bucket label (e.g. `<=250ms`, `>5000ms`) → number of calls */
+export type LatencyHistogram = Record<string, number>
+
+export interface IncomingCallLatencyStats {
+  /** From the first native hop (socket event or plugin call) to ringtone start */
+  timeToRing: LatencyHistogram
+  /** From the first native hop to the incoming call screen being drawn */
+  timeToUi: LatencyHistogram
 }
 
 const IncomingCall = registerPlugin<IncomingCallPlugin>('IncomingCall', {
@@ -1,5 +1,5 @@
 import { WebPlugin } from '@capacitor/core'
-import type { IncomingCallPlugin } from './incoming-call-plugin'
+import type { IncomingCallLatencyStats, IncomingCallPlugin } from './incoming-call-plugin'
 
 type Action = 'accept-audio' | 'accept-video' | 'decline'
 
@@ -37,6 +37,10 @@ export class IncomingCallWeb extends WebPlugin implements IncomingCallPlugin {
     return { granted: true }
   }
 
+  async getLatencyStats(): Promise<IncomingCallLatencyStats> {
+    return { timeToRing: {}, timeToUi: {} }
+  }
+
   async ensureBackgroundExecution(): Promise<{ granted: boolean }> {
     return { granted: true }
   }
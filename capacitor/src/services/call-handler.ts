@@ -169,7 +169,7 @@ export class CallHandler {
         payload.conversationId,
         payload.from.name || conversationInfo?.title || 'Неизвестный',
         payload.video,
-        conversationInfo?.avatarUrl
+        payload.from.avatarUrl ?? conversationInfo?.avatarUrl
       )
 
       this.callNotificationIds.set(payload.conversationId, notificationId)
@@ -197,7 +197,7 @@ export class CallHandler {
         conversationId: payload.conversationId,
         callerName: payload.from.name || conversationInfo?.title || 'Неизвестный',
         isVideo: payload.video,
-        avatarUrl: conversationInfo?.avatarUrl,
+        avatarUrl: payload.from.avatarUrl ?? conversationInfo?.avatarUrl,
       })
     } catch (error) {
       console.error('[CallHandler] Error opening incoming call screen:', error)
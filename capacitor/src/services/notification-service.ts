@@ -327,6 +327,8 @@ export class NotificationService {
           senderName: options.title,
           messageText: options.body,
           avatarUrl: options.avatarUrl,
+          messageId: options.messageId,
+          senderId: options.senderId,
         })
         return 'plugin'
       } catch (error) {
@@ -93,7 +93,7 @@ export interface ProfileUpdatePayload {
 
 export interface CallIncomingPayload {
   conversationId: string
-  from: { id: string; name: string }
+  from: { id: string; name: string; avatarUrl?: string | null }
   video: boolean
 }
 
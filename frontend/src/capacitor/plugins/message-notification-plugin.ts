@@ -6,16 +6,31 @@ export interface ShowMessageNotificationOptions {
   senderName: string
   messageText: string
   avatarUrl?: string
+  /** Native side dedups by messageId against notifications from the native socket. */
+  messageId?: string
+  senderId?: string
+  /** Offer inline reply; it sends plaintext, so never for E2EE conversations. */
+  allowReply?: boolean
 }
 
 export interface CancelNotificationsOptions {
   ids: number[]
 }
 
+export interface MessageNotificationStats {
+  queueDepth: number
+  completed: number
+  superseded: number
+  rejected: number
+  averageLatencyMs: number
+  maxLatencyMs: number
+}
+
 export interface MessageNotificationPlugin {
   show(options: ShowMessageNotificationOptions): Promise<void>
   cancel(options: CancelNotificationsOptions): Promise<void>
   clear(): Promise<void>
+  getStats(): Promise<MessageNotificationStats>
 }
 
 export type MessageNotificationRuntimeStatus = {
@@ -1,6 +1,7 @@
 import type {
   CancelNotificationsOptions,
   MessageNotificationPlugin,
+  MessageNotificationStats,
   ShowMessageNotificationOptions,
 } from './message-notification-plugin'
 
@@ -16,5 +17,9 @@ export class MessageNotificationWeb implements MessageNotificationPlugin {
   async clear(): Promise<void> {
     console.log('[MessageNotificationWeb] clear')
   }
+
+  async getStats(): Promise<MessageNotificationStats> {
+    return { queueDepth: 0, completed: 0, superseded: 0, rejected: 0, averageLatencyMs: 0, maxLatencyMs: 0 }
+  }
 }
 
@@ -1,6 +1,35 @@
-import { registerPlugin } from '@capacitor/core'
+import { registerPlugin, type PluginListenerHandle } from '@capacitor/core'
+
+export type NativeSocketEvent = { event: string; payload: unknown }
+export type NativeSocketConnectionChange = { connected: boolean; reason?: string }
+export type NativeTokensChange = { token: string; refreshToken?: string | null }
+export type NativeKeepAliveStats = {
+  mode: 'active' | 'doze'
+  wakeups: number
+  holdMs: number
+  maintenanceWindows: number
+  observedMs: number
+  wakeupsPerHour: number
+  holdMsPerHour: number
+}
 
 export interface NativeSocketPlugin {
+  connect(options?: { token?: string | null }): Promise<{ connected: boolean }>
+  emit(options: { event: string; payload?: unknown }): Promise<{ sent: boolean }>
+  getConnectionState(): Promise<{ connected: boolean }>
+  getKeepAliveStats(): Promise<NativeKeepAliveStats>
+  addListener(
+    eventName: 'socketEvent',
+    listener: (event: NativeSocketEvent) => void,
+  ): Promise<PluginListenerHandle>
+  addListener(
+    eventName: 'connectionChange',
+    listener: (change: NativeSocketConnectionChange) => void,
+  ): Promise<PluginListenerHandle>
+  addListener(
+    eventName: 'tokensChanged',
+    listener: (change: NativeTokensChange) => void,
+  ): Promise<PluginListenerHandle>
   updateToken(options: { token: string; refreshToken?: string | null }): Promise<{ success: boolean }>
   getStoredTokens(): Promise<{ token?: string | null; refreshToken?: string | null }>
   clearTokens(): Promise<{ success: boolean }>
@@ -10,6 +39,29 @@ export interface NativeSocketPlugin {
 
 const NativeSocket = registerPlugin<NativeSocketPlugin>('NativeSocket', {
   web: () => ({
+    async connect() {
+      return { connected: false }
+    },
+    async emit() {
+      return { sent: false }
+    },
+    async getConnectionState() {
+      return { connected: false }
+    },
+    async getKeepAliveStats() {
+      return {
+        mode: 'active' as const,
+        wakeups: 0,
+        holdMs: 0,
+        maintenanceWindows: 0,
+        observedMs: 0,
+        wakeupsPerHour: 0,
+        holdMsPerHour: 0,
+      }
+    },
+    async addListener() {
+      return { remove: async () => {} }
+    },
     async updateToken() {
       return { success: true }
     },
@@ -190,7 +190,7 @@ export class CallHandler {
       // Получаем информацию о беседе
       const conversationInfo = await this.callbacks.getConversationInfo?.(payload.conversationId)
       const callerName = payload.from.name || conversationInfo?.title || 'Неизвестный'
-      const avatarUrl = conversationInfo?.avatarUrl
+      const avatarUrl = payload.from.avatarUrl ?? conversationInfo?.avatarUrl
 
       let nativeUiShown = false
       if (this.useNativeIncomingCallUi) {
@@ -187,8 +187,10 @@ export class NotificationService {
     const conversationId = payload.conversationId
     const notificationId = Date.now() % 2147483647 // Максимальный ID для Android
 
+    // The native plugin stacks messages into one notification per conversation,
+    // so cancelling the previous one would wipe that history.
     const existingId = this.conversationNotifications.get(conversationId)
-    if (existingId) {
+    if (existingId && this.notificationSources.get(existingId) !== 'message-plugin') {
       await this.cancelMessageNotifications([existingId])
     }
 
@@ -210,6 +212,8 @@ export class NotificationService {
       title,
       body,
       avatarUrl,
+      // Inline reply sends plaintext, so it is only offered outside E2EE conversations
+      allowReply: Boolean(payload.message) && !(payload.message as any)?.metadata?.e2ee,
     })
   }
 
@@ -328,6 +332,7 @@ export class NotificationService {
     title: string
     body: string
     avatarUrl?: string
+    allowReply?: boolean
   }): Promise<void> {
     try {
       const delivery = await this.scheduleMessageNotification(options)
@@ -355,6 +360,7 @@ export class NotificationService {
     avatarUrl?: string
     senderId?: string
     messageId?: string
+    allowReply?: boolean
   }): Promise<'plugin' | 'local' | 'unavailable'> {
     const pluginRuntime = getMessageNotificationRuntimeStatus()
     const canUseNativeMessagePlugin = pluginRuntime.hasWindowPlugin
@@ -375,6 +381,9 @@ export class NotificationService {
           senderName: options.title,
           messageText: options.body,
           avatarUrl: options.avatarUrl,
+          messageId: options.messageId,
+          senderId: options.senderId,
+          allowReply: options.allowReply,
         })
         console.info('[NotificationService] MessageNotification.show succeeded', {
           conversationId: options.conversationId,
@@ -1,4 +1,6 @@
 import { io, Socket } from 'socket.io-client'
+import { Capacitor, type PluginListenerHandle } from '@capacitor/core'
+import NativeSocket from '../plugins/native-socket-plugin'
 import type {
   MessageNewPayload,
   MessageNotifyPayload,
@@ -38,6 +40,11 @@ export class SocketService {
   private maxReconnectAttempts = 10
   private isManuallyDisconnected = false
   private rawListeners = new Map<string, Set<(payload: unknown) => void>>()
+  // Android: соединение держит нативный BackgroundConnectionService, здесь только подписка на него
+  private nativeMode = SocketService.detectNativeEngine()
+  private nativeConnected = false
+  private nativeHandles: PluginListenerHandle[] = []
+  private nativeBinding: Promise<void> | null = null
 
   constructor(wsUrl: string) {
     this.wsUrl = wsUrl
@@ -47,6 +54,10 @@ export class SocketService {
    * Подключение к Socket.IO с JWT токеном
    */
   connect(token: string): void {
+    if (this.nativeMode) {
+      this.connectNativeEngine(token)
+      return
+    }
     if (this.socket?.connected) {
       console.log('[SocketService] Already connected')
       return
@@ -103,6 +114,12 @@ export class SocketService {
    */
   disconnect(): void {
     this.isManuallyDisconnected = true
+    if (this.nativeMode) {
+      // Соединением владеет нативный сервис (его гасит clearTokens); WebView просто отписывается
+      this.unbindNativeEngine()
+      this.accessToken = null
+      return
+    }
     if (this.socket) {
       this.socket.disconnect()
       this.socket = null
@@ -125,6 +142,10 @@ export class SocketService {
     }
     console.log('[SocketService] Manual reconnect requested')
     this.isManuallyDisconnected = false
+    if (this.nativeMode) {
+      this.connectNativeEngine(this.accessToken)
+      return
+    }
     if (this.socket) {
       // Если сокет существует, но не подключен, пытаемся переподключиться
       this.socket.connect()
@@ -139,6 +160,10 @@ export class SocketService {
    */
   updateToken(token: string): void {
     this.accessToken = token
+    if (this.nativeMode) {
+      // Токен в нативный слой передаёт NativeSocket.updateToken из сессии; здесь только запоминаем
+      return
+    }
     if (this.socket) {
       this.socket.auth = { token }
       // eslint-disable-next-line @typescript-eslint/no-explicit-any
@@ -150,6 +175,7 @@ export class SocketService {
    * Проверка подключения
    */
   isConnected(): boolean {
+    if (this.nativeMode) return this.nativeConnected
     return this.socket?.connected ?? false
   }
 
@@ -158,6 +184,12 @@ export class SocketService {
       console.warn('[SocketService] Cannot ensure connection: no access token')
       return
     }
+    if (this.nativeMode) {
+      if (!this.nativeConnected) {
+        this.connectNativeEngine(this.accessToken)
+      }
+      return
+    }
     if (!this.socket) {
       console.log('[SocketService] ensureConnected -> socket missing, connecting…')
       this.connect(this.accessToken)
@@ -197,6 +229,16 @@ export class SocketService {
   }
 
   emitRaw(event: string, payload: unknown): void {
+    if (this.nativeMode) {
+      if (!this.nativeConnected) {
+        console.warn(`[SocketService] Native socket not connected, cannot emit ${event}`)
+        return
+      }
+      void NativeSocket.emit({ event, payload }).catch((error) => {
+        console.warn(`[SocketService] Native emit ${event} failed`, error)
+      })
+      return
+    }
     if (!this.socket?.connected) {
       console.warn(`[SocketService] Socket not connected, cannot emit ${event}`)
       return
@@ -204,6 +246,80 @@ export class SocketService {
     this.socket.emit(event, payload)
   }
 
+  private static detectNativeEngine(): boolean {
+    try {
+      return Capacitor.getPlatform() === 'android' && Capacitor.isPluginAvailable('NativeSocket')
+    } catch {
+      return false
+    }
+  }
+
+  /**
+   * Подписка на общий нативный сокет вместо собственного соединения
+   */
+  private connectNativeEngine(token: string): void {
+    this.accessToken = token
+    this.isManuallyDisconnected = false
+    if (!this.nativeBinding) {
+      this.nativeBinding = this.bindNativeEngine()
+    }
+    void this.nativeBinding
+      .then(() => NativeSocket.connect({ token }))
+      .then(({ connected }) => {
+        this.setNativeConnected(connected)
+      })
+      .catch((error) => {
+        console.error('[SocketService] ❌ Native socket connect failed:', error)
+      })
+  }
+
+  private async bindNativeEngine(): Promise<void> {
+    this.nativeHandles.push(
+      await NativeSocket.addListener('socketEvent', ({ event, payload }) => {
+        this.dispatchRaw(event, payload)
+      }),
+    )
+    this.nativeHandles.push(
+      await NativeSocket.addListener('connectionChange', ({ connected, reason }) => {
+        this.setNativeConnected(connected, reason)
+      }),
+    )
+  }
+
+  private unbindNativeEngine(): void {
+    const handles = this.nativeHandles
+    this.nativeHandles = []
+    this.nativeBinding = null
+    this.nativeConnected = false
+    for (const handle of handles) {
+      void handle.remove()
+    }
+  }
+
+  private setNativeConnected(connected: boolean, reason?: string): void {
+    if (this.nativeConnected === connected) return
+    this.nativeConnected = connected
+    if (connected) {
+      console.log('[SocketService] ✅ Native socket connected')
+      this.dispatchRaw('connect', undefined)
+    } else {
+      console.log('[SocketService] ❌ Native socket disconnected:', reason)
+      this.dispatchRaw('disconnect', reason)
+    }
+  }
+
+  private dispatchRaw(event: string, payload: unknown): void {
+    const listeners = this.rawListeners.get(event)
+    if (!listeners) return
+    for (const listener of [...listeners]) {
+      try {
+        listener(payload)
+      } catch (error) {
+        console.error(`[SocketService] Listener for ${event} failed`, error)
+      }
+    }
+  }
+
   /**
    * Настройка обработчиков событий подключения
    */
@@ -278,87 +394,59 @@ export class SocketService {
   // ========== Подписки на события (от сервера) ==========
 
   onMessageNew(callback: (payload: MessageNewPayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('message:new', callback)
-    return () => this.socket?.off('message:new', callback)
+    return this.onRaw('message:new', callback)
   }
 
   onMessageNotify(callback: (payload: MessageNotifyPayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('message:notify', callback)
-    return () => this.socket?.off('message:notify', callback)
+    return this.onRaw('message:notify', callback)
   }
 
   onConversationTyping(callback: (payload: ConversationTypingPayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('conversation:typing', callback)
-    return () => this.socket?.off('conversation:typing', callback)
+    return this.onRaw('conversation:typing', callback)
   }
 
   onMessageReaction(callback: (payload: MessageReactionPayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('message:reaction', callback)
-    return () => this.socket?.off('message:reaction', callback)
+    return this.onRaw('message:reaction', callback)
   }
 
   onReceiptsUpdate(callback: (payload: ReceiptsUpdatePayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('receipts:update', callback)
-    return () => this.socket?.off('receipts:update', callback)
+    return this.onRaw('receipts:update', callback)
   }
 
   onConversationNew(callback: (payload: ConversationNewPayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('conversations:new', callback)
-    return () => this.socket?.off('conversations:new', callback)
+    return this.onRaw('conversations:new', callback)
   }
 
   onConversationUpdated(callback: (payload: ConversationUpdatedPayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('conversations:updated', callback)
-    return () => this.socket?.off('conversations:updated', callback)
+    return this.onRaw('conversations:updated', callback)
   }
 
   onConversationDeleted(callback: (payload: ConversationDeletedPayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('conversations:deleted', callback)
-    return () => this.socket?.off('conversations:deleted', callback)
+    return this.onRaw('conversations:deleted', callback)
   }
 
   onConversationMemberRemoved(callback: (payload: ConversationMemberRemovedPayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('conversations:member:removed', callback)
-    return () => this.socket?.off('conversations:member:removed', callback)
+    return this.onRaw('conversations:member:removed', callback)
   }
 
   onPresenceUpdate(callback: (payload: PresenceUpdatePayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('presence:update', callback)
-    return () => this.socket?.off('presence:update', callback)
+    return this.onRaw('presence:update', callback)
   }
 
   onContactRequest(callback: (payload: ContactRequestPayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('contacts:request:new', callback)
-    return () => this.socket?.off('contacts:request:new', callback)
+    return this.onRaw('contacts:request:new', callback)
   }
 
   onContactAccepted(callback: (payload: ContactAcceptedPayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('contacts:request:accepted', callback)
-    return () => this.socket?.off('contacts:request:accepted', callback)
+    return this.onRaw('contacts:request:accepted', callback)
   }
 
   onContactRemoved(callback: (payload: ContactRemovedPayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('contacts:removed', callback)
-    return () => this.socket?.off('contacts:removed', callback)
+    return this.onRaw('contacts:removed', callback)
   }
 
   onProfileUpdate(callback: (payload: ProfileUpdatePayload) => void): () => void {
-    if (!this.socket) return () => {}
-    this.socket.on('profile:update', callback)
-    return () => this.socket?.off('profile:update', callback)
+    return this.onRaw('profile:update', callback)
   }
 
   // ========== Звонки ==========
@@ -62,6 +62,25 @@ export async function clearNativeTokens(): Promise<boolean> {
   return false
 }
 
+/**
+ * Native proactive renewal rotates the refresh token; the WebView must adopt the new pair or its
+ * next refresh spends a revoked token. Returns an unsubscribe function.
+ */
+export async function subscribeNativeTokens(listener: (tokens: NativeStoredTokens) => void): Promise<() => void> {
+  if (!isAndroidNativeSessionRuntime()) return () => {}
+  const plugin = resolveNativeSocketPlugin()
+  if (!plugin || typeof plugin.addListener !== 'function') return () => {}
+  const handle = await plugin.addListener('tokensChanged', (change) => {
+    listener({
+      accessToken: normalizeToken(change?.token),
+      refreshToken: normalizeToken(change?.refreshToken),
+    })
+  })
+  return () => {
+    void handle.remove()
+  }
+}
+
 export async function getNativeStoredTokens(): Promise<NativeStoredTokens | null> {
   if (!isAndroidNativeSessionRuntime()) return null
   const plugin = resolveNativeSocketPlugin()
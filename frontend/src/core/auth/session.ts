@@ -2,11 +2,18 @@ import { AxiosError, AxiosHeaders, type AxiosInstance } from 'axios'
 import { useAppStore, type SessionState } from '../../domain/store/appStore'
 import { api, refreshClient } from '../api/httpClient'
 import { getDefaultStorageAdapter } from '../storage'
-import { getNativeStoredTokens, isAndroidNativeSessionRuntime } from './nativeSession'
+import {
+  getNativeStoredTokens,
+  isAndroidNativeSessionRuntime,
+  subscribeNativeTokens,
+  type NativeStoredTokens,
+} from './nativeSession'
 
 let refreshPromise: Promise<SessionState | null> | null = null
 let interceptorsInstalled = false
 const storage = getDefaultStorageAdapter()
+// An access token this close to expiry is not worth adopting instead of refreshing.
+const NATIVE_TOKEN_MIN_TTL_MS = 30_000
 
 function isAuthEndpoint(url?: string) {
   if (!url) return false
@@ -21,6 +28,41 @@ function buildRefreshRequestBody() {
   return undefined
 }
 
+/**
+ * On Android the native service renews tokens too and rotates the refresh token. Takes over a
+ * newer native pair so the WebView never refreshes with a token that has already been spent.
+ * Returns the updated session, or null when there was nothing newer to adopt.
+ */
+function adoptNativeTokens(tokens: NativeStoredTokens | null): SessionState | null {
+  const session = useAppStore.getState().session
+  if (!session || !tokens?.accessToken) return null
+  if (tokens.accessToken === session.accessToken && (tokens.refreshToken ?? session.refreshToken) === session.refreshToken) {
+    return null
+  }
+  const updatedSession: SessionState = {
+    ...session,
+    accessToken: tokens.accessToken,
+    refreshToken: tokens.refreshToken ?? session.refreshToken,
+  }
+  useAppStore.getState().setSession(updatedSession)
+  return updatedSession
+}
+
+async function adoptFreshNativeTokens(): Promise<SessionState | null> {
+  if (!isAndroidNativeSessionRuntime()) return null
+  let tokens: NativeStoredTokens | null = null
+  try {
+    tokens = await getNativeStoredTokens()
+  } catch {
+    return null
+  }
+  const adopted = adoptNativeTokens(tokens)
+  if (!adopted) return null
+  // The native side already renewed: retry with its access token instead of rotating again.
+  const expMs = getAccessExpMs(adopted.accessToken)
+  return expMs !== null && expMs - Date.now() > NATIVE_TOKEN_MIN_TTL_MS ? adopted : null
+}
+
 async function refreshTokens(): Promise<SessionState | null> {
   if (refreshPromise) {
     return refreshPromise
@@ -31,10 +73,10 @@ async function refreshTokens(): Promise<SessionState | null> {
     return null
   }
 
-  const payload = buildRefreshRequestBody()
-  refreshPromise = refreshClient
-    .post('/auth/refresh', payload)
-    .then((response) => {
+  refreshPromise = adoptFreshNativeTokens()
+    .then(async (adopted) => {
+      if (adopted) return adopted
+      const response = await refreshClient.post('/auth/refresh', buildRefreshRequestBody())
       const latestSession = useAppStore.getState().session
       if (!latestSession) return null
       const updatedSession: SessionState = {
@@ -102,6 +144,9 @@ export function installSessionInterceptors(): void {
   if (interceptorsInstalled) return
   interceptorsInstalled = true
   installAuthInterceptorForClient(api)
+  void subscribeNativeTokens((tokens) => {
+    adoptNativeTokens(tokens)
+  }).catch(() => {})
 }
 
 export function forceRefreshSession() {
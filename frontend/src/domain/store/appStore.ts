@@ -71,7 +71,9 @@ export const useAppStore = create<AppState>((set) => ({
           },
           hydrated: true,
         })
-        syncNativeTokens(access, refresh ?? undefined).catch((error) => {
+        // Only the access token: the native side may hold a newer refresh token (it rotates it on
+        // proactive renewal), and a stale one from localStorage would overwrite it.
+        syncNativeTokens(access).catch((error) => {
           console.warn('[AppStore] ❌ Failed to update native socket token via hydration', error)
         })
       } else {
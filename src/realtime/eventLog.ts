@@ -0,0 +1,131 @@
+import { getRedisClient } from "../lib/redis";
+
+// Per-user realtime journal: every event delivered to `user:<id>` gets a monotonically
+// increasing sequence number, and the last USER_EVENT_LOG_MAX entries are kept in Redis.
+// A reconnecting client sends its last seen seq (`sync:resume`) and gets only what it
+// missed instead of reloading conversations and timelines after every network blip.
+
+export const USER_EVENT_LOG_MAX = 500;
+export const USER_EVENT_LOG_TTL_SECONDS = 24 * 60 * 60;
+// A ring older than this is stale on replay: the caller has given up long ago.
+export const CATCH_UP_RING_TTL_MS = 45_000;
+
+export type UserEventLogEntry = { seq: number; event: string; payload: unknown; ts: number };
+
+export type UserEventCatchUp = {
+  seq: number;
+  // true when the gap is not covered by the journal; the client must do a full refresh
+  reset: boolean;
+  events: UserEventLogEntry[];
+};
+
+// The seq counter never expires: restarting it at 1 would make a stale client's lastSeq look
+// valid again once the new counter passed it, and the replay would silently skip the gap.
+// Only the log expires; an expired log is an uncovered gap and yields reset:true.
+const redisUserSeqKey = (userId: string) => `rt_seq:${userId}`;
+const redisUserLogKey = (userId: string) => `rt_log:${userId}`;
+
+// INCR and ZADD in one script: a seq is never issued without its entry, so a hole in the
+// log always means a trimmed or retracted event, never one that is still being written.
+const APPEND_USER_EVENT_LUA = `
+local seq = redis.call('INCR', KEYS[1])
+local entry = '{"seq":' .. seq .. ',"event":' .. cjson.encode(ARGV[1]) .. ',"payload":' .. ARGV[2] .. ',"ts":' .. ARGV[3] .. '}'
+redis.call('ZADD', KEYS[2], seq, entry)
+redis.call('ZREMRANGEBYRANK', KEYS[2], 0, -(tonumber(ARGV[4]) + 1))
+redis.call('EXPIRE', KEYS[2], ARGV[5])
+return seq
+`;
+
+export async function appendUserEvent(userId: string, event: string, payload: unknown): Promise<number> {
+  const redis = await getRedisClient();
+  const res = await redis.eval(APPEND_USER_EVENT_LUA, {
+    keys: [redisUserSeqKey(userId), redisUserLogKey(userId)],
+    arguments: [
+      event,
+      JSON.stringify(toJournalPayload(event, payload) ?? null),
+      String(Date.now()),
+      String(USER_EVENT_LOG_MAX),
+      String(USER_EVENT_LOG_TTL_SECONDS),
+    ],
+  });
+  return Number(res);
+}
+
+/**
+ * Removes an entry whose event went out without its seq. The hole it leaves makes a resume
+ * across it come back with reset:true, so a client that missed the event live refreshes
+ * instead of silently skipping it.
+ */
+export async function retractUserEvent(userId: string, seq: number): Promise<void> {
+  const redis = await getRedisClient();
+  await redis.zRemRangeByScore(redisUserLogKey(userId), seq, seq);
+}
+
+// message:notify is journaled by id only: the message may be edited or deleted before the
+// replay, and a resuming client fetches the current version with GET /messages/:messageId.
+function toJournalPayload(event: string, payload: unknown): unknown {
+  if (event !== "message:notify" || !payload || typeof payload !== "object") return payload;
+  const { message: _message, ...ids } = payload as Record<string, unknown>;
+  return ids;
+}
+
+export async function readUserEventsSince(userId: string, lastSeq: number): Promise<UserEventCatchUp> {
+  const redis = await getRedisClient();
+  const current = Number((await redis.get(redisUserSeqKey(userId))) ?? 0);
+  // Fresh client: nothing to replay, just tell it where the stream is.
+  if (!Number.isFinite(lastSeq) || lastSeq <= 0) return { seq: current, reset: false, events: [] };
+  // The counter was reset (e.g. Redis data loss) while the client was away: its seq means nothing now.
+  if (lastSeq > current) return { seq: current, reset: true, events: [] };
+  if (lastSeq === current) return { seq: current, reset: false, events: [] };
+
+  const raw = await redis.zRangeByScore(redisUserLogKey(userId), lastSeq + 1, current);
+  const entries: UserEventLogEntry[] = [];
+  for (const item of raw) {
+    try {
+      entries.push(JSON.parse(item) as UserEventLogEntry);
+    } catch {
+      // ignore malformed entries
+    }
+  }
+  entries.sort((a, b) => a.seq - b.seq);
+  // Every seq in (lastSeq, current] must be there. A hole anywhere means trimmed, retracted or
+  // unreadable entries, and that part of the gap is gone for good.
+  const contiguous = entries.length === current - lastSeq && entries.every((e, i) => e.seq === lastSeq + 1 + i);
+  if (!contiguous) return { seq: current, reset: true, events: [] };
+  return { seq: current, reset: false, events: compactCatchUp(entries, Date.now()) };
+}
+
+/**
+ * Drops entries that a reconnecting client does not need to replay:
+ * - for calls only the latest event per conversation matters: a ring followed by an accept,
+ *   decline or end (from the peer or from another of the user's own devices) is dropped, so
+ *   the client does not ring again for a call that is already settled; a stale ring is dropped too;
+ * - for conversation updates only the latest per conversation matters;
+ * - duplicate message notifications collapse into one.
+ */
+export function compactCatchUp(entries: UserEventLogEntry[], now: number): UserEventLogEntry[] {
+  const keep = new Map<string, UserEventLogEntry>();
+  const unkeyed: UserEventLogEntry[] = [];
+  for (const entry of entries) {
+    const key = compactionKey(entry);
+    if (!key) {
+      unkeyed.push(entry);
+      continue;
+    }
+    keep.delete(key);
+    keep.set(key, entry);
+  }
+  return [...unkeyed, ...keep.values()]
+    .filter((entry) => !(entry.event === "call:incoming" && now - entry.ts > CATCH_UP_RING_TTL_MS))
+    .sort((a, b) => a.seq - b.seq);
+}
+
+function compactionKey(entry: UserEventLogEntry): string | null {
+  const p = (entry.payload ?? {}) as Record<string, unknown>;
+  const conversationId = typeof p.conversationId === "string" ? p.conversationId : null;
+  const messageId = typeof p.messageId === "string" ? p.messageId : null;
+  if (entry.event.startsWith("call:") && conversationId) return `call:${conversationId}`;
+  if (entry.event === "message:notify" && messageId) return `notify:${messageId}`;
+  if (entry.event === "conversations:updated" && conversationId) return `conv:${conversationId}`;
+  return null;
+}
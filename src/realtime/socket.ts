@@ -7,6 +7,7 @@ import env from "../config/env";
 import { createDedicatedRedisClient, getRedisClient } from "../lib/redis";
 import { generateCallE2eeSharedKeyBase64, getCallE2eeKey, getOrCreateCallE2eeKey, setCallE2eeKey } from "../lib/callE2ee";
 import { MESSAGE_UPDATE_CHANNEL } from "./events";
+import { appendUserEvent, readUserEventsSince, retractUserEvent, type UserEventLogEntry } from "./eventLog";
 import { verifyAccessToken } from "../utils/jwt";
 import logger from "../config/logger";
 import { decGauge, incGauge } from "../obs/metrics";
@@ -53,7 +54,7 @@ type ServerToClientEvents = {
   "conversations:new": (payload: { conversationId: string }) => void;
   "conversations:updated": (payload: { conversationId: string; conversation?: any }) => void;
   "conversations:deleted": (payload: { conversationId: string }) => void;
-  "call:incoming": (payload: { conversationId: string; from: { id: string; name: string }; video: boolean }) => void;
+  "call:incoming": (payload: { conversationId: string; from: { id: string; name: string; avatarUrl?: string | null }; video: boolean }) => void;
   "call:accepted": (payload: { conversationId: string; by: { id: string }; video: boolean }) => void;
   "call:declined": (payload: { conversationId: string; by: { id: string } }) => void;
   "call:ended": (payload: { conversationId: string; by: { id: string } }) => void;
@@ -69,8 +70,19 @@ type ServerToClientEvents = {
   "secret:thread:created": (payload: { threadId: string; type: "SECRET" }) => void;
   "device:revoked": (payload: { deviceId: string; reason?: string }) => void;
   "session:new": (payload: { userId: string; deviceId: string; deviceName?: string; platform?: string; lastIp?: string; lastCity?: string; lastCountry?: string; ts: number }) => void;
+  "sync:batch": (payload: {
+    seq: number;
+    reset: boolean;
+    events: UserEventLogEntry[];
+    presence: { userId: string; status: string }[];
+  }) => void;
 };
 
+// Delivery receipt for call-control emits. Clients retry until they get one, so a retried
+// emit carries the same `opId` and is acknowledged without being applied twice.
+type ClientAck = (result: { ok: boolean; duplicate?: boolean }) => void;
+type ClientOpPayload = { opId?: string };
+
 type ClientToServerEvents = {
   "conversation:join": (conversationId: string) => void;
   "conversation:leave": (conversationId: string) => void;
@@ -78,16 +90,16 @@ type ClientToServerEvents = {
   "typing_start": (conversationId: string) => void;
   "typing_ping": (conversationId: string) => void;
   "typing_stop": (conversationId: string) => void;
-  "call:invite": (payload: { conversationId: string; video: boolean }) => void;
-  "call:accept": (payload: { conversationId: string; video: boolean }) => void;
-  "call:decline": (payload: { conversationId: string }) => void;
-  "call:end": (payload: { conversationId: string }) => void;
-  "call:room:join": (payload: { conversationId: string; video?: boolean }) => void;
-  "call:room:leave": (payload: { conversationId: string }) => void;
+  "call:invite": (payload: { conversationId: string; video: boolean } & ClientOpPayload, ack?: ClientAck) => void;
+  "call:accept": (payload: { conversationId: string; video: boolean } & ClientOpPayload, ack?: ClientAck) => void;
+  "call:decline": (payload: { conversationId: string } & ClientOpPayload, ack?: ClientAck) => void;
+  "call:end": (payload: { conversationId: string } & ClientOpPayload, ack?: ClientAck) => void;
+  "call:room:join": (payload: { conversationId: string; video?: boolean } & ClientOpPayload, ack?: ClientAck) => void;
+  "call:room:leave": (payload: { conversationId: string } & ClientOpPayload, ack?: ClientAck) => void;
   "call:status:request": (payload: { conversationIds: string[] }) => void;
-  "secret:chat:offer": (payload: { conversationId: string }) => void;
-  "secret:chat:accept": (payload: { conversationId: string; deviceId: string }) => void;
-  "secret:chat:decline": (payload: { conversationId: string }) => void;
+  "secret:chat:offer": (payload: { conversationId: string } & ClientOpPayload, ack?: ClientAck) => void;
+  "secret:chat:accept": (payload: { conversationId: string; deviceId: string } & ClientOpPayload, ack?: ClientAck) => void;
+  "secret:chat:decline": (payload: { conversationId: string } & ClientOpPayload, ack?: ClientAck) => void;
   // Presence semantics:
   // - connected/online is derived from socket connection presence
   // - active/in-focus is explicit client state (presence:state)
@@ -102,6 +114,10 @@ type ClientToServerEvents = {
   "presence:game:clear": (payload: { reason: PresenceGameClearReason }) => void;
   "presence:game:subscribe": (payload: { peerUserId: string }) => void;
   "presence:game:hello": (payload: { openPeers: string[] }) => void;
+  // Missed-event resume: last `seq` seen on user-room events (0 = fresh client).
+  "sync:resume": (payload: { lastSeq: number }) => void;
+  // Renewed access token handed to a live socket instead of reconnecting with it.
+  "auth:refresh": (payload: { token: string }, ack?: ClientAck) => void;
 };
 
 type InterServerEvents = Record<string, never>;
@@ -143,6 +159,8 @@ const TYPING_TTL_SECONDS = 6;
 // Picked to be >= PRESENCE_TTL_SECONDS so Redis keys have had a chance to
 // expire before we declare a user truly offline.
 const PRESENCE_RECONCILE_INTERVAL_MS = 60_000;
+// Upper bound on peers included in a `sync:batch` presence snapshot.
+const PRESENCE_SNAPSHOT_MAX_PEERS = 200;
 
 type PresenceVisibility = "visible" | "hidden";
 type PresenceSource = "web" | "electron" | "mobile";
@@ -271,6 +289,31 @@ async function readPresenceAggregateCountsRedis(userId: string): Promise<{ onlin
   }
 }
 
+const CLIENT_OP_TTL_SECONDS = 120;
+const clientOpKey = (userId: string, opId: string) => `client_op:${userId}:${opId}`;
+
+// First delivery of an op wins; retries of the same op (possibly from a new socket after a
+// reconnect) are recognised for CLIENT_OP_TTL_SECONDS. Without Redis every delivery is applied.
+async function claimClientOp(userId: string, opId: string): Promise<boolean> {
+  try {
+    const redis = await getRedisClient();
+    const claimed = await redis.set(clientOpKey(userId, opId), "1", { NX: true, EX: CLIENT_OP_TTL_SECONDS });
+    return claimed !== null;
+  } catch {
+    return true;
+  }
+}
+
+// A failed op must stay retryable: otherwise the retry is acked as a duplicate and never applied.
+async function releaseClientOp(userId: string, opId: string): Promise<void> {
+  try {
+    const redis = await getRedisClient();
+    await redis.del(clientOpKey(userId, opId));
+  } catch (error) {
+    logger.warn({ error, userId, opId }, "Failed to release client op claim");
+  }
+}
+
 const typingStateKey = (conversationId: string, userId: string) => `typing:${conversationId}:${userId}`;
 
 async function setTypingRedis(conversationId: string, userId: string, ttlSeconds: number) {
@@ -986,7 +1029,7 @@ export async function initSocket(
         message: msg,
       });
       for (const rid of recipients) {
-        io.to(userRoom(rid)).emit("message:notify", {
+        void emitToUser(rid, "message:notify", {
           conversationId,
           messageId: msg.id,
           senderId: endedByUserId,
@@ -1041,7 +1084,7 @@ export async function initSocket(
         include: { participants: true },
       });
       for (const p of conv?.participants ?? []) {
-        io.to(userRoom(p.userId)).emit("call:ended", { conversationId, by: { id: endedByUserId } });
+        void emitToUser(p.userId, "call:ended", { conversationId, by: { id: endedByUserId } });
       }
     } catch (error) {
       logger.warn({ error, conversationId }, "Failed to emit direct call ended after grace");
@@ -1123,7 +1166,7 @@ export async function initSocket(
           });
           if (!conv || conv.isGroup) return;
           for (const p of conv.participants) {
-            io.to(userRoom(p.userId)).emit("call:ended", { conversationId, by: { id: inviterId } });
+            void emitToUser(p.userId, "call:ended", { conversationId, by: { id: inviterId } });
           }
           // Record the unanswered call as missed (read for the caller) if the client
           // never did. Guarded by the pending-state check above, so no duplicate.
@@ -1178,7 +1221,7 @@ export async function initSocket(
           });
           for (const p of conv?.participants ?? []) {
             if (p.userId !== inviterId) {
-              io.to(userRoom(p.userId)).emit("call:ended", { conversationId, by: { id: inviterId } });
+              void emitToUser(p.userId, "call:ended", { conversationId, by: { id: inviterId } });
             }
           }
         } catch (error) {
@@ -1254,17 +1297,10 @@ export async function initSocket(
       const payload = verifyAccessToken<{ sub: string; did?: string }>(token);
       // Reject banned/deleted users at the gate so a stale access token can't
       // keep them online after the admin panel revoked them.
-      try {
-        const u = await prisma.user.findUnique({
-          where: { id: payload.sub },
-          select: { bannedAt: true, deletedAt: true },
-        });
-        if (u && (u.bannedAt || u.deletedAt)) {
-          next(new Error(u.deletedAt ? "ACCOUNT_DELETED" : "ACCOUNT_BANNED"));
-          return;
-        }
-      } catch {
-        // best-effort; if Prisma fails, fall through to verifyAccessToken/connection
+      const blocked = await accountBlockReason(payload.sub);
+      if (blocked) {
+        next(new Error(blocked));
+        return;
       }
       socket.data.userId = payload.sub;
       const did = typeof (payload as any).did === "string" ? ((payload as any).did as string).trim() : "";
@@ -1342,7 +1378,7 @@ export async function initSocket(
           if (ipLoc?.ip) payload.lastIp = ipLoc.ip;
           if (ipLoc?.city) payload.lastCity = ipLoc.city;
           if (ipLoc?.country) payload.lastCountry = ipLoc.country;
-          io.to(userRoom(userId)).emit("session:new", payload);
+          void emitToUser(userId, "session:new", payload);
         } catch {
           // ignore
         }
@@ -1460,7 +1496,9 @@ export async function initSocket(
                   select: { displayName: true, username: true },
                 });
                 const name = inviter?.displayName ?? inviter?.username ?? "пользователь";
-                io.to(userRoom(userId)).emit("call:incoming", {
+                // Состояние, а не новое событие: звонок уже в журнале и звонит на остальных
+                // устройствах, поэтому досылаем только этому сокету
+                socket.emit("call:incoming", {
                   conversationId: conv.id,
                   from: { id: callSt.inviterId, name },
                   video: callSt.video,
@@ -1588,6 +1626,68 @@ export async function initSocket(
       }
     });
 
+    // Call-control handlers acknowledge delivery once processed. Rejected requests (not a member,
+    // stale accept, ...) are still acked: the server has made its decision and a retry won't change it.
+    function withClientAck<P extends ClientOpPayload>(handler: (payload: P) => Promise<void>) {
+      return async (payload: P, ack?: ClientAck) => {
+        const reply = typeof ack === "function" ? ack : undefined;
+        const opId = typeof payload?.opId === "string" && payload.opId ? payload.opId : null;
+        if (opId && !(await claimClientOp(userId, opId))) {
+          reply?.({ ok: true, duplicate: true });
+          return;
+        }
+        try {
+          await handler(payload);
+          reply?.({ ok: true });
+        } catch (error) {
+          logger.error({ error, userId, opId }, "Client op handler failed");
+          if (opId) await releaseClientOp(userId, opId);
+          reply?.({ ok: false });
+        }
+      };
+    }
+
+    // Proactive token renewal: the client swaps in a fresh access token without a new handshake.
+    // It must belong to the same user (and device, if bound); otherwise the client has to reconnect.
+    // The account is re-checked like in the handshake, so a banned user is dropped at the next renewal.
+    socket.on("auth:refresh", async (payload, ack) => {
+      const reply = typeof ack === "function" ? ack : undefined;
+      try {
+        const token = typeof payload?.token === "string" ? payload.token : "";
+        const claims = verifyAccessToken<{ sub: string; did?: string }>(token);
+        const did = typeof claims.did === "string" ? claims.did.trim() : "";
+        if (claims.sub !== userId || (did && socket.data.deviceId && did !== socket.data.deviceId)) {
+          logger.warn({ userId, tokenSub: claims.sub }, "auth:refresh with a token for another identity");
+          reply?.({ ok: false });
+          return;
+        }
+        const blocked = await accountBlockReason(userId);
+        if (blocked) {
+          logger.info({ userId, reason: blocked }, "auth:refresh from a blocked account");
+          reply?.({ ok: false });
+          socket.disconnect(true);
+          return;
+        }
+        reply?.({ ok: true });
+      } catch {
+        reply?.({ ok: false });
+      }
+    });
+
+    // Missed-event resume: replay the compacted journal since the client's last seen seq,
+    // plus a fresh presence snapshot (presence:update is a broadcast and is not journalled).
+    socket.on("sync:resume", async (payload) => {
+      const lastSeq = Number((payload as any)?.lastSeq ?? 0);
+      try {
+        const catchUp = await readUserEventsSince(userId, lastSeq);
+        const presence = catchUp.reset || lastSeq <= 0 ? [] : await loadPeerPresenceSnapshot(io, userId);
+        socket.emit("sync:batch", { ...catchUp, presence });
+      } catch (error) {
+        logger.warn({ error, userId, lastSeq }, "Failed to handle sync:resume");
+        socket.emit("sync:batch", { seq: 0, reset: true, events: [], presence: [] });
+      }
+    });
+
     socket.on("conversation:join", async (conversationId) => {
       const membership = await prisma.conversationParticipant.findFirst({
         where: { userId, conversationId },
@@ -1671,7 +1771,7 @@ export async function initSocket(
       })();
     });
 
-    socket.on("secret:chat:accept", async ({ conversationId, deviceId }) => {
+    socket.on("secret:chat:accept", withClientAck(async ({ conversationId, deviceId }) => {
       try {
         const conv = await prisma.conversation.findUnique({
           where: { id: conversationId },
@@ -1700,11 +1800,11 @@ export async function initSocket(
         });
         const participantIds = updated.participants.map((p) => p.userId);
         for (const pid of participantIds) {
-          io.to(userRoom(pid)).emit("secret:chat:accepted", {
+          void emitToUser(pid, "secret:chat:accepted", {
             conversationId,
             peerDeviceId: deviceId,
           });
-          io.to(userRoom(pid)).emit("conversations:updated", {
+          void emitToUser(pid, "conversations:updated", {
             conversationId,
             conversation: updated,
           });
@@ -1712,9 +1812,9 @@ export async function initSocket(
       } catch (error) {
         logger.error({ error, conversationId, userId }, "Failed to accept secret chat");
       }
-    });
+    }));
 
-    socket.on("secret:chat:decline", async ({ conversationId }) => {
+    socket.on("secret:chat:decline", withClientAck(async ({ conversationId }) => {
       try {
         const conv = await prisma.conversation.findUnique({
           where: { id: conversationId },
@@ -1734,14 +1834,14 @@ export async function initSocket(
 
         const recipients = conv.participants.map((p) => p.userId);
         for (const rid of recipients) {
-          io.to(userRoom(rid)).emit("conversations:deleted", { conversationId });
+          void emitToUser(rid, "conversations:deleted", { conversationId });
         }
       } catch (error) {
         logger.error({ error, conversationId, userId }, "Failed to decline secret chat");
       }
-    });
+    }));
 
-    socket.on("secret:chat:offer", async ({ conversationId }) => {
+    socket.on("secret:chat:offer", withClientAck(async ({ conversationId }) => {
       try {
         const conv = await prisma.conversation.findUnique({
           where: { id: conversationId },
@@ -1772,19 +1872,19 @@ export async function initSocket(
           select: { displayName: true, username: true },
         });
         const name = caller?.displayName ?? caller?.username ?? "пользователь";
-        io.to(userRoom(recipient.userId)).emit("secret:chat:offer", {
+        void emitToUser(recipient.userId, "secret:chat:offer", {
           conversationId,
           from: { id: userId, name, deviceId: (conv as any).secretInitiatorDeviceId ?? null },
         });
       } catch (error) {
         logger.error({ error, conversationId, userId }, "Failed to handle secret:chat:offer");
       }
-    });
+    }));
 
     // emit receipts updates to conversation room when someone marks messages as read
     // We hook into Prisma write in API route, but as a fallback we can expose an event here if needed later
 
-    socket.on("call:invite", async ({ conversationId, video }) => {
+    socket.on("call:invite", withClientAck(async ({ conversationId, video }) => {
       const conv = await prisma.conversation.findUnique({
         where: { id: conversationId },
         include: { participants: true },
@@ -1815,8 +1915,10 @@ export async function initSocket(
       const recipients = conv.participants
         .map((p) => p.userId)
         .filter((id) => id !== userId);
-      const caller = await prisma.user.findUnique({ where: { id: userId }, select: { displayName: true, username: true } });
+      // avatarUrl lets native clients prefetch the caller avatar while the ringing UI starts
+      const caller = await prisma.user.findUnique({ where: { id: userId }, select: { displayName: true, username: true, avatarUrl: true } });
       const name = caller?.displayName ?? caller?.username ?? "пользователь";
+      const avatarUrl = caller?.avatarUrl ?? null;
       const isGroup = !!conv.isGroup;
 
       // Убеждаемся, что сокет присоединен к комнате беседы для получения событий
@@ -1835,9 +1937,9 @@ export async function initSocket(
             // Same user re-emitted invite (e.g., reconnect / duplicate emit
             // after socket bounce). Idempotently re-deliver call:incoming
             // to peer(s) so they can re-show the modal if they missed it.
-            const incomingPayload = { conversationId, from: { id: userId, name }, video: existingState.video };
+            const incomingPayload = { conversationId, from: { id: userId, name, avatarUrl }, video: existingState.video };
             for (const rid of recipients) {
-              io.to(userRoom(rid)).emit("call:incoming", incomingPayload);
+              void emitToUser(rid, "call:incoming", incomingPayload);
             }
             logger.info({ conversationId, userId }, "1:1 call:invite re-emitted by same inviter, re-delivered call:incoming");
             return;
@@ -1848,17 +1950,17 @@ export async function initSocket(
           try {
             const existingInviter = await prisma.user.findUnique({
               where: { id: existingState.inviterId },
-              select: { displayName: true, username: true },
+              select: { displayName: true, username: true, avatarUrl: true },
             });
             const inviterName = existingInviter?.displayName ?? existingInviter?.username ?? "пользователь";
-            io.to(userRoom(userId)).emit("call:incoming", {
+            void emitToUser(userId, "call:incoming", {
               conversationId,
-              from: { id: existingState.inviterId, name: inviterName },
+              from: { id: existingState.inviterId, name: inviterName, avatarUrl: existingInviter?.avatarUrl ?? null },
               video: existingState.video,
             });
             // Inform the original inviter that the peer was simultaneously
             // dialing too. Purely informational; their dialing UI continues.
-            io.to(userRoom(existingState.inviterId)).emit("call:glare", {
+            void emitToUser(existingState.inviterId, "call:glare", {
               conversationId,
               with: { id: userId },
             });
@@ -1934,7 +2036,7 @@ export async function initSocket(
           });
           // Также отправляем message:notify для каждого участника отдельно (кроме отправителя)
           for (const rid of recipients) {
-            io.to(userRoom(rid)).emit("message:notify", {
+            void emitToUser(rid, "message:notify", {
               conversationId,
               messageId: msg.id,
               senderId: userId,
@@ -1953,9 +2055,9 @@ export async function initSocket(
       // Для 1:1 звонков отправляем событие входящего звонка получателям
       // Для групповых звонков это не нужно, так как они видят активный звонок через call:status
       if (!isGroup) {
-        const incomingPayload = { conversationId, from: { id: userId, name }, video };
+        const incomingPayload = { conversationId, from: { id: userId, name, avatarUrl }, video };
         for (const rid of recipients) {
-          io.to(userRoom(rid)).emit("call:incoming", incomingPayload);
+          void emitToUser(rid, "call:incoming", incomingPayload);
         }
         // Server-side no-answer backstop so an un-accepted call can't ring/live forever.
         scheduleCallRingTimeout(conversationId, userId);
@@ -1965,9 +2067,9 @@ export async function initSocket(
         syncGroupAloneTimer(conversationId);
         broadcastCallStatus(conversationId);
       }
-    });
+    }));
 
-    socket.on("call:accept", async ({ conversationId, video }) => {
+    socket.on("call:accept", withClientAck(async ({ conversationId, video }) => {
       const conv = await prisma.conversation.findUnique({
         where: { id: conversationId },
         include: { participants: true },
@@ -2028,14 +2130,14 @@ export async function initSocket(
       }
       // Отправляем call:accepted получателям звонка
       for (const rid of recipients) {
-        io.to(userRoom(rid)).emit("call:accepted", { conversationId, by: { id: userId }, video });
+        void emitToUser(rid, "call:accepted", { conversationId, by: { id: userId }, video });
       }
       // Также отправляем call:accepted самому пользователю на другие его устройства
       // Это нужно, чтобы прекратить входящий звонок на других устройствах
-      socket.to(userRoom(userId)).emit("call:accepted", { conversationId, by: { id: userId }, video });
-    });
+      void emitToUser(userId, "call:accepted", { conversationId, by: { id: userId }, video }, { exceptSocketId: socket.id });
+    }));
 
-    socket.on("call:decline", async ({ conversationId }) => {
+    socket.on("call:decline", withClientAck(async ({ conversationId }) => {
       const conv = await prisma.conversation.findUnique({
         where: { id: conversationId },
         include: { participants: true },
@@ -2058,11 +2160,11 @@ export async function initSocket(
       }
 
       for (const rid of recipients) {
-        io.to(userRoom(rid)).emit("call:declined", { conversationId, by: { id: userId } });
+        void emitToUser(rid, "call:declined", { conversationId, by: { id: userId } });
       }
       // Also dismiss the ringing UI on the decliner's OWN other devices so a second
       // device does not keep ringing until its local auto-decline timeout.
-      socket.to(userRoom(userId)).emit("call:declined", { conversationId, by: { id: userId } });
+      void emitToUser(userId, "call:declined", { conversationId, by: { id: userId } }, { exceptSocketId: socket.id });
       if (isGroup) {
         await finishGroupCall(conversationId, st?.inviterId ?? userId, "decline");
         return;
@@ -2104,9 +2206,9 @@ export async function initSocket(
           logger.warn({ error }, "Failed to create missed call message");
         }
       }
-    });
+    }));
 
-    socket.on("call:end", async ({ conversationId }) => {
+    socket.on("call:end", withClientAck(async ({ conversationId }) => {
       const conv = await prisma.conversation.findUnique({
         where: { id: conversationId },
         include: { participants: true },
@@ -2120,10 +2222,10 @@ export async function initSocket(
       const isGroup = !!conv.isGroup;
       if (!isGroup) {
         for (const rid of recipients) {
-          io.to(userRoom(rid)).emit("call:ended", { conversationId, by: { id: userId } });
+          void emitToUser(rid, "call:ended", { conversationId, by: { id: userId } });
         }
         // Also stop any ringing/overlay on the ender's OWN other devices.
-        socket.to(userRoom(userId)).emit("call:ended", { conversationId, by: { id: userId } });
+        void emitToUser(userId, "call:ended", { conversationId, by: { id: userId } }, { exceptSocketId: socket.id });
       }
       const st = callState.get(conversationId);
       const callInfo = activeGroupCalls.get(conversationId);
@@ -2207,7 +2309,7 @@ export async function initSocket(
             message: msg,
           });
           for (const rid of recipients) {
-            io.to(userRoom(rid)).emit("message:notify", {
+            void emitToUser(rid, "message:notify", {
               conversationId,
               messageId: msg.id,
               senderId: userId,
@@ -2222,9 +2324,9 @@ export async function initSocket(
       // и запись о звонке уже создана им — здесь ничего не пишем, чтобы не задваивать.
 
       broadcastCallStatus(conversationId);
-    });
+    }));
 
-    socket.on("call:room:join", async ({ conversationId, video }) => {
+    socket.on("call:room:join", withClientAck(async ({ conversationId, video }) => {
       const conv = await prisma.conversation.findUnique({
         where: { id: conversationId },
         include: { participants: true },
@@ -2293,7 +2395,7 @@ export async function initSocket(
               // Также отправляем message:notify для всех участников (кроме отправителя)
               for (const p of conv.participants) {
                 if (p.userId !== userId) {
-                  io.to(userRoom(p.userId)).emit("message:notify", { conversationId, messageId: msg.id, senderId: userId });
+                  void emitToUser(p.userId, "message:notify", { conversationId, messageId: msg.id, senderId: userId });
                 }
               }
               logger.info({ conversationId, userId, video: callVideo, messageId: msg.id }, "Call started message created in call:room:join (no callState)");
@@ -2329,9 +2431,9 @@ export async function initSocket(
       }
       // Update global presence (IN_CALL override) for joining user
       void emitEffectivePresence(io, userId);
-    });
+    }));
 
-    socket.on("call:room:leave", async ({ conversationId }) => {
+    socket.on("call:room:leave", withClientAck(async ({ conversationId }) => {
       await leaveSocketCallPresence(socket as unknown as CallPresenceSocket, conversationId);
       const groupInfo = activeGroupCalls.get(conversationId);
       const directInfo = activeDirectCalls.get(conversationId);
@@ -2371,7 +2473,7 @@ export async function initSocket(
             if (conv) {
               for (const p of conv.participants) {
                 if (p.userId !== userId) {
-                  io.to(userRoom(p.userId)).emit("call:ended", { conversationId, by: { id: userId } });
+                  void emitToUser(p.userId, "call:ended", { conversationId, by: { id: userId } });
                 }
               }
             }
@@ -2395,7 +2497,7 @@ export async function initSocket(
 
       // Update global presence for leaving user
       void emitEffectivePresence(io, userId);
-    });
+    }));
 
     socket.on("call:status:request", async ({ conversationIds }) => {
       if (!Array.isArray(conversationIds) || conversationIds.length === 0) return;
@@ -2504,6 +2606,92 @@ export function getIO() {
   return ioInstance;
 }
 
+// Longest a user-room emit waits for its journal seq; a Redis stall must not delay delivery.
+const USER_EVENT_SEQ_WAIT_MS = 20;
+
+/**
+ * Emits to `user:<id>` and journals the event with the user's next sequence number, so a
+ * reconnecting client can replay what it missed via `sync:resume`. Every journaled event is
+ * delivered with its `seq`. The journal write is a single round trip, and delivery waits for it
+ * at most USER_EVENT_SEQ_WAIT_MS. Past that, or when the write fails, the event goes out without
+ * `seq` and its entry is retracted once the write lands, so a resume across it resets.
+ * `exceptSocketId` skips the acting socket when the event is echoed to the user's own devices;
+ * the journal still gets it, so those devices see it on resume too.
+ */
+export async function emitToUser<E extends keyof ServerToClientEvents>(
+  userId: string,
+  event: E,
+  payload: Parameters<ServerToClientEvents[E]>[0],
+  opts?: { exceptSocketId?: string }
+): Promise<void> {
+  const io = ioInstance;
+  if (!io) return;
+  const journaled = appendUserEvent(userId, event, payload).catch((error) => {
+    logger.warn({ error, userId, event }, "Failed to journal user event");
+    return null;
+  });
+  const seq = await withinMs(journaled, USER_EVENT_SEQ_WAIT_MS);
+  if (seq === null) {
+    void journaled.then(async (lateSeq) => {
+      if (lateSeq === null) return;
+      try {
+        await retractUserEvent(userId, lateSeq);
+      } catch (error) {
+        logger.warn({ error, userId, event, seq: lateSeq }, "Failed to retract late journal entry");
+      }
+    });
+  }
+  const data = seq === null ? payload : { ...(payload as object), seq };
+  const target = opts?.exceptSocketId ? io.to(userRoom(userId)).except(opts.exceptSocketId) : io.to(userRoom(userId));
+  (target as any).emit(event, data);
+}
+
+async function withinMs<T>(promise: Promise<T | null>, ms: number): Promise<T | null> {
+  let timer: NodeJS.Timeout | undefined;
+  const timeout = new Promise<null>((resolve) => {
+    timer = setTimeout(() => resolve(null), ms);
+  });
+  try {
+    return await Promise.race([promise, timeout]);
+  } finally {
+    clearTimeout(timer);
+  }
+}
+
+/**
+ * "ACCOUNT_DELETED"/"ACCOUNT_BANNED" when the user may no longer hold a socket, else null.
+ * Best-effort: if Prisma fails the token check alone decides.
+ */
+async function accountBlockReason(userId: string): Promise<"ACCOUNT_DELETED" | "ACCOUNT_BANNED" | null> {
+  try {
+    const u = await prisma.user.findUnique({
+      where: { id: userId },
+      select: { bannedAt: true, deletedAt: true },
+    });
+    if (u?.deletedAt) return "ACCOUNT_DELETED";
+    if (u?.bannedAt) return "ACCOUNT_BANNED";
+  } catch {
+    // fall through
+  }
+  return null;
+}
+
+async function loadPeerPresenceSnapshot(io: Server, userId: string): Promise<{ userId: string; status: string }[]> {
+  const peers = await prisma.conversationParticipant.findMany({
+    where: { userId: { not: userId }, conversation: { participants: { some: { userId } } } },
+    select: { userId: true },
+    distinct: ["userId"],
+    take: PRESENCE_SNAPSHOT_MAX_PEERS,
+  });
+  return Promise.all(
+    peers.map(async ({ userId: peerId }) => {
+      const agg = await computePresenceStatusFromRedis(peerId);
+      const status = agg ? await computeBroadcastPresence(io, peerId, agg.status) : "OFFLINE";
+      return { userId: peerId, status };
+    })
+  );
+}
+
 export function kickDevice(deviceId: string, opts?: { reason?: string }) {
   const id = String(deviceId || "").trim();
   if (!id) return;
@@ -2525,6 +2713,8 @@ export function kickDevice(deviceId: string, opts?: { reason?: string }) {
  * Force-disconnect every socket of a user across all instances (Redis adapter
  * propagates disconnectSockets). Used by the admin panel for ban/delete to
  * make sure the user can't keep transmitting on a still-open socket.
+ * device:revoked bypasses emitToUser on purpose: the sockets are dropped right
+ * after it and the handshake rejects the user, so there is no session to resume.
  */
 export function kickUser(userId: string, opts?: { reason?: string }) {
   const id = String(userId || "").trim();
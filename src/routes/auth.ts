@@ -25,10 +25,9 @@ import {
 } from "../lib/registrationInvites";
 import { authenticate } from "../middlewares/auth";
 import { rateLimit } from "../middlewares/rateLimit";
-import { getIO } from "../realtime/socket";
+import { emitToUser } from "../realtime/socket";
 
 const router = Router();
-const userRoom = (userId: string) => `user:${userId}`;
 
 const registerSchema = z.object({
   username: z.string().min(3).max(30),
@@ -221,11 +220,10 @@ router.post(
       deviceId: getRequestDeviceId(req),
     });
 
-    const io = getIO();
-    io?.to(userRoom(inviterId)).emit("contacts:request:accepted", { contactId: created.contactId });
-    io?.to(userRoom(created.user.id)).emit("contacts:request:accepted", { contactId: created.contactId });
-    io?.to(userRoom(inviterId)).emit("conversations:new", { conversationId: created.conversationId });
-    io?.to(userRoom(created.user.id)).emit("conversations:new", { conversationId: created.conversationId });
+    void emitToUser(inviterId, "contacts:request:accepted", { contactId: created.contactId });
+    void emitToUser(created.user.id, "contacts:request:accepted", { contactId: created.contactId });
+    void emitToUser(inviterId, "conversations:new", { conversationId: created.conversationId });
+    void emitToUser(created.user.id, "conversations:new", { conversationId: created.conversationId });
 
     setRefreshCookie(res, issuedSession.refreshToken, issuedSession.refreshMaxAgeMs);
     respondWithSession(res, {
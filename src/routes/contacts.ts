@@ -2,10 +2,9 @@ import { Router } from "express";
 import { z } from "zod";
 import prisma from "../lib/prisma";
 import { authenticate } from "../middlewares/auth";
-import { getIO } from "../realtime/socket";
+import { emitToUser } from "../realtime/socket";
 
 const router = Router();
-const userRoom = (userId: string) => `user:${userId}`;
 
 router.use(authenticate);
 
@@ -130,7 +129,7 @@ router.post("/add", async (req, res) => {
   });
 
   // notify addressee
-  getIO()?.to(userRoom(target.id)).emit("contacts:request:new", {
+  void emitToUser(target.id, "contacts:request:new", {
     contactId: contact.id,
     from: { id: (req as any).user!.id, username: (req as any).user!.username },
   });
@@ -170,18 +169,16 @@ router.post("/respond", async (req, res) => {
     const requesterId = contact.requesterId;
     const friend = contact.addressee; // для инициатора запроса "друг" — тот, кто отклонил (addressee)
     await prisma.contact.delete({ where: { id: contactId } });
-    getIO()
-      ?.to(userRoom(requesterId))
-      .emit("contacts:request:rejected", {
-        contactId,
-        ...(friend && { friend: { id: friend.id, username: friend.username, displayName: friend.displayName } }),
-      });
+    void emitToUser(requesterId, "contacts:request:rejected", {
+      contactId,
+      ...(friend && { friend: { id: friend.id, username: friend.username, displayName: friend.displayName } }),
+    });
     res.status(204).send();
     return;
   }
   if (action === "block") {
     const updated = await prisma.contact.update({ where: { id: contactId }, data: { status: "BLOCKED" } });
-    getIO()?.to(userRoom(contact.requesterId)).emit("contacts:request:blocked", { contactId });
+    void emitToUser(contact.requesterId, "contacts:request:blocked", { contactId });
     res.json({ contact: updated });
     return;
   }
@@ -205,10 +202,10 @@ router.post("/respond", async (req, res) => {
         participants: { create: [{ userId: contact.requesterId }, { userId: contact.addresseeId }] },
       },
     });
-    getIO()?.to(userRoom(contact.requesterId)).emit("conversations:new", { conversationId: conv.id });
-    getIO()?.to(userRoom(contact.addresseeId)).emit("conversations:new", { conversationId: conv.id });
+    void emitToUser(contact.requesterId, "conversations:new", { conversationId: conv.id });
+    void emitToUser(contact.addresseeId, "conversations:new", { conversationId: conv.id });
   }
-  getIO()?.to(userRoom(contact.requesterId)).emit("contacts:request:accepted", { contactId });
+  void emitToUser(contact.requesterId, "contacts:request:accepted", { contactId });
   res.json({ contact: updated });
 });
 
@@ -261,8 +258,8 @@ router.post("/remove", async (req, res) => {
 
   await prisma.contact.delete({ where: { id: contactId } });
   // notify both sides
-  getIO()?.to(userRoom(contact.requesterId)).emit("contacts:removed", { contactId });
-  getIO()?.to(userRoom(contact.addresseeId)).emit("contacts:removed", { contactId });
+  void emitToUser(contact.requesterId, "contacts:removed", { contactId });
+  void emitToUser(contact.addresseeId, "contacts:removed", { contactId });
   res.json({ success: true });
 });
 
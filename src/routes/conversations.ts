@@ -4,7 +4,7 @@ import prisma from "../lib/prisma";
 import { Prisma } from "@prisma/client";
 import { deleteS3ObjectsByUrls } from "../lib/storageDeletion";
 import { authenticate } from "../middlewares/auth";
-import { getIO } from "../realtime/socket";
+import { emitToUser, getIO } from "../realtime/socket";
 import env from "../config/env";
 import logger from "../config/logger";
 import { extractFirstUrl } from "../lib/linkPreview";
@@ -45,7 +45,6 @@ function normalizeForwardSendMetadata(
 }
 
 const router = Router();
-const userRoom = (userId: string) => `user:${userId}`;
 
 const messageReactionsWithUser = {
   include: { user: { select: { id: true, username: true, displayName: true } } },
@@ -208,7 +207,7 @@ router.put("/:id/availability/me", async (req, res) => {
     });
     const participantIds = conv?.participants.map((p) => p.userId) ?? [];
     for (const pid of participantIds) {
-      io?.to(userRoom(pid)).emit("availability:updated", { conversationId: id, userId });
+      void emitToUser(pid, "availability:updated", { conversationId: id, userId });
     }
   } catch {}
 
@@ -316,7 +315,7 @@ router.post("/:id/availability/proposals", async (req, res) => {
     const conv = await prisma.conversation.findUnique({ where: { id }, include: { participants: true } });
     const participantIds = conv?.participants.map((p) => p.userId) ?? [];
     for (const pid of participantIds) {
-      io?.to(userRoom(pid)).emit("availability:proposals:updated", { conversationId: id, proposalId: created.id });
+      void emitToUser(pid, "availability:proposals:updated", { conversationId: id, proposalId: created.id });
     }
 
     res.status(201).json({
@@ -373,7 +372,7 @@ router.delete("/:id/availability/proposals/:proposalId", async (req, res) => {
 
     const io = getIO();
     io?.to(id).emit("availability:proposals:updated", { conversationId: id, proposalId });
-    io?.to(userRoom(userId)).emit("availability:proposals:updated", { conversationId: id, proposalId });
+    void emitToUser(userId, "availability:proposals:updated", { conversationId: id, proposalId });
     res.json({ success: true });
   } catch (err) {
     if (handleAvailabilityDbError(res, err)) return;
@@ -427,7 +426,7 @@ router.put("/:id/availability/proposals/:proposalId/reaction", async (req, res)
     const conv = await prisma.conversation.findUnique({ where: { id }, include: { participants: true } });
     const participantIds = conv?.participants.map((p) => p.userId) ?? [];
     for (const pid of participantIds) {
-      io?.to(userRoom(pid)).emit("availability:proposals:updated", { conversationId: id, proposalId });
+      void emitToUser(pid, "availability:proposals:updated", { conversationId: id, proposalId });
     }
 
     res.json({ success: true });
@@ -552,7 +551,6 @@ router.post("/", async (req, res) => {
 
   if (existing) {
     if (isSecret && (existing as any).secretStatus === "PENDING") {
-      const io = getIO();
       const recipient = existing.participants.find((p: any) => p.userId !== userId);
       if (recipient) {
         const offerDeviceId = (existing as any).secretInitiatorDeviceId ?? initiatorDevice?.id ?? null;
@@ -562,7 +560,7 @@ router.post("/", async (req, res) => {
             select: { displayName: true, username: true },
           });
           const name = initiatorUser?.displayName ?? initiatorUser?.username ?? "пользователь";
-          io?.to(userRoom(recipient.userId)).emit("secret:chat:offer", {
+          void emitToUser(recipient.userId, "secret:chat:offer", {
             conversationId: existing.id,
             from: { id: userId, name, deviceId: offerDeviceId },
           });
@@ -619,9 +617,8 @@ router.post("/", async (req, res) => {
   });
 
   // Notify all participants about the new conversation
-  const io = getIO();
   for (const pid of uniqueParticipantIds) {
-    io?.to(userRoom(pid)).emit("conversations:new", { conversationId: conversation.id });
+    void emitToUser(pid, "conversations:new", { conversationId: conversation.id });
   }
 
   if (isSecret && initiatorDevice) {
@@ -632,7 +629,7 @@ router.post("/", async (req, res) => {
         select: { displayName: true, username: true },
       });
       const name = initiatorUser?.displayName ?? initiatorUser?.username ?? "пользователь";
-      io?.to(userRoom(recipient.userId)).emit("secret:chat:offer", {
+      void emitToUser(recipient.userId, "secret:chat:offer", {
         conversationId: conversation.id,
         from: { id: userId, name, deviceId: initiatorDevice.id },
       });
@@ -745,7 +742,7 @@ router.post("/:id/participants", async (req, res) => {
       const allParticipants = updated?.participants.map((p) => p.userId) ?? [];
       for (const pid of allParticipants) {
         if (pid !== userId) {
-          io?.to(userRoom(pid)).emit("message:notify", { conversationId: id, messageId: systemMessage.id, senderId: userId });
+          void emitToUser(pid, "message:notify", { conversationId: id, messageId: systemMessage.id, senderId: userId });
         }
       }
     } catch (error) {
@@ -755,14 +752,13 @@ router.post("/:id/participants", async (req, res) => {
   }
 
   // Notify new participants
-  const io = getIO();
   for (const pid of newIds) {
-    io?.to(userRoom(pid)).emit("conversations:new", { conversationId: id });
+    void emitToUser(pid, "conversations:new", { conversationId: id });
   }
   // Notify existing participants
   for (const p of conv.participants) {
     if (p.userId !== userId) {
-      io?.to(userRoom(p.userId)).emit("conversations:updated", { conversationId: id, conversation: updated });
+      void emitToUser(p.userId, "conversations:updated", { conversationId: id, conversation: updated });
     }
   }
 
@@ -871,7 +867,7 @@ router.delete("/:id/participants/me", async (req, res) => {
     const allParticipants = conv.participants.map((p) => p.userId);
     for (const pid of allParticipants) {
       if (pid !== userId) {
-        io?.to(userRoom(pid)).emit("message:notify", { conversationId: id, messageId: systemMessage.id, senderId: userId });
+        void emitToUser(pid, "message:notify", { conversationId: id, messageId: systemMessage.id, senderId: userId });
       }
     }
   } catch (error) {
@@ -888,13 +884,12 @@ router.delete("/:id/participants/me", async (req, res) => {
   });
 
   // Уведомляем остальных участников об обновлении беседы
-  const io = getIO();
   const remainingParticipants = conv.participants.filter((p) => p.userId !== userId);
   for (const p of remainingParticipants) {
-    io?.to(userRoom(p.userId)).emit("conversations:updated", { conversationId: id });
+    void emitToUser(p.userId, "conversations:updated", { conversationId: id });
   }
   // Уведомляем текущего пользователя об удалении (чтобы беседа исчезла из списка)
-  io?.to(userRoom(userId)).emit("conversations:deleted", { conversationId: id });
+  void emitToUser(userId, "conversations:deleted", { conversationId: id });
 
   res.json({ success: true });
 });
@@ -935,8 +930,7 @@ router.delete("/:id", async (req, res) => {
 
   // Notify participants
   const recipients = conv.participants.map((p) => p.userId);
-  const io = getIO();
-  for (const rid of recipients) io?.to(userRoom(rid)).emit("conversations:deleted", { conversationId: id });
+  for (const rid of recipients) void emitToUser(rid, "conversations:deleted", { conversationId: id });
 
   res.json({ success: true });
 });
@@ -1283,7 +1277,7 @@ router.post(
 
   for (const rid of recipients) {
     if (rid !== userId) {
-      io?.to(userRoom(rid)).emit("message:notify", {
+      void emitToUser(rid, "message:notify", {
         conversationId,
         messageId: message.id,
         senderId: userId,
@@ -131,6 +131,49 @@ router.get(
   }
 );
 
+// Single message by id: lets realtime clients resolve `message:new` without re-reading the timeline.
+router.get("/:messageId", async (req, res) => {
+  const parsedParams = previewParamsSchema.safeParse(req.params);
+  if (!parsedParams.success) {
+    res.status(400).json({ message: "Invalid message id" });
+    return;
+  }
+
+  const { messageId } = parsedParams.data;
+  const userId = (req as AuthedRequest).user!.id;
+  const now = new Date();
+
+  const message = await prisma.message.findFirst({
+    where: {
+      id: messageId,
+      OR: [{ expiresAt: null }, { expiresAt: { gt: now } }],
+    },
+    include: {
+      sender: { select: { id: true, username: true, displayName: true } },
+      attachments: true,
+      reactions: messageReactionsWithUser,
+      receipts: true,
+      replyTo: { select: { id: true, content: true, senderId: true, createdAt: true } },
+    },
+  });
+
+  if (!message) {
+    res.status(404).json({ message: "Message not found" });
+    return;
+  }
+
+  const participantCount = await prisma.conversationParticipant.count({
+    where: { conversationId: message.conversationId, userId },
+  });
+
+  if (participantCount === 0) {
+    res.status(403).json({ message: "Forbidden" });
+    return;
+  }
+
+  res.json({ message });
+});
+
 const updateStatusSchema = z.object({
   messageIds: z.array(z.string().cuid()).min(1),
   status: z.enum(["DELIVERED", "READ", "SEEN"]),
@@ -456,6 +456,7 @@ router.post("/messages/push", rateLimit({ name: "secret_messages_push", windowMs
   // User-room fallback wake: a socket that missed its device-room join (connected before
   // device bootstrap or a token without the did claim) would otherwise learn about the
   // message only from the recipient's slow history poll. No ciphertext in the payload.
+  // Not journaled: the inbox is the durable record, and a reconnecting device pulls it anyway.
   for (const uid of participantUserIds) {
     io?.to(`user:${uid}`).emit("secret:notify", { msgId: parsed.data.msgId, threadId } as any);
   }
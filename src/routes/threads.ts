@@ -2,13 +2,12 @@ import { Router, type Request } from "express";
 import { z } from "zod";
 import prisma from "../lib/prisma";
 import { authenticate } from "../middlewares/auth";
-import { getIO } from "../realtime/socket";
+import { emitToUser } from "../realtime/socket";
 
 const router = Router();
 router.use(authenticate);
 
 type AuthedRequest = Request & { user?: { id: string }; deviceId?: string };
-const userRoom = (userId: string) => `user:${userId}`;
 
 // Conversation shape emitted to clients (matches the create include below).
 const conversationInclude = {
@@ -119,10 +118,9 @@ router.post("/secret", async (req, res) => {
 
   // Notify all devices of both users — the peer's devices render the invite from the PENDING row.
   try {
-    const io = getIO();
     for (const rid of [userId, peerUserId]) {
-      io?.to(userRoom(rid)).emit("conversations:new", { conversationId: result.thread.id });
-      io?.to(userRoom(rid)).emit("secret:thread:created", {
+      void emitToUser(rid, "conversations:new", { conversationId: result.thread.id });
+      void emitToUser(rid, "secret:thread:created", {
         threadId: result.thread.id,
         type: "SECRET",
       });
@@ -189,11 +187,10 @@ router.post("/secret/:id/accept", async (req, res) => {
   });
 
   try {
-    const io = getIO();
     const participantIds = (conv as any).participants.map((p: any) => p.userId);
     for (const rid of participantIds) {
-      io?.to(userRoom(rid)).emit("secret:chat:accepted", { conversationId, peerDeviceId: deviceId });
-      io?.to(userRoom(rid)).emit("conversations:updated", { conversationId, conversation: updated });
+      void emitToUser(rid, "secret:chat:accepted", { conversationId, peerDeviceId: deviceId });
+      void emitToUser(rid, "conversations:updated", { conversationId, conversation: updated });
     }
   } catch {}
 
@@ -234,9 +231,8 @@ router.post("/secret/:id/decline", async (req, res) => {
   });
 
   try {
-    const io = getIO();
     for (const rid of participantIds) {
-      io?.to(userRoom(rid)).emit("conversations:deleted", { conversationId });
+      void emitToUser(rid, "conversations:deleted", { conversationId });
     }
   } catch {}
 
@@ -7,6 +7,7 @@ import app from "../src/app";
 import prisma from "../src/lib/prisma";
 import { getRedisClient } from "../src/lib/redis";
 import { SECRET_INBOX_LIST_KEY_PREFIX, SECRET_MESSAGE_KEY_PREFIX } from "../src/lib/secretInbox";
+import { appendUserEvent, retractUserEvent } from "../src/realtime/eventLog";
 import { initSocket } from "../src/realtime/socket";
 import { signAccessToken } from "../src/utils/jwt";
 import env from "../src/config/env";
@@ -650,6 +651,243 @@ async function runSecretRelayTest(baseUrl: string) {
   socket.disconnect();
 }
 
+async function runMessageByIdTest(baseUrl: string) {
+  const roomId = `msg-by-id-${randomUUID()}`;
+  const alice = await createUser(`msgid_a_${Date.now()}`);
+  const bob = await createUser(`msgid_b_${Date.now()}`);
+  const outsider = await createUser(`msgid_x_${Date.now()}`);
+  await prisma.conversation.create({
+    data: {
+      id: roomId,
+      isGroup: false,
+      createdById: alice.id,
+      participants: {
+        create: [{ userId: alice.id }, { userId: bob.id }],
+      },
+    },
+  });
+  const message = await prisma.message.create({
+    data: { conversationId: roomId, senderId: alice.id, type: "TEXT", content: "hello" },
+  });
+
+  const bobToken = signAccessToken({ sub: bob.id, tokenId: `tok-${randomUUID()}` });
+  const outsiderToken = signAccessToken({ sub: outsider.id, tokenId: `tok-${randomUUID()}` });
+
+  const fetched = await apiJson<{ message: { id: string; conversationId: string; senderId: string } }>(
+    baseUrl,
+    `/api/messages/${message.id}`,
+    "GET",
+    undefined,
+    bobToken
+  );
+  assert.equal(fetched.message.id, message.id);
+  assert.equal(fetched.message.conversationId, roomId);
+  assert.equal(fetched.message.senderId, alice.id);
+
+  const forbidden = await apiRaw(baseUrl, `/api/messages/${message.id}`, "GET", undefined, outsiderToken);
+  assert.equal(forbidden.status, 403, "Non-members must not see the message");
+
+  await prisma.message.update({ where: { id: message.id }, data: { expiresAt: new Date(Date.now() - 1_000) } });
+  const expired = await apiRaw(baseUrl, `/api/messages/${message.id}`, "GET", undefined, bobToken);
+  assert.equal(expired.status, 404, "Expired messages must not be served");
+}
+
+type SyncBatch = {
+  seq: number;
+  reset: boolean;
+  events: { seq: number; event: string; payload: any }[];
+  presence: { userId: string; status: string }[];
+};
+
+async function resumeFrom(socket: ReturnType<typeof ioClient>, lastSeq: number): Promise<SyncBatch> {
+  const batchPromise = waitForSocketEvent<SyncBatch>(socket, "sync:batch");
+  socket.emit("sync:resume", { lastSeq });
+  return batchPromise;
+}
+
+async function runUserEventResumeTest(baseUrl: string) {
+  const roomId = `resume-${randomUUID()}`;
+  const alice = await createUser(`resume_a_${Date.now()}`);
+  const bob = await createUser(`resume_b_${Date.now()}`);
+  await prisma.conversation.create({
+    data: {
+      id: roomId,
+      isGroup: false,
+      createdById: alice.id,
+      participants: {
+        create: [{ userId: alice.id }, { userId: bob.id }],
+      },
+    },
+  });
+  const bobToken = signAccessToken({ sub: bob.id, tokenId: `tok-${randomUUID()}` });
+
+  const firstSocket = await connectAuthedSocket(baseUrl, bobToken);
+  let lastSeq = 0;
+  try {
+    const primed = await resumeFrom(firstSocket, 0);
+    assert.equal(primed.reset, false);
+    assert.equal(primed.events.length, 0, "A fresh client gets no replay");
+    lastSeq = primed.seq;
+  } finally {
+    firstSocket.disconnect();
+  }
+
+  // Events journalled while bob is offline.
+  await appendUserEvent(bob.id, "message:notify", { conversationId: roomId, messageId: "m1", senderId: alice.id });
+  await appendUserEvent(bob.id, "call:incoming", { conversationId: roomId, from: { id: alice.id, name: "alice" }, video: false });
+  await appendUserEvent(bob.id, "message:notify", {
+    conversationId: roomId,
+    messageId: "m2",
+    senderId: alice.id,
+    message: { id: "m2", content: "hello" },
+  });
+  await appendUserEvent(bob.id, "call:ended", { conversationId: roomId, by: { id: alice.id } });
+
+  const resumedSocket = await connectAuthedSocket(baseUrl, bobToken);
+  try {
+    const batch = await resumeFrom(resumedSocket, lastSeq);
+    assert.equal(batch.reset, false);
+    assert.equal(batch.seq, lastSeq + 4);
+    assert.deepEqual(
+      batch.events.map((e) => e.event),
+      ["message:notify", "message:notify", "call:ended"],
+      "The ring superseded by call:ended is compacted away"
+    );
+    assert.deepEqual(
+      batch.events.map((e) => e.payload.messageId ?? null),
+      ["m1", "m2", null]
+    );
+    assert.equal(batch.events[1].payload.message, undefined, "message:notify is journaled by id only");
+    assert.ok(batch.presence.some((p) => p.userId === alice.id), "Peers are included in the presence snapshot");
+
+    const upToDate = await resumeFrom(resumedSocket, batch.seq);
+    assert.equal(upToDate.reset, false);
+    assert.equal(upToDate.events.length, 0);
+
+    // A ring answered on another of bob's devices is settled: replaying it would ring again.
+    await appendUserEvent(bob.id, "call:incoming", { conversationId: roomId, from: { id: alice.id, name: "alice" }, video: false });
+    await appendUserEvent(bob.id, "call:accepted", { conversationId: roomId, by: { id: bob.id }, video: false });
+    const answered = await resumeFrom(resumedSocket, batch.seq);
+    assert.deepEqual(
+      answered.events.map((e) => e.event),
+      ["call:accepted"],
+      "A ring followed by the user's own accept is not replayed"
+    );
+
+    // An entry retracted after its event went out without seq leaves a hole: resuming across it resets.
+    await appendUserEvent(bob.id, "message:notify", { conversationId: roomId, messageId: "m3", senderId: alice.id });
+    const retracted = await appendUserEvent(bob.id, "message:notify", { conversationId: roomId, messageId: "m4", senderId: alice.id });
+    await appendUserEvent(bob.id, "message:notify", { conversationId: roomId, messageId: "m5", senderId: alice.id });
+    await retractUserEvent(bob.id, retracted);
+    const holed = await resumeFrom(resumedSocket, answered.seq);
+    assert.equal(holed.reset, true, "A hole in the middle of the gap forces a full refresh");
+    const pastHole = await resumeFrom(resumedSocket, retracted);
+    assert.equal(pastHole.reset, false);
+    assert.deepEqual(pastHole.events.map((e) => e.payload.messageId), ["m5"]);
+
+    const unknown = await resumeFrom(resumedSocket, pastHole.seq + 1_000);
+    assert.equal(unknown.reset, true, "A seq the server never issued forces a full refresh");
+  } finally {
+    resumedSocket.disconnect();
+  }
+}
+
+type ClientAckResult = { ok: boolean; duplicate?: boolean };
+
+async function runCallControlAckTest(baseUrl: string) {
+  const roomId = `ack-${randomUUID()}`;
+  const alice = await createUser(`ack_a_${Date.now()}`);
+  const bob = await createUser(`ack_b_${Date.now()}`);
+  await prisma.conversation.create({
+    data: {
+      id: roomId,
+      isGroup: false,
+      createdById: alice.id,
+      participants: {
+        create: [{ userId: alice.id }, { userId: bob.id }],
+      },
+    },
+  });
+  const aliceToken = signAccessToken({ sub: alice.id, tokenId: `tok-${randomUUID()}` });
+  const bobToken = signAccessToken({ sub: bob.id, tokenId: `tok-${randomUUID()}` });
+
+  const aliceSocket = await connectAuthedSocket(baseUrl, aliceToken);
+  const bobSocket = await connectAuthedSocket(baseUrl, bobToken);
+  let bobRetrySocket: ReturnType<typeof ioClient> | null = null;
+  try {
+    const incomingPromise = waitForSocketEvent<{ conversationId: string }>(bobSocket, "call:incoming");
+    const inviteAck: ClientAckResult = await aliceSocket
+      .timeout(4_000)
+      .emitWithAck("call:invite", { conversationId: roomId, video: false, opId: `op-${randomUUID()}` });
+    assert.deepEqual(inviteAck, { ok: true });
+    assert.equal((await incomingPromise).conversationId, roomId);
+
+    // The first delivery fails inside the handler: the retry with the same opId must be applied,
+    // not acknowledged as a duplicate of an op that never took effect.
+    const acceptOpId = `op-${randomUUID()}`;
+    const failedAck: ClientAckResult = await bobSocket
+      .timeout(4_000)
+      .emitWithAck("call:accept", { conversationId: 42, video: false, opId: acceptOpId });
+    assert.deepEqual(failedAck, { ok: false });
+
+    const acceptedPromise = waitForSocketEvent<{ conversationId: string; by: { id: string } }>(aliceSocket, "call:accepted");
+    const acceptAck: ClientAckResult = await bobSocket
+      .timeout(4_000)
+      .emitWithAck("call:accept", { conversationId: roomId, video: false, opId: acceptOpId });
+    assert.deepEqual(acceptAck, { ok: true }, "A retry after a failed op is applied");
+    assert.equal((await acceptedPromise).by.id, bob.id);
+
+    // The ack was lost and the client retries from a fresh socket: acked, not re-applied.
+    bobSocket.disconnect();
+    bobRetrySocket = await connectAuthedSocket(baseUrl, bobToken);
+    const noSecondAccept = expectNoSocketEvent(aliceSocket, "call:accepted");
+    const retryAck: ClientAckResult = await bobRetrySocket
+      .timeout(4_000)
+      .emitWithAck("call:accept", { conversationId: roomId, video: false, opId: acceptOpId });
+    assert.deepEqual(retryAck, { ok: true, duplicate: true });
+    await noSecondAccept;
+
+    // Plain emits without an ack still work; this also tears the call down.
+    aliceSocket.emit("call:end", { conversationId: roomId });
+  } finally {
+    aliceSocket.disconnect();
+    bobSocket.disconnect();
+    bobRetrySocket?.disconnect();
+  }
+}
+
+async function runSocketTokenHandoverTest(baseUrl: string) {
+  const alice = await createUser(`handover_a_${Date.now()}`);
+  const bob = await createUser(`handover_b_${Date.now()}`);
+  const socket = await connectAuthedSocket(baseUrl, signAccessToken({ sub: alice.id, tokenId: `tok-${randomUUID()}` }));
+  try {
+    const renewed: ClientAckResult = await socket
+      .timeout(4_000)
+      .emitWithAck("auth:refresh", { token: signAccessToken({ sub: alice.id, tokenId: `tok-${randomUUID()}` }) });
+    assert.deepEqual(renewed, { ok: true });
+
+    const foreign: ClientAckResult = await socket
+      .timeout(4_000)
+      .emitWithAck("auth:refresh", { token: signAccessToken({ sub: bob.id, tokenId: `tok-${randomUUID()}` }) });
+    assert.deepEqual(foreign, { ok: false }, "A token for another user is not swapped into a live socket");
+
+    const garbage: ClientAckResult = await socket.timeout(4_000).emitWithAck("auth:refresh", { token: "not-a-jwt" });
+    assert.deepEqual(garbage, { ok: false });
+    assert.equal(socket.connected, true, "A rejected handover does not drop the connection");
+
+    // Banned while connected: the next renewal is refused and the socket is dropped.
+    await prisma.user.update({ where: { id: alice.id }, data: { bannedAt: new Date() } });
+    const disconnected = waitForSocketEvent<string>(socket, "disconnect");
+    const banned: ClientAckResult = await socket
+      .timeout(4_000)
+      .emitWithAck("auth:refresh", { token: signAccessToken({ sub: alice.id, tokenId: `tok-${randomUUID()}` }) });
+    assert.deepEqual(banned, { ok: false });
+    await disconnected;
+  } finally {
+    socket.disconnect();
+  }
+}
+
 async function main() {
   const { baseUrl, server } = await startServer();
   try {
@@ -659,6 +897,10 @@ async function main() {
     await runGroupSingleParticipantStatusTest(baseUrl);
     await runConcurrentPrekeyClaimTest(baseUrl);
     await runSecretRelayTest(baseUrl);
+    await runMessageByIdTest(baseUrl);
+    await runUserEventResumeTest(baseUrl);
+    await runCallControlAckTest(baseUrl);
+    await runSocketTokenHandoverTest(baseUrl);
   } finally {
     await stopServer(server);
     await prisma.$disconnect();